@@ -23,6 +23,16 @@ public @interface RateLimit {
      */
     int timeWindow() default 60;
     
+    /**
+     * 限流算法
+     */
+    Algorithm algorithm() default Algorithm.TOKEN_BUCKET;
+    
+    /**
+     * 允许的突发请求数，仅GCRA使用，0表示与maxRequests相同
+     */
+    int burst() default 0;
+    
     /**
      * 限流提示信息
      */
@@ -33,4 +43,11 @@ public @interface RateLimit {
         USER,      // 基于用户限流
         GLOBAL     // 全局限流
     }
+    
+    enum Algorithm {
+        TOKEN_BUCKET,    // 令牌桶，节点本地租借令牌，Redis访问最少
+        FIXED_WINDOW,    // 固定窗口计数，窗口交界处最多可能通过两倍请求
+        SLIDING_WINDOW,  // 滑动窗口计数，按上一窗口的重叠比例加权估算
+        GCRA             // 通用信元速率算法，按固定间隔均匀放行，突发由burst控制
+    }
 }
\ No newline at end of file
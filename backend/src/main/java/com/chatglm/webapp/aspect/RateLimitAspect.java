@@ -2,20 +2,23 @@ package com.chatglm.webapp.aspect;
 
 import com.chatglm.webapp.annotation.RateLimit;
 import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.util.ClientIdentity;
+import com.chatglm.webapp.util.LeasedRateLimiter;
 import com.chatglm.webapp.util.RateLimiter;
+import com.chatglm.webapp.util.RetryAfterHeader;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
-import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
 
 @Aspect
 @Component
@@ -23,6 +26,9 @@ public class RateLimitAspect {
 
     @Autowired
     private RateLimiter rateLimiter;
+    
+    @Autowired
+    private LeasedRateLimiter leasedRateLimiter;
 
     @Around("@annotation(com.chatglm.webapp.annotation.RateLimit)")
     public Object around(ProceedingJoinPoint joinPoint) throws Throwable {
@@ -30,48 +36,68 @@ public class RateLimitAspect {
         Method method = signature.getMethod();
         RateLimit rateLimit = method.getAnnotation(RateLimit.class);
         
-        String key = generateKey(rateLimit.keyType());
+        // 不同接口各自计数，同一接口按限流维度区分
+        String key = signature.getDeclaringType().getSimpleName() + "." + method.getName()
+                + ":" + generateKey(rateLimit.keyType());
         
-        if (!rateLimiter.allowRequestSimple(key, rateLimit.maxRequests(), rateLimit.timeWindow())) {
+        RateLimiter.Result result = acquire(rateLimit, key);
+        setHeaders(rateLimit, result);
+        if (!result.isAllowed()) {
             throw new ChatGLMException(429, rateLimit.message());
         }
         
         return joinPoint.proceed();
     }
     
-    private String generateKey(RateLimit.KeyType keyType) {
-        switch (keyType) {
-            case IP:
-                return getClientIP();
-            case USER:
-                return getCurrentUsername();
-            case GLOBAL:
-                return "global";
+    private RateLimiter.Result acquire(RateLimit rateLimit, String key) {
+        int limit = rateLimit.maxRequests();
+        int window = rateLimit.timeWindow();
+        switch (rateLimit.algorithm()) {
+            case FIXED_WINDOW:
+                return rateLimiter.fixedWindow(key, limit, window);
+            case SLIDING_WINDOW:
+                return rateLimiter.slidingWindow(key, limit, window);
+            case GCRA:
+                return rateLimiter.gcra(key, limit, window, rateLimit.burst() > 0 ? rateLimit.burst() : limit);
+            case TOKEN_BUCKET:
             default:
-                return getClientIP();
+                // timeWindow秒内最多maxRequests次，桶容量即突发上限，令牌按平均速率补充
+                return leasedRateLimiter.tryAcquire(key, limit, (double) limit / window);
         }
     }
     
-    private String getClientIP() {
-        HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getRequest();
-        String ip = request.getHeader("X-Forwarded-For");
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("Proxy-Client-IP");
+    /**
+     * 按IETF RateLimit头部草案返回额度信息，被拒绝时附带Retry-After
+     */
+    private void setHeaders(RateLimit rateLimit, RateLimiter.Result result) {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return;
         }
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("WL-Proxy-Client-IP");
+        HttpServletResponse response = attributes.getResponse();
+        if (response == null) {
+            return;
         }
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getRemoteAddr();
+        response.setHeader("RateLimit-Policy", rateLimit.maxRequests() + ";w=" + rateLimit.timeWindow());
+        response.setHeader("RateLimit-Limit", String.valueOf(rateLimit.maxRequests()));
+        response.setHeader("RateLimit-Remaining", String.valueOf(Math.max(0, result.getRemaining())));
+        response.setHeader("RateLimit-Reset",
+                String.valueOf(TimeUnit.MILLISECONDS.toSeconds(Math.max(0, result.getResetMillis()) + 999)));
+        if (!result.isAllowed() && result.getRetryAfterMillis() >= 0) {
+            response.setHeader(HttpHeaders.RETRY_AFTER,
+                    String.valueOf(RetryAfterHeader.toSeconds(result.getRetryAfterMillis())));
         }
-        return ip;
     }
     
-    private String getCurrentUsername() {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        if (authentication != null && authentication.isAuthenticated()) {
-            return authentication.getName();
+    private String generateKey(RateLimit.KeyType keyType) {
+        switch (keyType) {
+            case IP:
+                return ClientIdentity.clientIp();
+            case USER:
+                return ClientIdentity.currentUsername();
+            case GLOBAL:
+                return "global";
+            default:
+                return ClientIdentity.clientIp();
         }
-        return "anonymous";
     }
-}
\ No newline at end of file
+}
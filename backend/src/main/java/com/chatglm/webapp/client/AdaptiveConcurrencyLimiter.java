@@ -0,0 +1,228 @@
+package com.chatglm.webapp.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * 自适应并发限制，按TCP Vegas的思路根据响应时间调整同时进行的上游调用数
+ * 以观察到的最小响应时间作为无排队时的基准，用 limit * (1 - 基准/当前) 估算上游的排队数：
+ * 排队少于alpha时增大限制，多于beta时减小限制，调用失败（超时、429、5xx）时按比例减小。
+ * 基准每隔一定样本数重新测量，避免上游变慢后一直按过时的基准判断。
+ *
+ * 达到限制的调用最多排队queueTimeout，排队数超过maxQueue或等待超时的调用被拒绝。
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double RTT_SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long queueTimeoutNanos;
+    private final int probeInterval;
+    private final LongSupplier nanoClock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long rttNoLoadNanos;
+    private double smoothedRttNanos;
+    private long samples;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue,
+                                      long queueTimeoutMs, int probeInterval) {
+        this(initialLimit, minLimit, maxLimit, maxQueue, queueTimeoutMs, probeInterval, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue,
+                               long queueTimeoutMs, int probeInterval, LongSupplier nanoClock) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Require 1 <= minLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.maxQueue = maxQueue;
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs);
+        this.probeInterval = Math.max(1, probeInterval);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * 获取一个调用许可，达到限制时排队等待
+     * @return 许可，排队已满或等待超时时返回null
+     */
+    public Permit tryAcquire() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                return grant();
+            }
+            if (queued >= maxQueue || queueTimeoutNanos <= 0) {
+                return null;
+            }
+            queued++;
+            try {
+                long remaining = queueTimeoutNanos;
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+                return grant();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Permit grant() {
+        inFlight++;
+        return new Permit(nanoClock.getAsLong(), inFlight);
+    }
+
+    private void release(long rttNanos, int inFlightAtStart, Outcome outcome) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (outcome == Outcome.DROPPED) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            } else if (outcome == Outcome.SUCCESS && rttNanos > 0) {
+                onSample(rttNanos, inFlightAtStart);
+            }
+            if (inFlight < (int) limit) {
+                available.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSample(long rttNanos, int inFlightAtStart) {
+        smoothedRttNanos = smoothedRttNanos == 0
+                ? rttNanos : smoothedRttNanos + RTT_SMOOTHING * (rttNanos - smoothedRttNanos);
+        if (++samples % probeInterval == 0 || rttNoLoadNanos == 0 || rttNanos < rttNoLoadNanos) {
+            rttNoLoadNanos = rttNanos;
+        }
+        // 并发数远低于限制时，响应时间不能说明限制是否合适
+        if (inFlightAtStart * 2 < limit) {
+            return;
+        }
+        double log = Math.max(1, Math.log10(limit));
+        double queueSize = Math.ceil(limit * (1 - (double) rttNoLoadNanos / rttNanos));
+        if (queueSize <= 3 * log) {
+            limit = Math.min(maxLimit, limit + log);
+        } else if (queueSize > 6 * log) {
+            limit = Math.max(minLimit, limit - log);
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 建议被拒绝的调用方等待的时间，取平滑后的响应时间，至少1秒
+     */
+    public long getRetryAfterMillis() {
+        lock.lock();
+        try {
+            return Math.max(1000, TimeUnit.NANOSECONDS.toMillis((long) smoothedRttNanos));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private enum Outcome {
+        SUCCESS, DROPPED, IGNORED
+    }
+
+    /**
+     * 一次上游调用的许可，只释放一次
+     */
+    public class Permit {
+
+        private final long startNanos;
+        private final int inFlightAtStart;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile long rttNanos;
+
+        private Permit(long startNanos, int inFlightAtStart) {
+            this.startNanos = startNanos;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /**
+         * 记录响应时间，流式调用在收到第一段内容时调用，之后的释放使用该时间作为样本
+         */
+        public void recordLatency() {
+            if (rttNanos == 0) {
+                rttNanos = Math.max(1, nanoClock.getAsLong() - startNanos);
+            }
+        }
+
+        /**
+         * 调用成功，响应时间作为调整限制的样本
+         */
+        public void onSuccess() {
+            if (released.compareAndSet(false, true)) {
+                long rtt = rttNanos != 0 ? rttNanos : nanoClock.getAsLong() - startNanos;
+                release(rtt, inFlightAtStart, Outcome.SUCCESS);
+            }
+        }
+
+        /**
+         * 上游过载（超时、429、5xx），减小限制
+         */
+        public void onDropped() {
+            if (released.compareAndSet(false, true)) {
+                release(0, inFlightAtStart, Outcome.DROPPED);
+            }
+        }
+
+        /**
+         * 与上游负载无关的结束（取消、请求参数错误），只释放许可
+         */
+        public void onIgnore() {
+            if (released.compareAndSet(false, true)) {
+                release(0, inFlightAtStart, Outcome.IGNORED);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.chatglm.webapp.client;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 上游调用取消令牌
+ * 客户端在建立连接时把HttpURLConnection绑定到令牌上，取消时直接断开连接，
+ * 阻塞中的读操作立即失败，厂商侧也会因连接关闭而停止生成。
+ */
+public class CancellationToken {
+
+    private volatile boolean cancelled;
+    private volatile HttpURLConnection connection;
+
+    /**
+     * 绑定当前的上游连接，如果已取消则立即断开
+     */
+    public void bind(HttpURLConnection connection) {
+        this.connection = connection;
+        if (cancelled) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * 取消调用并断开上游连接
+     */
+    public void cancel() {
+        cancelled = true;
+        HttpURLConnection current = connection;
+        if (current != null) {
+            current.disconnect();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 已取消时抛出CancellationException
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("请求已取消");
+        }
+    }
+}
@@ -30,14 +30,21 @@ public class ChatGLMClient {
     
     private static final Logger logger = LoggerFactory.getLogger(ChatGLMClient.class);
     
+    private static final String PROVIDER = "chatglm";
+    
     @Autowired
     private ChatGLMConfig config;
     
     @Autowired
     private ObjectMapper objectMapper;
     
+    @Autowired
+    private UpstreamConcurrencyLimits concurrencyLimits;
+    
     // 普通同步调用 - 真实API调用
     public ChatGLMModel.ChatResponse chat(List<ChatGLMModel.Message> messages) {
+        // 并发达到限制时排队，排队已满或超时抛出503
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimits.acquire(PROVIDER);
         try {
             logger.info("Sending chat request to ChatGLM API: {}", config.getBaseUrl());
             
@@ -66,17 +73,24 @@ public class ChatGLMClient {
             
             if (responseEntity.getStatusCode().is2xxSuccessful() && responseEntity.getBody() != null) {
                 logger.info("ChatGLM API request successful");
+                permit.onSuccess();
                 return responseEntity.getBody();
             } else {
                 logger.error("API request failed with status: {}", responseEntity.getStatusCode());
+                permit.onDropped();
                 logger.warn("Falling back to simulation mode due to API error");
                 return useSimulationModeForChat(messages);
             }
             
         } catch (Exception e) {
             logger.error("Error in ChatGLM API request: {}", e.getMessage(), e);
+            if (UpstreamConcurrencyLimits.isOverload(e)) {
+                permit.onDropped();
+            }
             logger.warn("Falling back to simulation mode due to API error");
             return useSimulationModeForChat(messages);
+        } finally {
+            permit.onIgnore();
         }
     }
     
@@ -94,6 +108,9 @@ public class ChatGLMClient {
             public void onError(Throwable error) {}
         };
         
+        // 许可在调用线程获取，并发达到限制时直接抛出503，流结束后释放
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimits.acquire(PROVIDER);
+        
         // 首先尝试真实API调用
         return CompletableFuture.runAsync(() -> {
             HttpURLConnection connection = null;
@@ -145,6 +162,9 @@ public class ChatGLMClient {
                         }
                         errorMessage = errorResponse.toString();
                     }
+                    if (UpstreamConcurrencyLimits.isOverloadStatus(responseCode)) {
+                        permit.onDropped();
+                    }
                     throw new IOException("API request failed with status: " + responseCode + " - " + errorMessage);
                 }
                 
@@ -166,6 +186,8 @@ public class ChatGLMClient {
                             if (chunk != null && chunk.getChoices() != null && !chunk.getChoices().isEmpty()) {
                                 ChatGLMModel.ChunkChoice choice = chunk.getChoices().get(0);
                                 if (choice != null && choice.getDelta() != null && choice.getDelta().getContent() != null) {
+                                    // 以首段内容的到达时间作为响应时间样本
+                                    permit.recordLatency();
                                     // 发送增量内容
                                     safeHandler.onMessage(choice.getDelta().getContent());
                                 }
@@ -176,15 +198,20 @@ public class ChatGLMClient {
                     }
                 }
                 
+                permit.onSuccess();
                 safeHandler.onComplete();
                 logger.info("Stream chat completed");
                            
             } catch (Exception e) {
                 logger.error("Error in stream chat: {}", e.getMessage(), e);
+                if (UpstreamConcurrencyLimits.isOverload(e)) {
+                    permit.onDropped();
+                }
                 logger.warn("Falling back to simulation mode due to API error");
                 // 如果API调用失败，使用模拟模式
                 useSimulationMode(messages, safeHandler);
             } finally {
+                permit.onIgnore();
                 try {
                     if (reader != null) reader.close();
                     if (outputStream != null) outputStream.close();
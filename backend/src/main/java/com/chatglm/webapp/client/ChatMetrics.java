@@ -0,0 +1,271 @@
+package com.chatglm.webapp.client;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * 聊天请求的端到端延迟指标
+ * 每个请求创建一个Recorder，在各阶段打点，请求结束时按服务商、模型、入口和结果一起记录：
+ * <ul>
+ *   <li>chatglm.chat.queue.wait：从收到请求（异步任务从入队）到取得上游许可</li>
+ *   <li>chatglm.chat.upstream.connect：取得许可到与上游建立连接，只有流式请求记录</li>
+ *   <li>chatglm.chat.ttft：从收到请求到第一段内容返回，非流式请求即完整响应返回</li>
+ *   <li>chatglm.chat.inter.token：流式响应相邻两段内容的间隔</li>
+ *   <li>chatglm.chat.generation：取得许可到响应结束</li>
+ *   <li>chatglm.chat.output.tokens.per.second：输出token数除以生成耗时，流式请求从第一段内容开始计算</li>
+ * </ul>
+ * 计时器按SLO分桶导出，Prometheus中用histogram_quantile计算p99。
+ * 上游失败后使用模拟回复的请求结果记为fallback，不计入正常请求的延迟分布。
+ */
+@Component
+public class ChatMetrics {
+
+    public static final String ENDPOINT_CHAT = "chat";
+    public static final String ENDPOINT_STREAM = "stream";
+    public static final String ENDPOINT_ASYNC = "async";
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_FALLBACK = "fallback";
+    public static final String OUTCOME_ERROR = "error";
+    public static final String OUTCOME_REJECTED = "rejected";
+    public static final String OUTCOME_CANCELLED = "cancelled";
+
+    private static final Duration[] QUEUE_WAIT_SLO = millis(5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000);
+    private static final Duration[] CONNECT_SLO = millis(10, 25, 50, 100, 250, 500, 1000, 2500, 5000);
+    private static final Duration[] TTFT_SLO = millis(100, 250, 500, 750, 1000, 1500, 2000, 3000, 5000, 10000, 20000);
+    private static final Duration[] INTER_TOKEN_SLO = millis(5, 10, 20, 35, 50, 75, 100, 150, 250, 500, 1000);
+    private static final Duration[] GENERATION_SLO = millis(500, 1000, 2000, 5000, 10000, 20000, 30000, 60000, 120000);
+    private static final double[] TOKENS_PER_SECOND_SLO = {1, 5, 10, 20, 30, 50, 75, 100, 150, 200};
+
+    // 单个流式响应最多缓存的间隔数，足够覆盖max_tokens，超出部分不记录
+    private static final int MAX_BUFFERED_GAPS = 8192;
+
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoClock;
+    private final Map<Tags, Meters> meters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ChatMetrics(MeterRegistry meterRegistry) {
+        this(meterRegistry, System::nanoTime);
+    }
+
+    ChatMetrics(MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        this.meterRegistry = meterRegistry;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * 开始记录一个请求
+     * @param queuedNanos 进入本服务之前已经排队的时间，如异步任务在队列中的等待时间
+     */
+    public Recorder start(String provider, String model, String endpoint, long queuedNanos) {
+        return new Recorder(this, provider, model, endpoint, nanoClock.getAsLong() - Math.max(0, queuedNanos));
+    }
+
+    public Recorder start(String provider, String model, String endpoint) {
+        return start(provider, model, endpoint, 0);
+    }
+
+    /**
+     * 限流和并发已满（429、503）记为rejected，其他为error
+     */
+    public static String outcomeOf(ChatGLMException e) {
+        return e.getCode() == 429 || e.getCode() == 503 ? OUTCOME_REJECTED : OUTCOME_ERROR;
+    }
+
+    private Meters meters(String provider, String model, String endpoint, String outcome) {
+        Tags tags = Tags.of("provider", provider, "model", model != null ? model : "unknown",
+                "endpoint", endpoint, "outcome", outcome);
+        return meters.computeIfAbsent(tags, this::register);
+    }
+
+    private Meters register(Tags tags) {
+        return new Meters(
+                timer("chatglm.chat.queue.wait", "Time from request arrival to acquiring an upstream permit",
+                        tags, QUEUE_WAIT_SLO),
+                timer("chatglm.chat.upstream.connect", "Time to open the upstream connection",
+                        tags, CONNECT_SLO),
+                timer("chatglm.chat.ttft", "Time from request arrival to the first response content",
+                        tags, TTFT_SLO),
+                timer("chatglm.chat.inter.token", "Gap between consecutive streamed response chunks",
+                        tags, INTER_TOKEN_SLO),
+                timer("chatglm.chat.generation", "Time from acquiring an upstream permit to the end of the response",
+                        tags, GENERATION_SLO),
+                DistributionSummary.builder("chatglm.chat.output.tokens.per.second")
+                        .description("Output tokens per second of generation time")
+                        .tags(tags)
+                        .serviceLevelObjectives(TOKENS_PER_SECOND_SLO)
+                        .register(meterRegistry));
+    }
+
+    private Timer timer(String name, String description, Tags tags, Duration[] slo) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .serviceLevelObjectives(slo)
+                .register(meterRegistry);
+    }
+
+    private static Duration[] millis(long... values) {
+        return Arrays.stream(values).mapToObj(Duration::ofMillis).toArray(Duration[]::new);
+    }
+
+    private static final class Meters {
+
+        final Timer queueWait;
+        final Timer connect;
+        final Timer ttft;
+        final Timer interToken;
+        final Timer generation;
+        final DistributionSummary tokensPerSecond;
+
+        Meters(Timer queueWait, Timer connect, Timer ttft, Timer interToken, Timer generation,
+               DistributionSummary tokensPerSecond) {
+            this.queueWait = queueWait;
+            this.connect = connect;
+            this.ttft = ttft;
+            this.interToken = interToken;
+            this.generation = generation;
+            this.tokensPerSecond = tokensPerSecond;
+        }
+    }
+
+    /**
+     * 单个请求的打点记录，不可跨请求复用
+     * 同一时刻只由一个线程调用：同步请求在请求线程，流式请求取得许可后都在读取上游响应的线程。
+     * finish只生效一次。
+     */
+    public static final class Recorder {
+
+        /**
+         * 不记录任何指标，供不需要统计的调用使用
+         */
+        public static final Recorder NOOP = new Recorder(null, null, null, null, 0);
+
+        private final ChatMetrics metrics;
+        private final String provider;
+        private final String model;
+        private final String endpoint;
+        private final long startNanos;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private long upstreamNanos = -1;
+        private long connectedNanos = -1;
+        private long firstTokenNanos = -1;
+        private long lastTokenNanos = -1;
+        private long[] gaps = new long[16];
+        private int gapCount;
+        // 在读取上游响应的线程设置，在结束回调或调用线程读取
+        private volatile boolean fallback;
+
+        private Recorder(ChatMetrics metrics, String provider, String model, String endpoint, long startNanos) {
+            this.metrics = metrics;
+            this.provider = provider;
+            this.model = model;
+            this.endpoint = endpoint;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * 已取得上游许可，开始调用上游
+         */
+        public void upstreamStarted() {
+            if (metrics != null) {
+                upstreamNanos = metrics.nanoClock.getAsLong();
+            }
+        }
+
+        /**
+         * 已与上游建立连接
+         */
+        public void connected() {
+            if (metrics != null) {
+                connectedNanos = metrics.nanoClock.getAsLong();
+            }
+        }
+
+        /**
+         * 收到一段响应内容
+         */
+        public void token() {
+            if (metrics == null) {
+                return;
+            }
+            long now = metrics.nanoClock.getAsLong();
+            if (firstTokenNanos < 0) {
+                firstTokenNanos = now;
+            } else if (gapCount < MAX_BUFFERED_GAPS) {
+                if (gapCount == gaps.length) {
+                    gaps = Arrays.copyOf(gaps, gaps.length * 2);
+                }
+                gaps[gapCount++] = now - lastTokenNanos;
+            }
+            lastTokenNanos = now;
+        }
+
+        /**
+         * 上游调用失败，改用模拟回复
+         */
+        public void fallback() {
+            if (metrics != null) {
+                fallback = true;
+            }
+        }
+
+        /**
+         * 是否改用了模拟回复；模拟回复没有调用上游，不应计入用量和token额度
+         */
+        public boolean isFallback() {
+            return fallback;
+        }
+
+        /**
+         * 请求结束，记录全部指标
+         * @param outcome 结果，成功但使用了模拟回复时记为fallback
+         * @param outputTokens 输出token数，未知时为0
+         */
+        public void finish(String outcome, int outputTokens) {
+            if (metrics == null || !finished.compareAndSet(false, true)) {
+                return;
+            }
+            long now = metrics.nanoClock.getAsLong();
+            if (fallback && OUTCOME_SUCCESS.equals(outcome)) {
+                outcome = OUTCOME_FALLBACK;
+            }
+            Meters meters = metrics.meters(provider, model, endpoint, outcome);
+
+            // 没有取得许可的请求，排队时间一直算到被拒绝或结束
+            meters.queueWait.record((upstreamNanos >= 0 ? upstreamNanos : now) - startNanos, TimeUnit.NANOSECONDS);
+            if (upstreamNanos >= 0 && connectedNanos >= 0) {
+                meters.connect.record(connectedNanos - upstreamNanos, TimeUnit.NANOSECONDS);
+            }
+            if (firstTokenNanos >= 0) {
+                meters.ttft.record(firstTokenNanos - startNanos, TimeUnit.NANOSECONDS);
+            }
+            for (int i = 0; i < gapCount; i++) {
+                meters.interToken.record(gaps[i], TimeUnit.NANOSECONDS);
+            }
+            if (upstreamNanos >= 0) {
+                meters.generation.record(now - upstreamNanos, TimeUnit.NANOSECONDS);
+                // 流式响应按第一段内容之后的输出速度计算，非流式按整个调用计算
+                long generationNanos = gapCount > 0 ? now - firstTokenNanos : now - upstreamNanos;
+                if (outputTokens > 0 && generationNanos > 0) {
+                    meters.tokensPerSecond.record(outputTokens * (double) TimeUnit.SECONDS.toNanos(1) / generationNanos);
+                }
+            }
+        }
+    }
+}
@@ -3,9 +3,14 @@ package com.chatglm.webapp.client;
 import com.chatglm.webapp.config.QwenConfig;
 import com.chatglm.webapp.model.ChatGLMModel;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.transport.Kind;
+import io.micrometer.observation.transport.SenderContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -25,6 +30,7 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 
 @Component
@@ -32,15 +38,42 @@ public class QwenClientImpl {
 
     private static final Logger logger = LoggerFactory.getLogger(QwenClientImpl.class);
 
+    private static final String PROVIDER = "qwen";
+
     @Autowired
     private QwenConfig config;
 
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private UpstreamConcurrencyLimits concurrencyLimits;
+
+    @Autowired
+    private ObservationRegistry observationRegistry;
+
+    @Value("${chatglm.monitoring.tracing.enabled:false}")
+    private boolean tracingEnabled;
+
     // 普通同步调用 - 真实API调用
     public ChatGLMModel.ChatResponse chat(List<ChatGLMModel.Message> messages) {
+        return chat(messages, new CancellationToken());
+    }
+
+    // 可取消的同步调用，取消时断开上游连接并抛出CancellationException
+    // 并发达到限制时排队，排队已满或超时抛出503
+    public ChatGLMModel.ChatResponse chat(List<ChatGLMModel.Message> messages, CancellationToken cancellationToken) {
+        return chat(messages, cancellationToken, ChatMetrics.Recorder.NOOP);
+    }
+
+    // 同上，在recorder中记录取得许可和改用模拟回复
+    public ChatGLMModel.ChatResponse chat(List<ChatGLMModel.Message> messages, CancellationToken cancellationToken,
+                                          ChatMetrics.Recorder recorder) {
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimits.acquire(PROVIDER);
+        recorder.upstreamStarted();
+        Observation observation = startUpstreamObservation(ChatMetrics.ENDPOINT_CHAT);
         try {
+            cancellationToken.throwIfCancelled();
             logger.info("Sending chat request to Qwen API: {}", config.getBaseUrl());
 
             // 创建请求体 - 适配通义千问API格式
@@ -60,7 +93,7 @@ public class QwenClientImpl {
             request.put("parameters", parameters);
 
             // 创建RestTemplate并设置超时
-            RestTemplate restTemplate = new RestTemplate(createRequestFactory());
+            RestTemplate restTemplate = new RestTemplate(createRequestFactory(cancellationToken));
 
             // 设置请求头 - 通义千问使用不同的认证方式
             HttpHeaders headers = new HttpHeaders();
@@ -77,23 +110,51 @@ public class QwenClientImpl {
 
             if (responseEntity.getStatusCode().is2xxSuccessful() && responseEntity.getBody() != null) {
                 logger.info("Qwen API request successful");
+                permit.onSuccess();
                 // 转换响应格式为ChatGLM格式
                 return convertQwenResponseToChatGLM(responseEntity.getBody());
             } else {
                 logger.error("API request failed with status: {}", responseEntity.getStatusCode());
+                observation.error(new IOException("API request failed with status: " + responseEntity.getStatusCode()));
+                permit.onDropped();
                 logger.warn("Falling back to simulation mode due to API error");
+                recorder.fallback();
                 return useSimulationModeForChat(messages);
             }
 
         } catch (Exception e) {
+            if (cancellationToken.isCancelled()) {
+                logger.info("Qwen API request cancelled");
+                throw new CancellationException("请求已取消");
+            }
             logger.error("Error in Qwen API request: {}", e.getMessage(), e);
+            observation.error(e);
+            if (UpstreamConcurrencyLimits.isOverload(e)) {
+                permit.onDropped();
+            }
             logger.warn("Falling back to simulation mode due to API error");
+            recorder.fallback();
             return useSimulationModeForChat(messages);
+        } finally {
+            permit.onIgnore();
+            observation.stop();
         }
     }
 
     // 流式调用，使用HTTP长连接实现
     public CompletableFuture<Void> streamChat(List<ChatGLMModel.Message> messages, StreamResponseHandler handler) {
+        return streamChat(messages, handler, ChatMetrics.Recorder.NOOP);
+    }
+
+    // 同上，在recorder中记录取得许可、建立连接和改用模拟回复
+    public CompletableFuture<Void> streamChat(List<ChatGLMModel.Message> messages, StreamResponseHandler handler,
+                                              ChatMetrics.Recorder recorder) {
+        return streamChat(messages, handler, recorder, new CancellationToken());
+    }
+
+    // 同上，取消时断开上游连接，handler收到CancellationException，不改用模拟回复
+    public CompletableFuture<Void> streamChat(List<ChatGLMModel.Message> messages, StreamResponseHandler handler,
+                                              ChatMetrics.Recorder recorder, CancellationToken cancellationToken) {
         logger.info("Starting stream chat with Qwen API");
 
         // 确保handler不为null
@@ -106,6 +167,12 @@ public class QwenClientImpl {
             public void onError(Throwable error) {}
         };
 
+        // 许可在调用线程获取，并发达到限制时直接抛出503，流结束后释放
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimits.acquire(PROVIDER);
+        recorder.upstreamStarted();
+        // 在调用线程开始，以当前请求为父span，在读取响应的线程结束
+        Observation observation = startUpstreamObservation(ChatMetrics.ENDPOINT_STREAM);
+
         // 首先尝试真实API调用
         return CompletableFuture.runAsync(() -> {
             HttpURLConnection connection = null;
@@ -133,6 +200,7 @@ public class QwenClientImpl {
                 // 创建URL连接
                 URL url = new URL(config.getBaseUrl());
                 connection = (HttpURLConnection) url.openConnection();
+                cancellationToken.bind(connection);
                 connection.setRequestMethod("POST");
                 connection.setRequestProperty("Content-Type", "application/json");
                 connection.setRequestProperty("Authorization", "Bearer " + config.getApiKey());
@@ -145,6 +213,10 @@ public class QwenClientImpl {
                 connection.setUseCaches(false);
                 connection.setDefaultUseCaches(false);
 
+                // 先单独建立连接，记录连接耗时
+                connection.connect();
+                recorder.connected();
+
                 // 发送请求体
                 outputStream = connection.getOutputStream();
                 String requestBody = objectMapper.writeValueAsString(request);
@@ -165,6 +237,9 @@ public class QwenClientImpl {
                         }
                         errorMessage = errorResponse.toString();
                     }
+                    if (UpstreamConcurrencyLimits.isOverloadStatus(responseCode)) {
+                        permit.onDropped();
+                    }
                     throw new IOException("API request failed with status: " + responseCode + " - " + errorMessage);
                 }
 
@@ -186,25 +261,46 @@ public class QwenClientImpl {
                             if (chunk != null && chunk.containsKey("output")) {
                                 Map<String, Object> output = (Map<String, Object>) chunk.get("output");
                                 if (output.containsKey("text")) {
+                                    // 以首段内容的到达时间作为响应时间样本
+                                    permit.recordLatency();
                                     // 发送增量内容
                                     safeHandler.onMessage(output.get("text").toString());
                                 }
                             }
+                            if (chunk != null && chunk.containsKey("usage")) {
+                                // 流式响应的usage是累计值，以最后一次为准
+                                safeHandler.onUsage(toUsage((Map<String, Object>) chunk.get("usage")));
+                            }
                         }
                     } catch (Exception e) {
                         logger.error("Error processing stream line: {}", e.getMessage(), e);
                     }
                 }
 
+                // 断开连接后读取可能正常结束，不能当作完整的回复
+                cancellationToken.throwIfCancelled();
+                permit.onSuccess();
                 safeHandler.onComplete();
                 logger.info("Stream chat completed");
 
             } catch (Exception e) {
+                if (cancellationToken.isCancelled()) {
+                    logger.info("Qwen stream cancelled");
+                    safeHandler.onError(new CancellationException("请求已取消"));
+                    return;
+                }
                 logger.error("Error in stream chat: {}", e.getMessage(), e);
+                observation.error(e);
+                if (UpstreamConcurrencyLimits.isOverload(e)) {
+                    permit.onDropped();
+                }
                 logger.warn("Falling back to simulation mode due to API error");
+                recorder.fallback();
                 // 如果API调用失败，使用模拟模式
                 useSimulationMode(messages, safeHandler);
             } finally {
+                permit.onIgnore();
+                observation.stop();
                 try {
                     if (reader != null) reader.close();
                     if (outputStream != null) outputStream.close();
@@ -216,9 +312,38 @@ public class QwenClientImpl {
         });
     }
 
-    // 创建请求工厂，设置超时时间
-    private ClientHttpRequestFactory createRequestFactory() {
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+    public String getProvider() {
+        return PROVIDER;
+    }
+
+    // 上游调用的Observation，开启追踪时作为当前链路的子span
+    // 不向上游传播traceparent，链路ID不发送给第三方
+    private Observation startUpstreamObservation(String endpoint) {
+        if (!tracingEnabled) {
+            return Observation.NOOP;
+        }
+        return Observation.createNotStarted("chatglm.upstream.call",
+                        () -> new SenderContext<>((carrier, key, value) -> { }, Kind.CLIENT), observationRegistry)
+                .contextualName(PROVIDER + " " + endpoint)
+                .lowCardinalityKeyValue("provider", PROVIDER)
+                .lowCardinalityKeyValue("model", String.valueOf(config.getModelName()))
+                .lowCardinalityKeyValue("endpoint", endpoint)
+                .start();
+    }
+
+    public String getModelName() {
+        return config.getModelName();
+    }
+
+    // 创建请求工厂，设置超时时间，并把连接绑定到取消令牌
+    private ClientHttpRequestFactory createRequestFactory(CancellationToken cancellationToken) {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory() {
+            @Override
+            protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+                super.prepareConnection(connection, httpMethod);
+                cancellationToken.bind(connection);
+            }
+        };
         factory.setConnectTimeout(config.getTimeout());
         factory.setReadTimeout(config.getTimeout());
         return factory;
@@ -261,22 +386,7 @@ public class QwenClientImpl {
             }
 
             if (qwenResponse.containsKey("usage")) {
-                Map<String, Object> usage = (Map<String, Object>) qwenResponse.get("usage");
-                ChatGLMModel.Usage chatUsage = new ChatGLMModel.Usage();
-
-                if (usage.containsKey("input_tokens")) {
-                    chatUsage.setPromptTokens(((Number) usage.get("input_tokens")).intValue());
-                }
-
-                if (usage.containsKey("output_tokens")) {
-                    chatUsage.setCompletionTokens(((Number) usage.get("output_tokens")).intValue());
-                }
-
-                if (usage.containsKey("total_tokens")) {
-                    chatUsage.setTotalTokens(((Number) usage.get("total_tokens")).intValue());
-                }
-
-                chatResponse.setUsage(chatUsage);
+                chatResponse.setUsage(toUsage((Map<String, Object>) qwenResponse.get("usage")));
             }
         } catch (Exception e) {
             logger.error("Error converting Qwen response: {}", e.getMessage(), e);
@@ -285,6 +395,25 @@ public class QwenClientImpl {
         return chatResponse;
     }
 
+    // 转换通义千问API的usage字段
+    private ChatGLMModel.Usage toUsage(Map<String, Object> usage) {
+        ChatGLMModel.Usage chatUsage = new ChatGLMModel.Usage();
+
+        if (usage.containsKey("input_tokens")) {
+            chatUsage.setPromptTokens(((Number) usage.get("input_tokens")).intValue());
+        }
+
+        if (usage.containsKey("output_tokens")) {
+            chatUsage.setCompletionTokens(((Number) usage.get("output_tokens")).intValue());
+        }
+
+        if (usage.containsKey("total_tokens")) {
+            chatUsage.setTotalTokens(((Number) usage.get("total_tokens")).intValue());
+        }
+
+        return chatUsage;
+    }
+
     // 模拟模式实现 - 流式聊天
     private CompletableFuture<Void> useSimulationMode(List<ChatGLMModel.Message> messages, StreamResponseHandler handler) {
         return CompletableFuture.runAsync(() -> {
@@ -366,6 +495,8 @@ public class QwenClientImpl {
     // 流式响应处理接口
     public interface StreamResponseHandler {
         void onMessage(String content);
+        // API返回token用量时回调，模拟模式下不会调用
+        default void onUsage(ChatGLMModel.Usage usage) {}
         void onComplete();
         void onError(Throwable error);
     }
@@ -0,0 +1,115 @@
+package com.chatglm.webapp.client;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.util.RetryAfterHeader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按服务商划分的上游并发限制
+ * 每个服务商一个AdaptiveConcurrencyLimiter，参数取 chatglm.upstream.concurrency.{服务商}.* ，
+ * 未配置的项使用 chatglm.upstream.concurrency.* 的默认值。
+ */
+@Component
+public class UpstreamConcurrencyLimits {
+
+    private static final String PREFIX = "chatglm.upstream.concurrency.";
+
+    /**
+     * 关闭限制时使用的上限，只统计并发数
+     */
+    private static final int UNLIMITED = 100_000;
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Map<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rejected = new ConcurrentHashMap<>();
+
+    public UpstreamConcurrencyLimits(Environment environment,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${chatglm.upstream.concurrency.enabled:true}") boolean enabled) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+    }
+
+    /**
+     * 获取调用上游的许可，调用结束后必须通过许可上报结果
+     * @param provider 服务商名称
+     * @throws ChatGLMException 503 并发已达限制且排队已满或等待超时
+     */
+    public AdaptiveConcurrencyLimiter.Permit acquire(String provider) {
+        AdaptiveConcurrencyLimiter limiter = limiters.computeIfAbsent(provider, this::create);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            rejected.get(provider).increment();
+            long seconds = RetryAfterHeader.set(limiter.getRetryAfterMillis());
+            throw new ChatGLMException(503, "服务繁忙，请" + seconds + "秒后再试");
+        }
+        return permit;
+    }
+
+    public AdaptiveConcurrencyLimiter getLimiter(String provider) {
+        return limiters.get(provider);
+    }
+
+    /**
+     * 超时、连接失败、429和5xx说明上游过载，应减小并发限制；其他错误与负载无关
+     */
+    public static boolean isOverload(Exception e) {
+        if (e instanceof HttpStatusCodeException statusException) {
+            return isOverloadStatus(statusException.getStatusCode().value());
+        }
+        return e instanceof ResourceAccessException || e instanceof SocketTimeoutException;
+    }
+
+    public static boolean isOverloadStatus(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    private AdaptiveConcurrencyLimiter create(String provider) {
+        AdaptiveConcurrencyLimiter limiter = enabled
+                ? new AdaptiveConcurrencyLimiter(
+                        property(provider, "initial-limit", 10),
+                        property(provider, "min-limit", 2),
+                        property(provider, "max-limit", 200),
+                        property(provider, "max-queue", 50),
+                        property(provider, "queue-timeout-ms", 200),
+                        property(provider, "probe-interval", 500))
+                : new AdaptiveConcurrencyLimiter(UNLIMITED, 1, UNLIMITED, 0, 0, 500);
+
+        Gauge.builder("chatglm.upstream.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current adaptive concurrency limit for upstream calls")
+                .tag("provider", provider)
+                .register(meterRegistry);
+        Gauge.builder("chatglm.upstream.concurrency.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Upstream calls in flight")
+                .tag("provider", provider)
+                .register(meterRegistry);
+        Gauge.builder("chatglm.upstream.concurrency.queued", limiter, AdaptiveConcurrencyLimiter::getQueued)
+                .description("Upstream calls waiting for a permit")
+                .tag("provider", provider)
+                .register(meterRegistry);
+        rejected.put(provider, Counter.builder("chatglm.upstream.concurrency.rejected")
+                .description("Upstream calls shed because the concurrency limit was reached")
+                .tag("provider", provider)
+                .register(meterRegistry));
+        return limiter;
+    }
+
+    private int property(String provider, String name, int defaultValue) {
+        Integer fallback = environment.getProperty(PREFIX + name, Integer.class, defaultValue);
+        return environment.getProperty(PREFIX + provider + "." + name, Integer.class, fallback);
+    }
+}
@@ -0,0 +1,128 @@
+package com.chatglm.webapp.codec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制编码读取器，与BinaryWriter对应
+ * 数据不完整时抛出IllegalArgumentException。
+ */
+final class BinaryReader {
+
+    private static final int MAX_CACHED_BUFFER = 64 * 1024;
+    private static final ThreadLocal<char[]> CHARS = ThreadLocal.withInitial(() -> new char[256]);
+
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+
+    BinaryReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    int readByte() {
+        if (position >= limit) {
+            throw new IllegalArgumentException("Truncated data");
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    long readVarLong() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    long readSignedVarLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    Long readNullableLong() {
+        long value = readVarLong();
+        if (value == 0) {
+            return null;
+        }
+        value -= 1;
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    long readLong() {
+        if (position + 8 > limit) {
+            throw new IllegalArgumentException("Truncated data");
+        }
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buffer[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    String readString() {
+        long length = readVarLong();
+        if (length == 0) {
+            return null;
+        }
+        int bytes = (int) (length - 1);
+        if (bytes < 0 || position + bytes > limit) {
+            throw new IllegalArgumentException("Truncated data");
+        }
+        String value = decodeUtf8(position, bytes);
+        position += bytes;
+        return value;
+    }
+
+    int position() {
+        return position;
+    }
+
+    int remaining() {
+        return limit - position;
+    }
+
+    /**
+     * 直接解码到线程复用的字符缓冲区，只分配最终的String；遇到无法识别的首字节时退回JDK解码器
+     */
+    private String decodeUtf8(int offset, int length) {
+        char[] chars = CHARS.get();
+        if (chars.length < length) {
+            chars = new char[length];
+            if (length <= MAX_CACHED_BUFFER) {
+                CHARS.set(chars);
+            }
+        }
+        int end = offset + length;
+        int count = 0;
+        int i = offset;
+        while (i < end) {
+            int b = buffer[i];
+            if (b >= 0) {
+                chars[count++] = (char) b;
+                i++;
+            } else if ((b & 0xE0) == 0xC0 && i + 1 < end) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (buffer[i + 1] & 0x3F));
+                i += 2;
+            } else if ((b & 0xF0) == 0xE0 && i + 2 < end) {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer[i + 1] & 0x3F) << 6)
+                        | (buffer[i + 2] & 0x3F));
+                i += 3;
+            } else if ((b & 0xF8) == 0xF0 && i + 3 < end) {
+                int codePoint = ((b & 0x07) << 18) | ((buffer[i + 1] & 0x3F) << 12)
+                        | ((buffer[i + 2] & 0x3F) << 6) | (buffer[i + 3] & 0x3F);
+                chars[count++] = Character.highSurrogate(codePoint);
+                chars[count++] = Character.lowSurrogate(codePoint);
+                i += 4;
+            } else {
+                return new String(buffer, offset, length, StandardCharsets.UTF_8);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+}
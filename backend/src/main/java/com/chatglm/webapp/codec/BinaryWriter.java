@@ -0,0 +1,145 @@
+package com.chatglm.webapp.codec;
+
+import java.util.Arrays;
+
+/**
+ * 二进制编码写入器
+ * 整数使用变长编码，字符串写为(UTF-8字节数+1)再加字节内容，0表示null。
+ * 使用线程复用的缓冲区，只在toByteArray时分配最终结果。
+ */
+final class BinaryWriter {
+
+    // 超过上限的缓冲区用完即丢，避免长期占用内存
+    private static final int MAX_CACHED_BUFFER = 64 * 1024;
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    private byte[] buffer;
+    private int position;
+
+    BinaryWriter() {
+        this.buffer = BUFFER.get();
+    }
+
+    private void ensureCapacity(int additional) {
+        if (position + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additional));
+            if (buffer.length <= MAX_CACHED_BUFFER) {
+                BUFFER.set(buffer);
+            }
+        }
+    }
+
+    void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * 可空整数：0表示null，其余为zigzag编码加1
+     */
+    void writeNullableLong(Long value) {
+        if (value == null) {
+            writeVarLong(0);
+        } else {
+            writeVarLong(((value << 1) ^ (value >> 63)) + 1);
+        }
+    }
+
+    void writeLong(long value) {
+        ensureCapacity(8);
+        for (int i = 7; i >= 0; i--) {
+            buffer[position++] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    /**
+     * 字符直接编码进缓冲区，不产生中间数组
+     */
+    void writeString(String value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        int utf8Length = utf8Length(value);
+        writeVarLong(utf8Length + 1L);
+        ensureCapacity(utf8Length);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符按标准UTF-8编码器的方式替换为'?'
+                buffer[position++] = (byte) '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    int position() {
+        return position;
+    }
+
+    /**
+     * 当前缓冲区，内容在[0, position)之间，仅在下一次写入前有效
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+}
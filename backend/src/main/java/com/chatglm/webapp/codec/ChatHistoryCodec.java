@@ -0,0 +1,187 @@
+package com.chatglm.webapp.codec;
+
+import com.chatglm.webapp.model.ChatHistory;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * ChatHistory紧凑二进制编解码
+ * 字段按固定顺序写入，不写类名和字段名；正文超过阈值时整体使用LZ4压缩。
+ *
+ * 格式：[魔数 0xC4][版本号][标志位][LZ4时为原始长度][字段...]
+ * 新增字段时只能追加在末尾并提升版本号。
+ */
+public final class ChatHistoryCodec {
+
+    public static final byte MAGIC = (byte) 0xC4;
+    public static final byte VERSION = 1;
+
+    private static final int FLAG_LZ4 = 1;
+    private static final int FLAG_HAS_COST = 1 << 1;
+    private static final int FLAG_HAS_CREATED_AT = 1 << 2;
+
+    private static final int HEADER_LENGTH = 3;
+    // 解压时允许的最大原始长度，防止损坏的数据申请过大的内存
+    private static final int MAX_RAW_LENGTH = 16 * 1024 * 1024;
+
+    private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4SafeDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+
+    private ChatHistoryCodec() {
+    }
+
+    /**
+     * 判断数据是否为本编码格式
+     */
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes != null && bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+
+    /**
+     * @param compressionThreshold 字段部分达到该字节数时尝试压缩，压缩后不变小则保留原文
+     */
+    public static byte[] encode(ChatHistory history, int compressionThreshold) {
+        int flags = 0;
+        if (history.getCost() != null) {
+            flags |= FLAG_HAS_COST;
+        }
+        if (history.getCreatedAt() != null) {
+            flags |= FLAG_HAS_CREATED_AT;
+        }
+
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeByte(MAGIC);
+        writer.writeByte(VERSION);
+        writer.writeByte(flags);
+        writer.writeNullableLong(history.getId());
+        writer.writeNullableLong(history.getUserId());
+        writer.writeString(history.getSessionId());
+        writer.writeString(history.getUserMessage());
+        writer.writeString(history.getAiResponse());
+        writer.writeString(history.getModel());
+        writer.writeNullableLong(history.getTokensUsed() != null ? history.getTokensUsed().longValue() : null);
+        if (history.getCost() != null) {
+            writer.writeLong(Double.doubleToLongBits(history.getCost()));
+        }
+        if (history.getCreatedAt() != null) {
+            writer.writeSignedVarLong(history.getCreatedAt().toEpochSecond(ZoneOffset.UTC));
+            writer.writeVarLong(history.getCreatedAt().getNano());
+        }
+
+        int rawLength = writer.position() - HEADER_LENGTH;
+        if (rawLength < compressionThreshold) {
+            return writer.toByteArray();
+        }
+        byte[] raw = writer.buffer();
+        byte[] compressed = new byte[HEADER_LENGTH + 5 + COMPRESSOR.maxCompressedLength(rawLength)];
+        compressed[0] = MAGIC;
+        compressed[1] = VERSION;
+        compressed[2] = (byte) (flags | FLAG_LZ4);
+        int position = HEADER_LENGTH;
+        for (long value = rawLength; ; value >>>= 7) {
+            if ((value & ~0x7FL) == 0) {
+                compressed[position++] = (byte) value;
+                break;
+            }
+            compressed[position++] = (byte) ((value & 0x7F) | 0x80);
+        }
+        int compressedLength = COMPRESSOR.compress(raw, HEADER_LENGTH, rawLength,
+                compressed, position, compressed.length - position);
+        int total = position + compressedLength;
+        return total < writer.position() ? Arrays.copyOf(compressed, total) : writer.toByteArray();
+    }
+
+    public static ChatHistory decode(byte[] bytes) {
+        BinaryReader reader = new BinaryReader(bytes, 0, bytes.length);
+        if ((byte) reader.readByte() != MAGIC) {
+            throw new IllegalArgumentException("Not an encoded ChatHistory");
+        }
+        checkVersion(reader.readByte());
+        int flags = reader.readByte();
+        if ((flags & FLAG_LZ4) != 0) {
+            byte[] raw = new byte[checkRawLength(reader.readVarLong())];
+            int decompressed = DECOMPRESSOR.decompress(bytes, reader.position(), reader.remaining(), raw, 0);
+            if (decompressed != raw.length) {
+                throw new IllegalArgumentException("Corrupted ChatHistory data");
+            }
+            reader = new BinaryReader(raw, 0, raw.length);
+        }
+        return decodeFields(reader, flags);
+    }
+
+    /**
+     * 从缓冲区（例如内存映射文件）的指定位置解码，不改变缓冲区的position
+     * 压缩记录直接从缓冲区解压到结果数组；未压缩的记录都小于压缩阈值，复制一次后解码。
+     */
+    public static ChatHistory decode(ByteBuffer buffer, int offset, int length) {
+        if (length < HEADER_LENGTH || buffer.get(offset) != MAGIC) {
+            throw new IllegalArgumentException("Not an encoded ChatHistory");
+        }
+        checkVersion(buffer.get(offset + 1) & 0xFF);
+        int flags = buffer.get(offset + 2) & 0xFF;
+        if ((flags & FLAG_LZ4) == 0) {
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes);
+            return decode(bytes);
+        }
+        int position = offset + HEADER_LENGTH;
+        long rawLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift >= 35 || position >= offset + length) {
+                throw new IllegalArgumentException("Malformed varint");
+            }
+            int b = buffer.get(position++) & 0xFF;
+            rawLength |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        byte[] raw = new byte[checkRawLength(rawLength)];
+        int decompressed = DECOMPRESSOR.decompress(buffer, position, offset + length - position,
+                ByteBuffer.wrap(raw), 0, raw.length);
+        if (decompressed != raw.length) {
+            throw new IllegalArgumentException("Corrupted ChatHistory data");
+        }
+        return decodeFields(new BinaryReader(raw, 0, raw.length), flags);
+    }
+
+    private static void checkVersion(int version) {
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported ChatHistory codec version: " + version);
+        }
+    }
+
+    private static int checkRawLength(long rawLength) {
+        if (rawLength < 0 || rawLength > MAX_RAW_LENGTH) {
+            throw new IllegalArgumentException("Invalid ChatHistory length: " + rawLength);
+        }
+        return (int) rawLength;
+    }
+
+    private static ChatHistory decodeFields(BinaryReader reader, int flags) {
+        ChatHistory history = new ChatHistory();
+        history.setId(reader.readNullableLong());
+        history.setUserId(reader.readNullableLong());
+        history.setSessionId(reader.readString());
+        history.setUserMessage(reader.readString());
+        history.setAiResponse(reader.readString());
+        history.setModel(reader.readString());
+        Long tokensUsed = reader.readNullableLong();
+        history.setTokensUsed(tokensUsed != null ? tokensUsed.intValue() : null);
+        if ((flags & FLAG_HAS_COST) != 0) {
+            history.setCost(Double.longBitsToDouble(reader.readLong()));
+        }
+        if ((flags & FLAG_HAS_CREATED_AT) != 0) {
+            long epochSecond = reader.readSignedVarLong();
+            int nano = (int) reader.readVarLong();
+            history.setCreatedAt(LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC));
+        }
+        return history;
+    }
+}
@@ -0,0 +1,43 @@
+package com.chatglm.webapp.codec;
+
+import com.chatglm.webapp.model.ChatHistory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * ChatHistory的Redis序列化器
+ * 写入使用紧凑二进制编码，较长的记录使用LZ4压缩；读取时按魔数识别格式，升级前写入的JSON仍可读取。
+ */
+public class ChatHistoryRedisSerializer implements RedisSerializer<ChatHistory> {
+
+    private final ObjectMapper objectMapper;
+    private final int compressionThreshold;
+
+    public ChatHistoryRedisSerializer(ObjectMapper objectMapper, int compressionThreshold) {
+        // 旧数据可能带有类型信息等多余字段
+        this.objectMapper = objectMapper.copy().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public byte[] serialize(ChatHistory chatHistory) throws SerializationException {
+        return chatHistory != null ? ChatHistoryCodec.encode(chatHistory, compressionThreshold) : null;
+    }
+
+    @Override
+    public ChatHistory deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            if (ChatHistoryCodec.isEncoded(bytes)) {
+                return ChatHistoryCodec.decode(bytes);
+            }
+            return objectMapper.readValue(bytes, ChatHistory.class);
+        } catch (Exception e) {
+            throw new SerializationException("Failed to deserialize ChatHistory", e);
+        }
+    }
+}
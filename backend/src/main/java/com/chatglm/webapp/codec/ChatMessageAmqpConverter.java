@@ -0,0 +1,45 @@
+package com.chatglm.webapp.codec;
+
+import com.chatglm.webapp.model.ChatMessage;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+/**
+ * AMQP消息转换器
+ * ChatMessage使用紧凑二进制编码，其他类型以及升级前仍在队列中的JSON消息交给委托转换器处理。
+ */
+public class ChatMessageAmqpConverter implements MessageConverter {
+
+    public static final String CONTENT_TYPE = "application/x-chatmessage";
+
+    private final MessageConverter delegate;
+
+    public ChatMessageAmqpConverter(MessageConverter delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        if (object instanceof ChatMessage chatMessage) {
+            messageProperties.setContentType(CONTENT_TYPE);
+            byte[] body = ChatMessageCodec.encode(chatMessage);
+            messageProperties.setContentLength(body.length);
+            return new Message(body, messageProperties);
+        }
+        return delegate.toMessage(object, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        if (CONTENT_TYPE.equals(message.getMessageProperties().getContentType())) {
+            try {
+                return ChatMessageCodec.decode(message.getBody());
+            } catch (IllegalArgumentException e) {
+                throw new MessageConversionException("Failed to decode ChatMessage", e);
+            }
+        }
+        return delegate.fromMessage(message);
+    }
+}
@@ -0,0 +1,124 @@
+package com.chatglm.webapp.codec;
+
+import com.chatglm.webapp.model.ChatGLMModel;
+import com.chatglm.webapp.model.ChatMessage;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ChatMessage紧凑二进制编解码
+ * 手写的固定字段顺序，整数使用变长编码，字符串直接编码为UTF-8，不写字段名。
+ *
+ * 格式：[魔数 0xC3][版本号][标志位][字段...]
+ * 新增字段时只能追加在末尾并提升版本号，旧版本的解码器按已知字段读取。
+ */
+public final class ChatMessageCodec {
+
+    public static final byte MAGIC = (byte) 0xC3;
+    public static final byte VERSION = 1;
+
+    private static final int FLAG_STREAM = 1;
+    private static final int FLAG_HAS_HISTORY = 1 << 1;
+    private static final int FLAG_HAS_CREATE_TIME = 1 << 2;
+    private static final int NULL_STATUS = 0xFF;
+
+    private static final ChatMessage.MessageStatus[] STATUSES = ChatMessage.MessageStatus.values();
+
+    private ChatMessageCodec() {
+    }
+
+    /**
+     * 判断数据是否为本编码格式
+     */
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes != null && bytes.length >= 2 && bytes[0] == MAGIC;
+    }
+
+    public static byte[] encode(ChatMessage message) {
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeByte(MAGIC);
+        writer.writeByte(VERSION);
+
+        int flags = 0;
+        if (message.isStream()) {
+            flags |= FLAG_STREAM;
+        }
+        if (message.getHistory() != null) {
+            flags |= FLAG_HAS_HISTORY;
+        }
+        if (message.getCreateTime() != null) {
+            flags |= FLAG_HAS_CREATE_TIME;
+        }
+        writer.writeByte(flags);
+
+        writer.writeString(message.getMessageId());
+        writer.writeString(message.getUserId());
+        writer.writeString(message.getContent());
+        writer.writeString(message.getSessionId());
+        if (message.getHistory() != null) {
+            writer.writeVarLong(message.getHistory().size());
+            for (ChatGLMModel.Message item : message.getHistory()) {
+                writer.writeString(item.getRole());
+                writer.writeString(item.getContent());
+            }
+        }
+        if (message.getCreateTime() != null) {
+            LocalDateTime createTime = message.getCreateTime();
+            writer.writeSignedVarLong(createTime.toEpochSecond(ZoneOffset.UTC));
+            writer.writeVarLong(createTime.getNano());
+        }
+        writer.writeByte(message.getStatus() != null ? message.getStatus().ordinal() : NULL_STATUS);
+        writer.writeString(message.getAiResponse());
+        writer.writeString(message.getErrorMessage());
+        return writer.toByteArray();
+    }
+
+    public static ChatMessage decode(byte[] bytes) {
+        return decode(bytes, 0, bytes.length);
+    }
+
+    public static ChatMessage decode(byte[] bytes, int offset, int length) {
+        BinaryReader reader = new BinaryReader(bytes, offset, length);
+        if ((byte) reader.readByte() != MAGIC) {
+            throw new IllegalArgumentException("Not an encoded ChatMessage");
+        }
+        int version = reader.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported ChatMessage codec version: " + version);
+        }
+        int flags = reader.readByte();
+
+        ChatMessage message = new ChatMessage();
+        message.setStream((flags & FLAG_STREAM) != 0);
+        message.setMessageId(reader.readString());
+        message.setUserId(reader.readString());
+        message.setContent(reader.readString());
+        message.setSessionId(reader.readString());
+        if ((flags & FLAG_HAS_HISTORY) != 0) {
+            int size = (int) reader.readVarLong();
+            List<ChatGLMModel.Message> history = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                history.add(new ChatGLMModel.Message(reader.readString(), reader.readString()));
+            }
+            message.setHistory(history);
+        }
+        if ((flags & FLAG_HAS_CREATE_TIME) != 0) {
+            long epochSecond = reader.readSignedVarLong();
+            int nano = (int) reader.readVarLong();
+            message.setCreateTime(LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC));
+        } else {
+            message.setCreateTime(null);
+        }
+        int status = reader.readByte();
+        if (status != NULL_STATUS && status >= STATUSES.length) {
+            throw new IllegalArgumentException("Unknown ChatMessage status: " + status);
+        }
+        message.setStatus(status == NULL_STATUS ? null : STATUSES[status]);
+        message.setAiResponse(reader.readString());
+        message.setErrorMessage(reader.readString());
+        return message;
+    }
+}
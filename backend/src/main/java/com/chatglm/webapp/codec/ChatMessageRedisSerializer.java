@@ -0,0 +1,39 @@
+package com.chatglm.webapp.codec;
+
+import com.chatglm.webapp.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * ChatMessage的Redis序列化器
+ * 写入使用紧凑二进制编码；读取时按魔数识别格式，升级前写入的JSON仍可读取。
+ */
+public class ChatMessageRedisSerializer implements RedisSerializer<ChatMessage> {
+
+    private final ObjectMapper objectMapper;
+
+    public ChatMessageRedisSerializer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public byte[] serialize(ChatMessage chatMessage) throws SerializationException {
+        return chatMessage != null ? ChatMessageCodec.encode(chatMessage) : null;
+    }
+
+    @Override
+    public ChatMessage deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            if (ChatMessageCodec.isEncoded(bytes)) {
+                return ChatMessageCodec.decode(bytes);
+            }
+            return objectMapper.readValue(bytes, ChatMessage.class);
+        } catch (Exception e) {
+            throw new SerializationException("Failed to deserialize ChatMessage", e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.chatglm.webapp.codec;
+
+import com.chatglm.webapp.model.ChatGLMModel;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * ChatMessage.history的JSON反序列化器，兼容升级前的字符串格式
+ * 升级前history是List.toString()的结果（空字符串或"[...Message@1a2b3c]"），不包含可用的对话内容，
+ * 读取为null，任务按没有历史对话处理，不会因类型不匹配进入死信队列。
+ */
+public class LegacyHistoryDeserializer extends JsonDeserializer<List<ChatGLMModel.Message>> {
+
+    private static final JavaType HISTORY_TYPE = TypeFactory.defaultInstance()
+            .constructCollectionType(List.class, ChatGLMModel.Message.class);
+
+    @Override
+    public List<ChatGLMModel.Message> deserialize(JsonParser parser, DeserializationContext context)
+            throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            return null;
+        }
+        return context.readValue(parser, HISTORY_TYPE);
+    }
+}
@@ -37,38 +37,39 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         
         String authHeader = request.getHeader("Authorization");
         String token = null;
-        String username = null;
+        JwtUtil.TokenClaims claims = null;
 
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
             token = authHeader.substring(7);
 
-            // 检查token是否在黑名单中
-            if (tokenBlacklistService.isTokenBlacklisted(token)) {
+            // 一次解析完成验签并取出用户名、角色和token ID
+            try {
+                claims = jwtUtil.parseToken(token);
+            } catch (Exception e) {
+                logger.warn("JWT token validation failed: " + e.getMessage());
+            }
+
+            // 检查token是否已吊销
+            if (claims != null && tokenBlacklistService.isRevoked(claims)) {
+                claims = null;
                 SecurityContextHolder.clearContext();
-                // 对于登录接口，不拦截，只清除上下文
+                // 对于登录和刷新接口，不拦截，只清除上下文
                 String requestURI = request.getRequestURI();
-                if (!requestURI.equals("/auth/login") && !requestURI.equals("/api/auth/login")) {
+                if (!requestURI.equals("/auth/login") && !requestURI.equals("/api/auth/login")
+                        && !requestURI.equals("/auth/refresh") && !requestURI.equals("/api/auth/refresh")) {
                     response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Token已失效");
                     return;
                 }
             }
-
-            try {
-                username = jwtUtil.getUsernameFromToken(token);
-            } catch (Exception e) {
-                logger.warn("JWT token validation failed: " + e.getMessage());
-            }
         }
 
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            if (jwtUtil.validateToken(token)) {
-                String role = jwtUtil.getRoleFromToken(token);
-                UsernamePasswordAuthenticationToken authToken = 
-                    new UsernamePasswordAuthenticationToken(username, null, 
-                        Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + role)));
-                authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                SecurityContextHolder.getContext().setAuthentication(authToken);
-            }
+        if (claims != null && claims.getUsername() != null
+                && SecurityContextHolder.getContext().getAuthentication() == null) {
+            UsernamePasswordAuthenticationToken authToken = 
+                new UsernamePasswordAuthenticationToken(claims.getUsername(), null, 
+                    Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + claims.getRole())));
+            authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+            SecurityContextHolder.getContext().setAuthentication(authToken);
         }
         
         filterChain.doFilter(request, response);
@@ -1,20 +1,30 @@
 package com.chatglm.webapp.config;
 
+import com.chatglm.webapp.codec.ChatMessageAmqpConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.ContainerCustomizer;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 /**
  * RabbitMQ配置类
- * 用于异步处理高并发聊天请求
+ * 用于异步处理高并发聊天请求，仅在使用RabbitMQ队列后端时生效
  */
 @Configuration
+@ConditionalOnProperty(name = "chatglm.async.queue.type", havingValue = "rabbitmq", matchIfMissing = true)
 public class RabbitMQConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(RabbitMQConfig.class);
+
     public static final String CHAT_QUEUE = "chat_queue";
     public static final String CHAT_EXCHANGE = "chat_exchange";
     public static final String CHAT_ROUTING_KEY = "chat_routing_key";
@@ -44,28 +54,44 @@ public class RabbitMQConfig {
     }
 
     /**
-     * JSON消息转换器
+     * 消息转换器：ChatMessage使用紧凑二进制编码，其他类型仍使用JSON
      */
     @Bean
-    public MessageConverter jsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    public MessageConverter chatMessageConverter() {
+        return new ChatMessageAmqpConverter(new Jackson2JsonMessageConverter());
     }
 
     /**
      * 配置RabbitTemplate
      */
     @Bean
-    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory) {
+    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory,
+                                         @Value("${chatglm.monitoring.tracing.enabled:false}") boolean tracingEnabled) {
         RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
-        rabbitTemplate.setMessageConverter(jsonMessageConverter());
+        rabbitTemplate.setMessageConverter(chatMessageConverter());
+        // 开启追踪时发布消息产生Observation，并把traceparent写入消息头
+        rabbitTemplate.setObservationEnabled(tracingEnabled);
         
-        // 配置消息确认机制
+        // 配置消息确认机制，具体的重发和失败处理由ChatMessagePublisher通过CorrelationData完成
+        rabbitTemplate.setMandatory(true);
         rabbitTemplate.setConfirmCallback((correlationData, ack, cause) -> {
             if (!ack) {
-                System.err.println("消息发送失败: " + cause);
+                log.warn("消息发送失败: {}, 原因: {}",
+                        correlationData != null ? correlationData.getId() : null, cause);
             }
         });
+        rabbitTemplate.setReturnsCallback(returned ->
+                log.warn("消息被退回: {}, 路由键: {}", returned.getReplyText(), returned.getRoutingKey()));
         
         return rabbitTemplate;
     }
+
+    /**
+     * 开启追踪时消费消息产生Observation，从消息头中的traceparent继续发布端的链路
+     */
+    @Bean
+    public ContainerCustomizer<SimpleMessageListenerContainer> listenerObservationCustomizer(
+            @Value("${chatglm.monitoring.tracing.enabled:false}") boolean tracingEnabled) {
+        return container -> container.setObservationEnabled(tracingEnabled);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+package com.chatglm.webapp.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * 定时任务配置
+ * 定时方法只负责触发，耗时的工作提交到taskExecutor执行
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,86 @@
+package com.chatglm.webapp.config;
+
+import com.chatglm.webapp.tracing.FileSpanExporter;
+import com.chatglm.webapp.tracing.OtlpHttpSpanExporter;
+import com.chatglm.webapp.tracing.SpanExporter;
+import com.chatglm.webapp.tracing.TailSamplingSpanProcessor;
+import com.chatglm.webapp.tracing.TracingObservationHandler;
+import io.lettuce.core.tracing.MicrometerTracing;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.ClientResourcesBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * 分布式追踪配置
+ * 基于Micrometer Observation：HTTP请求、RabbitMQ发布和消费、Redis命令以及上游模型调用都会产生Observation，
+ * 由TracingObservationHandler转换为span，经尾部采样后导出到OTLP/HTTP接收端或本地文件。
+ * 链路上下文以W3C traceparent格式通过HTTP请求头和AMQP消息头传播。
+ */
+@Configuration
+@ConditionalOnProperty(name = "chatglm.monitoring.tracing.enabled", havingValue = "true")
+public class TracingConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(TracingConfig.class);
+
+    @Value("${spring.application.name:ai-assistant-backend}")
+    private String serviceName;
+
+    /**
+     * span导出器，exporter为otlp时发送到OTLP/HTTP接收端，为file时写入本地文件
+     */
+    @Bean
+    public SpanExporter spanExporter(
+            @Value("${chatglm.monitoring.tracing.exporter:otlp}") String exporter,
+            @Value("${chatglm.monitoring.tracing.otlp.endpoint:http://localhost:4318/v1/traces}") String endpoint,
+            @Value("${chatglm.monitoring.tracing.otlp.timeout-ms:5000}") long timeoutMs,
+            @Value("${chatglm.monitoring.tracing.file.path:logs/traces.jsonl}") String path,
+            @Value("${chatglm.monitoring.tracing.file.max-size-mb:100}") long maxSizeMb) {
+        if ("file".equalsIgnoreCase(exporter)) {
+            log.info("追踪数据写入文件: {}", path);
+            return new FileSpanExporter(Path.of(path), serviceName, maxSizeMb * 1024 * 1024);
+        }
+        log.info("追踪数据发送到: {}", endpoint);
+        return new OtlpHttpSpanExporter(endpoint, serviceName, timeoutMs);
+    }
+
+    @Bean
+    public TailSamplingSpanProcessor tailSamplingSpanProcessor(
+            SpanExporter spanExporter,
+            MeterRegistry meterRegistry,
+            @Value("${chatglm.monitoring.tracing.slow-threshold-ms:2000}") long slowThresholdMs,
+            @Value("${chatglm.monitoring.tracing.sample-ratio:0.01}") double sampleRatio,
+            @Value("${chatglm.monitoring.tracing.max-pending-traces:10000}") int maxPendingTraces,
+            @Value("${chatglm.monitoring.tracing.max-spans-per-trace:256}") int maxSpansPerTrace,
+            @Value("${chatglm.monitoring.tracing.max-trace-age-ms:300000}") long maxTraceAgeMs,
+            @Value("${chatglm.monitoring.tracing.export-queue-capacity:20000}") int exportQueueCapacity) {
+        return new TailSamplingSpanProcessor(spanExporter, meterRegistry, slowThresholdMs, sampleRatio,
+                maxPendingTraces, maxSpansPerTrace, maxTraceAgeMs, exportQueueCapacity);
+    }
+
+    /**
+     * 注册到Spring Boot创建的ObservationRegistry
+     */
+    @Bean
+    public TracingObservationHandler tracingObservationHandler(
+            TailSamplingSpanProcessor tailSamplingSpanProcessor,
+            @Value("${chatglm.monitoring.tracing.ignored-prefixes:spring.security}") List<String> ignoredPrefixes) {
+        return new TracingObservationHandler(tailSamplingSpanProcessor, ignoredPrefixes);
+    }
+
+    /**
+     * Lettuce命令产生Observation，以当前Observation为父span；不记录命令参数，避免键值中的令牌等写入追踪数据
+     */
+    @Bean
+    public ClientResourcesBuilderCustomizer lettuceTracingCustomizer(ObservationRegistry observationRegistry) {
+        return builder -> builder.tracing(new MicrometerTracing(observationRegistry, serviceName + "-redis", false));
+    }
+}
@@ -4,8 +4,10 @@ import com.chatglm.webapp.model.ApiRequest;
 import com.chatglm.webapp.model.ApiResponse;
 import com.chatglm.webapp.model.ChatMessage;
 import com.chatglm.webapp.service.AsyncChatService;
+import com.chatglm.webapp.service.CurrentUserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -24,6 +26,9 @@ public class AsyncChatController {
     @Autowired
     private AsyncChatService asyncChatService;
 
+    @Autowired
+    private CurrentUserService currentUserService;
+
     /**
      * 异步聊天接口
      * @param request 聊天请求
@@ -39,13 +44,16 @@ public class AsyncChatController {
                     .body(ApiResponse.error(400, "Message cannot be empty"));
         }
         
+        // 任务在消费者线程中执行，提交时记录用户ID，用于token额度、用量和历史记录
+        Long userId = currentUserService.requireCurrentUserId();
+        
         try {
             // 创建聊天消息
             ChatMessage chatMessage = new ChatMessage();
-            chatMessage.setUserId(getCurrentUserId()); // 从认证信息中获取用户ID
+            chatMessage.setUserId(String.valueOf(userId));
             chatMessage.setContent(request.getMessage());
             chatMessage.setSessionId(generateSessionId());
-            chatMessage.setHistory(request.getHistory() != null ? request.getHistory().toString() : "");
+            chatMessage.setHistory(request.getHistory());
             chatMessage.setStream(request.isStream());
             
             // 发送到消息队列
@@ -132,7 +140,8 @@ public class AsyncChatController {
                 
                 if (chatMessage != null && 
                     (chatMessage.getStatus() == ChatMessage.MessageStatus.COMPLETED || 
-                     chatMessage.getStatus() == ChatMessage.MessageStatus.FAILED)) {
+                     chatMessage.getStatus() == ChatMessage.MessageStatus.FAILED ||
+                     chatMessage.getStatus() == ChatMessage.MessageStatus.CANCELLED)) {
                     return ResponseEntity.ok(ApiResponse.success(chatMessage));
                 }
                 
@@ -164,12 +173,21 @@ public class AsyncChatController {
     @PostMapping("/cancel/{messageId}")
     public ResponseEntity<ApiResponse<String>> cancelMessage(@PathVariable String messageId) {
         log.info("Canceling message: {}", messageId);
+        Long userId = currentUserService.requireCurrentUserId();
         
         try {
-            // 这里可以实现取消逻辑，比如设置消息状态为取消
-            // 注意：RabbitMQ消息一旦被消费就无法取消，这里主要是标记状态
+            ChatMessage.MessageStatus status = asyncChatService.cancelMessage(messageId, userId);
             
-            return ResponseEntity.ok(ApiResponse.success("Message cancellation requested"));
+            if (status == null) {
+                return ResponseEntity.notFound().build();
+            }
+            
+            if (status != ChatMessage.MessageStatus.CANCELLED) {
+                return ResponseEntity.status(HttpStatus.CONFLICT)
+                        .body(ApiResponse.error(409, "Message already finished: " + status.name()));
+            }
+            
+            return ResponseEntity.ok(ApiResponse.success("Message cancelled"));
             
         } catch (Exception e) {
             log.error("Error canceling message: {}", e.getMessage(), e);
@@ -178,15 +196,6 @@ public class AsyncChatController {
         }
     }
 
-    /**
-     * 获取当前用户ID（模拟实现）
-     */
-    private String getCurrentUserId() {
-        // 在实际应用中，这里应该从JWT token或session中获取用户ID
-        // 这里使用模拟数据
-        return "user-" + UUID.randomUUID().toString().substring(0, 8);
-    }
-
     /**
      * 生成会话ID
      */
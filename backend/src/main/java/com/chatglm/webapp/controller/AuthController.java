@@ -3,18 +3,24 @@ package com.chatglm.webapp.controller;
 import com.chatglm.webapp.model.ApiResponse;
 import com.chatglm.webapp.model.LoginRequest;
 import com.chatglm.webapp.model.LoginResponse;
+import com.chatglm.webapp.model.RefreshRequest;
 import com.chatglm.webapp.model.User;
+import com.chatglm.webapp.repository.UserRepository;
+import com.chatglm.webapp.service.LoginAttemptService;
+import com.chatglm.webapp.service.PasswordHashingService;
+import com.chatglm.webapp.service.RefreshTokenService;
 import com.chatglm.webapp.service.TokenBlacklistService;
+import com.chatglm.webapp.util.ClientIdentity;
 import com.chatglm.webapp.util.JwtUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 
 import jakarta.servlet.http.HttpServletRequest;
 
 import jakarta.annotation.PostConstruct;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,71 +40,96 @@ public class AuthController {
     @Autowired
     private TokenBlacklistService tokenBlacklistService;
     
-    // 模拟用户数据库
-    private final Map<String, User> userDatabase = new HashMap<>();
+    @Autowired
+    private UserRepository userRepository;
+    
+    @Autowired
+    private PasswordHashingService passwordHashingService;
+    
+    @Autowired
+    private LoginAttemptService loginAttemptService;
+    
+    @Autowired
+    private RefreshTokenService refreshTokenService;
     
     @PostConstruct
     public void init() {
-        // 初始化测试用户
-        String rawPassword = "admin123";
-        String encodedPassword = passwordEncoder.encode(rawPassword);
-        logger.info("Raw password: {}", rawPassword);
-        logger.info("Encoded password: {}", encodedPassword);
-        
-        User admin = new User("admin", "admin@chatglm.com", 
-                             encodedPassword, "ADMIN");
-        admin.setId(1L);
-        userDatabase.put("admin", admin);
-        
-        User user = new User("user", "user@chatglm.com", 
-                           passwordEncoder.encode("user123"), "USER");
-        user.setId(2L);
-        userDatabase.put("user", user);
+        // 初始化测试用户，已存在时保留原有数据
+        try {
+            if (userRepository.findByUsername("admin").isEmpty()) {
+                userRepository.create(new User("admin", "admin@chatglm.com",
+                        passwordEncoder.encode("admin123"), "ADMIN"));
+            }
+            if (userRepository.findByUsername("user").isEmpty()) {
+                userRepository.create(new User("user", "user@chatglm.com",
+                        passwordEncoder.encode("user123"), "USER"));
+            }
+        } catch (Exception e) {
+            logger.warn("初始化测试用户失败: {}", e.getMessage());
+        }
     }
     
+    /**
+     * 登录，密码校验在专用线程池中执行，请求线程不等待BCrypt计算
+     * 返回短期有效的访问token和用于换发的刷新token
+     */
     @PostMapping("/login")
-    public ApiResponse<LoginResponse> login(@RequestBody LoginRequest loginRequest) {
-        logger.info("Login attempt for username: {}", loginRequest.getUsername());
-        User user = userDatabase.get(loginRequest.getUsername());
-        
-        if (user == null) {
-            logger.warn("User not found: {}", loginRequest.getUsername());
-            return ApiResponse.error(401, "用户名或密码错误");
-        }
+    public CompletableFuture<ApiResponse<LoginResponse>> login(@RequestBody LoginRequest loginRequest) {
+        String username = loginRequest.getUsername();
+        String ip = ClientIdentity.clientIp();
+        logger.info("Login attempt for username: {}", username);
+        loginAttemptService.beginAttempt(username, ip);
         
-        logger.info("User found: {}", user.getUsername());
-        logger.info("Raw password from request: {}", loginRequest.getPassword());
-        logger.info("Stored encoded password: {}", user.getPassword());
-        boolean passwordMatch = passwordEncoder.matches(loginRequest.getPassword(), user.getPassword());
-        logger.info("Password match result: {}", passwordMatch);
-        
-        if (!passwordMatch) {
-            return ApiResponse.error(401, "用户名或密码错误");
-        }
-        
-        if (!user.getEnabled()) {
-            return ApiResponse.error(401, "账户已被禁用");
+        User user = userRepository.findByUsername(username).orElse(null);
+        return passwordHashingService.matches(loginRequest.getPassword(), user != null ? user.getPassword() : null)
+                .thenApply(passwordMatch -> {
+                    if (user == null || !passwordMatch) {
+                        logger.warn("Login failed for username: {}", username);
+                        return ApiResponse.<LoginResponse>error(401, "用户名或密码错误");
+                    }
+                    
+                    if (!user.getEnabled()) {
+                        return ApiResponse.<LoginResponse>error(401, "账户已被禁用");
+                    }
+                    
+                    loginAttemptService.recordSuccess(username, ip);
+                    passwordHashingService.upgradeIfNeeded(user, loginRequest.getPassword());
+                    long epoch = tokenBlacklistService.epochForNewToken(user.getUsername());
+                    return ApiResponse.success(tokenResponse(user, epoch, refreshTokenService.issue(user.getUsername(), epoch)));
+                });
+    }
+    
+    /**
+     * 用刷新token换发访问token和新的刷新token，旧的刷新token随即失效
+     */
+    @PostMapping("/refresh")
+    public ApiResponse<LoginResponse> refresh(@RequestBody RefreshRequest refreshRequest) {
+        RefreshTokenService.Rotation rotation = refreshTokenService.rotate(refreshRequest.getRefreshToken());
+        User user = userRepository.findByUsername(rotation.getUsername()).orElse(null);
+        if (user == null || !user.getEnabled()) {
+            refreshTokenService.revoke(rotation.getRefreshToken());
+            return ApiResponse.error(401, "账户不存在或已被禁用");
         }
-        
-        String token = jwtUtil.generateToken(user.getUsername(), user.getRole());
-        LoginResponse loginResponse = new LoginResponse(token, user.getId(), 
-                                                        user.getUsername(), user.getEmail(), 
-                                                        user.getRole(), 86400L);
-        
-        return ApiResponse.success(loginResponse);
+        return ApiResponse.success(tokenResponse(user, rotation.getEpoch(), rotation.getRefreshToken()));
+    }
+    
+    private LoginResponse tokenResponse(User user, long epoch, String refreshToken) {
+        String token = jwtUtil.generateToken(user.getUsername(), user.getRole(), epoch);
+        return new LoginResponse(token, user.getId(), user.getUsername(), user.getEmail(), user.getRole(),
+                jwtUtil.getExpirationSeconds(), refreshToken, refreshTokenService.getExpirationSeconds());
     }
     
     @PostMapping("/register")
-    public ApiResponse<String> register(@RequestBody User user) {
-        if (userDatabase.containsKey(user.getUsername())) {
-            return ApiResponse.error(400, "用户名已存在");
-        }
-        
-        user.setPassword(passwordEncoder.encode(user.getPassword()));
-        user.setId((long) (userDatabase.size() + 1));
-        userDatabase.put(user.getUsername(), user);
-        
-        return ApiResponse.success("注册成功");
+    public CompletableFuture<ApiResponse<String>> register(@RequestBody User user) {
+        return passwordHashingService.encode(user.getPassword()).thenApply(encodedPassword -> {
+            user.setPassword(encodedPassword);
+            user.setId(null);
+            // 用户名是否已存在和写入在存储中原子完成，并发注册同一用户名时只有一个成功
+            if (!userRepository.create(user)) {
+                return ApiResponse.<String>error(400, "用户名已存在");
+            }
+            return ApiResponse.success("注册成功");
+        });
     }
     
     @GetMapping("/me")
@@ -112,7 +143,7 @@ public class AuthController {
         }
         
         String username = authentication.getName();
-        User user = userDatabase.get(username);
+        User user = userRepository.findByUsername(username).orElse(null);
         
         if (user == null) {
             return ApiResponse.error(404, "用户不存在");
@@ -129,13 +160,33 @@ public class AuthController {
     }
 
     @PostMapping("/logout")
-    public ApiResponse<String> logout(HttpServletRequest request) {
+    public ApiResponse<String> logout(HttpServletRequest request,
+                                      @RequestBody(required = false) RefreshRequest refreshRequest) {
         String authHeader = request.getHeader("Authorization");
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
             String token = authHeader.substring(7);
             // 将token添加到黑名单
             tokenBlacklistService.blacklistToken(token);
         }
+        if (refreshRequest != null && refreshRequest.getRefreshToken() != null) {
+            refreshTokenService.revoke(refreshRequest.getRefreshToken());
+        }
         return ApiResponse.success("退出登录成功");
     }
+
+    /**
+     * 退出所有设备：当前用户之前签发的token全部失效，刷新token在下次换发时失效
+     */
+    @PostMapping("/logout-all")
+    public ApiResponse<String> logoutAll() {
+        org.springframework.security.core.Authentication authentication = 
+            org.springframework.security.core.context.SecurityContextHolder.getContext().getAuthentication();
+        
+        if (authentication == null || authentication instanceof AnonymousAuthenticationToken) {
+            return ApiResponse.error(401, "未登录");
+        }
+        
+        tokenBlacklistService.revokeAllSessions(authentication.getName());
+        return ApiResponse.success("已退出所有设备");
+    }
 }
\ No newline at end of file
@@ -1,10 +1,13 @@
 package com.chatglm.webapp.controller;
 
 import com.chatglm.webapp.annotation.RateLimit;
+import com.chatglm.webapp.client.CancellationToken;
 import com.chatglm.webapp.model.ApiRequest;
 import com.chatglm.webapp.model.ApiResponse;
 import com.chatglm.webapp.service.AsyncChatService;
 import com.chatglm.webapp.service.ChatService;
+import com.chatglm.webapp.util.ClientIdentity;
+import com.chatglm.webapp.util.StreamSlotLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,13 +25,17 @@ public class ChatController {
     @Autowired
     private ChatService chatService;
     
+    @Autowired
+    private StreamSlotLimiter streamSlotLimiter;
+    
     /**
      * 普通聊天接口
      * @param request 聊天请求
      * @return 聊天响应
      */
     @PostMapping("/completions")
-    @RateLimit(keyType = RateLimit.KeyType.USER, maxRequests = 5, timeWindow = 60, message = "聊天请求过于频繁，请稍后再试")
+    @RateLimit(keyType = RateLimit.KeyType.USER, maxRequests = 5, timeWindow = 60,
+            algorithm = RateLimit.Algorithm.SLIDING_WINDOW, message = "聊天请求过于频繁，请稍后再试")
     public ApiResponse<String> chat(@RequestBody ApiRequest request) {
         logger.info("Received chat request: {}", request.getMessage());
         ApiResponse<String> response = chatService.chat(request);
@@ -42,11 +49,17 @@ public class ChatController {
      * @return SSE发送器
      */
     @PostMapping("/stream")
+    @RateLimit(keyType = RateLimit.KeyType.IP, maxRequests = 20, timeWindow = 60,
+            algorithm = RateLimit.Algorithm.SLIDING_WINDOW, message = "连接过于频繁，请稍后再试")
     public SseEmitter streamChat(@RequestBody ApiRequest request) {
         logger.info("Received stream chat request: {}", request.getMessage());
         
+        // 占用并发流名额，上游流结束时释放；客户端断开时取消上游调用，使其尽快结束
+        StreamSlotLimiter.Slot slot = streamSlotLimiter.acquire(ClientIdentity.userOrIp());
+        
         // 创建SSE发送器，设置60秒超时时间
         SseEmitter emitter = new SseEmitter(60000L);
+        CancellationToken cancellationToken = new CancellationToken();
         
         // 处理连接超时
         emitter.onTimeout(() -> {
@@ -64,18 +77,26 @@ public class ChatController {
         // 处理连接完成
         emitter.onCompletion(() -> {
             logger.info("SSE connection completed");
+            cancellationToken.cancel();
         });
         
         // 处理连接错误
         emitter.onError(error -> {
             logger.error("SSE connection error: {}", error.getMessage(), error);
-            // 错误已在服务层处理，这里不再重复处理
+            // 错误已在服务层处理，这里只中断上游调用
+            cancellationToken.cancel();
         });
         
         try {
             // 启动流式聊天
-            chatService.streamChat(request, emitter);
+            chatService.streamChat(request, emitter, cancellationToken)
+                    .whenComplete((result, error) -> slot.release());
+        } catch (RuntimeException e) {
+            // 流没有开始，发送器不会返回，直接释放名额
+            slot.release();
+            throw e;
         } catch (IOException e) {
+            slot.release();
             logger.error("Error starting stream chat: {}", e.getMessage(), e);
             try {
                 emitter.send(SseEmitter.event()
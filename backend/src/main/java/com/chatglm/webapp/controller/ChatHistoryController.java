@@ -0,0 +1,96 @@
+package com.chatglm.webapp.controller;
+
+import com.chatglm.webapp.model.ApiResponse;
+import com.chatglm.webapp.model.ChatHistory;
+import com.chatglm.webapp.model.ChatHistoryPage;
+import com.chatglm.webapp.service.ChatHistoryService;
+import com.chatglm.webapp.service.CurrentUserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * 聊天历史控制器
+ */
+@RestController
+@RequestMapping("/history")
+public class ChatHistoryController {
+
+    private static final int MAX_PAGE_SIZE = 100;
+
+    @Autowired
+    private ChatHistoryService chatHistoryService;
+
+    @Autowired
+    private CurrentUserService currentUserService;
+
+    /**
+     * 按最近活跃时间分页获取会话
+     * @param cursor 上一页返回的nextCursor，首页不传
+     */
+    @GetMapping("/sessions")
+    public ApiResponse<ChatHistoryPage> getSessions(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "20") int messages) {
+        return ApiResponse.success(chatHistoryService.getSessionsByUserId(getCurrentUserId(), cursor,
+                Math.min(Math.max(size, 1), MAX_PAGE_SIZE), Math.min(Math.max(messages, 1), MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * 获取会话的全部消息
+     */
+    @GetMapping("/sessions/{sessionId}")
+    public ApiResponse<List<ChatHistory>> getSession(@PathVariable String sessionId) {
+        List<ChatHistory> messages = chatHistoryService.getChatHistoryBySessionId(sessionId);
+        // 只能查看自己的会话
+        if (messages.isEmpty() || !getCurrentUserId().equals(messages.get(0).getUserId())) {
+            return ApiResponse.error(404, "Session not found");
+        }
+        return ApiResponse.success(messages);
+    }
+
+    /**
+     * 获取最近的消息
+     */
+    @GetMapping("/recent")
+    public ApiResponse<List<ChatHistory>> getRecent(@RequestParam(defaultValue = "20") int limit) {
+        return ApiResponse.success(chatHistoryService.getChatHistoryByUserId(getCurrentUserId(),
+                Math.min(Math.max(limit, 1), MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * 全文搜索当前用户的聊天记录，空格分隔的多个关键词需要同时出现
+     */
+    @GetMapping("/search")
+    public ApiResponse<List<ChatHistory>> search(@RequestParam String q,
+                                                 @RequestParam(defaultValue = "20") int limit) {
+        if (q.isBlank()) {
+            return ApiResponse.error(400, "Query must not be empty");
+        }
+        return ApiResponse.success(chatHistoryService.searchChatHistory(getCurrentUserId(), q,
+                Math.min(Math.max(limit, 1), MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * 清空当前用户的聊天历史
+     */
+    @DeleteMapping
+    public ApiResponse<Void> deleteAll() {
+        chatHistoryService.deleteChatHistoryByUserId(getCurrentUserId());
+        return ApiResponse.success();
+    }
+
+    /**
+     * 当前登录用户的ID，未登录时返回401
+     */
+    private Long getCurrentUserId() {
+        return currentUserService.requireCurrentUserId();
+    }
+}
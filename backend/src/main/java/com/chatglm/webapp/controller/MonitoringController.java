@@ -1,12 +1,17 @@
 package com.chatglm.webapp.controller;
 
+import com.chatglm.webapp.exception.ChatGLMException;
 import com.chatglm.webapp.model.ApiResponse;
-import com.chatglm.webapp.service.ChatHistoryService;
+import com.chatglm.webapp.model.UsageStats;
+import com.chatglm.webapp.service.CurrentUserService;
+import com.chatglm.webapp.service.UsageService;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.lang.management.ManagementFactory;
@@ -14,17 +19,24 @@ import java.lang.management.MemoryMXBean;
 import java.lang.management.OperatingSystemMXBean;
 import java.lang.management.ThreadMXBean;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/monitoring")
 public class MonitoringController {
 
+    private static final int MAX_TOP_USERS = 100;
+
     @Autowired
     private MeterRegistry meterRegistry;
     
     @Autowired
-    private ChatHistoryService chatHistoryService;
+    private UsageService usageService;
+
+    @Autowired
+    private CurrentUserService currentUserService;
 
     @GetMapping("/metrics")
     public ApiResponse<Map<String, Object>> getMetrics() {
@@ -51,12 +63,54 @@ public class MonitoringController {
             metrics.put("stream.chat.requests.total", streamCounter.count());
         }
         
-        // 用户使用量统计
-        metrics.put("user.usage.total", chatHistoryService.countUserUsage(1L));
+        // 当天全部用户的用量合计
+        UsageStats today = usageService.getTotalUsage(UsageService.Period.DAY);
+        metrics.put("usage.today.calls", today.getCalls());
+        metrics.put("usage.today.tokens", today.getTotalTokens());
+        metrics.put("usage.today.cost", today.getCost());
         
         return ApiResponse.success(metrics);
     }
     
+    /**
+     * 全部用户在当前时间桶内的用量
+     * @param period minute、day或month
+     */
+    @GetMapping("/usage")
+    public ApiResponse<UsageStats> getTotalUsage(@RequestParam(defaultValue = "day") String period) {
+        return ApiResponse.success(usageService.getTotalUsage(parsePeriod(period)));
+    }
+
+    /**
+     * 指定用户在当前时间桶内的用量，非管理员只能查看自己的用量
+     */
+    @GetMapping("/usage/users/{userId}")
+    public ApiResponse<UsageStats> getUserUsage(@PathVariable Long userId,
+                                                @RequestParam(defaultValue = "day") String period) {
+        if (!currentUserService.isAdmin() && !userId.equals(currentUserService.requireCurrentUserId())) {
+            throw new ChatGLMException(403, "无权查看其他用户的用量");
+        }
+        return ApiResponse.success(usageService.getUsage(userId, parsePeriod(period)));
+    }
+
+    /**
+     * 当天或当月token用量最多的用户，只对管理员开放（见SecurityConfig）
+     */
+    @GetMapping("/usage/top")
+    public ApiResponse<List<UsageStats>> getTopUsers(@RequestParam(defaultValue = "day") String period,
+                                                     @RequestParam(defaultValue = "10") int limit) {
+        return ApiResponse.success(usageService.getTopUsers(parsePeriod(period),
+                Math.min(Math.max(limit, 1), MAX_TOP_USERS)));
+    }
+
+    private static UsageService.Period parsePeriod(String period) {
+        try {
+            return UsageService.Period.valueOf(period.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ChatGLMException(400, "不支持的统计周期: " + period);
+        }
+    }
+    
     @GetMapping("/health/detailed")
     public ApiResponse<Map<String, Object>> getDetailedHealth() {
         Map<String, Object> healthInfo = new HashMap<>();
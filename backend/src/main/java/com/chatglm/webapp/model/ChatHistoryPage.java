@@ -0,0 +1,25 @@
+package com.chatglm.webapp.model;
+
+import java.util.List;
+
+/**
+ * 会话分页结果
+ * nextCursor为null表示没有更多数据
+ */
+public class ChatHistoryPage {
+    private List<ChatSession> sessions;
+    private String nextCursor;
+
+    public ChatHistoryPage() {}
+
+    public ChatHistoryPage(List<ChatSession> sessions, String nextCursor) {
+        this.sessions = sessions;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<ChatSession> getSessions() { return sessions; }
+    public void setSessions(List<ChatSession> sessions) { this.sessions = sessions; }
+
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+}
@@ -1,7 +1,11 @@
 package com.chatglm.webapp.model;
 
+import com.chatglm.webapp.codec.LegacyHistoryDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * 聊天消息实体
@@ -32,9 +36,10 @@ public class ChatMessage implements Serializable {
     private String sessionId;
     
     /**
-     * 历史对话记录
+     * 历史对话记录，升级前JSON中的字符串格式读取为null
      */
-    private String history;
+    @JsonDeserialize(using = LegacyHistoryDeserializer.class)
+    private List<ChatGLMModel.Message> history;
     
     /**
      * 是否启用流式响应
@@ -68,7 +73,8 @@ public class ChatMessage implements Serializable {
         PENDING,    // 待处理
         PROCESSING, // 处理中
         COMPLETED,  // 已完成
-        FAILED      // 失败
+        FAILED,     // 失败
+        CANCELLED   // 已取消
     }
     
     public ChatMessage() {
@@ -89,8 +95,8 @@ public class ChatMessage implements Serializable {
     public String getSessionId() { return sessionId; }
     public void setSessionId(String sessionId) { this.sessionId = sessionId; }
     
-    public String getHistory() { return history; }
-    public void setHistory(String history) { this.history = history; }
+    public List<ChatGLMModel.Message> getHistory() { return history; }
+    public void setHistory(List<ChatGLMModel.Message> history) { this.history = history; }
     
     public boolean isStream() { return stream; }
     public void setStream(boolean stream) { this.stream = stream; }
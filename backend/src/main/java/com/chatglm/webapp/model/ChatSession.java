@@ -0,0 +1,33 @@
+package com.chatglm.webapp.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 会话摘要，包含最近活跃时间和最近的若干条消息
+ */
+public class ChatSession {
+    private String sessionId;
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime lastActiveAt;
+    private List<ChatHistory> messages;
+
+    public ChatSession() {}
+
+    public ChatSession(String sessionId, LocalDateTime lastActiveAt, List<ChatHistory> messages) {
+        this.sessionId = sessionId;
+        this.lastActiveAt = lastActiveAt;
+        this.messages = messages;
+    }
+
+    public String getSessionId() { return sessionId; }
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+
+    public LocalDateTime getLastActiveAt() { return lastActiveAt; }
+    public void setLastActiveAt(LocalDateTime lastActiveAt) { this.lastActiveAt = lastActiveAt; }
+
+    public List<ChatHistory> getMessages() { return messages; }
+    public void setMessages(List<ChatHistory> messages) { this.messages = messages; }
+}
@@ -11,6 +11,8 @@ public class LoginResponse {
     private String email;
     private String role;
     private Long expiresIn;
+    private String refreshToken;
+    private Long refreshExpiresIn;
     
     public LoginResponse(String token, Long id, String username, String email, String role, Long expiresIn) {
         this.token = token;
@@ -20,4 +22,11 @@ public class LoginResponse {
         this.role = role;
         this.expiresIn = expiresIn;
     }
-}
\ No newline at end of file
+    
+    public LoginResponse(String token, Long id, String username, String email, String role, Long expiresIn,
+                         String refreshToken, Long refreshExpiresIn) {
+        this(token, id, username, email, role, expiresIn);
+        this.refreshToken = refreshToken;
+        this.refreshExpiresIn = refreshExpiresIn;
+    }
+}
@@ -0,0 +1,40 @@
+package com.chatglm.webapp.model;
+
+/**
+ * 一个时间桶内的用量统计，userId为空时表示全部用户的合计
+ */
+public class UsageStats {
+    private Long userId;
+    private String bucket;
+    private long calls;
+    private long promptTokens;
+    private long completionTokens;
+    private double cost;
+
+    public UsageStats() {}
+
+    public UsageStats(Long userId, String bucket) {
+        this.userId = userId;
+        this.bucket = bucket;
+    }
+
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+
+    public String getBucket() { return bucket; }
+    public void setBucket(String bucket) { this.bucket = bucket; }
+
+    public long getCalls() { return calls; }
+    public void setCalls(long calls) { this.calls = calls; }
+
+    public long getPromptTokens() { return promptTokens; }
+    public void setPromptTokens(long promptTokens) { this.promptTokens = promptTokens; }
+
+    public long getCompletionTokens() { return completionTokens; }
+    public void setCompletionTokens(long completionTokens) { this.completionTokens = completionTokens; }
+
+    public long getTotalTokens() { return promptTokens + completionTokens; }
+
+    public double getCost() { return cost; }
+    public void setCost(double cost) { this.cost = cost; }
+}
@@ -0,0 +1,24 @@
+package com.chatglm.webapp.queue;
+
+import com.chatglm.webapp.model.ChatMessage;
+
+import java.util.function.Consumer;
+
+/**
+ * 聊天任务队列后端
+ * 通过配置项 chatglm.async.queue.type 选择实现：rabbitmq（默认）或 in-process
+ */
+public interface ChatJobQueue {
+
+    /**
+     * 任务入队
+     * @param chatMessage 聊天消息
+     */
+    void enqueue(ChatMessage chatMessage);
+
+    /**
+     * 注册任务处理器，后端从队列取出任务后交给处理器执行
+     * @param handler 任务处理器
+     */
+    void subscribe(Consumer<ChatMessage> handler);
+}
@@ -0,0 +1,205 @@
+package com.chatglm.webapp.queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 进程内队列的预写日志
+ * 基于内存映射文件顺序追加记录：任务入队写ENQUEUE记录，处理结束写DONE记录。
+ * 启动时重放日志，把尚未完成的任务重新入队；文件写满时只保留未完成的任务重写文件。
+ *
+ * 记录格式：[int 记录长度][int CRC32][byte 类型][short 消息ID长度][消息ID][负载]，长度为0表示日志结尾。
+ * CRC32覆盖长度之后的记录内容。崩溃时写了一半的记录校验失败，重放在第一条无效记录处停止，之后的写入从该位置覆盖。
+ */
+public class ChatJobWriteAheadLog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatJobWriteAheadLog.class);
+
+    private static final byte TYPE_ENQUEUE = 1;
+    private static final byte TYPE_DONE = 2;
+
+    // 记录长度之后、记录内容之前的CRC32
+    private static final int CRC_BYTES = 4;
+
+    private final Path path;
+    private final int sizeBytes;
+    private final boolean forceOnWrite;
+    private MappedByteBuffer buffer;
+
+    // 尚未完成的任务，按入队顺序保存
+    private final Map<String, byte[]> pending = new LinkedHashMap<>();
+
+    /**
+     * @param path 日志文件路径
+     * @param sizeBytes 映射文件大小
+     * @param forceOnWrite 每次写入后是否强制刷盘
+     */
+    public ChatJobWriteAheadLog(Path path, int sizeBytes, boolean forceOnWrite) throws IOException {
+        this.path = path;
+        this.sizeBytes = sizeBytes;
+        this.forceOnWrite = forceOnWrite;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.buffer = map(path);
+        replay();
+    }
+
+    /**
+     * 返回重放得到的未完成任务负载，按入队顺序
+     */
+    public synchronized List<byte[]> pendingPayloads() {
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * 记录任务入队
+     */
+    public synchronized void append(String messageId, byte[] payload) throws IOException {
+        writeRecord(TYPE_ENQUEUE, messageId, payload);
+        pending.put(messageId, payload);
+    }
+
+    /**
+     * 记录任务处理结束
+     */
+    public synchronized void markDone(String messageId) throws IOException {
+        if (pending.remove(messageId) != null) {
+            writeRecord(TYPE_DONE, messageId, new byte[0]);
+        }
+    }
+
+    private void writeRecord(byte type, String messageId, byte[] payload) throws IOException {
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        int length = recordLength(id, payload);
+        // 预留4字节结尾标记
+        if (buffer.remaining() < 4 + length + 4) {
+            compact();
+            if (buffer.remaining() < 4 + length + 4) {
+                throw new IOException("Write-ahead log is full: " + path);
+            }
+        }
+        putRecord(buffer, type, id, payload);
+        // 写入结尾标记，崩溃后重放到此为止
+        buffer.putInt(buffer.position(), 0);
+        if (forceOnWrite) {
+            buffer.force();
+        }
+    }
+
+    private static int recordLength(byte[] id, byte[] payload) {
+        return CRC_BYTES + 1 + 2 + id.length + payload.length;
+    }
+
+    private static void putRecord(MappedByteBuffer target, byte type, byte[] id, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(id.length >>> 8);
+        crc.update(id.length);
+        crc.update(id);
+        crc.update(payload);
+        target.putInt(recordLength(id, payload));
+        target.putInt((int) crc.getValue());
+        target.put(type);
+        target.putShort((short) id.length);
+        target.put(id);
+        target.put(payload);
+    }
+
+    private void replay() {
+        buffer.position(0);
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length == 0) {
+                buffer.position(start);
+                break;
+            }
+            if (length < CRC_BYTES + 1 + 2 || length > buffer.remaining() || !isValidRecord(start + 4, length)) {
+                // 写了一半或已损坏的记录，之后的内容不可信
+                log.warn("预写日志在偏移{}处记录无效，停止重放", start);
+                buffer.position(start);
+                buffer.putInt(start, 0);
+                break;
+            }
+            buffer.getInt();
+            byte type = buffer.get();
+            byte[] id = new byte[buffer.getShort()];
+            buffer.get(id);
+            byte[] payload = new byte[length - CRC_BYTES - 1 - 2 - id.length];
+            buffer.get(payload);
+            String messageId = new String(id, StandardCharsets.UTF_8);
+            if (type == TYPE_ENQUEUE) {
+                pending.put(messageId, payload);
+            } else if (type == TYPE_DONE) {
+                pending.remove(messageId);
+            }
+        }
+        if (!pending.isEmpty()) {
+            log.info("预写日志重放完成，未完成任务数: {}", pending.size());
+        }
+    }
+
+    /**
+     * 校验记录内容的CRC32和消息ID长度
+     * @param offset CRC字段的位置
+     * @param length 记录长度
+     */
+    private boolean isValidRecord(int offset, int length) {
+        int idLength = buffer.getShort(offset + CRC_BYTES + 1);
+        if (idLength < 0 || CRC_BYTES + 1 + 2 + idLength > length) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + CRC_BYTES, length - CRC_BYTES));
+        return (int) crc.getValue() == buffer.getInt(offset);
+    }
+
+    /**
+     * 只保留未完成的任务，重写日志文件
+     */
+    private void compact() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        MappedByteBuffer compacted = map(tmp);
+        for (Map.Entry<String, byte[]> entry : pending.entrySet()) {
+            byte[] id = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] payload = entry.getValue();
+            if (compacted.remaining() < 4 + recordLength(id, payload) + 4) {
+                throw new IOException("Write-ahead log is full: " + path);
+            }
+            putRecord(compacted, TYPE_ENQUEUE, id, payload);
+        }
+        compacted.putInt(compacted.position(), 0);
+        compacted.force();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        buffer = compacted;
+        log.info("预写日志压缩完成，保留任务数: {}", pending.size());
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        buffer.force();
+    }
+}
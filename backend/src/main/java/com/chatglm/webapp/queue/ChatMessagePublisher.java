@@ -0,0 +1,255 @@
+package com.chatglm.webapp.queue;
+
+import com.chatglm.webapp.config.RabbitMQConfig;
+import com.chatglm.webapp.model.ChatMessage;
+import com.chatglm.webapp.service.ChatJobStore;
+import com.chatglm.webapp.util.BatchFlusher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 聊天消息发布器
+ * 使用带关联数据的发布确认（correlated publisher confirms）和mandatory退回：
+ * 只有被Broker拒绝（nack，包括Channel关闭时未确认的消息）或被退回（无法路由）的消息才会重新发布，
+ * 超过最大次数后把任务标记为失败。获取连接或Channel失败时同样计为一次尝试。
+ * 重新发布由单独的调度线程按指数退避延迟执行，不在确认回调或发布线程中递归调用。确认超时只记录指标，不重新发布：迟到的确认仍会在原来的future上处理，
+ * 重新发布只会产生重复消息。消费者执行前会认领任务，重复投递的消息不会再次执行。
+ * 开启批量时，请求线程只负责入队，由后台线程在同一个Channel上批量发布。
+ * 入队时记录当前的Observation，后台线程发布时以其为父span，链路不会在批量发布处断开。
+ */
+@Service
+@ConditionalOnProperty(name = "chatglm.async.queue.type", havingValue = "rabbitmq", matchIfMissing = true)
+public class ChatMessagePublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatMessagePublisher.class);
+
+    private final RabbitTemplate rabbitTemplate;
+    private final ChatJobStore chatJobStore;
+    private final ObservationRegistry observationRegistry;
+    private final boolean batchEnabled;
+    private final long confirmTimeoutMillis;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final BatchFlusher<PendingPublish> flusher;
+    private final ScheduledExecutorService retryScheduler;
+
+    private final Counter confirmedCounter;
+    private final Counter nackedCounter;
+    private final Counter returnedCounter;
+    private final Counter unconfirmedCounter;
+    private final Counter republishedCounter;
+    private final Counter failedCounter;
+    private final Timer confirmTimer;
+    private final DistributionSummary batchSize;
+
+    public ChatMessagePublisher(RabbitTemplate rabbitTemplate,
+                                ChatJobStore chatJobStore,
+                                MeterRegistry meterRegistry,
+                                ObservationRegistry observationRegistry,
+                                @Value("${chatglm.async.publisher.batch-enabled:true}") boolean batchEnabled,
+                                @Value("${chatglm.async.publisher.queue-capacity:10000}") int queueCapacity,
+                                @Value("${chatglm.async.publisher.max-batch-size:100}") int maxBatchSize,
+                                @Value("${chatglm.async.publisher.confirm-timeout-ms:5000}") long confirmTimeoutMillis,
+                                @Value("${chatglm.async.publisher.max-attempts:3}") int maxAttempts,
+                                @Value("${chatglm.async.publisher.retry-backoff-ms:200}") long retryBackoffMillis) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.chatJobStore = chatJobStore;
+        this.observationRegistry = observationRegistry;
+        this.batchEnabled = batchEnabled;
+        this.confirmTimeoutMillis = confirmTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.confirmedCounter = Counter.builder("chatglm.rabbitmq.publish.confirmed")
+                .description("Number of chat messages confirmed by the broker")
+                .register(meterRegistry);
+        this.nackedCounter = Counter.builder("chatglm.rabbitmq.publish.nacked")
+                .description("Number of chat messages nacked by the broker")
+                .register(meterRegistry);
+        this.returnedCounter = Counter.builder("chatglm.rabbitmq.publish.returned")
+                .description("Number of unroutable chat messages returned by the broker")
+                .register(meterRegistry);
+        this.unconfirmedCounter = Counter.builder("chatglm.rabbitmq.publish.unconfirmed")
+                .description("Number of chat messages not confirmed within the confirm timeout")
+                .register(meterRegistry);
+        this.republishedCounter = Counter.builder("chatglm.rabbitmq.publish.republished")
+                .description("Number of chat messages re-published after a nack or return")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("chatglm.rabbitmq.publish.failed")
+                .description("Number of chat jobs marked failed because publishing failed")
+                .register(meterRegistry);
+        this.confirmTimer = Timer.builder("chatglm.rabbitmq.publish.confirm.latency")
+                .description("Time from publish to broker confirm")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("chatglm.rabbitmq.publish.batch.size")
+                .description("Number of chat messages published per channel invocation")
+                .register(meterRegistry);
+        this.flusher = batchEnabled
+                ? new BatchFlusher<>("ChatMessagePublisher-Flusher", queueCapacity, maxBatchSize, this::publishBatch)
+                : null;
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ChatMessagePublisher-Retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 发布消息，开启批量时只入队不阻塞
+     */
+    public void publish(ChatMessage chatMessage) {
+        Observation current = observationRegistry.getCurrentObservation();
+        PendingPublish pending = new PendingPublish(chatMessage, current != null ? current : Observation.NOOP);
+        if (!batchEnabled) {
+            publishBatch(List.of(pending));
+            return;
+        }
+        try {
+            if (!flusher.offer(pending, confirmTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                // 队列已满，由调用线程直接发布
+                log.warn("消息发布队列已满，直接发布: {}", chatMessage.getMessageId());
+                publishBatch(List.of(pending));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            markFailed(pending, "消息发布被中断");
+        }
+    }
+
+    /**
+     * 在同一个Channel上发布一批消息，确认结果异步处理
+     * 每次调用对批内每条消息计一次尝试，连接或Channel不可用时也计入，重试次数有上限
+     * 发布中途失败时只重试尚未交给Channel的消息，已发出的消息由各自的确认结果处理
+     */
+    private void publishBatch(List<PendingPublish> batch) {
+        for (PendingPublish pending : batch) {
+            pending.sent = false;
+            pending.attempts++;
+        }
+        try {
+            rabbitTemplate.invoke(operations -> {
+                for (PendingPublish pending : batch) {
+                    pending.sentAt = System.nanoTime();
+                    CorrelationData correlationData =
+                            new CorrelationData(pending.chatMessage.getMessageId() + "#" + pending.attempts);
+                    try (Observation.Scope scope = pending.parentObservation.openScope()) {
+                        operations.convertAndSend(RabbitMQConfig.CHAT_EXCHANGE, RabbitMQConfig.CHAT_ROUTING_KEY,
+                                pending.chatMessage, correlationData);
+                    }
+                    pending.sent = true;
+                    watchConfirm(pending, correlationData);
+                }
+                return null;
+            });
+            batchSize.record(batch.size());
+        } catch (Exception e) {
+            log.error("批量发布消息失败: {}", e.getMessage(), e);
+            for (PendingPublish pending : batch) {
+                if (!pending.sent) {
+                    retryOrFail(pending, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void watchConfirm(PendingPublish pending, CorrelationData correlationData) {
+        String messageId = pending.chatMessage.getMessageId();
+        // 超时只作用于副本，原future仍等待迟到的确认
+        correlationData.getFuture().copy()
+                .orTimeout(confirmTimeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((confirm, error) -> {
+                    if (error instanceof TimeoutException) {
+                        unconfirmedCounter.increment();
+                        log.warn("消息发布确认超时，继续等待确认: {}", messageId);
+                    }
+                });
+        correlationData.getFuture()
+                // 确认回调在连接线程上执行，重新发布需切换到其他线程
+                .whenCompleteAsync((confirm, error) -> {
+                    if (correlationData.getReturned() != null) {
+                        returnedCounter.increment();
+                        log.error("消息无法路由被退回: {}, 原因: {}", messageId,
+                                correlationData.getReturned().getReplyText());
+                        retryOrFail(pending, "消息无法路由: " + correlationData.getReturned().getReplyText());
+                    } else if (error != null) {
+                        nackedCounter.increment();
+                        log.warn("消息未被确认: {}, 原因: {}", messageId, error.getMessage());
+                        retryOrFail(pending, error.getMessage());
+                    } else if (!confirm.isAck()) {
+                        nackedCounter.increment();
+                        log.warn("消息被Broker拒绝: {}, 原因: {}", messageId, confirm.getReason());
+                        retryOrFail(pending, confirm.getReason());
+                    } else {
+                        confirmedCounter.increment();
+                        confirmTimer.record(System.nanoTime() - pending.sentAt, TimeUnit.NANOSECONDS);
+                    }
+                });
+    }
+
+    private void retryOrFail(PendingPublish pending, String reason) {
+        if (pending.attempts >= maxAttempts) {
+            markFailed(pending, "消息发布失败: " + reason);
+            return;
+        }
+        long delayMillis = retryBackoffMillis << Math.min(pending.attempts - 1, 10);
+        log.info("{}毫秒后重新发布消息: {}, 第{}次", delayMillis, pending.chatMessage.getMessageId(),
+                pending.attempts + 1);
+        try {
+            retryScheduler.schedule(() -> {
+                republishedCounter.increment();
+                publishBatch(List.of(pending));
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 已关闭
+            markFailed(pending, "消息发布失败: " + reason);
+        }
+    }
+
+    private void markFailed(PendingPublish pending, String reason) {
+        failedCounter.increment();
+        log.error("消息发布最终失败，标记任务失败: {}, 原因: {}", pending.chatMessage.getMessageId(), reason);
+        chatJobStore.updateStatus(pending.chatMessage.getMessageId(),
+                ChatMessage.MessageStatus.FAILED, null, reason);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher != null) {
+            flusher.close();
+        }
+        retryScheduler.shutdownNow();
+    }
+
+    private static final class PendingPublish {
+        private final ChatMessage chatMessage;
+        // 发布请求所在的Observation，没有时为Observation.NOOP
+        private final Observation parentObservation;
+        private volatile int attempts;
+        private volatile long sentAt;
+        // 本次发布是否已交给Channel
+        private volatile boolean sent;
+
+        private PendingPublish(ChatMessage chatMessage, Observation parentObservation) {
+            this.chatMessage = chatMessage;
+            this.parentObservation = parentObservation;
+        }
+    }
+}
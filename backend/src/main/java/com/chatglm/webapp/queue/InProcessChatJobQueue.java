@@ -0,0 +1,156 @@
+package com.chatglm.webapp.queue;
+
+import com.chatglm.webapp.codec.ChatMessageCodec;
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.model.ChatMessage;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 进程内任务队列，适用于没有消息中间件的单节点部署
+ * 任务放入有界无锁环形队列，由固定数量的工作线程消费；可选开启预写日志，进程重启后重放未完成的任务。
+ * 只替代消息中间件：任务状态（ChatJobStore）、取消广播和限流仍保存在Redis中，Redis仍是必需的依赖。
+ */
+@Component
+@ConditionalOnProperty(name = "chatglm.async.queue.type", havingValue = "in-process")
+public class InProcessChatJobQueue implements ChatJobQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(InProcessChatJobQueue.class);
+
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final MpmcRingBuffer<ChatMessage> ringBuffer;
+    private final ChatJobWriteAheadLog writeAheadLog;
+    private final int workerCount;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public InProcessChatJobQueue(MeterRegistry meterRegistry,
+                                 @Value("${chatglm.async.queue.in-process.capacity:4096}") int capacity,
+                                 @Value("${chatglm.async.queue.in-process.workers:4}") int workerCount,
+                                 @Value("${chatglm.async.queue.in-process.wal.enabled:false}") boolean walEnabled,
+                                 @Value("${chatglm.async.queue.in-process.wal.path:data/chat-queue.wal}") String walPath,
+                                 @Value("${chatglm.async.queue.in-process.wal.size-mb:64}") int walSizeMb,
+                                 @Value("${chatglm.async.queue.in-process.wal.force-on-write:false}") boolean forceOnWrite)
+            throws IOException {
+        this.ringBuffer = new MpmcRingBuffer<>(capacity);
+        this.workerCount = workerCount;
+        this.writeAheadLog = walEnabled
+                ? new ChatJobWriteAheadLog(Paths.get(walPath), walSizeMb * 1024 * 1024, forceOnWrite)
+                : null;
+        Gauge.builder("chatglm.queue.in-process.size", ringBuffer, MpmcRingBuffer::size)
+                .description("Number of chat jobs waiting in the in-process queue")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void enqueue(ChatMessage chatMessage) {
+        if (writeAheadLog != null) {
+            try {
+                writeAheadLog.append(chatMessage.getMessageId(), ChatMessageCodec.encode(chatMessage));
+            } catch (IOException e) {
+                throw new ChatGLMException(503, "任务日志写入失败: " + e.getMessage(), e);
+            }
+        }
+        if (!ringBuffer.offer(chatMessage)) {
+            markDone(chatMessage.getMessageId());
+            throw new ChatGLMException(503, "任务队列已满，请稍后再试");
+        }
+    }
+
+    @Override
+    public synchronized void subscribe(Consumer<ChatMessage> handler) {
+        if (!workers.isEmpty()) {
+            throw new IllegalStateException("Handler already subscribed");
+        }
+        recover();
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(() -> runWorker(handler), "ChatJob-Worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        log.info("进程内任务队列已启动，容量: {}, 工作线程数: {}", ringBuffer.capacity(), workerCount);
+    }
+
+    /**
+     * 重放预写日志中未完成的任务
+     */
+    private void recover() {
+        if (writeAheadLog == null) {
+            return;
+        }
+        for (byte[] payload : writeAheadLog.pendingPayloads()) {
+            try {
+                ChatMessage chatMessage = ChatMessageCodec.decode(payload);
+                if (!ringBuffer.offer(chatMessage)) {
+                    log.warn("恢复任务时队列已满，丢弃: {}", chatMessage.getMessageId());
+                    markDone(chatMessage.getMessageId());
+                }
+            } catch (IllegalArgumentException e) {
+                log.error("恢复任务失败: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void runWorker(Consumer<ChatMessage> handler) {
+        long idleParkNanos = 0;
+        while (running) {
+            ChatMessage chatMessage = ringBuffer.poll();
+            if (chatMessage == null) {
+                // 空闲时逐步退避，避免空转占用CPU
+                idleParkNanos = Math.min(MAX_IDLE_PARK_NANOS, Math.max(1000, idleParkNanos * 2));
+                LockSupport.parkNanos(idleParkNanos);
+                continue;
+            }
+            idleParkNanos = 0;
+            try {
+                handler.accept(chatMessage);
+            } catch (Exception e) {
+                log.error("任务处理异常: {}, 异常: {}", chatMessage.getMessageId(), e.getMessage(), e);
+            } finally {
+                markDone(chatMessage.getMessageId());
+            }
+        }
+    }
+
+    private void markDone(String messageId) {
+        if (writeAheadLog == null) {
+            return;
+        }
+        try {
+            writeAheadLog.markDone(messageId);
+        } catch (IOException e) {
+            log.error("任务日志写入失败: {}, 错误: {}", messageId, e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.chatglm.webapp.queue;
+
+import com.chatglm.webapp.config.RabbitMQConfig;
+import com.chatglm.webapp.model.ChatMessage;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Consumer;
+
+/**
+ * 基于RabbitMQ的任务队列
+ */
+@Component
+@ConditionalOnProperty(name = "chatglm.async.queue.type", havingValue = "rabbitmq", matchIfMissing = true)
+public class RabbitChatJobQueue implements ChatJobQueue {
+
+    private final ChatMessagePublisher chatMessagePublisher;
+    private volatile Consumer<ChatMessage> handler;
+
+    public RabbitChatJobQueue(ChatMessagePublisher chatMessagePublisher) {
+        this.chatMessagePublisher = chatMessagePublisher;
+    }
+
+    @Override
+    public void enqueue(ChatMessage chatMessage) {
+        chatMessagePublisher.publish(chatMessage);
+    }
+
+    @Override
+    public void subscribe(Consumer<ChatMessage> handler) {
+        this.handler = handler;
+    }
+
+    @RabbitListener(queues = RabbitMQConfig.CHAT_QUEUE)
+    public void onMessage(ChatMessage chatMessage) {
+        handler.accept(chatMessage);
+    }
+}
@@ -0,0 +1,173 @@
+package com.chatglm.webapp.repository;
+
+import com.chatglm.webapp.model.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 带本地缓存的用户存储，登录和/me查询用户时一般不访问Redis
+ * 不存在的用户名也缓存一段较短的时间，避免用不存在的用户名反复登录时每次都查询存储。
+ * 创建和更新用户后清除本节点的缓存，并通过发布订阅通知其他节点清除。
+ * 返回的都是副本，调用方修改不会影响缓存。
+ */
+@Repository
+@Primary
+public class CachingUserRepository implements UserRepository, MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingUserRepository.class);
+
+    public static final String INVALIDATE_CHANNEL = "auth:user:invalidate";
+
+    private final UserRepository delegate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final int maxSize;
+    private final LongSupplier nanoClock;
+
+    private final Map<String, CachedUser> cache = new ConcurrentHashMap<>();
+
+    // 每次失效加一，查询存储期间发生过失效时不写入缓存，避免把旧数据写回
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public CachingUserRepository(RedisUserRepository delegate,
+                                 StringRedisTemplate stringRedisTemplate,
+                                 RedisMessageListenerContainer listenerContainer,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${chatglm.auth.user-cache.ttl-ms:60000}") long ttlMs,
+                                 @Value("${chatglm.auth.user-cache.negative-ttl-ms:5000}") long negativeTtlMs,
+                                 @Value("${chatglm.auth.user-cache.max-size:10000}") int maxSize) {
+        this(delegate, stringRedisTemplate, meterRegistry, ttlMs, negativeTtlMs, maxSize, System::nanoTime);
+        listenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
+    CachingUserRepository(UserRepository delegate, StringRedisTemplate stringRedisTemplate,
+                          MeterRegistry meterRegistry, long ttlMs, long negativeTtlMs, int maxSize,
+                          LongSupplier nanoClock) {
+        this.delegate = delegate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMs);
+        this.maxSize = maxSize;
+        this.nanoClock = nanoClock;
+
+        this.hits = lookups(meterRegistry, "hit");
+        this.misses = lookups(meterRegistry, "miss");
+        Gauge.builder("chatglm.auth.user.cache.size", cache, Map::size)
+                .description("Number of users held in the local cache")
+                .register(meterRegistry);
+    }
+
+    private static Counter lookups(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chatglm.auth.user.cache.lookups")
+                .description("User lookups by local cache result")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Optional<User> findByUsername(String username) {
+        long now = nanoClock.getAsLong();
+        CachedUser cached = cache.get(username);
+        if (cached != null && now - cached.expiresAtNanos < 0) {
+            hits.increment();
+            return Optional.ofNullable(copy(cached.user));
+        }
+        misses.increment();
+        long generation = invalidations.get();
+        Optional<User> user = delegate.findByUsername(username);
+        if (cached == null && cache.size() >= maxSize) {
+            purgeExpired(now);
+        }
+        if ((cached != null || cache.size() < maxSize) && invalidations.get() == generation) {
+            // 缓存副本，调用方拿到的对象与缓存互不影响
+            cache.put(username, new CachedUser(user.map(CachingUserRepository::copy).orElse(null),
+                    now + (user.isPresent() ? ttlNanos : negativeTtlNanos)));
+        }
+        return user;
+    }
+
+    @Override
+    public boolean create(User user) {
+        boolean created = delegate.create(user);
+        if (created) {
+            // 其他节点可能缓存了该用户名不存在
+            invalidate(user.getUsername());
+        }
+        return created;
+    }
+
+    @Override
+    public boolean update(User user) {
+        boolean updated = delegate.update(user);
+        invalidate(user.getUsername());
+        return updated;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        invalidations.incrementAndGet();
+        cache.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void invalidate(String username) {
+        invalidations.incrementAndGet();
+        cache.remove(username);
+        try {
+            stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, username);
+        } catch (Exception e) {
+            log.warn("广播用户缓存失效失败: {}, 其他节点将在缓存过期后更新", e.getMessage());
+        }
+    }
+
+    private void purgeExpired(long now) {
+        cache.values().removeIf(cached -> now - cached.expiresAtNanos >= 0);
+    }
+
+    private static User copy(User user) {
+        if (user == null) {
+            return null;
+        }
+        User copy = new User(user.getUsername(), user.getEmail(), user.getPassword(), user.getRole());
+        copy.setId(user.getId());
+        copy.setEnabled(user.getEnabled());
+        copy.setCreatedAt(user.getCreatedAt());
+        copy.setUpdatedAt(user.getUpdatedAt());
+        return copy;
+    }
+
+    private static final class CachedUser {
+
+        final User user;
+        final long expiresAtNanos;
+
+        CachedUser(User user, long expiresAtNanos) {
+            this.user = user;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.chatglm.webapp.repository;
+
+import com.chatglm.webapp.model.User;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 基于Redis的用户存储，所有节点共享，重启后不丢失
+ * 每个用户保存为一个哈希；创建和更新在Lua脚本中判断用户是否存在，并发注册同一用户名时只有一个成功。
+ */
+@Repository
+public class RedisUserRepository implements UserRepository {
+
+    public static final String USER_KEY_PREFIX = "auth:user:";
+    private static final String ID_KEY = "auth:user_id";
+
+    // KEYS[1] 用户哈希，KEYS[2] ID计数器，ARGV为字段和值；已存在返回0，否则返回新ID
+    private static final DefaultRedisScript<Long> CREATE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then\n"
+                    + "  return 0\n"
+                    + "end\n"
+                    + "local id = redis.call('INCR', KEYS[2])\n"
+                    + "redis.call('HSET', KEYS[1], 'id', id, unpack(ARGV))\n"
+                    + "return id",
+            Long.class);
+
+    // 用户存在时写入字段，返回1；不存在返回0
+    private static final DefaultRedisScript<Long> UPDATE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then\n"
+                    + "  return 0\n"
+                    + "end\n"
+                    + "redis.call('HSET', KEYS[1], unpack(ARGV))\n"
+                    + "return 1",
+            Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public RedisUserRepository(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @Override
+    public Optional<User> findByUsername(String username) {
+        Map<Object, Object> fields = stringRedisTemplate.opsForHash().entries(USER_KEY_PREFIX + username);
+        if (fields.isEmpty()) {
+            return Optional.empty();
+        }
+        User user = new User();
+        user.setId(Long.valueOf((String) fields.get("id")));
+        user.setUsername(username);
+        user.setEmail((String) fields.get("email"));
+        user.setPassword((String) fields.get("password"));
+        user.setRole((String) fields.get("role"));
+        user.setEnabled(Boolean.valueOf((String) fields.get("enabled")));
+        user.setCreatedAt(parseTime(fields.get("createdAt")));
+        user.setUpdatedAt(parseTime(fields.get("updatedAt")));
+        return Optional.of(user);
+    }
+
+    @Override
+    public boolean create(User user) {
+        LocalDateTime now = LocalDateTime.now();
+        if (user.getEnabled() == null) {
+            user.setEnabled(true);
+        }
+        if (user.getCreatedAt() == null) {
+            user.setCreatedAt(now);
+        }
+        user.setUpdatedAt(now);
+        Long id = stringRedisTemplate.execute(CREATE_SCRIPT,
+                List.of(USER_KEY_PREFIX + user.getUsername(), ID_KEY), fields(user));
+        if (id == null || id == 0) {
+            return false;
+        }
+        user.setId(id);
+        return true;
+    }
+
+    @Override
+    public boolean update(User user) {
+        user.setUpdatedAt(LocalDateTime.now());
+        Long updated = stringRedisTemplate.execute(UPDATE_SCRIPT,
+                List.of(USER_KEY_PREFIX + user.getUsername()), fields(user));
+        return updated != null && updated == 1;
+    }
+
+    private static Object[] fields(User user) {
+        List<String> fields = new ArrayList<>(12);
+        put(fields, "email", user.getEmail());
+        put(fields, "password", user.getPassword());
+        put(fields, "role", user.getRole());
+        put(fields, "enabled", user.getEnabled());
+        put(fields, "createdAt", user.getCreatedAt());
+        put(fields, "updatedAt", user.getUpdatedAt());
+        return fields.toArray();
+    }
+
+    private static void put(List<String> fields, String name, Object value) {
+        if (value != null) {
+            fields.add(name);
+            fields.add(value.toString());
+        }
+    }
+
+    private static LocalDateTime parseTime(Object value) {
+        return value != null ? LocalDateTime.parse((String) value) : null;
+    }
+}
@@ -0,0 +1,28 @@
+package com.chatglm.webapp.repository;
+
+import com.chatglm.webapp.model.User;
+
+import java.util.Optional;
+
+/**
+ * 用户存储
+ */
+public interface UserRepository {
+
+    /**
+     * 按用户名查找用户
+     */
+    Optional<User> findByUsername(String username);
+
+    /**
+     * 创建用户并分配ID，用户名已存在时不做修改
+     * @return 是否创建成功
+     */
+    boolean create(User user);
+
+    /**
+     * 更新已存在的用户
+     * @return 用户不存在时返回false
+     */
+    boolean update(User user);
+}
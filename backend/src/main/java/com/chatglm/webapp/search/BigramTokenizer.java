@@ -0,0 +1,173 @@
+package com.chatglm.webapp.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 面向中日韩文本的分词器
+ * 连续的中日韩字符切分为重叠的二元组，其他字母和数字按单词切分；统一转为小写，全角字母数字转为半角。
+ *
+ * 建索引时同时输出单字，以支持单字查询；查询时长度不小于2的中日韩片段只使用二元组，
+ * 这样查询词项更少，倒排链也更短。
+ */
+public final class BigramTokenizer {
+
+    // 单词超过该长度时截断
+    private static final int MAX_WORD_LENGTH = 64;
+
+    private BigramTokenizer() {
+    }
+
+    /**
+     * 词项接收者，词项内容为buffer中[offset, offset + length)的字符
+     */
+    interface TermSink {
+        void accept(char[] buffer, int offset, int length);
+    }
+
+    /**
+     * 返回去重后的索引词项，用于调试和测试
+     */
+    public static List<String> tokenize(String text, boolean forQuery) {
+        Set<String> terms = new LinkedHashSet<>();
+        scan(text, forQuery, (buffer, offset, length) -> terms.add(new String(buffer, offset, length)));
+        return new ArrayList<>(terms);
+    }
+
+    /**
+     * 返回去重并排序后的词项哈希
+     */
+    static long[] termHashes(String text, boolean forQuery) {
+        long[][] holder = {new long[16]};
+        int[] size = {0};
+        scan(text, forQuery, (buffer, offset, length) -> {
+            if (size[0] == holder[0].length) {
+                holder[0] = Arrays.copyOf(holder[0], size[0] * 2);
+            }
+            holder[0][size[0]++] = hash(buffer, offset, length);
+        });
+        long[] hashes = holder[0];
+        Arrays.sort(hashes, 0, size[0]);
+        int distinct = 0;
+        for (int i = 0; i < size[0]; i++) {
+            if (distinct == 0 || hashes[distinct - 1] != hashes[i]) {
+                hashes[distinct++] = hashes[i];
+            }
+        }
+        return Arrays.copyOf(hashes, distinct);
+    }
+
+    static long termHash(String term) {
+        return hash(term.toCharArray(), 0, term.length());
+    }
+
+    /**
+     * 与分词相同的规范化：小写，全角字母数字转半角
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            builder.appendCodePoint(fold(codePoint));
+        }
+        return builder.toString();
+    }
+
+    private static void scan(String text, boolean forQuery, TermSink sink) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        char[] word = new char[MAX_WORD_LENGTH];
+        int wordLength = 0;
+        // 当前中日韩片段中的前一个字符，以及片段长度
+        char[] pair = new char[4];
+        int previousChars = 0;
+        int runLength = 0;
+
+        for (int i = 0; i <= text.length(); ) {
+            int codePoint;
+            if (i < text.length()) {
+                codePoint = fold(text.codePointAt(i));
+                i += Character.charCount(text.codePointAt(i));
+            } else {
+                codePoint = ' ';
+                i++;
+            }
+
+            if (isCjk(codePoint)) {
+                if (wordLength > 0) {
+                    sink.accept(word, 0, wordLength);
+                    wordLength = 0;
+                }
+                int chars = Character.toChars(codePoint, pair, previousChars);
+                if (previousChars > 0) {
+                    sink.accept(pair, 0, previousChars + chars);
+                }
+                if (!forQuery) {
+                    sink.accept(pair, previousChars, chars);
+                }
+                // 当前字符移到前半部分，作为下一个二元组的第一个字
+                System.arraycopy(pair, previousChars, pair, 0, chars);
+                previousChars = chars;
+                runLength++;
+                continue;
+            }
+
+            if (runLength == 1 && forQuery) {
+                // 查询中孤立的单字只能按单字匹配
+                sink.accept(pair, 0, previousChars);
+            }
+            previousChars = 0;
+            runLength = 0;
+
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (wordLength + Character.charCount(codePoint) <= MAX_WORD_LENGTH) {
+                    wordLength += Character.toChars(codePoint, word, wordLength);
+                }
+            } else if (wordLength > 0) {
+                sink.accept(word, 0, wordLength);
+                wordLength = 0;
+            }
+        }
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static int fold(int codePoint) {
+        // 全角ASCII转为半角
+        if (codePoint >= 0xFF01 && codePoint <= 0xFF5E) {
+            codePoint -= 0xFEE0;
+        }
+        return Character.toLowerCase(codePoint);
+    }
+
+    /**
+     * 64位FNV-1a哈希，再做一次混合以改善低位分布
+     */
+    private static long hash(char[] buffer, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= buffer[i];
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,590 @@
+package com.chatglm.webapp.search;
+
+import com.chatglm.webapp.codec.ChatHistoryCodec;
+import com.chatglm.webapp.model.ChatHistory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 聊天历史全文索引
+ * 按用户分区的倒排索引：新记录写入内存分区，达到flush-docs条或定时写成不可变的段文件，
+ * 段数超过max-segments时合并相邻的段。查询只访问当前用户的分区，按写入时间倒序返回。
+ *
+ * 中日韩文本按二元组切分，二元组和哈希冲突可能带来误匹配，命中的文档会再按原文做一次子串校验。
+ * 删除用户时只记录该用户的文档号水位（墓碑），低于水位的文档在查询时被过滤，在合并时被丢弃；
+ * 删除不等待正在进行的写段和合并。
+ * 段文件与聊天历史使用相同的保留期，整段都超过保留期的最旧的段在维护时删除；
+ * 历史在保留期内被裁剪或过期的记录由ChatHistoryService在返回前过滤。
+ * 内存分区中尚未写成段文件的记录在进程崩溃时会丢失。
+ */
+@Component
+@ConditionalOnProperty(name = "chatglm.search.enabled", havingValue = "true")
+public class ChatSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatSearchIndex.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("seg-(\\d{10})\\.idx");
+    private static final String WATERMARKS_FILE = "deletes.dat";
+    // 单个段映射为一个MappedByteBuffer，不能超过2GB
+    private static final long MAX_MAPPED_BYTES = Integer.MAX_VALUE - (1 << 20);
+    // 解码校验一条候选的开销约等于扫描这么多条倒排项
+    private static final int SCAN_TO_VERIFY_RATIO = 1024;
+
+    private final Path directory;
+    private final int flushDocs;
+    private final int mergeFactor;
+    private final int maxSegments;
+    private final long maxSegmentBytes;
+    private final int compressionThreshold;
+    private final long retentionMillis;
+    private final Executor executor;
+    private final Timer queryTimer;
+    private final AtomicBoolean maintaining = new AtomicBoolean();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 以下状态由lock保护
+    private Map<Long, MemoryPartition> active = new HashMap<>();
+    private int activeDocs;
+    // 已从active切出、正在写成段文件的分区，按切出顺序
+    private final List<Map<Long, MemoryPartition>> sealing = new ArrayList<>();
+    // 段按ID升序，即按文档写入顺序
+    private final List<SearchSegment> segments = new ArrayList<>();
+    private final Map<Long, Integer> nextDoc = new HashMap<>();
+    private final Map<Long, Integer> watermarks = new HashMap<>();
+
+    // 只在持有this监视器时访问
+    private int nextSegmentId = 1;
+
+    // 串行化水位文件的写入，不与写段和合并共用this监视器
+    private final Object watermarksFileLock = new Object();
+
+    @Autowired
+    public ChatSearchIndex(MeterRegistry meterRegistry,
+                           @Qualifier("taskExecutor") Executor taskExecutor,
+                           @Value("${chatglm.search.path:data/search-index}") String path,
+                           @Value("${chatglm.search.flush-docs:100000}") int flushDocs,
+                           @Value("${chatglm.search.merge-factor:4}") int mergeFactor,
+                           @Value("${chatglm.search.max-segments:8}") int maxSegments,
+                           @Value("${chatglm.search.max-segment-size-mb:512}") long maxSegmentSizeMb,
+                           @Value("${chatglm.history.compression-threshold-bytes:512}") int compressionThreshold,
+                           @Value("${chatglm.history.expire-days:7}") long expireDays,
+                           @Value("${chatglm.history.cold.enabled:false}") boolean coldEnabled,
+                           @Value("${chatglm.history.cold.retention-days:180}") long coldRetentionDays)
+            throws IOException {
+        // 与聊天历史相同的保留期，开启冷存储时按冷存储的保留期
+        this(Paths.get(path), flushDocs, mergeFactor, maxSegments, maxSegmentSizeMb * 1024 * 1024,
+                compressionThreshold,
+                TimeUnit.DAYS.toMillis(coldEnabled ? Math.max(expireDays, coldRetentionDays) : expireDays),
+                taskExecutor, meterRegistry);
+    }
+
+    ChatSearchIndex(Path directory, int flushDocs, int mergeFactor, int maxSegments, long maxSegmentBytes,
+                    int compressionThreshold, long retentionMillis, Executor executor, MeterRegistry meterRegistry)
+            throws IOException {
+        this.directory = directory;
+        this.flushDocs = flushDocs;
+        this.mergeFactor = Math.max(2, mergeFactor);
+        this.maxSegments = Math.max(this.mergeFactor, maxSegments);
+        this.maxSegmentBytes = Math.min(maxSegmentBytes, MAX_MAPPED_BYTES);
+        this.compressionThreshold = compressionThreshold;
+        this.retentionMillis = retentionMillis;
+        this.executor = executor;
+        Files.createDirectories(directory);
+        load();
+        this.queryTimer = Timer.builder("chatglm.search.query")
+                .description("Latency of chat history search queries")
+                .register(meterRegistry);
+        Gauge.builder("chatglm.search.segments", this, index -> index.withReadLock(index.segments::size))
+                .description("Number of search index segment files")
+                .register(meterRegistry);
+        Gauge.builder("chatglm.search.memory.docs", this, index -> index.withReadLock(() -> index.activeDocs))
+                .description("Number of indexed records not yet written to a segment file")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 索引一批聊天记录，分词和编码在锁外完成
+     */
+    public void addAll(List<ChatHistory> records) {
+        int size = records.size();
+        byte[][] encoded = new byte[size][];
+        long[][] terms = new long[size][];
+        for (int i = 0; i < size; i++) {
+            ChatHistory record = records.get(i);
+            if (record.getUserId() == null) {
+                continue;
+            }
+            encoded[i] = ChatHistoryCodec.encode(record, compressionThreshold);
+            terms[i] = BigramTokenizer.termHashes(text(record), false);
+        }
+        boolean full;
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                if (encoded[i] == null) {
+                    continue;
+                }
+                Long userId = records.get(i).getUserId();
+                MemoryPartition partition = active.get(userId);
+                if (partition == null) {
+                    partition = new MemoryPartition(nextDoc.getOrDefault(userId, 0));
+                    active.put(userId, partition);
+                }
+                int docId = partition.addDoc(encoded[i], terms[i]);
+                nextDoc.put(userId, docId + 1);
+                activeDocs++;
+            }
+            full = activeDocs >= flushDocs;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (full) {
+            scheduleMaintenance();
+        }
+    }
+
+    /**
+     * 搜索用户的聊天记录，空白分隔的多个关键词需要同时出现
+     * @return 按写入时间倒序的最多limit条记录
+     */
+    public List<ChatHistory> search(Long userId, String query, int limit) {
+        long[] terms = BigramTokenizer.termHashes(query, true);
+        List<ChatHistory> result = new ArrayList<>();
+        if (terms.length == 0 || limit <= 0) {
+            return result;
+        }
+        String[] phrases = BigramTokenizer.normalize(query).trim().split("\\s+");
+        Timer.Sample sample = Timer.start();
+        lock.readLock().lock();
+        try {
+            int watermark = watermarks.getOrDefault(userId, 0);
+            for (IndexPartition partition : partitionsNewestFirst(userId)) {
+                collect(partition, terms, phrases, watermark, limit, result);
+                if (result.size() >= limit) {
+                    break;
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+            sample.stop(queryTimer);
+        }
+    }
+
+    private List<IndexPartition> partitionsNewestFirst(Long userId) {
+        List<IndexPartition> partitions = new ArrayList<>();
+        addIfPresent(partitions, active.get(userId));
+        for (int i = sealing.size() - 1; i >= 0; i--) {
+            addIfPresent(partitions, sealing.get(i).get(userId));
+        }
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            addIfPresent(partitions, segments.get(i).partition(userId));
+        }
+        return partitions;
+    }
+
+    private static void addIfPresent(List<IndexPartition> partitions, IndexPartition partition) {
+        if (partition != null) {
+            partitions.add(partition);
+        }
+    }
+
+    private static void collect(IndexPartition partition, long[] terms, String[] phrases, int watermark,
+                                int limit, List<ChatHistory> result) {
+        if (partition.docBase() + partition.docCount() <= watermark) {
+            return;
+        }
+        PostingList.View[] views = new PostingList.View[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            views[i] = partition.postings(terms[i]);
+            if (views[i] == null) {
+                return;
+            }
+        }
+        // 从最短的倒排链开始求交集
+        Arrays.sort(views, Comparator.comparingInt(view -> view.count));
+        int[] candidates = views[0].decode();
+        int size = candidates.length;
+        for (int i = 1; i < views.length && size > 0; i++) {
+            // 候选已经很少时，逐条校验原文比扫描一条长倒排链更快；结果都会经过原文校验，跳过不影响正确性
+            if ((long) size * SCAN_TO_VERIFY_RATIO < views[i].count) {
+                break;
+            }
+            size = views[i].retainAll(candidates, size);
+        }
+        for (int i = size - 1; i >= 0 && result.size() < limit; i--) {
+            if (candidates[i] < watermark) {
+                break;
+            }
+            ChatHistory record = partition.doc(candidates[i]);
+            if (matches(record, phrases)) {
+                result.add(record);
+            }
+        }
+    }
+
+    private static boolean matches(ChatHistory record, String[] phrases) {
+        String text = BigramTokenizer.normalize(text(record));
+        for (String phrase : phrases) {
+            if (!text.contains(phrase)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String text(ChatHistory record) {
+        String userMessage = record.getUserMessage() != null ? record.getUserMessage() : "";
+        String aiResponse = record.getAiResponse() != null ? record.getAiResponse() : "";
+        return userMessage + "\n" + aiResponse;
+    }
+
+    /**
+     * 删除用户的全部索引记录
+     * 只记录水位并移除内存分区，段文件中的记录在下次合并时丢弃
+     */
+    public void deleteUser(Long userId) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int watermark = nextDoc.getOrDefault(userId, 0);
+            if (watermark == 0) {
+                return;
+            }
+            watermarks.put(userId, watermark);
+            MemoryPartition removed = active.remove(userId);
+            if (removed != null) {
+                activeDocs -= removed.docCount();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeWatermarks();
+    }
+
+    /**
+     * 定时把内存分区写成段文件、删除过期的段并合并段，在taskExecutor中执行，同一时间只运行一个任务
+     */
+    @Scheduled(fixedDelayString = "${chatglm.search.flush-interval-ms:60000}",
+            initialDelayString = "${chatglm.search.flush-interval-ms:60000}")
+    public void scheduleMaintenance() {
+        if (!maintaining.compareAndSet(false, true)) {
+            return;
+        }
+        Runnable task = () -> {
+            try {
+                flush();
+                pruneExpired();
+                merge();
+            } catch (Exception e) {
+                log.error("搜索索引维护失败: {}", e.getMessage(), e);
+            } finally {
+                maintaining.set(false);
+            }
+        };
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            maintaining.set(false);
+        }
+    }
+
+    /**
+     * 把内存分区写成段文件，写文件期间分区仍然可以被查询
+     * 写入失败的分区保留在sealing中，下次重试
+     */
+    public synchronized void flush() throws IOException {
+        List<Map<Long, MemoryPartition>> pending;
+        lock.writeLock().lock();
+        try {
+            if (activeDocs > 0) {
+                sealing.add(active);
+                active = new HashMap<>();
+                activeDocs = 0;
+            }
+            pending = new ArrayList<>(sealing);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Map<Long, MemoryPartition> frozen : pending) {
+            SearchSegment segment = writeSegment(nextSegmentId++, new int[0], new TreeSet<>(frozen.keySet()), frozen::get);
+            lock.writeLock().lock();
+            try {
+                segments.add(segment);
+                sealing.remove(0);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 删除整段都已超过保留期的最旧的段
+     * 段文件的修改时间不早于其中任何一条记录的索引时间，合并后的段沿用被合并段中最新的修改时间。
+     * 只删除最旧的连续若干段，每个用户剩余的文档号仍然连续。
+     */
+    public synchronized void pruneExpired() throws IOException {
+        long expiredBefore = System.currentTimeMillis() - retentionMillis;
+        List<SearchSegment> current = withReadLock(() -> new ArrayList<>(segments));
+        List<SearchSegment> expired = new ArrayList<>();
+        for (SearchSegment segment : current) {
+            if (Files.getLastModifiedTime(segment.path()).toMillis() >= expiredBefore) {
+                break;
+            }
+            expired.add(segment);
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        // 段列表只在持有this监视器时修改，快照的前缀仍然是当前的前缀
+        lock.writeLock().lock();
+        try {
+            segments.subList(0, expired.size()).clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (SearchSegment segment : expired) {
+            Files.deleteIfExists(segment.path());
+        }
+        log.info("删除过期的搜索索引段: {}", expired.size());
+    }
+
+    /**
+     * 段数超过max-segments时，合并总大小最小的mergeFactor个相邻段
+     * 只合并相邻的段，保证每个用户在合并后的段中文档号仍然连续。
+     */
+    public synchronized void merge() throws IOException {
+        while (true) {
+            List<SearchSegment> current = withReadLock(() -> new ArrayList<>(segments));
+            if (current.size() <= maxSegments) {
+                return;
+            }
+            int best = -1;
+            long bestBytes = Long.MAX_VALUE;
+            for (int i = 0; i + mergeFactor <= current.size(); i++) {
+                long total = 0;
+                for (int j = i; j < i + mergeFactor; j++) {
+                    total += current.get(j).sizeBytes();
+                }
+                if (total <= maxSegmentBytes && total < bestBytes) {
+                    best = i;
+                    bestBytes = total;
+                }
+            }
+            if (best < 0) {
+                return;
+            }
+            List<SearchSegment> window = current.subList(best, best + mergeFactor);
+            FileTime newest = FileTime.fromMillis(0);
+            for (SearchSegment segment : window) {
+                FileTime modified = Files.getLastModifiedTime(segment.path());
+                if (modified.compareTo(newest) > 0) {
+                    newest = modified;
+                }
+            }
+            SearchSegment merged = mergeSegments(window);
+            Files.setLastModifiedTime(merged.path(), newest);
+            lock.writeLock().lock();
+            try {
+                int start = segments.indexOf(window.get(0));
+                segments.subList(start, start + window.size()).clear();
+                segments.add(start, merged);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            for (SearchSegment segment : window) {
+                if (segment.id() != merged.id()) {
+                    Files.deleteIfExists(segment.path());
+                }
+            }
+            log.info("搜索索引段合并完成, 段: {} -> {}, 大小: {}", window.size(), merged.id(), merged.sizeBytes());
+        }
+    }
+
+    /**
+     * 合并结果使用窗口中最后一个段的ID并原子替换其文件，头部记录被替换的其他段
+     */
+    private SearchSegment mergeSegments(List<SearchSegment> window) throws IOException {
+        // 合并期间新增的删除水位在查询时生效，下次合并时再丢弃对应记录
+        Map<Long, Integer> tombstones = withReadLock(() -> new HashMap<>(watermarks));
+        Set<Long> userIds = new TreeSet<>();
+        int[] replaced = new int[window.size() - 1];
+        for (int i = 0; i < window.size(); i++) {
+            userIds.addAll(window.get(i).userIds());
+            if (i < replaced.length) {
+                replaced[i] = window.get(i).id();
+            }
+        }
+        return writeSegment(window.get(window.size() - 1).id(), replaced, userIds,
+                userId -> mergePartitions(window, userId, tombstones.getOrDefault(userId, 0)));
+    }
+
+    private static MemoryPartition mergePartitions(List<SearchSegment> window, Long userId, int watermark) {
+        MemoryPartition merged = null;
+        for (SearchSegment segment : window) {
+            IndexPartition partition = segment.partition(userId);
+            if (partition == null || partition.docBase() + partition.docCount() <= watermark) {
+                continue;
+            }
+            int from = Math.max(partition.docBase(), watermark);
+            if (merged == null) {
+                merged = new MemoryPartition(from);
+            }
+            for (int docId = from; docId < partition.docBase() + partition.docCount(); docId++) {
+                merged.copyDoc(docId, partition.docBytes(docId));
+            }
+            MemoryPartition target = merged;
+            partition.forEachTerm((termHash, postings) -> {
+                for (int docId : postings.decode()) {
+                    if (docId >= watermark) {
+                        target.addPosting(termHash, docId);
+                    }
+                }
+            });
+        }
+        return merged;
+    }
+
+    private SearchSegment writeSegment(int id, int[] replaced, Iterable<Long> userIds,
+                                       Function<Long, MemoryPartition> partitions)
+            throws IOException {
+        Path file = segmentPath(id);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        SearchSegment.write(tmp, replaced, userIds, partitions);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return SearchSegment.open(id, file);
+    }
+
+    private void load() throws IOException {
+        readWatermarks();
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    ids.add(Integer.parseInt(matcher.group(1)));
+                }
+            });
+        }
+        ids.sort(null);
+        List<SearchSegment> opened = new ArrayList<>();
+        Set<Integer> replaced = new HashSet<>();
+        for (int id : ids) {
+            SearchSegment segment = SearchSegment.open(id, segmentPath(id));
+            opened.add(segment);
+            for (int replacedId : segment.replaced()) {
+                replaced.add(replacedId);
+            }
+            nextSegmentId = id + 1;
+        }
+        for (SearchSegment segment : opened) {
+            // 合并完成但旧段尚未删除时进程退出，旧段中的记录已经包含在合并后的段中
+            if (replaced.contains(segment.id())) {
+                Files.deleteIfExists(segment.path());
+                continue;
+            }
+            segments.add(segment);
+            for (Long userId : segment.userIds()) {
+                IndexPartition partition = segment.partition(userId);
+                nextDoc.merge(userId, partition.docBase() + partition.docCount(), Math::max);
+            }
+        }
+        watermarks.forEach((userId, watermark) -> nextDoc.merge(userId, watermark, Math::max));
+        if (!segments.isEmpty()) {
+            log.info("搜索索引加载完成，段数: {}, 用户数: {}", segments.size(), nextDoc.size());
+        }
+    }
+
+    private void readWatermarks() throws IOException {
+        Path file = directory.resolve(WATERMARKS_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                watermarks.put(in.readLong(), in.readInt());
+            }
+        }
+    }
+
+    private void writeWatermarks() throws IOException {
+        synchronized (watermarksFileLock) {
+            // 在文件锁内取快照，后写入的文件总是包含更新的水位
+            Map<Long, Integer> snapshot = withReadLock(() -> new HashMap<>(watermarks));
+            Path file = directory.resolve(WATERMARKS_FILE);
+            Path tmp = file.resolveSibling(WATERMARKS_FILE + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.writeInt(snapshot.size());
+                for (Map.Entry<Long, Integer> entry : snapshot.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private Path segmentPath(int id) {
+        return directory.resolve(String.format("seg-%010d.idx", id));
+    }
+
+    private <T> T withReadLock(Supplier<T> supplier) {
+        lock.readLock().lock();
+        try {
+            return supplier.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        try {
+            flush();
+        } catch (IOException e) {
+            log.error("搜索索引写入失败: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.chatglm.webapp.search;
+
+import com.chatglm.webapp.model.ChatHistory;
+
+/**
+ * 单个用户在一个段中的索引分区，文档号范围为[docBase, docBase + docCount)
+ */
+interface IndexPartition {
+
+    int docBase();
+
+    int docCount();
+
+    /**
+     * 返回词项的倒排链，不存在时返回null
+     */
+    PostingList.View postings(long termHash);
+
+    /**
+     * 返回文档的编码字节，格式为ChatHistoryCodec
+     */
+    byte[] docBytes(int docId);
+
+    ChatHistory doc(int docId);
+
+    /**
+     * 按词项哈希升序遍历全部倒排链，用于段合并
+     */
+    void forEachTerm(TermVisitor visitor);
+
+    interface TermVisitor {
+        void visit(long termHash, PostingList.View postings);
+    }
+}
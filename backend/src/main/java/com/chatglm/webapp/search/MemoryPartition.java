@@ -0,0 +1,107 @@
+package com.chatglm.webapp.search;
+
+import com.chatglm.webapp.codec.ChatHistoryCodec;
+import com.chatglm.webapp.model.ChatHistory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存中可追加的分区，新写入的记录先进入这里，达到阈值后写成段文件
+ * 段合并时也用它重建单个用户的分区。非线程安全，由ChatSearchIndex加锁。
+ */
+final class MemoryPartition implements IndexPartition {
+
+    private final int docBase;
+    private final List<byte[]> docs = new ArrayList<>();
+    private final Map<Long, PostingList> postings = new HashMap<>();
+    private long bytes;
+
+    MemoryPartition(int docBase) {
+        this.docBase = docBase;
+    }
+
+    /**
+     * 追加一个文档，文档号为docBase + docCount
+     */
+    int addDoc(byte[] encoded, long[] termHashes) {
+        int docId = docBase + docs.size();
+        docs.add(encoded);
+        bytes += encoded.length;
+        for (long termHash : termHashes) {
+            addPosting(termHash, docId);
+        }
+        return docId;
+    }
+
+    /**
+     * 合并时按顺序复制文档，倒排链通过addPosting单独写入
+     */
+    void copyDoc(int docId, byte[] encoded) {
+        if (docId != docBase + docs.size()) {
+            throw new IllegalStateException("Doc ids must be contiguous: " + docId);
+        }
+        docs.add(encoded);
+        bytes += encoded.length;
+    }
+
+    void addPosting(long termHash, int docId) {
+        PostingList list = postings.get(termHash);
+        if (list == null) {
+            list = new PostingList();
+            postings.put(termHash, list);
+        }
+        int before = list.length();
+        list.add(docId);
+        bytes += list.length() - before;
+    }
+
+    /**
+     * 估算的数据字节数
+     */
+    long bytes() {
+        return bytes + postings.size() * 20L;
+    }
+
+    @Override
+    public int docBase() {
+        return docBase;
+    }
+
+    @Override
+    public int docCount() {
+        return docs.size();
+    }
+
+    @Override
+    public PostingList.View postings(long termHash) {
+        PostingList list = postings.get(termHash);
+        return list != null ? list.view() : null;
+    }
+
+    @Override
+    public byte[] docBytes(int docId) {
+        return docs.get(docId - docBase);
+    }
+
+    @Override
+    public ChatHistory doc(int docId) {
+        return ChatHistoryCodec.decode(docs.get(docId - docBase));
+    }
+
+    @Override
+    public void forEachTerm(TermVisitor visitor) {
+        long[] hashes = new long[postings.size()];
+        int i = 0;
+        for (Long hash : postings.keySet()) {
+            hashes[i++] = hash;
+        }
+        Arrays.sort(hashes);
+        for (long hash : hashes) {
+            visitor.visit(hash, postings.get(hash).view());
+        }
+    }
+}
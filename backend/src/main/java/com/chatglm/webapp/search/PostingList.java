@@ -0,0 +1,122 @@
+package com.chatglm.webapp.search;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 增量变长编码的倒排链
+ * 文档号严格递增，每项保存与前一文档号的差值（第一项相对-1），差值按7位一组的变长整数编码。
+ * 内存中的倒排链和段文件中的倒排链使用相同的字节格式。
+ */
+final class PostingList {
+
+    private byte[] data = new byte[8];
+    private int length;
+    private int count;
+    private int lastDoc = -1;
+
+    void add(int doc) {
+        if (doc <= lastDoc) {
+            if (doc == lastDoc) {
+                return;
+            }
+            throw new IllegalArgumentException("Doc ids must be ascending: " + doc + " after " + lastDoc);
+        }
+        int delta = doc - lastDoc;
+        if (length + 5 > data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        while ((delta & ~0x7F) != 0) {
+            data[length++] = (byte) ((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        data[length++] = (byte) delta;
+        lastDoc = doc;
+        count++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    int length() {
+        return length;
+    }
+
+    byte[] data() {
+        return data;
+    }
+
+    View view() {
+        return new View(ByteBuffer.wrap(data, 0, length), 0, length, count);
+    }
+
+    /**
+     * 倒排链的只读视图，可以指向内存数组或段文件映射区域
+     */
+    static final class View {
+        final ByteBuffer buffer;
+        final int offset;
+        final int length;
+        final int count;
+
+        View(ByteBuffer buffer, int offset, int length, int count) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+        }
+
+        int[] decode() {
+            int[] docs = new int[count];
+            int position = offset;
+            int doc = -1;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get(position++);
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                doc += delta;
+                docs[i] = doc;
+            }
+            return docs;
+        }
+
+        /**
+         * 只保留candidates中同时出现在本倒排链中的文档号，边解码边合并，不分配新数组
+         * @return 保留的个数，结果写回candidates的前部
+         */
+        int retainAll(int[] candidates, int size) {
+            int position = offset;
+            int doc = -1;
+            int decoded = 0;
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int target = candidates[i];
+                while (doc < target && decoded < count) {
+                    int delta = 0;
+                    int shift = 0;
+                    byte b;
+                    do {
+                        b = buffer.get(position++);
+                        delta |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    doc += delta;
+                    decoded++;
+                }
+                if (doc == target) {
+                    candidates[kept++] = target;
+                } else if (doc < target) {
+                    // 倒排链已经读完
+                    break;
+                }
+            }
+            return kept;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.chatglm.webapp.search;
+
+import com.chatglm.webapp.codec.ChatHistoryCodec;
+import com.chatglm.webapp.model.ChatHistory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 不可变的索引段文件，只读映射到内存
+ * 每个用户一个分区，查询只访问当前用户的分区；词项表按哈希排序、定长存储，直接在映射区域上二分查找。
+ *
+ * 文件格式：
+ * [int 魔数][byte 版本][int 被替换的段数][int 段ID...]
+ * 分区：[int 词项数][int 倒排字节数][词项数 x (long 哈希, int 倒排偏移, int 倒排长度, int 文档数)][倒排数据]
+ *      [int 文档数][(文档数 + 1) x int 文档偏移][文档数据]
+ * 目录：[int 用户数][用户数 x (long 用户ID, int 起始文档号, int 分区偏移)][int 目录偏移][int 魔数]
+ */
+final class SearchSegment {
+
+    private static final int MAGIC = 0x43475358;
+    private static final byte VERSION = 1;
+    private static final int TERM_ENTRY_LENGTH = 20;
+
+    private final int id;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int[] replaced;
+    private final Map<Long, Partition> partitions;
+
+    private SearchSegment(int id, Path path, MappedByteBuffer buffer, int[] replaced, Map<Long, Partition> partitions) {
+        this.id = id;
+        this.path = path;
+        this.buffer = buffer;
+        this.replaced = replaced;
+        this.partitions = partitions;
+    }
+
+    /**
+     * 写入段文件
+     * @param replaced 合并时被本段替换的段ID，加载时据此清理合并中断后残留的旧段
+     * @param userIds 按升序排列的用户ID
+     * @param partitions 返回用户的分区，返回null时跳过；合并时逐个生成，避免同时持有所有用户的数据
+     */
+    static void write(Path file, int[] replaced, Iterable<Long> userIds, Function<Long, MemoryPartition> partitions)
+            throws IOException {
+        List<long[]> directory = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(replaced.length);
+            for (int segmentId : replaced) {
+                out.writeInt(segmentId);
+            }
+            for (Long userId : userIds) {
+                MemoryPartition partition = partitions.apply(userId);
+                if (partition == null || partition.docCount() == 0) {
+                    continue;
+                }
+                directory.add(new long[]{userId, partition.docBase(), out.size()});
+                writePartition(out, partition);
+                if (out.size() == Integer.MAX_VALUE) {
+                    throw new IOException("Search segment exceeds 2GB: " + file);
+                }
+            }
+            int directoryOffset = out.size();
+            out.writeInt(directory.size());
+            for (long[] entry : directory) {
+                out.writeLong(entry[0]);
+                out.writeInt((int) entry[1]);
+                out.writeInt((int) entry[2]);
+            }
+            out.writeInt(directoryOffset);
+            out.writeInt(MAGIC);
+        }
+    }
+
+    private static void writePartition(DataOutputStream out, MemoryPartition partition) throws IOException {
+        List<Long> hashes = new ArrayList<>();
+        List<PostingList.View> views = new ArrayList<>();
+        partition.forEachTerm((termHash, postings) -> {
+            hashes.add(termHash);
+            views.add(postings);
+        });
+        int postingsBytes = 0;
+        for (PostingList.View view : views) {
+            postingsBytes += view.length;
+        }
+        out.writeInt(hashes.size());
+        out.writeInt(postingsBytes);
+        int postingsOffset = 0;
+        for (int i = 0; i < hashes.size(); i++) {
+            PostingList.View view = views.get(i);
+            out.writeLong(hashes.get(i));
+            out.writeInt(postingsOffset);
+            out.writeInt(view.length);
+            out.writeInt(view.count);
+            postingsOffset += view.length;
+        }
+        for (PostingList.View view : views) {
+            out.write(view.buffer.array(), view.buffer.arrayOffset() + view.offset, view.length);
+        }
+
+        int docCount = partition.docCount();
+        out.writeInt(docCount);
+        int docOffset = 0;
+        out.writeInt(0);
+        for (int i = 0; i < docCount; i++) {
+            docOffset += partition.docBytes(partition.docBase() + i).length;
+            out.writeInt(docOffset);
+        }
+        for (int i = 0; i < docCount; i++) {
+            out.write(partition.docBytes(partition.docBase() + i));
+        }
+    }
+
+    /**
+     * 打开段文件并读取目录
+     */
+    static SearchSegment open(int id, Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int limit = buffer.limit();
+        if (limit < 17 || buffer.getInt(0) != MAGIC || buffer.getInt(limit - 4) != MAGIC) {
+            throw new IOException("Corrupted search segment: " + path);
+        }
+        if (buffer.get(4) != VERSION) {
+            throw new IOException("Unsupported search segment version: " + buffer.get(4));
+        }
+        int[] replaced = new int[buffer.getInt(5)];
+        for (int i = 0; i < replaced.length; i++) {
+            replaced[i] = buffer.getInt(9 + i * 4);
+        }
+        int position = buffer.getInt(limit - 8);
+        int userCount = buffer.getInt(position);
+        position += 4;
+        Map<Long, Partition> partitions = new HashMap<>(userCount * 2);
+        for (int i = 0; i < userCount; i++) {
+            long userId = buffer.getLong(position);
+            int docBase = buffer.getInt(position + 8);
+            int sectionOffset = buffer.getInt(position + 12);
+            partitions.put(userId, new Partition(buffer, docBase, sectionOffset));
+            position += 16;
+        }
+        return new SearchSegment(id, path, buffer, replaced, partitions);
+    }
+
+    int id() {
+        return id;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int[] replaced() {
+        return replaced;
+    }
+
+    long sizeBytes() {
+        return buffer.capacity();
+    }
+
+    IndexPartition partition(long userId) {
+        return partitions.get(userId);
+    }
+
+    Set<Long> userIds() {
+        return Collections.unmodifiableSet(partitions.keySet());
+    }
+
+    /**
+     * 映射区域中的单个用户分区
+     */
+    private static final class Partition implements IndexPartition {
+
+        private final ByteBuffer buffer;
+        private final int docBase;
+        private final int termCount;
+        private final int termsStart;
+        private final int postingsStart;
+        private final int docCount;
+        private final int docOffsetsStart;
+        private final int docsStart;
+
+        Partition(ByteBuffer buffer, int docBase, int sectionOffset) {
+            this.buffer = buffer;
+            this.docBase = docBase;
+            this.termCount = buffer.getInt(sectionOffset);
+            int postingsBytes = buffer.getInt(sectionOffset + 4);
+            this.termsStart = sectionOffset + 8;
+            this.postingsStart = termsStart + termCount * TERM_ENTRY_LENGTH;
+            int docsHeader = postingsStart + postingsBytes;
+            this.docCount = buffer.getInt(docsHeader);
+            this.docOffsetsStart = docsHeader + 4;
+            this.docsStart = docOffsetsStart + (docCount + 1) * 4;
+        }
+
+        @Override
+        public int docBase() {
+            return docBase;
+        }
+
+        @Override
+        public int docCount() {
+            return docCount;
+        }
+
+        @Override
+        public PostingList.View postings(long termHash) {
+            int low = 0;
+            int high = termCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long value = buffer.getLong(termsStart + mid * TERM_ENTRY_LENGTH);
+                if (value < termHash) {
+                    low = mid + 1;
+                } else if (value > termHash) {
+                    high = mid - 1;
+                } else {
+                    return view(termsStart + mid * TERM_ENTRY_LENGTH);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public byte[] docBytes(int docId) {
+            int index = docId - docBase;
+            int start = buffer.getInt(docOffsetsStart + index * 4);
+            int end = buffer.getInt(docOffsetsStart + (index + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            buffer.get(docsStart + start, bytes);
+            return bytes;
+        }
+
+        @Override
+        public ChatHistory doc(int docId) {
+            // 直接从映射区域解码
+            int index = docId - docBase;
+            int start = buffer.getInt(docOffsetsStart + index * 4);
+            int end = buffer.getInt(docOffsetsStart + (index + 1) * 4);
+            return ChatHistoryCodec.decode(buffer, docsStart + start, end - start);
+        }
+
+        @Override
+        public void forEachTerm(TermVisitor visitor) {
+            for (int i = 0; i < termCount; i++) {
+                int entry = termsStart + i * TERM_ENTRY_LENGTH;
+                visitor.visit(buffer.getLong(entry), view(entry));
+            }
+        }
+
+        private PostingList.View view(int entry) {
+            return new PostingList.View(buffer, postingsStart + buffer.getInt(entry + 8),
+                    buffer.getInt(entry + 12), buffer.getInt(entry + 16));
+        }
+    }
+}
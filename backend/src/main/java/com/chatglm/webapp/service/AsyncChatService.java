@@ -21,6 +21,15 @@ public interface AsyncChatService {
      */
     void processChatMessage(ChatMessage chatMessage);
 
+    /**
+     * 取消消息处理
+     * 尚未开始的任务在分发前被丢弃，正在执行的任务会中断上游调用
+     * @param messageId 消息ID
+     * @param userId 发起取消的用户，只能取消自己提交的任务
+     * @return 取消后的消息状态，消息不存在或不属于该用户时返回null，已结束的任务返回其最终状态
+     */
+    ChatMessage.MessageStatus cancelMessage(String messageId, Long userId);
+
     /**
      * 获取消息处理状态
      * @param messageId 消息ID
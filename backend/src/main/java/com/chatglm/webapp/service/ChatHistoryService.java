@@ -1,6 +1,7 @@
 package com.chatglm.webapp.service;
 
 import com.chatglm.webapp.model.ChatHistory;
+import com.chatglm.webapp.model.ChatHistoryPage;
 import java.util.List;
 
 public interface ChatHistoryService {
@@ -20,6 +21,20 @@ public interface ChatHistoryService {
      */
     List<ChatHistory> getChatHistoryBySessionId(String sessionId);
     
+    /**
+     * 按最近活跃时间倒序分页获取用户的会话
+     * @param cursor 上一页返回的游标，首页传null
+     * @param pageSize 每页会话数
+     * @param messagesPerSession 每个会话返回的最近消息条数
+     */
+    ChatHistoryPage getSessionsByUserId(Long userId, String cursor, int pageSize, int messagesPerSession);
+    
+    /**
+     * 全文搜索用户的聊天历史，按时间倒序返回
+     * 已被裁剪或过期、在历史中不再能看到的记录不会返回
+     */
+    List<ChatHistory> searchChatHistory(Long userId, String query, int limit);
+    
     /**
      * 删除用户的聊天历史
      */
@@ -0,0 +1,81 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.client.CancellationToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 异步聊天任务取消服务
+ * 记录本节点正在执行的任务及其取消令牌，取消信号通过Redis发布订阅广播到所有节点，
+ * 持有该任务的节点收到后立即断开上游连接。
+ */
+@Service
+public class ChatJobCancellationService implements MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatJobCancellationService.class);
+
+    public static final String CANCEL_CHANNEL = "chat_message:cancel";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // 本节点正在执行的任务
+    private final Map<String, CancellationToken> inFlight = new ConcurrentHashMap<>();
+
+    public ChatJobCancellationService(StringRedisTemplate stringRedisTemplate,
+                                      RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        listenerContainer.addMessageListener(this, new ChannelTopic(CANCEL_CHANNEL));
+    }
+
+    /**
+     * 登记正在执行的任务
+     */
+    public CancellationToken register(String messageId) {
+        CancellationToken token = new CancellationToken();
+        inFlight.put(messageId, token);
+        return token;
+    }
+
+    /**
+     * 任务结束后移除登记
+     */
+    public void unregister(String messageId) {
+        inFlight.remove(messageId);
+    }
+
+    /**
+     * 广播取消信号
+     */
+    public void broadcastCancel(String messageId) {
+        // 先取消本节点上的任务，再通知其他节点
+        cancelLocal(messageId);
+        try {
+            stringRedisTemplate.convertAndSend(CANCEL_CHANNEL, messageId);
+        } catch (Exception e) {
+            log.error("广播取消信号失败: {}, 错误: {}", messageId, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        cancelLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void cancelLocal(String messageId) {
+        CancellationToken token = inFlight.get(messageId);
+        if (token != null) {
+            log.info("中断正在执行的任务: {}", messageId);
+            token.cancel();
+        }
+    }
+}
@@ -0,0 +1,530 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.codec.ChatMessageRedisSerializer;
+import com.chatglm.webapp.model.ChatMessage;
+import com.chatglm.webapp.util.BatchFlusher;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步聊天任务状态存储
+ * 每个任务保存为一个Redis Hash：payload字段保存入队时的完整消息（紧凑二进制编码），
+ * 状态流转时只写入发生变化的字段（status、aiResponse、errorMessage）。
+ * 已结束（完成、失败、取消）的任务状态不再改变：状态更新和取消标记都由Lua脚本先检查当前状态再写入，
+ * 取消接口和消费者同时结束任务时只有一方生效。
+ * 消费者开始执行前先认领任务（claimedAt字段），重复投递的消息在认领有效期内不会再次执行。
+ * 并发写入先进入队列，由后台线程合并成一次管道批量写入Redis；队列已满时由调用线程经同一条刷写路径写入，
+ * 同一任务的写入不会乱序。
+ * 升级前的任务以JSON字符串保存，写入和认领脚本会先把它转换为Hash，读取遇到WRONGTYPE时先转换再重读。
+ */
+@Service
+public class ChatJobStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatJobStore.class);
+
+    public static final String MESSAGE_PREFIX = "chat_message:";
+
+    static final String FIELD_PAYLOAD = "payload";
+    static final String FIELD_STATUS = "status";
+    static final String FIELD_AI_RESPONSE = "aiResponse";
+    static final String FIELD_ERROR_MESSAGE = "errorMessage";
+    static final String FIELD_UPDATED_AT = "updatedAt";
+    static final String FIELD_CANCELLED = "cancelled";
+    static final String FIELD_CLAIMED_AT = "claimedAt";
+
+    // 任务结束后不再改变的状态
+    private static final String FINAL_STATUSES = String.join(",", ChatMessage.MessageStatus.COMPLETED.name(),
+            ChatMessage.MessageStatus.FAILED.name(), ChatMessage.MessageStatus.CANCELLED.name());
+
+    // 把升级前以字符串保存的任务（GenericJackson2JsonRedisSerializer写入的JSON字符串）转换为Hash，保留剩余过期时间
+    private static final String MIGRATE_LEGACY =
+            "if redis.call('TYPE', KEYS[1])['ok'] == 'string' then\n"
+                    + "  local value = redis.call('GET', KEYS[1])\n"
+                    + "  local ok, decoded = pcall(cjson.decode, value)\n"
+                    + "  local json = (ok and type(decoded) == 'string') and decoded or value\n"
+                    + "  local fields = {'" + FIELD_PAYLOAD + "', json}\n"
+                    + "  local parsed, message = pcall(cjson.decode, json)\n"
+                    + "  if parsed and type(message) == 'table' and type(message['status']) == 'string' then\n"
+                    + "    table.insert(fields, '" + FIELD_STATUS + "')\n"
+                    + "    table.insert(fields, message['status'])\n"
+                    + "  end\n"
+                    + "  local ttl = redis.call('PTTL', KEYS[1])\n"
+                    + "  redis.call('DEL', KEYS[1])\n"
+                    + "  redis.call('HSET', KEYS[1], unpack(fields))\n"
+                    + "  if ttl > 0 then\n"
+                    + "    redis.call('PEXPIRE', KEYS[1], ttl)\n"
+                    + "  end\n"
+                    + "end\n";
+
+    private static final DefaultRedisScript<Long> MIGRATE_SCRIPT =
+            new DefaultRedisScript<>(MIGRATE_LEGACY + "return 1", Long.class);
+
+    // ARGV[1] 过期秒数，ARGV[2] 阻止写入的状态（逗号分隔，空表示无条件写入），
+    // ARGV[3] 为1时取消标记也阻止写入，其余为字段和值；返回是否写入
+    // 脚本在启动时预加载，写入时只发送SHA1，Redis重启后脚本丢失时重新加载
+    private static final DefaultRedisScript<Long> WRITE_SCRIPT = new DefaultRedisScript<>(MIGRATE_LEGACY
+            + "local status = redis.call('HGET', KEYS[1], '" + FIELD_STATUS + "')\n"
+                    + "if status and string.find(',' .. ARGV[2] .. ',', ',' .. status .. ',', 1, true) then\n"
+                    + "  return 0\n"
+                    + "end\n"
+                    + "if ARGV[3] == '1' and redis.call('HEXISTS', KEYS[1], '" + FIELD_CANCELLED + "') == 1 then\n"
+                    + "  return 0\n"
+                    + "end\n"
+                    + "redis.call('HSET', KEYS[1], unpack(ARGV, 4))\n"
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1])\n"
+                    + "return 1",
+            Long.class);
+    private static final byte[] WRITE_SCRIPT_SHA = utf8(WRITE_SCRIPT.getSha1());
+    // EVALSHA的numkeys参数
+    private static final byte[] ONE_KEY = utf8("1");
+
+    // ARGV[1] 认领有效期毫秒，ARGV[2] 过期秒数；返回1认领成功，0任务已结束或已取消，-1已被其他消费者认领
+    private static final DefaultRedisScript<Long> CLAIM_SCRIPT = new DefaultRedisScript<>(MIGRATE_LEGACY
+            + "local status = redis.call('HGET', KEYS[1], '" + FIELD_STATUS + "')\n"
+                    + "if status == '" + ChatMessage.MessageStatus.COMPLETED.name() + "'"
+                    + " or status == '" + ChatMessage.MessageStatus.FAILED.name() + "'"
+                    + " or status == '" + ChatMessage.MessageStatus.CANCELLED.name() + "'"
+                    + " or redis.call('HEXISTS', KEYS[1], '" + FIELD_CANCELLED + "') == 1 then\n"
+                    + "  return 0\n"
+                    + "end\n"
+                    + "local time = redis.call('TIME')\n"
+                    + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)\n"
+                    + "local claimedAt = tonumber(redis.call('HGET', KEYS[1], '" + FIELD_CLAIMED_AT + "'))\n"
+                    + "if claimedAt and now - claimedAt < tonumber(ARGV[1]) then\n"
+                    + "  return -1\n"
+                    + "end\n"
+                    + "redis.call('HSET', KEYS[1], '" + FIELD_CLAIMED_AT + "', now, '" + FIELD_STATUS + "', '"
+                    + ChatMessage.MessageStatus.PROCESSING.name() + "', '" + FIELD_UPDATED_AT + "', now)\n"
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[2])\n"
+                    + "return 1",
+            Long.class);
+
+    /**
+     * 认领结果
+     */
+    public enum ClaimResult {
+        // 认领成功，状态已改为处理中
+        CLAIMED,
+        // 任务已结束或已取消
+        FINISHED,
+        // 认领有效期内已被其他消费者认领，当前消息是重复投递
+        CLAIMED_BY_OTHER
+    }
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final ChatMessageRedisSerializer payloadSerializer;
+    private final BatchFlusher<PendingWrite> flusher;
+    private final long expireSeconds;
+    private final long writeTimeoutMillis;
+    private final long claimLeaseMillis;
+
+    private final Counter writeCounter;
+    private final Counter roundTripCounter;
+    private final DistributionSummary writeBytes;
+    private final DistributionSummary batchSize;
+
+    public ChatJobStore(RedisTemplate<String, Object> redisTemplate,
+                        ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry,
+                        @Value("${chatglm.async.job-store.expire-hours:24}") long expireHours,
+                        @Value("${chatglm.async.job-store.queue-capacity:10000}") int queueCapacity,
+                        @Value("${chatglm.async.job-store.max-batch-size:256}") int maxBatchSize,
+                        @Value("${chatglm.async.job-store.write-timeout-ms:2000}") long writeTimeoutMillis,
+                        @Value("${chatglm.async.job-store.claim-lease-ms:120000}") long claimLeaseMillis) {
+        this.redisTemplate = redisTemplate;
+        this.payloadSerializer = new ChatMessageRedisSerializer(objectMapper);
+        this.expireSeconds = TimeUnit.HOURS.toSeconds(expireHours);
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.claimLeaseMillis = claimLeaseMillis;
+        this.writeCounter = Counter.builder("chatglm.redis.job.writes")
+                .description("Number of logical job state writes")
+                .register(meterRegistry);
+        this.roundTripCounter = Counter.builder("chatglm.redis.job.round.trips")
+                .description("Number of Redis round trips used for job state writes")
+                .register(meterRegistry);
+        this.writeBytes = DistributionSummary.builder("chatglm.redis.job.write.bytes")
+                .description("Bytes written to Redis per job state write")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("chatglm.redis.job.batch.size")
+                .description("Number of job state writes coalesced into one pipeline")
+                .register(meterRegistry);
+        this.flusher = new BatchFlusher<>("ChatJobStore-Flusher", queueCapacity, maxBatchSize, this::flush);
+    }
+
+    /**
+     * 预加载写入脚本，之后的写入直接使用EVALSHA
+     * Redis暂不可用时不影响启动，首次写入遇到NOSCRIPT时加载
+     */
+    @PostConstruct
+    public void loadScripts() {
+        try {
+            loadWriteScript();
+        } catch (Exception e) {
+            log.warn("预加载任务写入脚本失败，将在首次写入时加载: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 新建任务，写入完整消息
+     */
+    public CompletableFuture<Boolean> create(ChatMessage chatMessage) {
+        Map<String, byte[]> fields = new LinkedHashMap<>();
+        fields.put(FIELD_PAYLOAD, payloadSerializer.serialize(chatMessage));
+        fields.put(FIELD_STATUS, utf8(chatMessage.getStatus().name()));
+        return submit(chatMessage.getMessageId(), fields, "", false);
+    }
+
+    /**
+     * 更新任务状态，只写入变化的字段
+     * @return 是否写入；任务已结束或带取消标记时不写入，结果为false
+     */
+    public CompletableFuture<Boolean> updateStatus(String messageId, ChatMessage.MessageStatus status,
+                                                   String aiResponse, String errorMessage) {
+        Map<String, byte[]> fields = new LinkedHashMap<>();
+        fields.put(FIELD_STATUS, utf8(status.name()));
+        if (aiResponse != null) {
+            fields.put(FIELD_AI_RESPONSE, utf8(aiResponse));
+        }
+        if (errorMessage != null) {
+            fields.put(FIELD_ERROR_MESSAGE, utf8(errorMessage));
+        }
+        return submit(messageId, fields, FINAL_STATUSES, true);
+    }
+
+    /**
+     * 写入取消标记，消费者在分发前检查该标记
+     * @return 是否写入；任务已结束时不写入，结果为false
+     */
+    public CompletableFuture<Boolean> markCancelled(String messageId) {
+        Map<String, byte[]> fields = new LinkedHashMap<>();
+        fields.put(FIELD_CANCELLED, utf8("1"));
+        fields.put(FIELD_STATUS, utf8(ChatMessage.MessageStatus.CANCELLED.name()));
+        return submit(messageId, fields, FINAL_STATUSES, false);
+    }
+
+    /**
+     * 消费者开始执行前认领任务，直接访问Redis，不经过写入队列
+     * 任务在入队前已写入，此时没有尚未写入的状态；Redis不可用时按认领成功处理，不阻塞任务执行
+     */
+    public ClaimResult claim(String messageId) {
+        try {
+            Long result = redisTemplate.execute(CLAIM_SCRIPT, RedisSerializer.string(), null,
+                    List.of(MESSAGE_PREFIX + messageId),
+                    String.valueOf(claimLeaseMillis), String.valueOf(expireSeconds));
+            if (result != null && result == 0) {
+                return ClaimResult.FINISHED;
+            }
+            if (result != null && result < 0) {
+                return ClaimResult.CLAIMED_BY_OTHER;
+            }
+        } catch (Exception e) {
+            log.error("认领任务失败，继续执行: {}, 错误: {}", messageId, e.getMessage());
+        }
+        return ClaimResult.CLAIMED;
+    }
+
+    /**
+     * 等待写入完成，超时或失败只记录日志
+     * @return 写入结果，超时或失败时为null
+     */
+    public <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get(writeTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("保存任务状态到Redis失败: {}", e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * 读取任务
+     */
+    public ChatMessage get(String messageId) {
+        String key = MESSAGE_PREFIX + messageId;
+        try {
+            Map<byte[], byte[]> hash = readMigrating(key, connection -> connection.hashCommands().hGetAll(utf8(key)));
+            if (hash == null || hash.isEmpty()) {
+                return null;
+            }
+            return fromHash(hash);
+        } catch (Exception e) {
+            log.error("从Redis获取消息失败: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 只读取任务状态和取消标记字段，带取消标记且未结束的任务视为已取消
+     */
+    public ChatMessage.MessageStatus getStatus(String messageId) {
+        String key = MESSAGE_PREFIX + messageId;
+        try {
+            List<byte[]> values = readMigrating(key, connection ->
+                    connection.hashCommands().hMGet(utf8(key), utf8(FIELD_STATUS), utf8(FIELD_CANCELLED)));
+            if (values == null || values.get(0) == null) {
+                return null;
+            }
+            ChatMessage.MessageStatus status =
+                    ChatMessage.MessageStatus.valueOf(new String(values.get(0), StandardCharsets.UTF_8));
+            return values.get(1) != null ? resolveCancelled(status) : status;
+        } catch (Exception e) {
+            log.error("从Redis获取消息状态失败: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 读取Hash，键仍是升级前的字符串格式时先转换再重读
+     */
+    private <T> T readMigrating(String key, RedisCallback<T> read) {
+        try {
+            return redisTemplate.execute(read);
+        } catch (RuntimeException e) {
+            if (!isWrongType(e)) {
+                throw e;
+            }
+            log.info("转换升级前的任务格式: {}", key);
+            redisTemplate.execute(MIGRATE_SCRIPT, RedisSerializer.string(), null, List.of(key));
+            return redisTemplate.execute(read);
+        }
+    }
+
+    private static boolean isWrongType(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().startsWith("WRONGTYPE")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ChatMessage fromHash(Map<byte[], byte[]> hash) {
+        Map<String, byte[]> fields = new LinkedHashMap<>();
+        hash.forEach((k, v) -> fields.put(new String(k, StandardCharsets.UTF_8), v));
+
+        byte[] payload = fields.get(FIELD_PAYLOAD);
+        if (payload == null) {
+            return null;
+        }
+        ChatMessage chatMessage = payloadSerializer.deserialize(payload);
+        byte[] status = fields.get(FIELD_STATUS);
+        if (status != null) {
+            chatMessage.setStatus(ChatMessage.MessageStatus.valueOf(new String(status, StandardCharsets.UTF_8)));
+        }
+        if (fields.containsKey(FIELD_CANCELLED)) {
+            chatMessage.setStatus(resolveCancelled(chatMessage.getStatus()));
+        }
+        byte[] aiResponse = fields.get(FIELD_AI_RESPONSE);
+        if (aiResponse != null) {
+            chatMessage.setAiResponse(new String(aiResponse, StandardCharsets.UTF_8));
+        }
+        byte[] errorMessage = fields.get(FIELD_ERROR_MESSAGE);
+        if (errorMessage != null) {
+            chatMessage.setErrorMessage(new String(errorMessage, StandardCharsets.UTF_8));
+        }
+        return chatMessage;
+    }
+
+    private static ChatMessage.MessageStatus resolveCancelled(ChatMessage.MessageStatus status) {
+        return status == ChatMessage.MessageStatus.COMPLETED || status == ChatMessage.MessageStatus.FAILED
+                ? status : ChatMessage.MessageStatus.CANCELLED;
+    }
+
+    private CompletableFuture<Boolean> submit(String messageId, Map<String, byte[]> fields,
+                                              String blockingStatuses, boolean blockedByCancel) {
+        fields.put(FIELD_UPDATED_AT, utf8(String.valueOf(System.currentTimeMillis())));
+        PendingWrite write = new PendingWrite(MESSAGE_PREFIX + messageId, fields, blockingStatuses, blockedByCancel);
+        try {
+            // 队列已满时由调用线程连同已排队的写入一起刷写，不越过同一任务先提交的写入
+            if (!flusher.offerOrFlush(write, writeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                write.future.completeExceptionally(new IllegalStateException("任务状态存储已关闭"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write.future.completeExceptionally(e);
+        }
+        return write.future;
+    }
+
+    /**
+     * 以一次管道把一批写入发送到Redis
+     * 同一个key连续的无条件写入先合并，有条件的写入单独执行，同一个key的写入保持提交顺序。
+     */
+    private void flush(List<PendingWrite> batch) {
+        List<PendingWrite> ops = new ArrayList<>();
+        Map<String, PendingWrite> lastByKey = new HashMap<>();
+        Map<PendingWrite, PendingWrite> opOf = new IdentityHashMap<>();
+        for (PendingWrite write : batch) {
+            PendingWrite last = lastByKey.get(write.key);
+            if (last != null && last.isUnconditional() && write.isUnconditional()) {
+                last.fields.putAll(write.fields);
+                opOf.put(write, last);
+                continue;
+            }
+            PendingWrite op = write.isUnconditional()
+                    ? new PendingWrite(write.key, new LinkedHashMap<>(write.fields), "", false)
+                    : write;
+            ops.add(op);
+            lastByKey.put(write.key, op);
+            opOf.put(write, op);
+        }
+
+        try {
+            List<Object> results = executeWrites(ops);
+            Map<PendingWrite, Boolean> written = new IdentityHashMap<>();
+            for (int i = 0; i < ops.size(); i++) {
+                written.put(ops.get(i), Long.valueOf(1L).equals(results.get(i)));
+            }
+            roundTripCounter.increment();
+            writeCounter.increment(batch.size());
+            batchSize.record(batch.size());
+            for (PendingWrite write : batch) {
+                write.future.complete(written.get(opOf.get(write)));
+            }
+        } catch (Exception e) {
+            log.error("批量写入任务状态失败: {}", e.getMessage(), e);
+            for (PendingWrite write : batch) {
+                write.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 执行一批写入，脚本不在Redis中时（重启或SCRIPT FLUSH）加载后只重试返回NOSCRIPT的写入
+     * @return 每个写入的脚本返回值
+     */
+    private List<Object> executeWrites(List<PendingWrite> ops) {
+        List<Object> results;
+        try {
+            results = pipelineWrites(ops);
+        } catch (RedisPipelineException e) {
+            results = new ArrayList<>(e.getPipelineResult());
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < results.size(); i++) {
+                if (isNoScript(results.get(i))) {
+                    missing.add(i);
+                }
+            }
+            if (missing.isEmpty() || results.size() != ops.size()) {
+                throw e;
+            }
+            log.info("任务写入脚本不在Redis中，重新加载后重试{}个写入", missing.size());
+            loadWriteScript();
+            List<PendingWrite> retry = new ArrayList<>(missing.size());
+            for (int index : missing) {
+                retry.add(ops.get(index));
+            }
+            List<Object> retried = pipelineWrites(retry);
+            roundTripCounter.increment(2);
+            for (int i = 0; i < missing.size(); i++) {
+                results.set(missing.get(i), retried.get(i));
+            }
+        }
+        for (Object result : results) {
+            if (result instanceof RuntimeException e) {
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    private void loadWriteScript() {
+        redisTemplate.execute((RedisCallback<String>) connection ->
+                connection.scriptingCommands().scriptLoad(utf8(WRITE_SCRIPT.getScriptAsString())));
+    }
+
+    private List<Object> pipelineWrites(List<PendingWrite> ops) {
+        return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (PendingWrite op : ops) {
+                writeHash(connection, op);
+            }
+            return null;
+        });
+    }
+
+    private static boolean isNoScript(Object result) {
+        for (Throwable t = result instanceof Throwable ? (Throwable) result : null; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().startsWith("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeHash(RedisConnection connection, PendingWrite write) {
+        byte[][] keysAndArgs = new byte[4 + write.fields.size() * 2][];
+        keysAndArgs[0] = utf8(write.key);
+        keysAndArgs[1] = utf8(String.valueOf(expireSeconds));
+        keysAndArgs[2] = utf8(write.blockingStatuses);
+        keysAndArgs[3] = utf8(write.blockedByCancel ? "1" : "0");
+        int i = 4;
+        for (Map.Entry<String, byte[]> entry : write.fields.entrySet()) {
+            keysAndArgs[i++] = utf8(entry.getKey());
+            keysAndArgs[i++] = entry.getValue();
+        }
+        connection.scriptingCommands().evalSha(WRITE_SCRIPT_SHA, ReturnType.INTEGER, 1, keysAndArgs);
+        // 按实际发送的参数计算：SHA1、键数量、键和全部参数
+        long bytes = WRITE_SCRIPT_SHA.length + ONE_KEY.length;
+        for (byte[] arg : keysAndArgs) {
+            bytes += arg.length;
+        }
+        writeBytes.record(bytes);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.close();
+    }
+
+    private static final class PendingWrite {
+        private final String key;
+        private final Map<String, byte[]> fields;
+        private final String blockingStatuses;
+        private final boolean blockedByCancel;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private PendingWrite(String key, Map<String, byte[]> fields, String blockingStatuses,
+                             boolean blockedByCancel) {
+            this.key = key;
+            this.fields = fields;
+            this.blockingStatuses = blockingStatuses;
+            this.blockedByCancel = blockedByCancel;
+        }
+
+        boolean isUnconditional() {
+            return blockingStatuses.isEmpty() && !blockedByCancel;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.chatglm.webapp.service;
 
+import com.chatglm.webapp.client.CancellationToken;
 import com.chatglm.webapp.client.ChatGLMClient;
 import com.chatglm.webapp.model.ApiRequest;
 import com.chatglm.webapp.model.ChatGLMModel;
@@ -7,6 +8,7 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface ChatService {
     
@@ -16,13 +18,36 @@ public interface ChatService {
      * @return 聊天响应内容
      */
     com.chatglm.webapp.model.ApiResponse<String> chat(ApiRequest request);
+
+    /**
+     * 可取消的普通聊天请求
+     * @param request 聊天请求
+     * @param cancellationToken 取消令牌，取消时中断上游调用
+     * @return 聊天响应内容
+     */
+    com.chatglm.webapp.model.ApiResponse<String> chat(ApiRequest request, CancellationToken cancellationToken);
+
+    /**
+     * 从任务队列取出的聊天请求，排队时间计入延迟指标
+     * 不在请求线程中执行，用户取自任务而不是SecurityContext
+     * @param request 聊天请求
+     * @param cancellationToken 取消令牌，取消时中断上游调用
+     * @param userId 提交任务的用户ID
+     * @param queuedNanos 请求在任务队列中等待的时间
+     * @return 聊天响应内容
+     */
+    com.chatglm.webapp.model.ApiResponse<String> chat(ApiRequest request, CancellationToken cancellationToken,
+                                                      String userId, long queuedNanos);
     
     /**
      * 流式聊天请求
      * @param request 聊天请求
      * @param emitter SSE发送器
+     * @param cancellationToken 取消令牌，客户端断开时取消，中断上游调用
+     * @return 上游流结束（完成、失败或被取消）时完成
      */
-    void streamChat(ApiRequest request, SseEmitter emitter) throws IOException;
+    CompletableFuture<Void> streamChat(ApiRequest request, SseEmitter emitter, CancellationToken cancellationToken)
+            throws IOException;
     
     /**
      * 构建聊天消息列表
@@ -0,0 +1,58 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.model.User;
+import com.chatglm.webapp.repository.UserRepository;
+import com.chatglm.webapp.util.ClientIdentity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+/**
+ * 当前请求的登录用户
+ * JWT中只有用户名，用户ID通过带本地缓存的用户存储查询，一般不访问Redis。
+ * 只能在请求线程中调用，异步任务应在提交时取得用户ID并随任务传递。
+ */
+@Service
+public class CurrentUserService {
+
+    private static final String ADMIN_AUTHORITY = "ROLE_ADMIN";
+
+    private final UserRepository userRepository;
+
+    public CurrentUserService(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    /**
+     * 当前登录用户的ID，未登录、匿名访问或用户不存在时为null
+     */
+    public Long currentUserId() {
+        String username = ClientIdentity.currentUsername();
+        if (ClientIdentity.ANONYMOUS.equals(username)) {
+            return null;
+        }
+        return userRepository.findByUsername(username).map(User::getId).orElse(null);
+    }
+
+    /**
+     * 当前登录用户是否为管理员
+     */
+    public boolean isAdmin() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null && authentication.getAuthorities().stream()
+                .anyMatch(authority -> ADMIN_AUTHORITY.equals(authority.getAuthority()));
+    }
+
+    /**
+     * 当前登录用户的ID
+     * @throws ChatGLMException 401 未登录或用户不存在
+     */
+    public Long requireCurrentUserId() {
+        Long userId = currentUserId();
+        if (userId == null) {
+            throw new ChatGLMException(401, "未登录");
+        }
+        return userId;
+    }
+}
@@ -0,0 +1,138 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.util.RetryAfterHeader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录失败限制
+ * <ul>
+ *   <li>按用户名+IP退避：同一来源连续失败达到free-failures次后，下一次登录需等待backoff-base-ms，
+ *       之后每多失败一次等待时间翻倍，最长max-backoff-seconds。其他IP登录同一用户名不受影响，
+ *       任何人都无法通过输错密码锁定他人账户。</li>
+ *   <li>按IP限制总失败次数，防止同一来源轮换用户名猜测密码。</li>
+ * </ul>
+ * 检查和计数在同一个Lua脚本中完成：每次尝试先计为一次失败，登录成功后再撤销，
+ * 并发的尝试不会越过上限。被拒绝的请求不再计算密码哈希。
+ * 计数保存在Redis中，所有节点共享；Redis不可用时不限制。
+ */
+@Service
+public class LoginAttemptService {
+
+    private static final Logger log = LoggerFactory.getLogger(LoginAttemptService.class);
+
+    private static final String SOURCE_KEY_PREFIX = "auth:login_failures:source:";
+    private static final String IP_KEY_PREFIX = "auth:login_failures:ip:";
+
+    // KEYS[1] 用户名+IP的失败记录（Hash：failures、blockedUntil），KEYS[2] IP失败次数
+    // ARGV[1] 开始退避的失败次数，ARGV[2] 退避基准毫秒，ARGV[3] 最长退避毫秒，ARGV[4] IP失败上限，ARGV[5] 计数窗口毫秒
+    // 返回0表示允许并已计为一次失败，大于0为需要等待的毫秒数
+    private static final DefaultRedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "local time = redis.call('TIME')\n"
+                    + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)\n"
+                    + "local blockedUntil = tonumber(redis.call('HGET', KEYS[1], 'blockedUntil') or '0')\n"
+                    + "if blockedUntil > now then\n"
+                    + "  return blockedUntil - now\n"
+                    + "end\n"
+                    + "if tonumber(redis.call('GET', KEYS[2]) or '0') >= tonumber(ARGV[4]) then\n"
+                    + "  local ttl = redis.call('PTTL', KEYS[2])\n"
+                    + "  if ttl > 0 then\n"
+                    + "    return ttl\n"
+                    + "  end\n"
+                    + "  return tonumber(ARGV[5])\n"
+                    + "end\n"
+                    + "local failures = redis.call('HINCRBY', KEYS[1], 'failures', 1)\n"
+                    + "if failures >= tonumber(ARGV[1]) then\n"
+                    + "  local backoff = math.min(tonumber(ARGV[3]),"
+                    + " tonumber(ARGV[2]) * 2 ^ (failures - tonumber(ARGV[1])))\n"
+                    + "  redis.call('HSET', KEYS[1], 'blockedUntil', now + backoff)\n"
+                    + "end\n"
+                    + "redis.call('PEXPIRE', KEYS[1], math.max(tonumber(ARGV[5]), tonumber(ARGV[3])))\n"
+                    + "if redis.call('INCR', KEYS[2]) == 1 then\n"
+                    + "  redis.call('PEXPIRE', KEYS[2], ARGV[5])\n"
+                    + "end\n"
+                    + "return 0",
+            Long.class);
+
+    // 登录成功：清除用户名+IP的失败记录，并撤销本次尝试预先计入的IP失败次数
+    private static final DefaultRedisScript<Long> SUCCESS_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('DEL', KEYS[1])\n"
+                    + "if tonumber(redis.call('GET', KEYS[2]) or '0') > 0 then\n"
+                    + "  redis.call('DECR', KEYS[2])\n"
+                    + "end\n"
+                    + "return 1",
+            Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final int freeFailures;
+    private final long backoffBaseMillis;
+    private final long maxBackoffMillis;
+    private final int maxFailuresPerIp;
+    private final long windowMillis;
+
+    private final Counter throttled;
+
+    public LoginAttemptService(StringRedisTemplate stringRedisTemplate,
+                               MeterRegistry meterRegistry,
+                               @Value("${chatglm.auth.login.free-failures:5}") int freeFailures,
+                               @Value("${chatglm.auth.login.backoff-base-ms:1000}") long backoffBaseMillis,
+                               @Value("${chatglm.auth.login.max-backoff-seconds:900}") long maxBackoffSeconds,
+                               @Value("${chatglm.auth.login.max-failures-per-ip:20}") int maxFailuresPerIp,
+                               @Value("${chatglm.auth.login.failure-window-seconds:900}") long windowSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.freeFailures = freeFailures;
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.maxBackoffMillis = TimeUnit.SECONDS.toMillis(maxBackoffSeconds);
+        this.maxFailuresPerIp = maxFailuresPerIp;
+        this.windowMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+        this.throttled = Counter.builder("chatglm.auth.login.throttled")
+                .description("Login attempts rejected after too many failures")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 开始一次登录尝试：检查是否允许，允许时先计为一次失败，登录成功后由recordSuccess撤销
+     * @throws ChatGLMException 429 该用户名+IP处于退避期或IP失败次数已达上限
+     */
+    public void beginAttempt(String username, String ip) {
+        Long retryAfterMillis;
+        try {
+            retryAfterMillis = stringRedisTemplate.execute(ACQUIRE_SCRIPT, keys(username, ip),
+                    String.valueOf(freeFailures), String.valueOf(backoffBaseMillis), String.valueOf(maxBackoffMillis),
+                    String.valueOf(maxFailuresPerIp), String.valueOf(windowMillis));
+        } catch (Exception e) {
+            log.warn("检查登录失败次数失败，本次不限制: {}", e.getMessage());
+            return;
+        }
+        if (retryAfterMillis != null && retryAfterMillis > 0) {
+            throttled.increment();
+            long seconds = RetryAfterHeader.set(retryAfterMillis);
+            throw new ChatGLMException(429, "登录失败次数过多，请" + seconds + "秒后再试");
+        }
+    }
+
+    /**
+     * 登录成功后清除该用户名+IP的失败记录，并撤销本次尝试计入的IP失败次数
+     */
+    public void recordSuccess(String username, String ip) {
+        try {
+            stringRedisTemplate.execute(SUCCESS_SCRIPT, keys(username, ip));
+        } catch (Exception e) {
+            log.warn("清除登录失败次数失败: {}", e.getMessage());
+        }
+    }
+
+    private static List<String> keys(String username, String ip) {
+        return List.of(SOURCE_KEY_PREFIX + username + ":" + ip, IP_KEY_PREFIX + ip);
+    }
+}
@@ -0,0 +1,138 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.model.User;
+import com.chatglm.webapp.repository.UserRepository;
+import com.chatglm.webapp.util.RetryAfterHeader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 密码哈希计算服务
+ * BCrypt每次计算约需几十到上百毫秒，放在专用的有界线程池中执行，登录高峰时不会占满Tomcat的请求线程。
+ * 队列满时直接拒绝并返回503，而不是让请求线程排队等待。
+ */
+@Service
+public class PasswordHashingService {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordHashingService.class);
+
+    private final PasswordEncoder passwordEncoder;
+    private final UserRepository userRepository;
+    private final ThreadPoolExecutor executor;
+
+    // 用户不存在时也计算一次哈希，响应时间不会暴露用户名是否存在
+    private final String dummyHash;
+
+    private final Counter rejected;
+    private final Counter upgraded;
+
+    public PasswordHashingService(PasswordEncoder passwordEncoder,
+                                  UserRepository userRepository,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${chatglm.auth.bcrypt.threads:0}") int threads,
+                                  @Value("${chatglm.auth.bcrypt.queue-capacity:100}") int queueCapacity) {
+        this.passwordEncoder = passwordEncoder;
+        this.userRepository = userRepository;
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "ChatGLM-BCrypt-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.dummyHash = passwordEncoder.encode("dummy-password-for-unknown-users");
+
+        this.rejected = Counter.builder("chatglm.auth.bcrypt.rejected")
+                .description("Password hashing tasks rejected because the pool queue was full")
+                .register(meterRegistry);
+        this.upgraded = Counter.builder("chatglm.auth.bcrypt.upgraded")
+                .description("Stored password hashes re-encoded with the current cost factor")
+                .register(meterRegistry);
+        Gauge.builder("chatglm.auth.bcrypt.queued", executor, e -> e.getQueue().size())
+                .description("Password hashing tasks waiting for a thread")
+                .register(meterRegistry);
+        Gauge.builder("chatglm.auth.bcrypt.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Password hashing tasks running")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 校验密码
+     * @param rawPassword 用户输入的密码
+     * @param encodedPassword 保存的哈希，用户不存在时传null，仍然计算一次哈希后返回false
+     * @throws ChatGLMException 503 线程池已满
+     */
+    public CompletableFuture<Boolean> matches(String rawPassword, String encodedPassword) {
+        return submit(() -> {
+            if (encodedPassword == null) {
+                passwordEncoder.matches(rawPassword, dummyHash);
+                return false;
+            }
+            return passwordEncoder.matches(rawPassword, encodedPassword);
+        });
+    }
+
+    /**
+     * 计算密码哈希
+     * @throws ChatGLMException 503 线程池已满
+     */
+    public CompletableFuture<String> encode(String rawPassword) {
+        return submit(() -> passwordEncoder.encode(rawPassword));
+    }
+
+    /**
+     * 登录成功后，保存的哈希使用的强度低于当前配置时按当前强度重新计算并保存
+     * 在后台执行，失败时下次登录再试
+     */
+    public void upgradeIfNeeded(User user, String rawPassword) {
+        if (!passwordEncoder.upgradeEncoding(user.getPassword())) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    user.setPassword(passwordEncoder.encode(rawPassword));
+                    if (userRepository.update(user)) {
+                        upgraded.increment();
+                    }
+                } catch (Exception e) {
+                    log.warn("更新密码哈希失败: {}, 用户: {}", e.getMessage(), user.getUsername());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 线程池繁忙时跳过，下次登录再更新
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            RetryAfterHeader.set(1000);
+            throw new ChatGLMException(503, "登录请求过多，请稍后再试");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
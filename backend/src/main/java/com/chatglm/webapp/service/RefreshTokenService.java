@@ -0,0 +1,253 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.util.JwtUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 刷新token服务
+ * 访问token有效期很短，只在本地校验；刷新token保存在Redis中，每次使用后换发新的刷新token。
+ * 同一次登录换发出的刷新token属于同一个系列（family），已使用过的刷新token再次出现说明可能被盗用，
+ * 此时整个系列作废，持有者需要重新登录。用户退出所有设备后，之前的系列在下次刷新时作废。
+ *
+ * 刷新token格式为"系列ID.随机串"，Redis中只保存其SHA-256摘要。
+ */
+@Service
+public class RefreshTokenService {
+
+    private static final Logger log = LoggerFactory.getLogger(RefreshTokenService.class);
+
+    public static final String KEY_PREFIX = "auth:refresh:";
+
+    private static final int ID_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Pattern FAMILY_ID = Pattern.compile("[A-Za-z0-9_-]{22}");
+
+    // 创建系列并保存第一个刷新token
+    private static final DefaultRedisScript<Long> ISSUE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('HSET', KEYS[1], 'user', ARGV[1], 'epoch', ARGV[2])\n"
+                    + "redis.call('PEXPIRE', KEYS[1], ARGV[3])\n"
+                    + "redis.call('SET', KEYS[2], '0', 'PX', ARGV[3])\n"
+                    + "return 1",
+            Long.class);
+
+    // 换发刷新token，返回 {结果, 用户名, 会话版本}；结果1为成功，0为无效，-1为重复使用
+    // 已使用的token保留到原过期时间，期间再次出现即判为重复使用
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> ROTATE_SCRIPT = new DefaultRedisScript<>(
+            "local state = redis.call('GET', KEYS[2])\n"
+                    + "local family = redis.call('HMGET', KEYS[1], 'user', 'epoch')\n"
+                    + "if not state or not family[1] then\n"
+                    + "  return {'0'}\n"
+                    + "end\n"
+                    + "if state ~= '0' then\n"
+                    + "  redis.call('DEL', KEYS[1])\n"
+                    + "  return {'-1', family[1]}\n"
+                    + "end\n"
+                    + "local ttl = redis.call('PTTL', KEYS[2])\n"
+                    + "if ttl <= 0 then ttl = tonumber(ARGV[1]) end\n"
+                    + "redis.call('SET', KEYS[2], '1', 'PX', ttl)\n"
+                    + "redis.call('SET', KEYS[3], '0', 'PX', ARGV[1])\n"
+                    + "redis.call('PEXPIRE', KEYS[1], ARGV[1])\n"
+                    + "return {'1', family[1], family[2]}",
+            List.class);
+
+    // 刷新token有效时才作废其系列，防止只凭系列ID作废他人的登录
+    private static final DefaultRedisScript<Long> REVOKE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[2]) == 1 then\n"
+                    + "  return redis.call('DEL', KEYS[1])\n"
+                    + "end\n"
+                    + "return 0",
+            Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final TokenBlacklistService tokenBlacklistService;
+    private final long expirationMillis;
+
+    private final Counter rotated;
+    private final Counter reused;
+    private final Counter rejected;
+
+    public RefreshTokenService(StringRedisTemplate stringRedisTemplate,
+                               TokenBlacklistService tokenBlacklistService,
+                               MeterRegistry meterRegistry,
+                               @Value("${jwt.refresh-expiration:1209600}") long expirationSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.tokenBlacklistService = tokenBlacklistService;
+        this.expirationMillis = TimeUnit.SECONDS.toMillis(expirationSeconds);
+        this.rotated = refreshes(meterRegistry, "rotated");
+        this.reused = refreshes(meterRegistry, "reused");
+        this.rejected = refreshes(meterRegistry, "rejected");
+    }
+
+    private static Counter refreshes(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chatglm.auth.refresh")
+                .description("Refresh token exchanges by result")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 登录成功后签发刷新token，开始一个新的系列
+     * @param epoch 签发访问token时使用的会话版本
+     */
+    public String issue(String username, long epoch) {
+        String familyId = randomId();
+        String refreshToken = familyId + "." + randomId();
+        try {
+            stringRedisTemplate.execute(ISSUE_SCRIPT, List.of(familyKey(familyId), tokenKey(familyId, refreshToken)),
+                    username, Long.toString(epoch), Long.toString(expirationMillis));
+        } catch (Exception e) {
+            log.error("保存刷新token失败: {}", e.getMessage());
+            throw new ChatGLMException(503, "登录服务暂时不可用，请稍后再试");
+        }
+        return refreshToken;
+    }
+
+    /**
+     * 使用刷新token换发新的刷新token，旧token随即失效
+     * @return 换发结果，包含用户名、当前会话版本和新的刷新token
+     * @throws ChatGLMException 401 刷新token无效、已过期、被重复使用或用户已退出所有设备；503 Redis不可用
+     */
+    @SuppressWarnings("unchecked")
+    public Rotation rotate(String refreshToken) {
+        String familyId = familyId(refreshToken);
+        if (familyId == null) {
+            rejected.increment();
+            throw new ChatGLMException(401, "刷新令牌无效");
+        }
+        String newToken = familyId + "." + randomId();
+        List<String> reply;
+        try {
+            reply = stringRedisTemplate.execute(ROTATE_SCRIPT,
+                    List.of(familyKey(familyId), tokenKey(familyId, refreshToken), tokenKey(familyId, newToken)),
+                    Long.toString(expirationMillis));
+        } catch (Exception e) {
+            log.error("换发刷新token失败: {}", e.getMessage());
+            throw new ChatGLMException(503, "登录服务暂时不可用，请稍后再试");
+        }
+        if (reply == null || reply.isEmpty() || "0".equals(reply.get(0))) {
+            rejected.increment();
+            throw new ChatGLMException(401, "刷新令牌无效或已过期");
+        }
+        String username = reply.get(1);
+        if ("-1".equals(reply.get(0))) {
+            reused.increment();
+            log.warn("刷新令牌被重复使用，已作废该登录: {}", username);
+            throw new ChatGLMException(401, "刷新令牌已失效，请重新登录");
+        }
+
+        long epoch = tokenBlacklistService.epochForNewToken(username);
+        if (Long.parseLong(reply.get(2)) < epoch) {
+            // 签发后用户退出了所有设备
+            revokeFamily(familyId);
+            rejected.increment();
+            throw new ChatGLMException(401, "刷新令牌已失效，请重新登录");
+        }
+        rotated.increment();
+        return new Rotation(username, epoch, newToken);
+    }
+
+    /**
+     * 作废刷新token所在的系列，用于退出登录，token无效时忽略
+     */
+    public void revoke(String refreshToken) {
+        String familyId = familyId(refreshToken);
+        if (familyId == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(REVOKE_SCRIPT,
+                    List.of(familyKey(familyId), tokenKey(familyId, refreshToken)));
+        } catch (Exception e) {
+            log.warn("作废刷新token失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 刷新token有效期（秒）
+     */
+    public long getExpirationSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(expirationMillis);
+    }
+
+    private void revokeFamily(String familyId) {
+        try {
+            stringRedisTemplate.delete(familyKey(familyId));
+        } catch (Exception e) {
+            log.warn("作废刷新token失败: {}", e.getMessage());
+        }
+    }
+
+    private static String familyId(String refreshToken) {
+        if (refreshToken == null) {
+            return null;
+        }
+        int dot = refreshToken.indexOf('.');
+        if (dot < 0 || dot == refreshToken.length() - 1) {
+            return null;
+        }
+        String familyId = refreshToken.substring(0, dot);
+        return FAMILY_ID.matcher(familyId).matches() ? familyId : null;
+    }
+
+    // 系列和其中的token使用相同的哈希标签，集群模式下落在同一个槽，脚本可以同时访问
+    private static String familyKey(String familyId) {
+        return KEY_PREFIX + "{" + familyId + "}";
+    }
+
+    private static String tokenKey(String familyId, String refreshToken) {
+        return familyKey(familyId) + ":" + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(JwtUtil.tokenHash(refreshToken));
+    }
+
+    private static String randomId() {
+        byte[] id = new byte[ID_BYTES];
+        RANDOM.nextBytes(id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id);
+    }
+
+    /**
+     * 换发结果
+     */
+    public static final class Rotation {
+
+        private final String username;
+        private final long epoch;
+        private final String refreshToken;
+
+        Rotation(String username, long epoch, String refreshToken) {
+            this.username = username;
+            this.epoch = epoch;
+            this.refreshToken = refreshToken;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * 用户当前的会话版本，签发新的访问token时使用
+         */
+        public long getEpoch() {
+            return epoch;
+        }
+
+        public String getRefreshToken() {
+            return refreshToken;
+        }
+    }
+}
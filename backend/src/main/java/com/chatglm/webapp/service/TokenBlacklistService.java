@@ -1,64 +1,416 @@
 package com.chatglm.webapp.service;
 
+import com.chatglm.webapp.util.CountingBloomFilter;
 import com.chatglm.webapp.util.JwtUtil;
-import org.springframework.beans.factory.annotation.Autowired;
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.HashSet;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * token吊销服务
+ * 单个token按token ID（jti）吊销，记录保存在Redis有序集合中（分值为token过期时间），
+ * 新的吊销通过发布订阅通知所有节点。每个节点在本地维护计数布隆过滤器，
+ * 绝大多数未吊销的token在本地就能判断，只有过滤器命中时才查询Redis。
+ * 过滤器定时删除已过期的记录，并定期从Redis重建，以补上漏收的通知、清除饱和的计数器。
+ *
+ * 退出所有设备时只把用户的会话版本（epoch）加一，签发时版本更低的token全部失效。
+ * 各节点在本地缓存用户的会话版本，版本变化通过同一频道通知，缓存过期作为漏收通知时的兜底。
+ */
 @Service
-public class TokenBlacklistService {
+public class TokenBlacklistService implements MessageListener {
 
-    @Autowired
-    private JwtUtil jwtUtil;
+    private static final Logger log = LoggerFactory.getLogger(TokenBlacklistService.class);
 
-    // 存储已失效的token及其过期时间
-    private final ConcurrentHashMap<String, Long> blacklistedTokens = new ConcurrentHashMap<>();
+    public static final String REVOKED_KEY = "auth:revoked";
+    public static final String REVOKED_CHANNEL = "auth:revoked:events";
+    public static final String EPOCH_KEY_PREFIX = "auth:epoch:";
+
+    private static final String TOKEN_MESSAGE = "t:";
+    private static final String EPOCH_MESSAGE = "e:";
+
+    private static final int REBUILD_PAGE_SIZE = 10000;
+
+    // 写入吊销记录、延长集合过期时间并通知其他节点，一次往返完成
+    private static final DefaultRedisScript<Long> REVOKE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1])\n"
+                    + "local ttl = tonumber(ARGV[3])\n"
+                    + "if redis.call('PTTL', KEYS[1]) < ttl then\n"
+                    + "  redis.call('PEXPIRE', KEYS[1], ttl)\n"
+                    + "end\n"
+                    + "redis.call('PUBLISH', ARGV[4], 't:' .. ARGV[1] .. ':' .. ARGV[2])\n"
+                    + "return 1",
+            Long.class);
+
+    // 会话版本加一并通知其他节点；版本不设过期时间，避免归零后旧token重新生效
+    private static final DefaultRedisScript<Long> BUMP_EPOCH_SCRIPT = new DefaultRedisScript<>(
+            "local epoch = redis.call('INCR', KEYS[1])\n"
+                    + "redis.call('PUBLISH', ARGV[1], 'e:' .. epoch .. ':' .. ARGV[2])\n"
+                    + "return epoch",
+            Long.class);
+
+    private final JwtUtil jwtUtil;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Executor taskExecutor;
+    private final long expectedTokens;
+    private final double falsePositiveRate;
+    private final long epochCacheMillis;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    // 用户名 -> 本地缓存的会话版本
+    private final Map<String, CachedEpoch> epochs = new ConcurrentHashMap<>();
+
+    // 过滤器和过期队列的修改都在this上同步，查询只读取volatile引用
+    private volatile CountingBloomFilter filter;
+    private PriorityQueue<Revocation> expiries = new PriorityQueue<>();
+    private List<Revocation> pendingDuringRebuild;
+
+    private final Counter redisLookups;
+    private final Counter lookupFailures;
+    private final Counter epochLoads;
+
+    public TokenBlacklistService(JwtUtil jwtUtil,
+                                 StringRedisTemplate stringRedisTemplate,
+                                 RedisMessageListenerContainer listenerContainer,
+                                 @Qualifier("taskExecutor") Executor taskExecutor,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${chatglm.auth.revocation.expected-tokens:100000}") long expectedTokens,
+                                 @Value("${chatglm.auth.revocation.false-positive-rate:0.01}") double falsePositiveRate,
+                                 @Value("${chatglm.auth.revocation.epoch-cache-ms:30000}") long epochCacheMillis) {
+        this.jwtUtil = jwtUtil;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.taskExecutor = taskExecutor;
+        this.expectedTokens = expectedTokens;
+        this.falsePositiveRate = falsePositiveRate;
+        this.epochCacheMillis = epochCacheMillis;
+        this.filter = new CountingBloomFilter(expectedTokens, falsePositiveRate);
+
+        this.redisLookups = Counter.builder("chatglm.auth.revocation.redis.lookups")
+                .description("Revocation checks that passed the local filter and queried Redis")
+                .register(meterRegistry);
+        this.lookupFailures = Counter.builder("chatglm.auth.revocation.redis.failures")
+                .description("Revocation checks that could not reach Redis and rejected the token")
+                .register(meterRegistry);
+        this.epochLoads = Counter.builder("chatglm.auth.epoch.redis.lookups")
+                .description("Session epoch lookups that missed the local cache")
+                .register(meterRegistry);
+        Gauge.builder("chatglm.auth.revocation.local.entries", this, TokenBlacklistService::localEntries)
+                .description("Revoked tokens tracked by the local filter")
+                .register(meterRegistry);
+
+        listenerContainer.addMessageListener(this, new ChannelTopic(REVOKED_CHANNEL));
+    }
 
     /**
-     * 将token添加到黑名单
+     * 将token添加到黑名单，所有节点立即生效，保留到token过期为止
      * @param token 要失效的token
      */
     public void blacklistToken(String token) {
+        JwtUtil.TokenClaims claims;
         try {
-            // 获取token的过期时间
-            Long expiration = jwtUtil.getExpirationFromToken(token);
-            if (expiration != null && expiration > System.currentTimeMillis()) {
-                blacklistedTokens.put(token, expiration);
-            }
+            claims = jwtUtil.parseToken(token);
+        } catch (JwtException | IllegalArgumentException e) {
+            // 无效或已过期的token本身就无法通过校验
+            return;
+        }
+        revoke(claims);
+    }
+
+    /**
+     * 按token ID吊销token
+     */
+    public void revoke(JwtUtil.TokenClaims claims) {
+        long now = System.currentTimeMillis();
+        if (claims.getExpiresAt() <= now) {
+            return;
+        }
+        // 没有过期时间的token最多保留一天
+        long expiresAt = claims.getExpiresAt() != Long.MAX_VALUE ? claims.getExpiresAt() : now + 86400000L;
+        addLocal(new Revocation(filterKey(claims.getTokenId()), expiresAt));
+        try {
+            stringRedisTemplate.execute(REVOKE_SCRIPT, List.of(REVOKED_KEY), claims.getTokenId(),
+                    String.valueOf(expiresAt), String.valueOf(expiresAt - now), REVOKED_CHANNEL);
         } catch (Exception e) {
-            // 如果token解析失败，也加入黑名单
-            blacklistedTokens.put(token, System.currentTimeMillis() + 86400000L); // 24小时后过期
+            log.error("写入token吊销记录失败，其他节点暂时无法感知: {}", e.getMessage(), e);
         }
     }
 
     /**
-     * 检查token是否在黑名单中
-     * @param token 要检查的token
-     * @return 如果token在黑名单中返回true，否则返回false
+     * 使用户在所有设备上的登录失效：会话版本加一，之前签发的token全部失效
+     * @return 新的会话版本，之后签发的token使用该版本
      */
-    public boolean isTokenBlacklisted(String token) {
-        Long expiration = blacklistedTokens.get(token);
-        if (expiration == null) {
-            return false;
+    public long revokeAllSessions(String username) {
+        Long epoch = stringRedisTemplate.execute(BUMP_EPOCH_SCRIPT, List.of(EPOCH_KEY_PREFIX + username),
+                REVOKED_CHANNEL, username);
+        if (epoch == null) {
+            throw new IllegalStateException("Session epoch script returned no reply");
+        }
+        updateEpoch(username, epoch);
+        return epoch;
+    }
+
+    /**
+     * 用户当前的会话版本，本地缓存epoch-cache-ms，用于校验token
+     */
+    public long currentEpoch(String username) {
+        CachedEpoch cached = epochs.get(username);
+        if (cached != null && System.currentTimeMillis() - cached.loadedAt < epochCacheMillis) {
+            return cached.epoch;
         }
-        
-        // 如果token已过期，从黑名单中移除
-        if (expiration <= System.currentTimeMillis()) {
-            blacklistedTokens.remove(token);
+        return loadEpoch(username, cached);
+    }
+
+    /**
+     * 签发新token时使用的会话版本，直接读取Redis，避免本地缓存落后导致新token被判为已吊销
+     */
+    public long epochForNewToken(String username) {
+        return loadEpoch(username, epochs.get(username));
+    }
+
+    /**
+     * 从Redis读取会话版本并更新缓存，Redis不可用时沿用缓存中的旧版本，没有缓存时为0
+     */
+    private long loadEpoch(String username, CachedEpoch cached) {
+        epochLoads.increment();
+        long epoch = cached != null ? cached.epoch : 0;
+        try {
+            String value = stringRedisTemplate.opsForValue().get(EPOCH_KEY_PREFIX + username);
+            epoch = value != null ? Long.parseLong(value) : 0;
+        } catch (Exception e) {
+            log.warn("查询会话版本失败，沿用本地版本: {}", e.getMessage());
+        }
+        updateEpoch(username, epoch);
+        return epoch;
+    }
+
+    /**
+     * 检查token是否已吊销：单独吊销，或签发后用户退出了所有设备
+     * 本地过滤器判断不存在时不访问Redis；命中时查询Redis，Redis不可用时按已吊销处理
+     * @param claims 已校验的token声明
+     * @return 已吊销返回true
+     */
+    public boolean isRevoked(JwtUtil.TokenClaims claims) {
+        if (claims.getUsername() != null) {
+            long epoch = currentEpoch(claims.getUsername());
+            if (claims.getEpoch() < epoch) {
+                return true;
+            }
+            if (claims.getEpoch() > epoch) {
+                // 其他节点已提高版本而本地还没收到通知，token经过签名校验，可以直接采用
+                updateEpoch(claims.getUsername(), claims.getEpoch());
+            }
+        }
+        if (!filter.mightContain(filterKey(claims.getTokenId()))) {
             return false;
         }
-        
-        return true;
+        redisLookups.increment();
+        try {
+            Double expiresAt = stringRedisTemplate.opsForZSet().score(REVOKED_KEY, claims.getTokenId());
+            return expiresAt != null && expiresAt > System.currentTimeMillis();
+        } catch (Exception e) {
+            lookupFailures.increment();
+            log.warn("查询token吊销记录失败，按已吊销处理: {}", e.getMessage());
+            return true;
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            if (body.startsWith(TOKEN_MESSAGE)) {
+                int separator = body.lastIndexOf(':');
+                addLocal(new Revocation(filterKey(body.substring(TOKEN_MESSAGE.length(), separator)),
+                        Long.parseLong(body.substring(separator + 1))));
+            } else if (body.startsWith(EPOCH_MESSAGE)) {
+                // 用户名中可能有冒号，放在最后
+                int separator = body.indexOf(':', EPOCH_MESSAGE.length());
+                updateEpoch(body.substring(separator + 1),
+                        Long.parseLong(body.substring(EPOCH_MESSAGE.length(), separator)));
+            } else {
+                log.warn("忽略无法解析的吊销通知: {}", body);
+            }
+        } catch (RuntimeException e) {
+            log.warn("忽略无法解析的吊销通知: {}", body);
+        }
     }
 
     /**
-     * 清理过期的token
+     * 更新本地缓存的会话版本，版本只增不减
      */
+    private void updateEpoch(String username, long epoch) {
+        long now = System.currentTimeMillis();
+        epochs.merge(username, new CachedEpoch(epoch, now),
+                (current, updated) -> new CachedEpoch(Math.max(current.epoch, updated.epoch), now));
+    }
+
+    /**
+     * 清理过期的token：从本地过滤器删除，并从Redis删除已过期的记录；同时清理过期的会话版本缓存
+     */
+    @Scheduled(fixedDelayString = "${chatglm.auth.revocation.cleanup-interval-ms:60000}")
     public void cleanupExpiredTokens() {
-        long currentTime = System.currentTimeMillis();
-        blacklistedTokens.entrySet().removeIf(entry -> entry.getValue() <= currentTime);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Revocation head;
+            while ((head = expiries.peek()) != null && head.expiresAt <= now) {
+                filter.remove(expiries.poll().hash);
+            }
+        }
+        epochs.values().removeIf(cached -> now - cached.loadedAt >= epochCacheMillis);
+        try {
+            stringRedisTemplate.opsForZSet().removeRangeByScore(REVOKED_KEY, Double.NEGATIVE_INFINITY, now);
+        } catch (Exception e) {
+            log.warn("清理过期的token吊销记录失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 从Redis重建本地过滤器，启动时执行一次，之后定期执行，在taskExecutor中运行
+     */
+    @Scheduled(fixedDelayString = "${chatglm.auth.revocation.rebuild-interval-ms:3600000}")
+    public void scheduleRebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    rebuild();
+                } catch (Exception e) {
+                    log.error("重建token吊销过滤器失败: {}", e.getMessage(), e);
+                } finally {
+                    rebuilding.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * 读取Redis中所有未过期的吊销记录生成新的过滤器，读取期间收到的吊销在替换前补上
+     */
+    void rebuild() {
+        synchronized (this) {
+            pendingDuringRebuild = new ArrayList<>();
+        }
+        try {
+            long now = System.currentTimeMillis();
+            List<Revocation> revocations = new ArrayList<>();
+            for (long offset = 0; ; offset += REBUILD_PAGE_SIZE) {
+                Set<ZSetOperations.TypedTuple<String>> page = stringRedisTemplate.opsForZSet()
+                        .rangeByScoreWithScores(REVOKED_KEY, now, Double.POSITIVE_INFINITY, offset, REBUILD_PAGE_SIZE);
+                if (page == null || page.isEmpty()) {
+                    break;
+                }
+                for (ZSetOperations.TypedTuple<String> tuple : page) {
+                    revocations.add(new Revocation(filterKey(tuple.getValue()), tuple.getScore().longValue()));
+                }
+                if (page.size() < REBUILD_PAGE_SIZE) {
+                    break;
+                }
+            }
+
+            // 吊销数超过预期时按实际数量扩容，保持误判率
+            CountingBloomFilter rebuilt = new CountingBloomFilter(
+                    Math.max(expectedTokens, revocations.size() * 2L), falsePositiveRate);
+            PriorityQueue<Revocation> rebuiltExpiries = new PriorityQueue<>(Math.max(1, revocations.size()));
+            for (Revocation revocation : revocations) {
+                rebuilt.add(revocation.hash);
+                rebuiltExpiries.add(revocation);
+            }
+            synchronized (this) {
+                for (Revocation revocation : pendingDuringRebuild) {
+                    rebuilt.add(revocation.hash);
+                    rebuiltExpiries.add(revocation);
+                }
+                filter = rebuilt;
+                expiries = rebuiltExpiries;
+            }
+            log.info("token吊销过滤器已重建，记录数: {}", revocations.size());
+        } finally {
+            synchronized (this) {
+                pendingDuringRebuild = null;
+            }
+        }
+    }
+
+    private synchronized void addLocal(Revocation revocation) {
+        filter.add(revocation.hash);
+        expiries.add(revocation);
+        if (pendingDuringRebuild != null) {
+            pendingDuringRebuild.add(revocation);
+        }
+    }
+
+    private synchronized int localEntries() {
+        return expiries.size();
+    }
+
+    /**
+     * 过滤器使用的哈希：token ID本身是随机字节，解码后直接使用，不足16字节时取其摘要
+     */
+    private static byte[] filterKey(String tokenId) {
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(tokenId);
+            if (bytes.length >= 16) {
+                return bytes;
+            }
+        } catch (IllegalArgumentException e) {
+            // 不是Base64编码的ID
+        }
+        return JwtUtil.tokenHash(tokenId);
+    }
+
+    private static final class CachedEpoch {
+
+        final long epoch;
+        final long loadedAt;
+
+        CachedEpoch(long epoch, long loadedAt) {
+            this.epoch = epoch;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static final class Revocation implements Comparable<Revocation> {
+
+        final byte[] hash;
+        final long expiresAt;
+
+        Revocation(byte[] hash, long expiresAt) {
+            this.hash = hash;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public int compareTo(Revocation other) {
+            return Long.compare(expiresAt, other.expiresAt);
+        }
     }
 }
@@ -0,0 +1,36 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.model.UsageStats;
+
+import java.util.List;
+
+public interface UsageService {
+
+    /**
+     * 统计时间桶
+     */
+    enum Period {
+        MINUTE, DAY, MONTH
+    }
+
+    /**
+     * 记录一次模型调用的token用量，只累加到本地计数器，由后台定时写入Redis
+     * @return 本次调用的费用
+     */
+    double recordUsage(Long userId, int promptTokens, int completionTokens);
+
+    /**
+     * 获取用户在当前时间桶内的用量
+     */
+    UsageStats getUsage(Long userId, Period period);
+
+    /**
+     * 获取全部用户在当前时间桶内的用量合计
+     */
+    UsageStats getTotalUsage(Period period);
+
+    /**
+     * 按token总数获取当前时间桶内用量最多的用户，只支持DAY和MONTH
+     */
+    List<UsageStats> getTopUsers(Period period, int limit);
+}
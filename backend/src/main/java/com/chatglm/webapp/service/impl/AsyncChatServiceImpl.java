@@ -1,27 +1,27 @@
 package com.chatglm.webapp.service.impl;
 
+import com.chatglm.webapp.client.CancellationToken;
 import com.chatglm.webapp.client.ChatGLMClient;
-import com.chatglm.webapp.config.RabbitMQConfig;
 import com.chatglm.webapp.model.ApiRequest;
 import com.chatglm.webapp.model.ApiResponse;
 import com.chatglm.webapp.model.ChatHistory;
 import com.chatglm.webapp.model.ChatMessage;
+import com.chatglm.webapp.queue.ChatJobQueue;
 import com.chatglm.webapp.service.AsyncChatService;
 import com.chatglm.webapp.service.ChatHistoryService;
+import com.chatglm.webapp.service.ChatJobCancellationService;
+import com.chatglm.webapp.service.ChatJobStore;
 import com.chatglm.webapp.service.ChatService;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.annotation.RabbitListener;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
+
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
 /**
  * 异步聊天服务实现类
@@ -32,7 +32,10 @@ public class AsyncChatServiceImpl implements AsyncChatService {
     private static final Logger log = LoggerFactory.getLogger(AsyncChatServiceImpl.class);
 
     @Autowired
-    private RabbitTemplate rabbitTemplate;
+    private ChatJobQueue chatJobQueue;
+    
+    @Autowired
+    private ChatJobCancellationService cancellationService;
     
     @Autowired
     private ChatGLMClient chatGLMClient;
@@ -44,70 +47,94 @@ public class AsyncChatServiceImpl implements AsyncChatService {
     private ChatHistoryService chatHistoryService;
     
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
-    
-    @Autowired
-    private ObjectMapper objectMapper;
-    
-    private static final String MESSAGE_PREFIX = "chat_message:";
-    private static final long MESSAGE_EXPIRE_HOURS = 24;
+    private ChatJobStore chatJobStore;
 
     @Override
     public String sendChatMessage(ChatMessage chatMessage) {
         String messageId = UUID.randomUUID().toString();
         chatMessage.setMessageId(messageId);
         
-        // 保存消息到Redis
-        saveMessageToRedis(chatMessage);
+        // 保存消息到Redis，等待写入完成后再入队，保证消费者能读到任务
+        chatJobStore.await(chatJobStore.create(chatMessage));
         
-        // 发送到消息队列
-        rabbitTemplate.convertAndSend(
-            RabbitMQConfig.CHAT_EXCHANGE,
-            RabbitMQConfig.CHAT_ROUTING_KEY,
-            chatMessage
-        );
+        // 发送到任务队列
+        try {
+            chatJobQueue.enqueue(chatMessage);
+        } catch (RuntimeException e) {
+            chatJobStore.updateStatus(messageId, ChatMessage.MessageStatus.FAILED, null, e.getMessage());
+            throw e;
+        }
         
         log.info("消息已发送到队列，消息ID: {}", messageId);
         return messageId;
     }
 
-    @RabbitListener(queues = RabbitMQConfig.CHAT_QUEUE)
+    @PostConstruct
+    public void subscribe() {
+        chatJobQueue.subscribe(this::processChatMessage);
+    }
+
+    @Override
     public void processChatMessage(ChatMessage chatMessage) {
-        log.info("开始处理消息: {}", chatMessage.getMessageId());
+        String messageId = chatMessage.getMessageId();
+        log.info("开始处理消息: {}", messageId);
         
+        // 先登记再检查取消标记，避免错过两者之间到达的取消信号
+        CancellationToken cancellationToken = cancellationService.register(messageId);
         try {
-            // 更新消息状态为处理中
+            // 认领任务并把状态改为处理中，已结束、已取消或正被其他消费者处理的任务不再执行
+            ChatJobStore.ClaimResult claim = chatJobStore.claim(messageId);
+            if (claim == ChatJobStore.ClaimResult.FINISHED) {
+                log.info("消息已结束或已取消，跳过处理: {}", messageId);
+                return;
+            }
+            if (claim == ChatJobStore.ClaimResult.CLAIMED_BY_OTHER) {
+                // 发布确认迟到或消费者确认丢失导致的重复投递，避免同一任务并发执行、重复调用上游
+                log.info("消息正在由其他消费者处理，跳过重复投递: {}", messageId);
+                return;
+            }
+            doProcessChatMessage(chatMessage, cancellationToken);
+        } finally {
+            cancellationService.unregister(messageId);
+        }
+    }
+
+    private void doProcessChatMessage(ChatMessage chatMessage, CancellationToken cancellationToken) {
+        try {
+            // 认领时已把状态改为处理中
             chatMessage.setStatus(ChatMessage.MessageStatus.PROCESSING);
-            saveMessageToRedis(chatMessage);
             
             // 构建API请求
             ApiRequest apiRequest = new ApiRequest();
             apiRequest.setMessage(chatMessage.getContent());
+            apiRequest.setHistory(chatMessage.getHistory());
             apiRequest.setStream(chatMessage.isStream());
             
-            // 调用ChatGLM API
-            ApiResponse<String> apiResponse = chatService.chat(apiRequest);
+            // 调用ChatGLM API，任务在队列中的等待时间计入延迟指标
+            ApiResponse<String> apiResponse = chatService.chat(apiRequest, cancellationToken,
+                    chatMessage.getUserId(), queuedNanos(chatMessage));
             
-            if (apiResponse.getCode() == 200) {
+            if (cancellationToken.isCancelled()) {
+                // 执行过程中被取消
+                chatMessage.setStatus(ChatMessage.MessageStatus.CANCELLED);
+                log.info("消息处理已取消: {}", chatMessage.getMessageId());
+            } else if (apiResponse.getCode() == 200) {
                 // 处理成功
                 chatMessage.setAiResponse(apiResponse.getData());
                 chatMessage.setStatus(ChatMessage.MessageStatus.COMPLETED);
                 
-                // 保存聊天历史
-                ChatHistory chatHistory = new ChatHistory();
-                // 将String类型的userId转换为Long类型
+                // 保存聊天历史，没有有效用户ID的旧任务不保存
                 try {
-                    Long userId = Long.parseLong(chatMessage.getUserId());
-                    chatHistory.setUserId(userId);
+                    ChatHistory chatHistory = new ChatHistory();
+                    chatHistory.setUserId(Long.parseLong(chatMessage.getUserId()));
+                    chatHistory.setUserMessage(chatMessage.getContent());
+                    chatHistory.setAiResponse(chatMessage.getAiResponse());
+                    chatHistory.setSessionId(chatMessage.getSessionId());
+                    chatHistory.setModel("chatglm_turbo");
+                    chatHistoryService.saveChatHistory(chatHistory);
                 } catch (NumberFormatException e) {
-                    log.warn("无法解析用户ID为Long类型: {}", chatMessage.getUserId());
-                    chatHistory.setUserId(0L); // 设置默认值
+                    log.warn("无法解析用户ID为Long类型，不保存聊天历史: {}", chatMessage.getUserId());
                 }
-                chatHistory.setUserMessage(chatMessage.getContent());
-                chatHistory.setAiResponse(chatMessage.getAiResponse());
-                chatHistory.setSessionId(chatMessage.getSessionId());
-                chatHistory.setModel("chatglm_turbo");
-                chatHistoryService.saveChatHistory(chatHistory);
                 
                 log.info("消息处理完成: {}", chatMessage.getMessageId());
             } else {
@@ -124,14 +151,56 @@ public class AsyncChatServiceImpl implements AsyncChatService {
             log.error("消息处理异常: {}, 异常: {}", chatMessage.getMessageId(), e.getMessage(), e);
         }
         
-        // 更新Redis中的消息状态
-        saveMessageToRedis(chatMessage);
+        // 更新Redis中的消息状态，只写入变化的字段；任务已被取消时不覆盖已返回给客户端的取消状态
+        String messageId = chatMessage.getMessageId();
+        chatJobStore.updateStatus(messageId, chatMessage.getStatus(),
+                chatMessage.getAiResponse(), chatMessage.getErrorMessage())
+                .thenAccept(written -> {
+                    if (!written) {
+                        log.info("任务已结束，不更新状态: {}", messageId);
+                    }
+                });
+    }
+
+    /**
+     * 任务从创建到开始处理的时间，各节点时钟可能有偏差，不为负
+     */
+    private static long queuedNanos(ChatMessage chatMessage) {
+        if (chatMessage.getCreateTime() == null) {
+            return 0;
+        }
+        return Math.max(0, Duration.between(chatMessage.getCreateTime(), LocalDateTime.now()).toNanos());
+    }
+
+    @Override
+    public ChatMessage.MessageStatus cancelMessage(String messageId, Long userId) {
+        // 不属于当前用户的任务按不存在处理，不暴露其他用户的任务ID
+        ChatMessage job = chatJobStore.get(messageId);
+        if (job == null || userId == null || !String.valueOf(userId).equals(job.getUserId())) {
+            return null;
+        }
+        
+        ChatMessage.MessageStatus status = chatJobStore.getStatus(messageId);
+        if (status == null
+                || status == ChatMessage.MessageStatus.COMPLETED
+                || status == ChatMessage.MessageStatus.FAILED
+                || status == ChatMessage.MessageStatus.CANCELLED) {
+            return status;
+        }
+        
+        // 写入取消标记后再广播，保证尚未开始的任务在分发前能读到标记
+        if (Boolean.FALSE.equals(chatJobStore.await(chatJobStore.markCancelled(messageId)))) {
+            // 任务在检查之后已经结束
+            return chatJobStore.getStatus(messageId);
+        }
+        cancellationService.broadcastCancel(messageId);
+        log.info("消息已取消: {}", messageId);
+        return ChatMessage.MessageStatus.CANCELLED;
     }
 
     @Override
     public ChatMessage.MessageStatus getMessageStatus(String messageId) {
-        ChatMessage chatMessage = getMessageFromRedis(messageId);
-        return chatMessage != null ? chatMessage.getStatus() : null;
+        return chatJobStore.getStatus(messageId);
     }
 
     @Override
@@ -139,35 +208,10 @@ public class AsyncChatServiceImpl implements AsyncChatService {
         return getMessageFromRedis(messageId);
     }
 
-    /**
-     * 保存消息到Redis
-     */
-    private void saveMessageToRedis(ChatMessage chatMessage) {
-        try {
-            String key = MESSAGE_PREFIX + chatMessage.getMessageId();
-            String value = objectMapper.writeValueAsString(chatMessage);
-            redisTemplate.opsForValue().set(
-                key, 
-                value, 
-                MESSAGE_EXPIRE_HOURS, 
-                TimeUnit.HOURS
-            );
-        } catch (JsonProcessingException e) {
-            log.error("保存消息到Redis失败: {}", e.getMessage(), e);
-        }
-    }
-
     /**
      * 从Redis获取消息
      */
     private ChatMessage getMessageFromRedis(String messageId) {
-        try {
-            String key = MESSAGE_PREFIX + messageId;
-            String value = (String) redisTemplate.opsForValue().get(key);
-            return value != null ? objectMapper.readValue(value, ChatMessage.class) : null;
-        } catch (Exception e) {
-            log.error("从Redis获取消息失败: {}", e.getMessage(), e);
-            return null;
-        }
+        return chatJobStore.get(messageId);
     }
 }
\ No newline at end of file
@@ -1,65 +1,530 @@
 package com.chatglm.webapp.service.impl;
 
+import com.chatglm.webapp.codec.ChatHistoryRedisSerializer;
+import com.chatglm.webapp.exception.ChatGLMException;
 import com.chatglm.webapp.model.ChatHistory;
+import com.chatglm.webapp.model.ChatHistoryPage;
+import com.chatglm.webapp.model.ChatSession;
+import com.chatglm.webapp.search.ChatSearchIndex;
 import com.chatglm.webapp.service.ChatHistoryService;
+import com.chatglm.webapp.storage.ColdHistoryStore;
+import com.chatglm.webapp.util.BatchFlusher;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.zset.Tuple;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * 基于Redis的聊天历史
+ *
+ * 键布局：
+ * chat:history:{userId}:{sessionId} 会话消息列表，只保留最近N条
+ * chat:sessions:{userId}            用户会话索引（有序集合），分数为最近活跃时间
+ * chat:session:owner:{sessionId}    会话所属用户，用于只知道会话ID时定位消息列表
+ * chat:recent:{userId}              用户最近的消息（有序集合），分数为消息时间，只保留最近M条
+ *
+ * 所有读取都通过索引定位键，不使用KEYS/SCAN；分页读取的开销只与页大小有关。
+ * 消息使用ChatHistoryRedisSerializer编码，较长的回复会被压缩；索引成员和计数直接存储为字符串。
+ *
+ * 开启冷存储时另外维护chat:activity（成员为userId:sessionId），由ColdHistoryMigrator
+ * 把长时间未活跃的会话移到冷存储；会话索引按冷存储的保留期清理，读取时合并冷热两部分。
+ *
+ * 写入采用write-behind：记录先放入有界缓冲区，由后台线程合并成批后一次流水线写入，
+ * 请求线程不再等待Redis。缓冲区满时等待片刻，仍然放不进去则由调用线程直接写入。
+ */
 @Service
 public class ChatHistoryServiceImpl implements ChatHistoryService {
-    
+
+    private static final Logger log = LoggerFactory.getLogger(ChatHistoryServiceImpl.class);
+
+    public static final String HISTORY_KEY_PREFIX = "chat:history:";
+    public static final String ACTIVITY_KEY = "chat:activity";
+    private static final String SESSIONS_KEY_PREFIX = "chat:sessions:";
+    private static final String OWNER_KEY_PREFIX = "chat:session:owner:";
+    private static final String RECENT_KEY_PREFIX = "chat:recent:";
+    private static final String USAGE_KEY_PREFIX = "chat:usage:";
+
+    // 删除用户历史时每批处理的会话数
+    private static final int DELETE_BATCH_SIZE = 500;
+
     private final RedisTemplate<String, Object> redisTemplate;
-    
-    public ChatHistoryServiceImpl(RedisTemplate<String, Object> redisTemplate) {
+    private final ChatHistoryRedisSerializer historySerializer;
+    private final int maxMessagesPerSession;
+    private final int maxSessionsPerUser;
+    private final int maxRecentPerUser;
+    private final long expireSeconds;
+    private final long indexExpireSeconds;
+    private final ColdHistoryStore coldHistoryStore;
+    private final ChatSearchIndex searchIndex;
+    private final BatchFlusher<ChatHistory> flusher;
+    private final long offerTimeoutMillis;
+
+    private final Counter bufferedCounter;
+    private final Counter callerRunsCounter;
+    private final Counter droppedCounter;
+    private final DistributionSummary batchSize;
+    private final DistributionSummary storedBytes;
+
+    public ChatHistoryServiceImpl(RedisTemplate<String, Object> redisTemplate,
+                                  ObjectMapper objectMapper,
+                                  MeterRegistry meterRegistry,
+                                  ObjectProvider<ColdHistoryStore> coldHistoryStore,
+                                  ObjectProvider<ChatSearchIndex> searchIndex,
+                                  @Value("${chatglm.history.max-messages-per-session:200}") int maxMessagesPerSession,
+                                  @Value("${chatglm.history.max-sessions-per-user:1000}") int maxSessionsPerUser,
+                                  @Value("${chatglm.history.max-recent-per-user:100}") int maxRecentPerUser,
+                                  @Value("${chatglm.history.expire-days:7}") long expireDays,
+                                  @Value("${chatglm.history.compression-threshold-bytes:512}") int compressionThreshold,
+                                  @Value("${chatglm.history.cold.retention-days:180}") long coldRetentionDays,
+                                  @Value("${chatglm.history.write-behind.enabled:true}") boolean writeBehindEnabled,
+                                  @Value("${chatglm.history.write-behind.queue-capacity:10000}") int queueCapacity,
+                                  @Value("${chatglm.history.write-behind.max-batch-size:256}") int maxBatchSize,
+                                  @Value("${chatglm.history.write-behind.offer-timeout-ms:10}") long offerTimeoutMillis) {
         this.redisTemplate = redisTemplate;
+        this.historySerializer = new ChatHistoryRedisSerializer(objectMapper, compressionThreshold);
+        this.maxMessagesPerSession = maxMessagesPerSession;
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.maxRecentPerUser = maxRecentPerUser;
+        this.expireSeconds = TimeUnit.DAYS.toSeconds(expireDays);
+        this.coldHistoryStore = coldHistoryStore.getIfAvailable();
+        this.searchIndex = searchIndex.getIfAvailable();
+        // 开启冷存储时，会话索引和归属需要保留到冷存储的保留期
+        this.indexExpireSeconds = this.coldHistoryStore != null
+                ? TimeUnit.DAYS.toSeconds(Math.max(expireDays, coldRetentionDays))
+                : expireSeconds;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.bufferedCounter = Counter.builder("chatglm.history.write.buffered")
+                .description("Number of chat history records accepted by the write-behind buffer")
+                .register(meterRegistry);
+        this.callerRunsCounter = Counter.builder("chatglm.history.write.caller.runs")
+                .description("Number of chat history records written on the request thread because the buffer was full")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("chatglm.history.write.dropped")
+                .description("Number of chat history records lost because a batch write failed")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("chatglm.history.write.batch.size")
+                .description("Number of chat history records written in one pipeline")
+                .register(meterRegistry);
+        this.storedBytes = DistributionSummary.builder("chatglm.history.write.bytes")
+                .description("Encoded size of one chat history record")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.flusher = writeBehindEnabled
+                ? new BatchFlusher<>("ChatHistory-Flusher", queueCapacity, maxBatchSize, this::flush)
+                : null;
+        if (flusher != null) {
+            Gauge.builder("chatglm.history.write.buffer.size", flusher, BatchFlusher::size)
+                    .description("Number of chat history records waiting in the write-behind buffer")
+                    .register(meterRegistry);
+        }
     }
-    
+
     @Override
     public void saveChatHistory(ChatHistory chatHistory) {
         // 使用Redis存储聊天历史（生产环境建议使用MySQL）
-        String key = "chat:history:" + chatHistory.getUserId() + ":" + chatHistory.getSessionId();
-        redisTemplate.opsForList().rightPush(key, chatHistory);
-        
-        // 设置过期时间（7天）
-        redisTemplate.expire(key, 7, TimeUnit.DAYS);
-        
-        // 更新用户使用量统计
-        String usageKey = "chat:usage:" + chatHistory.getUserId();
-        redisTemplate.opsForValue().increment(usageKey);
-    }
-    
+        if (chatHistory.getCreatedAt() == null) {
+            chatHistory.setCreatedAt(LocalDateTime.now());
+        }
+        if (flusher == null) {
+            writeBatch(List.of(chatHistory));
+            return;
+        }
+        try {
+            if (flusher.offer(chatHistory, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                bufferedCounter.increment();
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 缓冲区已满，由调用线程直接写入，形成背压
+        callerRunsCounter.increment();
+        writeBatch(List.of(chatHistory));
+    }
+
+    /**
+     * 后台线程批量写入，失败的批次只记录日志和指标
+     */
+    private void flush(List<ChatHistory> batch) {
+        try {
+            writeBatch(batch);
+        } catch (Exception e) {
+            droppedCounter.increment(batch.size());
+            log.error("批量保存聊天历史失败, 条数: {}, 错误: {}", batch.size(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 一次往返完成一批记录的写入、截断和索引更新
+     * 同一会话的记录合并为一条RPUSH。
+     */
+    private void writeBatch(List<ChatHistory> batch) {
+        Map<String, List<byte[]>> messagesByKey = new LinkedHashMap<>();
+        Map<String, Map<String, Long>> lastActiveByUser = new LinkedHashMap<>();
+        Map<String, Long> ownerBySession = new LinkedHashMap<>();
+        Map<String, List<Tuple>> recentByUser = new LinkedHashMap<>();
+        for (ChatHistory chatHistory : batch) {
+            byte[] encoded = historySerializer.serialize(chatHistory);
+            storedBytes.record(encoded.length);
+            messagesByKey.computeIfAbsent(historyKey(chatHistory.getUserId(), chatHistory.getSessionId()),
+                    k -> new ArrayList<>()).add(encoded);
+            recentByUser.computeIfAbsent(RECENT_KEY_PREFIX + chatHistory.getUserId(), k -> new ArrayList<>())
+                    .add(Tuple.of(encoded, (double) toEpochMilli(chatHistory.getCreatedAt())));
+            lastActiveByUser.computeIfAbsent(SESSIONS_KEY_PREFIX + chatHistory.getUserId(), k -> new LinkedHashMap<>())
+                    .merge(chatHistory.getSessionId(), toEpochMilli(chatHistory.getCreatedAt()), Math::max);
+            ownerBySession.put(chatHistory.getSessionId(), chatHistory.getUserId());
+        }
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(indexExpireSeconds);
+
+        pipelined(connection -> {
+            messagesByKey.forEach((key, messages) -> {
+                byte[] rawKey = utf8(key);
+                connection.listCommands().rPush(rawKey, messages.toArray(new byte[0][]));
+                connection.listCommands().lTrim(rawKey, -maxMessagesPerSession, -1);
+                connection.keyCommands().expire(rawKey, expireSeconds);
+            });
+            lastActiveByUser.forEach((sessionsKey, sessions) -> {
+                byte[] rawKey = utf8(sessionsKey);
+                sessions.forEach((sessionId, lastActive) ->
+                        connection.zSetCommands().zAdd(rawKey, lastActive, utf8(sessionId)));
+                // 清理已过期的会话，并只保留最近活跃的会话
+                connection.zSetCommands().zRemRangeByScore(rawKey, Double.NEGATIVE_INFINITY, expiredBefore);
+                connection.zSetCommands().zRemRange(rawKey, 0, -(maxSessionsPerUser + 1L));
+                connection.keyCommands().expire(rawKey, indexExpireSeconds);
+            });
+            recentByUser.forEach((recentKey, recent) -> {
+                byte[] rawKey = utf8(recentKey);
+                connection.zSetCommands().zAdd(rawKey, new LinkedHashSet<>(recent));
+                connection.zSetCommands().zRemRange(rawKey, 0, -(maxRecentPerUser + 1L));
+                connection.keyCommands().expire(rawKey, expireSeconds);
+            });
+            if (coldHistoryStore != null) {
+                byte[] activityKey = utf8(ACTIVITY_KEY);
+                lastActiveByUser.forEach((sessionsKey, sessions) -> {
+                    String userId = sessionsKey.substring(SESSIONS_KEY_PREFIX.length());
+                    sessions.forEach((sessionId, lastActive) ->
+                            connection.zSetCommands().zAdd(activityKey, lastActive, utf8(userId + ":" + sessionId)));
+                });
+            }
+            ownerBySession.forEach((sessionId, userId) ->
+                    connection.stringCommands().setEx(utf8(OWNER_KEY_PREFIX + sessionId), indexExpireSeconds,
+                            utf8(String.valueOf(userId))));
+        });
+        batchSize.record(batch.size());
+        // 写入Redis成功后再建索引，避免搜到不存在的记录
+        if (searchIndex != null) {
+            searchIndex.addAll(batch);
+        }
+    }
+
     @Override
     public List<ChatHistory> getChatHistoryByUserId(Long userId, int limit) {
-        List<ChatHistory> result = new ArrayList<>();
-        
-        // 获取用户的所有会话
-        String pattern = "chat:history:" + userId + ":*";
-        // 这里简化实现，实际应该使用Redis的SCAN命令
-        
-        return result;
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        // 最近消息索引按时间排序，只读取本页的消息；超过保留条数的部分不返回
+        byte[] recentKey = utf8(RECENT_KEY_PREFIX + userId);
+        long end = Math.min(limit, maxRecentPerUser) - 1L;
+        Set<byte[]> recent = redisTemplate.execute((RedisCallback<Set<byte[]>>) connection ->
+                connection.zSetCommands().zRevRange(recentKey, 0, end));
+        return recent != null ? toHistoryList(new ArrayList<>(recent)) : new ArrayList<>();
     }
-    
+
+    @Override
+    public ChatHistoryPage getSessionsByUserId(Long userId, String cursor, int pageSize, int messagesPerSession) {
+        if (pageSize <= 0) {
+            throw new ChatGLMException(400, "pageSize必须大于0");
+        }
+        long maxScore = Long.MAX_VALUE;
+        byte[] lastMember = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            int separator = cursor.indexOf('_');
+            maxScore = parseCursorScore(cursor, separator);
+            lastMember = utf8(cursor.substring(separator + 1));
+        }
+
+        // 游标记录上一页最后一个会话的分数和会话ID。Redis对分数相同的成员按成员倒序返回，
+        // 分数等于游标且成员不小于游标会话的都已返回过，跳过即可；
+        // 不按已返回的个数跳过，会话被更新或删除后游标过期也不会遗漏其他会话
+        byte[] sessionsKey = utf8(SESSIONS_KEY_PREFIX + userId);
+        Range<Double> scoreRange = maxScore == Long.MAX_VALUE
+                ? Range.unbounded()
+                : Range.of(Range.Bound.unbounded(), Range.Bound.inclusive((double) maxScore));
+        List<String> sessionIds = new ArrayList<>(pageSize);
+        List<Long> scores = new ArrayList<>(pageSize);
+        int offset = 0;
+        while (sessionIds.size() < pageSize) {
+            Limit limit = Limit.limit().offset(offset).count(pageSize);
+            Set<Tuple> tuples = redisTemplate.execute((RedisCallback<Set<Tuple>>) connection ->
+                    connection.zSetCommands().zRevRangeByScoreWithScores(sessionsKey, scoreRange, limit));
+            if (tuples == null || tuples.isEmpty()) {
+                break;
+            }
+            for (Tuple tuple : tuples) {
+                long score = tuple.getScore() != null ? tuple.getScore().longValue() : 0L;
+                if (lastMember != null && score == maxScore
+                        && Arrays.compareUnsigned(tuple.getValue(), lastMember) >= 0) {
+                    continue;
+                }
+                if (sessionIds.size() < pageSize) {
+                    sessionIds.add(new String(tuple.getValue(), StandardCharsets.UTF_8));
+                    scores.add(score);
+                }
+            }
+            if (tuples.size() < pageSize) {
+                break;
+            }
+            offset += tuples.size();
+        }
+        if (sessionIds.isEmpty()) {
+            return new ChatHistoryPage(new ArrayList<>(), null);
+        }
+
+        // 一次流水线读取本页所有会话的最近消息
+        List<Object> messages = pipelined(connection -> {
+            for (String sessionId : sessionIds) {
+                connection.listCommands().lRange(utf8(historyKey(userId, sessionId)), -messagesPerSession, -1);
+            }
+        });
+
+        List<ChatSession> sessions = new ArrayList<>(sessionIds.size());
+        for (int i = 0; i < sessionIds.size(); i++) {
+            List<ChatHistory> hot = toHistoryList(messages.get(i));
+            sessions.add(new ChatSession(sessionIds.get(i), toLocalDateTime(scores.get(i)),
+                    withColdRecords(userId, sessionIds.get(i), hot, messagesPerSession)));
+        }
+
+        String nextCursor = sessionIds.size() == pageSize
+                ? scores.get(pageSize - 1) + "_" + sessionIds.get(pageSize - 1)
+                : null;
+        return new ChatHistoryPage(sessions, nextCursor);
+    }
+
     @Override
     public List<ChatHistory> getChatHistoryBySessionId(String sessionId) {
-        // 简化实现
-        return new ArrayList<>();
+        byte[] owner = redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(utf8(OWNER_KEY_PREFIX + sessionId)));
+        if (owner == null) {
+            return new ArrayList<>();
+        }
+        // 列表长度有上限，整段读取
+        String userId = new String(owner, StandardCharsets.UTF_8);
+        byte[] key = utf8(historyKey(userId, sessionId));
+        List<ChatHistory> hot = toHistoryList(redisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.listCommands().lRange(key, 0, -1)));
+        return withColdRecords(userId, sessionId, hot, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 热数据不足limit条时，从冷存储补齐更早的记录
+     */
+    private List<ChatHistory> withColdRecords(Object userId, String sessionId, List<ChatHistory> hot, int limit) {
+        String sessionKey = userId + ":" + sessionId;
+        if (coldHistoryStore == null || hot.size() >= limit || !coldHistoryStore.contains(sessionKey)) {
+            return hot;
+        }
+        List<ChatHistory> merged = coldHistoryStore.read(sessionKey, limit - hot.size());
+        merged.addAll(hot);
+        return merged;
     }
-    
+
     @Override
     public void deleteChatHistoryByUserId(Long userId) {
-        // 删除用户的所有聊天记录
-        String pattern = "chat:history:" + userId + ":*";
-        // 这里简化实现
+        // 删除用户的所有聊天记录：按索引分批删除会话，最后删除索引本身
+        byte[] sessionsKey = utf8(SESSIONS_KEY_PREFIX + userId);
+        long start = 0;
+        while (true) {
+            long from = start;
+            Set<byte[]> batch = redisTemplate.execute((RedisCallback<Set<byte[]>>) connection ->
+                    connection.zSetCommands().zRange(sessionsKey, from, from + DELETE_BATCH_SIZE - 1));
+            if (batch == null || batch.isEmpty()) {
+                break;
+            }
+            pipelined(connection -> {
+                for (byte[] rawSessionId : batch) {
+                    String sessionId = new String(rawSessionId, StandardCharsets.UTF_8);
+                    connection.keyCommands().del(utf8(historyKey(userId, sessionId)),
+                            utf8(OWNER_KEY_PREFIX + sessionId));
+                    if (coldHistoryStore != null) {
+                        connection.zSetCommands().zRem(utf8(ACTIVITY_KEY), utf8(userId + ":" + sessionId));
+                    }
+                }
+            });
+            if (batch.size() < DELETE_BATCH_SIZE) {
+                break;
+            }
+            start += DELETE_BATCH_SIZE;
+        }
+        redisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.keyCommands().del(sessionsKey, utf8(RECENT_KEY_PREFIX + userId)));
+        // 冷存储按用户前缀删除，包括已经不在会话索引中的会话
+        if (coldHistoryStore != null) {
+            try {
+                coldHistoryStore.deleteByPrefix(userId + ":");
+            } catch (IOException e) {
+                throw new ChatGLMException(500, "删除冷存储记录失败: " + e.getMessage(), e);
+            }
+        }
+        if (searchIndex != null) {
+            try {
+                searchIndex.deleteUser(userId);
+            } catch (IOException e) {
+                throw new ChatGLMException(500, "删除搜索索引失败: " + e.getMessage(), e);
+            }
+        }
     }
-    
+
+    /**
+     * 调用次数由UsageService统计，定时写入chat:usage:{userId}
+     */
     @Override
     public Long countUserUsage(Long userId) {
-        String usageKey = "chat:usage:" + userId;
-        Object usage = redisTemplate.opsForValue().get(usageKey);
-        return usage != null ? Long.valueOf(usage.toString()) : 0L;
+        byte[] usage = redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(utf8(USAGE_KEY_PREFIX + userId)));
+        return usage != null ? Long.valueOf(new String(usage, StandardCharsets.UTF_8)) : 0L;
+    }
+
+    @Override
+    public List<ChatHistory> searchChatHistory(Long userId, String query, int limit) {
+        if (searchIndex == null) {
+            throw new ChatGLMException(503, "搜索功能未开启");
+        }
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        // 索引不随历史的裁剪和过期删除，多取一些候选，只返回历史中仍然能看到的记录
+        List<ChatHistory> hits = searchIndex.search(userId, query, (int) Math.min(Integer.MAX_VALUE, limit * 2L));
+        if (hits.isEmpty()) {
+            return hits;
+        }
+        List<String> sessionIds = new ArrayList<>();
+        for (ChatHistory hit : hits) {
+            if (!sessionIds.contains(hit.getSessionId())) {
+                sessionIds.add(hit.getSessionId());
+            }
+        }
+        // 热数据列表的第一条是会话中最早的热记录，更早的记录已被裁剪或移入冷存储
+        List<Object> heads = pipelined(connection -> {
+            for (String sessionId : sessionIds) {
+                connection.listCommands().lIndex(utf8(historyKey(userId, sessionId)), 0);
+            }
+        });
+        Map<String, LocalDateTime> oldestHot = new HashMap<>();
+        for (int i = 0; i < sessionIds.size(); i++) {
+            if (heads.get(i) instanceof byte[] bytes) {
+                oldestHot.put(sessionIds.get(i), createdAtOrMin(bytes));
+            }
+        }
+
+        List<ChatHistory> visible = new ArrayList<>(Math.min(limit, hits.size()));
+        for (ChatHistory hit : hits) {
+            LocalDateTime oldest = oldestHot.get(hit.getSessionId());
+            boolean hot = oldest != null && hit.getCreatedAt() != null && !hit.getCreatedAt().isBefore(oldest);
+            if (hot || (coldHistoryStore != null && coldHistoryStore.contains(userId + ":" + hit.getSessionId()))) {
+                visible.add(hit);
+                if (visible.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return visible;
+    }
+
+    // 无法解析的记录不影响判断，按最早处理
+    private LocalDateTime createdAtOrMin(byte[] bytes) {
+        try {
+            LocalDateTime createdAt = historySerializer.deserialize(bytes).getCreatedAt();
+            return createdAt != null ? createdAt : LocalDateTime.MIN;
+        } catch (Exception e) {
+            return LocalDateTime.MIN;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher != null) {
+            flusher.close();
+        }
+    }
+
+    private static String historyKey(Object userId, Object sessionId) {
+        return HISTORY_KEY_PREFIX + userId + ":" + sessionId;
+    }
+
+    /**
+     * 在一个流水线中执行命令，结果保持原始字节，由调用方自行解码
+     */
+    private List<Object> pipelined(Consumer<RedisConnection> commands) {
+        return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            commands.accept(connection);
+            return null;
+        }, RedisSerializer.byteArray());
+    }
+
+    private List<ChatHistory> toHistoryList(Object value) {
+        List<ChatHistory> result = new ArrayList<>();
+        if (value instanceof List<?> items) {
+            for (Object item : items) {
+                if (item instanceof byte[] bytes) {
+                    try {
+                        result.add(historySerializer.deserialize(bytes));
+                    } catch (Exception e) {
+                        log.warn("跳过无法解析的聊天记录: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    // 游标格式为"{分数}_{会话ID}"
+    private static long parseCursorScore(String cursor, int separator) {
+        try {
+            return Long.parseLong(cursor.substring(0, separator));
+        } catch (RuntimeException e) {
+            throw new ChatGLMException(400, "无效的分页游标: " + cursor);
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMilli) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneId.systemDefault());
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package com.chatglm.webapp.service.impl;
 
+import com.chatglm.webapp.client.CancellationToken;
+import com.chatglm.webapp.client.ChatMetrics;
 import com.chatglm.webapp.client.QwenClientImpl;
 import com.chatglm.webapp.exception.ChatGLMException;
 import com.chatglm.webapp.model.ApiRequest;
@@ -7,19 +9,24 @@ import com.chatglm.webapp.model.ChatGLMModel;
 import com.chatglm.webapp.model.ChatHistory;
 import com.chatglm.webapp.service.ChatHistoryService;
 import com.chatglm.webapp.service.ChatService;
+import com.chatglm.webapp.service.CurrentUserService;
+import com.chatglm.webapp.service.UsageService;
+import com.chatglm.webapp.util.ClientIdentity;
+import com.chatglm.webapp.util.TokenEstimator;
+import com.chatglm.webapp.util.TokenRateLimiter;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class ChatServiceImpl implements ChatService {
@@ -32,6 +39,18 @@ public class ChatServiceImpl implements ChatService {
     @Autowired
     private ChatHistoryService chatHistoryService;
     
+    @Autowired
+    private UsageService usageService;
+    
+    @Autowired
+    private TokenRateLimiter tokenRateLimiter;
+    
+    @Autowired
+    private ChatMetrics chatMetrics;
+    
+    @Autowired
+    private CurrentUserService currentUserService;
+    
     private final Counter chatCounter;
     private final Counter streamChatCounter;
     
@@ -46,6 +65,25 @@ public class ChatServiceImpl implements ChatService {
     
     @Override
     public com.chatglm.webapp.model.ApiResponse<String> chat(ApiRequest request) {
+        return chat(request, new CancellationToken());
+    }
+    
+    @Override
+    public com.chatglm.webapp.model.ApiResponse<String> chat(ApiRequest request, CancellationToken cancellationToken) {
+        Long userId = currentUserService.currentUserId();
+        return chat(request, cancellationToken, ChatMetrics.ENDPOINT_CHAT, 0, userId, quotaSubject(userId));
+    }
+    
+    @Override
+    public com.chatglm.webapp.model.ApiResponse<String> chat(ApiRequest request, CancellationToken cancellationToken,
+                                                             String userId, long queuedNanos) {
+        return chat(request, cancellationToken, ChatMetrics.ENDPOINT_ASYNC, queuedNanos, parseUserId(userId),
+                TokenRateLimiter.userSubject(userId));
+    }
+    
+    private com.chatglm.webapp.model.ApiResponse<String> chat(ApiRequest request, CancellationToken cancellationToken,
+                                                              String endpoint, long queuedNanos, Long userId,
+                                                              String quotaSubject) {
         // 监控计数
         chatCounter.increment();
         
@@ -58,31 +96,76 @@ public class ChatServiceImpl implements ChatService {
             return com.chatglm.webapp.model.ApiResponse.fail(400, "Message cannot be empty");
         }
         
+        // 记录排队、首段内容和生成耗时
+        ChatMetrics.Recorder recorder = chatMetrics.start(qwenClient.getProvider(), qwenClient.getModelName(),
+                endpoint, queuedNanos);
         try {
             // 构建消息列表
             List<ChatGLMModel.Message> messages = buildMessages(request.getMessage(), request.getHistory());
             
-            // 调用通义千问API
-            ChatGLMModel.ChatResponse response = qwenClient.chat(messages);
-            
-            // 获取响应内容
-            String reply = response.getFirstReply();
-            if (reply == null) {
-                return com.chatglm.webapp.model.ApiResponse.fail(500, "No valid response received");
+            // 按提示词估算加最大生成长度预留token额度，调用失败时只计入提示词
+            int promptEstimate = TokenEstimator.estimate(messages);
+            TokenRateLimiter.Reservation reservation = tokenRateLimiter.reserve(quotaSubject, promptEstimate);
+            long consumedTokens = promptEstimate;
+            try {
+                // 调用通义千问API
+                ChatGLMModel.ChatResponse response = qwenClient.chat(messages, cancellationToken, recorder);
+                // 非流式响应一次返回，首段内容即完整响应
+                recorder.token();
+                
+                // 获取响应内容
+                String reply = response.getFirstReply();
+                if (reply == null) {
+                    recorder.finish(ChatMetrics.OUTCOME_ERROR, 0);
+                    return com.chatglm.webapp.model.ApiResponse.fail(500, "No valid response received");
+                }
+                
+                if (recorder.isFallback()) {
+                    // 模拟回复没有经过上游生成，额度只按提示词结算，不记录用量
+                    recorder.finish(ChatMetrics.OUTCOME_SUCCESS, 0);
+                    saveChatHistory(userId, !ChatMetrics.ENDPOINT_ASYNC.equals(endpoint), false,
+                            request.getMessage(), reply, "qwen_turbo", 0, 0);
+                    return com.chatglm.webapp.model.ApiResponse.success(reply);
+                }
+                
+                // 优先使用API返回的用量，没有时按本地估算
+                ChatGLMModel.Usage usage = response.getUsage();
+                int promptTokens = usage != null && usage.getTotalTokens() > 0
+                        ? usage.getPromptTokens() : promptEstimate;
+                int completionTokens = usage != null && usage.getTotalTokens() > 0
+                        ? usage.getCompletionTokens() : TokenEstimator.estimate(reply);
+                consumedTokens = promptTokens + completionTokens;
+                recorder.finish(ChatMetrics.OUTCOME_SUCCESS, completionTokens);
+                
+                // 记录用量；异步任务的聊天历史由AsyncChatService按任务所在会话保存
+                saveChatHistory(userId, !ChatMetrics.ENDPOINT_ASYNC.equals(endpoint), true, request.getMessage(), reply,
+                        "qwen_turbo", promptTokens, completionTokens);
+                
+                return com.chatglm.webapp.model.ApiResponse.success(reply);
+            } catch (ChatGLMException e) {
+                // 上游并发已满，请求没有发出
+                consumedTokens = 0;
+                throw e;
+            } finally {
+                reservation.settle(consumedTokens);
             }
-            
-            // 保存聊天历史记录
-            saveChatHistory(request.getMessage(), reply, "qwen_turbo");
-            
-            return com.chatglm.webapp.model.ApiResponse.success(reply);
+        } catch (CancellationException e) {
+            logger.info("Chat request cancelled");
+            recorder.finish(ChatMetrics.OUTCOME_CANCELLED, 0);
+            return com.chatglm.webapp.model.ApiResponse.fail(499, "Request cancelled");
+        } catch (ChatGLMException e) {
+            recorder.finish(ChatMetrics.outcomeOf(e), 0);
+            return com.chatglm.webapp.model.ApiResponse.fail(e.getCode(), e.getMessage());
         } catch (Exception e) {
+            recorder.finish(ChatMetrics.OUTCOME_ERROR, 0);
             logger.error("Error in chat service: {}", e.getMessage(), e);
             return com.chatglm.webapp.model.ApiResponse.fail(500, "Chat service error: " + e.getMessage());
         }
     }
     
     @Override
-    public void streamChat(ApiRequest request, final SseEmitter emitter) throws IOException {
+    public CompletableFuture<Void> streamChat(ApiRequest request, final SseEmitter emitter,
+                                              CancellationToken cancellationToken) throws IOException {
         // 监控计数
         streamChatCounter.increment();
         
@@ -102,10 +185,46 @@ public class ChatServiceImpl implements ChatService {
         // 构建消息列表
         List<ChatGLMModel.Message> messages = buildMessages(request.getMessage(), request.getHistory());
         
-        // 调用流式API
-        qwenClient.streamChat(messages, new QwenClientImpl.StreamResponseHandler() {
+        // 记录排队、连接、首段内容、内容间隔和生成耗时
+        ChatMetrics.Recorder recorder = chatMetrics.start(qwenClient.getProvider(), qwenClient.getModelName(),
+                ChatMetrics.ENDPOINT_STREAM);
+        
+        // 预留token额度，额度不足时抛出429，流尚未开始
+        // 流式响应在其他线程结束，用户须在请求线程中取得
+        Long userId = currentUserService.currentUserId();
+        int promptEstimate = TokenEstimator.estimate(messages);
+        TokenRateLimiter.Reservation reservation;
+        try {
+            reservation = tokenRateLimiter.reserve(quotaSubject(userId), promptEstimate);
+        } catch (ChatGLMException e) {
+            recorder.finish(ChatMetrics.outcomeOf(e), 0);
+            throw e;
+        }
+        
+        // 调用流式API，上游并发已满时请求没有发出，退还全部预留
+        try {
+            return startStream(messages, emitter, request, userId, reservation, promptEstimate, recorder,
+                    cancellationToken);
+        } catch (ChatGLMException e) {
+            reservation.settle(0);
+            recorder.finish(ChatMetrics.outcomeOf(e), 0);
+            throw e;
+        }
+    }
+    
+    private CompletableFuture<Void> startStream(List<ChatGLMModel.Message> messages, SseEmitter emitter,
+                                                ApiRequest request, Long userId,
+                                                TokenRateLimiter.Reservation reservation, int promptEstimate,
+                                                ChatMetrics.Recorder recorder, CancellationToken cancellationToken) {
+        return qwenClient.streamChat(messages, new QwenClientImpl.StreamResponseHandler() {
+            // 收集完整回复，用于保存历史和估算token数
+            private final StringBuilder reply = new StringBuilder();
+            private ChatGLMModel.Usage usage;
+            
             @Override
             public void onMessage(String content) {
+                recorder.token();
+                reply.append(content);
                 try {
                     // 使用标准的SSE事件格式发送消息内容
                     emitter.send(SseEmitter.event()
@@ -121,6 +240,17 @@ public class ChatServiceImpl implements ChatService {
                 }
             }
 
+            // 已经输出的内容对应的token数，模拟回复只计提示词
+            private int generatedTokens() {
+                return recorder.isFallback() ? promptEstimate
+                        : promptEstimate + TokenEstimator.estimate(reply.toString());
+            }
+
+            @Override
+            public void onUsage(ChatGLMModel.Usage usage) {
+                this.usage = usage;
+            }
+
             @Override
             public void onComplete() {
                 try {
@@ -131,10 +261,29 @@ public class ChatServiceImpl implements ChatService {
                     emitter.complete();
                     logger.info("SSE connection completed successfully");
                     
-                    // 保存流式聊天的完整响应（这里简化处理，实际应该收集所有流式内容）
-                    saveChatHistory(request.getMessage(), "[流式响应]", "qwen_turbo");
+                    if (recorder.isFallback()) {
+                        // 模拟回复没有经过上游生成，额度只按提示词结算，不记录用量
+                        reservation.settle(promptEstimate);
+                        recorder.finish(ChatMetrics.OUTCOME_SUCCESS, 0);
+                        saveChatHistory(userId, true, false, request.getMessage(), reply.toString(), "qwen_turbo",
+                                0, 0);
+                        return;
+                    }
+                    
+                    // 保存流式聊天的完整响应，API没有返回用量时按本地估算
+                    int promptTokens = usage != null && usage.getTotalTokens() > 0
+                            ? usage.getPromptTokens() : promptEstimate;
+                    int completionTokens = usage != null && usage.getTotalTokens() > 0
+                            ? usage.getCompletionTokens() : TokenEstimator.estimate(reply.toString());
+                    reservation.settle(promptTokens + completionTokens);
+                    recorder.finish(ChatMetrics.OUTCOME_SUCCESS, completionTokens);
+                    saveChatHistory(userId, true, true, request.getMessage(), reply.toString(), "qwen_turbo",
+                            promptTokens, completionTokens);
                 } catch (IOException e) {
                     logger.error("Error sending complete message: {}", e.getMessage(), e);
+                    reservation.settle(generatedTokens());
+                    // 客户端已断开
+                    recorder.finish(ChatMetrics.OUTCOME_CANCELLED, TokenEstimator.estimate(reply.toString()));
                     try {
                         emitter.completeWithError(e);
                     } catch (Exception ex) {
@@ -145,7 +294,17 @@ public class ChatServiceImpl implements ChatService {
 
             @Override
             public void onError(Throwable error) {
+                if (error instanceof CancellationException) {
+                    // 客户端已断开，上游调用已中断，按已经输出的内容结算
+                    logger.info("Stream chat cancelled");
+                    reservation.settle(generatedTokens());
+                    recorder.finish(ChatMetrics.OUTCOME_CANCELLED, TokenEstimator.estimate(reply.toString()));
+                    return;
+                }
                 logger.error("Stream chat error: {}", error.getMessage(), error);
+                // 按已经输出的内容结算
+                reservation.settle(generatedTokens());
+                recorder.finish(ChatMetrics.OUTCOME_ERROR, TokenEstimator.estimate(reply.toString()));
                 try {
                     // 发送错误消息
                     emitter.send(SseEmitter.event()
@@ -156,7 +315,7 @@ public class ChatServiceImpl implements ChatService {
                     logger.error("Error completing SSE with error: {}", ex.getMessage(), ex);
                 }
             }
-        });
+        }, recorder, cancellationToken);
     }
     
     @Override
@@ -178,28 +337,40 @@ public class ChatServiceImpl implements ChatService {
     }
     
     /**
-     * 保存聊天历史记录
+     * 记录用量并保存聊天历史记录
+     * @param userId 发起请求的用户，匿名请求为null，只计算费用，不保存历史
+     * @param saveHistory 是否保存聊天历史
+     * @param billed 是否由上游生成；模拟回复不记录用量和费用
      */
-    private void saveChatHistory(String userMessage, String aiResponse, String model) {
+    private void saveChatHistory(Long userId, boolean saveHistory, boolean billed, String userMessage,
+                                 String aiResponse, String model, int promptTokens, int completionTokens) {
         try {
-            // 获取当前用户信息（简化实现）
-            Long userId = getCurrentUserId();
-            String sessionId = generateSessionId();
-            
-            ChatHistory chatHistory = new ChatHistory(userId, sessionId, userMessage, aiResponse, model);
+            double cost = billed ? usageService.recordUsage(userId, promptTokens, completionTokens) : 0;
+            if (userId == null || !saveHistory) {
+                return;
+            }
+            ChatHistory chatHistory = new ChatHistory(userId, generateSessionId(), userMessage, aiResponse, model);
+            chatHistory.setTokensUsed(promptTokens + completionTokens);
+            chatHistory.setCost(cost);
             chatHistoryService.saveChatHistory(chatHistory);
         } catch (Exception e) {
             logger.warn("Failed to save chat history: {}", e.getMessage());
         }
     }
     
+    private static Long parseUserId(String userId) {
+        try {
+            return userId != null ? Long.valueOf(userId) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
     /**
-     * 获取当前用户ID（简化实现）
+     * token额度归属：登录用户按用户ID，匿名请求按IP
      */
-    private Long getCurrentUserId() {
-        // 这里应该从SecurityContext中获取当前用户信息
-        // 简化实现，返回默认用户ID
-        return 1L;
+    private static String quotaSubject(Long userId) {
+        return userId != null ? TokenRateLimiter.userSubject(userId) : ClientIdentity.userOrIp();
     }
     
     /**
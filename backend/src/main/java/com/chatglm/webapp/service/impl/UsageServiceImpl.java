@@ -0,0 +1,444 @@
+package com.chatglm.webapp.service.impl;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.model.UsageStats;
+import com.chatglm.webapp.service.UsageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 用量统计
+ * 请求线程只累加本地的分段计数器（每个用户一组LongAdder），后台定时把增量通过一次流水线写入Redis：
+ *
+ * chat:usage:{userId}:{bucket}   用户在时间桶内的用量（哈希），bucket为m+分钟、d+日期、M+月份
+ * chat:usage:all:{bucket}        全部用户的合计（哈希）
+ * chat:usage:top:{bucket}        按token总数排序的用户（有序集合），只维护日和月，排行无需扫描键
+ * chat:usage:{userId}            累计调用次数，兼容ChatHistoryService.countUserUsage
+ *
+ * chat:usage:flush:{batchId}     已写入的刷新批次，重试同一批次时不再累加
+ *
+ * 增量按写入时刻归入时间桶，跨分钟边界时最多有一个刷新周期的偏差。
+ * 每次刷新的全部增量由一个Lua脚本写入，先用批次ID做SET NX：写入失败或结果未知时，
+ * 下次刷新用同一批次ID重试同一批增量，已经生效的批次不会被重复累加。
+ */
+@Service
+public class UsageServiceImpl implements UsageService {
+
+    private static final Logger log = LoggerFactory.getLogger(UsageServiceImpl.class);
+
+    private static final String USAGE_KEY_PREFIX = "chat:usage:";
+    private static final String ALL_KEY_PREFIX = "chat:usage:all:";
+    private static final String TOP_KEY_PREFIX = "chat:usage:top:";
+    private static final String FLUSH_KEY_PREFIX = "chat:usage:flush:";
+
+    private static final String FIELD_CALLS = "calls";
+    private static final String FIELD_PROMPT_TOKENS = "prompt_tokens";
+    private static final String FIELD_COMPLETION_TOKENS = "completion_tokens";
+    private static final String FIELD_COST_MICROS = "cost_micros";
+
+    private static final DateTimeFormatter MINUTE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private static final long MINUTE_TTL_SECONDS = TimeUnit.DAYS.toSeconds(2);
+    private static final long DAY_TTL_SECONDS = TimeUnit.DAYS.toSeconds(90);
+    private static final long MONTH_TTL_SECONDS = TimeUnit.DAYS.toSeconds(400);
+    private static final long FLUSH_MARKER_TTL_SECONDS = TimeUnit.DAYS.toSeconds(1);
+
+    private static final String OP_HASH = "h";
+    private static final String OP_ZSET = "z";
+    private static final String OP_INCR = "i";
+
+    // KEYS[1]为批次标记，其余每个键对应ARGV中的一条操作：
+    // h 调用次数 提示词token 生成token 费用 过期秒数 | z 增量 成员 过期秒数 | i 增量
+    static final DefaultRedisScript<Long> FLUSH_SCRIPT = new DefaultRedisScript<>(
+            "if not redis.call('SET', KEYS[1], '1', 'NX', 'EX', ARGV[1]) then\n"
+                    + "  return 0\n"
+                    + "end\n"
+                    + "local a = 2\n"
+                    + "for k = 2, #KEYS do\n"
+                    + "  local op = ARGV[a]\n"
+                    + "  if op == 'h' then\n"
+                    + "    redis.call('HINCRBY', KEYS[k], '" + FIELD_CALLS + "', ARGV[a + 1])\n"
+                    + "    redis.call('HINCRBY', KEYS[k], '" + FIELD_PROMPT_TOKENS + "', ARGV[a + 2])\n"
+                    + "    redis.call('HINCRBY', KEYS[k], '" + FIELD_COMPLETION_TOKENS + "', ARGV[a + 3])\n"
+                    + "    redis.call('HINCRBY', KEYS[k], '" + FIELD_COST_MICROS + "', ARGV[a + 4])\n"
+                    + "    redis.call('EXPIRE', KEYS[k], ARGV[a + 5])\n"
+                    + "    a = a + 6\n"
+                    + "  elseif op == 'z' then\n"
+                    + "    redis.call('ZINCRBY', KEYS[k], ARGV[a + 1], ARGV[a + 2])\n"
+                    + "    redis.call('EXPIRE', KEYS[k], ARGV[a + 3])\n"
+                    + "    a = a + 4\n"
+                    + "  else\n"
+                    + "    redis.call('INCRBY', KEYS[k], ARGV[a + 1])\n"
+                    + "    a = a + 2\n"
+                    + "  end\n"
+                    + "end\n"
+                    + "return 1",
+            Long.class);
+
+    // 连续这么多次刷新没有增量的用户从内存中移除
+    private static final int IDLE_FLUSHES_BEFORE_EVICT = 60;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Clock clock;
+    private final double promptPricePer1k;
+    private final double completionPricePer1k;
+
+    private final Map<Long, UserCounters> counters = new ConcurrentHashMap<>();
+    // 已从counters移除的计数器，再刷新一次以带走移除前最后的增量；只在flush中访问
+    private List<UserCounters> retired = new ArrayList<>();
+    // 写入失败或结果未知的批次，下次刷新原样重试；只在flush中访问
+    private FlushBatch pending;
+
+    private final Counter promptTokensCounter;
+    private final Counter completionTokensCounter;
+    private final Counter flushFailures;
+
+    public UsageServiceImpl(StringRedisTemplate stringRedisTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${chatglm.usage.price.prompt-per-1k-tokens:0.002}") double promptPricePer1k,
+                            @Value("${chatglm.usage.price.completion-per-1k-tokens:0.006}") double completionPricePer1k) {
+        this(stringRedisTemplate, meterRegistry, promptPricePer1k, completionPricePer1k, Clock.systemDefaultZone());
+    }
+
+    UsageServiceImpl(StringRedisTemplate stringRedisTemplate, MeterRegistry meterRegistry,
+                     double promptPricePer1k, double completionPricePer1k, Clock clock) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.promptPricePer1k = promptPricePer1k;
+        this.completionPricePer1k = completionPricePer1k;
+        this.clock = clock;
+        this.promptTokensCounter = Counter.builder("chatglm.usage.tokens")
+                .description("Number of tokens consumed by model calls")
+                .tag("type", "prompt")
+                .register(meterRegistry);
+        this.completionTokensCounter = Counter.builder("chatglm.usage.tokens")
+                .description("Number of tokens consumed by model calls")
+                .tag("type", "completion")
+                .register(meterRegistry);
+        this.flushFailures = Counter.builder("chatglm.usage.flush.failures")
+                .description("Number of failed usage flushes to Redis")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public double recordUsage(Long userId, int promptTokens, int completionTokens) {
+        double cost = promptTokens / 1000.0 * promptPricePer1k + completionTokens / 1000.0 * completionPricePer1k;
+        if (userId == null) {
+            return cost;
+        }
+        UserCounters userCounters = counters.get(userId);
+        if (userCounters == null) {
+            userCounters = counters.computeIfAbsent(userId, UserCounters::new);
+        }
+        userCounters.calls.increment();
+        userCounters.promptTokens.add(promptTokens);
+        userCounters.completionTokens.add(completionTokens);
+        userCounters.costMicros.add(Math.round(cost * 1_000_000));
+        promptTokensCounter.increment(promptTokens);
+        completionTokensCounter.increment(completionTokens);
+        return cost;
+    }
+
+    @Scheduled(fixedDelayString = "${chatglm.usage.flush-interval-ms:5000}")
+    public void scheduledFlush() {
+        try {
+            flush();
+        } catch (Exception e) {
+            flushFailures.increment();
+            log.error("用量统计写入失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把上次刷新以来的增量写入Redis，成功后才推进已写入的基线
+     * 上一批写入失败时先用同一批次ID重试，成功之前不产生新的批次
+     */
+    synchronized void flush() {
+        if (pending != null) {
+            write(pending);
+            pending.commit();
+            pending = null;
+        }
+        List<Delta> deltas = new ArrayList<>();
+        for (UserCounters userCounters : retired) {
+            Delta delta = userCounters.delta();
+            if (delta != null) {
+                deltas.add(delta);
+            }
+        }
+        List<UserCounters> evicted = new ArrayList<>();
+        for (UserCounters userCounters : counters.values()) {
+            Delta delta = userCounters.delta();
+            if (delta != null) {
+                userCounters.idleFlushes = 0;
+                deltas.add(delta);
+            } else if (++userCounters.idleFlushes >= IDLE_FLUSHES_BEFORE_EVICT
+                    && counters.remove(userCounters.userId, userCounters)) {
+                evicted.add(userCounters);
+            }
+        }
+        if (!deltas.isEmpty()) {
+            FlushBatch batch = new FlushBatch(UUID.randomUUID().toString(), deltas, LocalDateTime.now(clock));
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                // 写入失败时保留本批次和全部待刷新的计数器，下次重试
+                pending = batch;
+                retired.addAll(evicted);
+                throw e;
+            }
+            batch.commit();
+        }
+        retired = evicted;
+    }
+
+    private void write(FlushBatch batch) {
+        Long applied = stringRedisTemplate.execute(FLUSH_SCRIPT, batch.keys, batch.args.toArray());
+        if (applied != null && applied == 0) {
+            log.info("用量批次已写入过，跳过: {}", batch.id);
+        }
+    }
+
+    @Override
+    public UsageStats getUsage(Long userId, Period period) {
+        String bucket = bucket(period);
+        Map<Object, Object> fields = stringRedisTemplate.opsForHash().entries(USAGE_KEY_PREFIX + userId + ":" + bucket);
+        return toStats(userId, bucket, fields);
+    }
+
+    @Override
+    public UsageStats getTotalUsage(Period period) {
+        String bucket = bucket(period);
+        return toStats(null, bucket, stringRedisTemplate.opsForHash().entries(ALL_KEY_PREFIX + bucket));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<UsageStats> getTopUsers(Period period, int limit) {
+        if (period == Period.MINUTE) {
+            throw new ChatGLMException(400, "排行只支持按日或按月统计");
+        }
+        String bucket = bucket(period);
+        Set<ZSetOperations.TypedTuple<String>> top = stringRedisTemplate.opsForZSet()
+                .reverseRangeWithScores(TOP_KEY_PREFIX + bucket, 0, limit - 1L);
+        List<UsageStats> result = new ArrayList<>();
+        if (top == null || top.isEmpty()) {
+            return result;
+        }
+        List<Long> userIds = new ArrayList<>(top.size());
+        for (ZSetOperations.TypedTuple<String> tuple : top) {
+            userIds.add(Long.valueOf(tuple.getValue()));
+        }
+        // 一次流水线读取排行中每个用户的明细
+        List<Object> details = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            for (Long userId : userIds) {
+                redis.hGetAll(USAGE_KEY_PREFIX + userId + ":" + bucket);
+            }
+            return null;
+        });
+        for (int i = 0; i < userIds.size(); i++) {
+            result.add(toStats(userIds.get(i), bucket, (Map<Object, Object>) details.get(i)));
+        }
+        return result;
+    }
+
+    private String bucket(Period period) {
+        LocalDateTime now = LocalDateTime.now(clock);
+        switch (period) {
+            case MINUTE:
+                return "m" + MINUTE_FORMAT.format(now);
+            case DAY:
+                return "d" + DAY_FORMAT.format(now);
+            default:
+                return "M" + MONTH_FORMAT.format(now);
+        }
+    }
+
+    private static UsageStats toStats(Long userId, String bucket, Map<Object, Object> fields) {
+        UsageStats stats = new UsageStats(userId, bucket);
+        if (fields == null || fields.isEmpty()) {
+            return stats;
+        }
+        stats.setCalls(longField(fields, FIELD_CALLS));
+        stats.setPromptTokens(longField(fields, FIELD_PROMPT_TOKENS));
+        stats.setCompletionTokens(longField(fields, FIELD_COMPLETION_TOKENS));
+        stats.setCost(longField(fields, FIELD_COST_MICROS) / 1_000_000.0);
+        return stats;
+    }
+
+    private static long longField(Map<Object, Object> fields, String name) {
+        Object value = fields.get(name);
+        return value != null ? Long.parseLong(value.toString()) : 0L;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduledFlush();
+    }
+
+    /**
+     * 单个用户的分段计数器，以及已写入Redis的基线
+     * 计数器从不清零，每次刷新写入当前值与基线的差，避免sumThenReset在并发累加时丢失计数。
+     */
+    private static final class UserCounters {
+        final Long userId;
+        final LongAdder calls = new LongAdder();
+        final LongAdder promptTokens = new LongAdder();
+        final LongAdder completionTokens = new LongAdder();
+        final LongAdder costMicros = new LongAdder();
+
+        // 以下字段只在flush中访问
+        long flushedCalls;
+        long flushedPromptTokens;
+        long flushedCompletionTokens;
+        long flushedCostMicros;
+        int idleFlushes;
+
+        UserCounters(Long userId) {
+            this.userId = userId;
+        }
+
+        Delta delta() {
+            long currentCalls = calls.sum();
+            long currentPromptTokens = promptTokens.sum();
+            long currentCompletionTokens = completionTokens.sum();
+            long currentCostMicros = costMicros.sum();
+            if (currentCalls == flushedCalls && currentPromptTokens == flushedPromptTokens
+                    && currentCompletionTokens == flushedCompletionTokens && currentCostMicros == flushedCostMicros) {
+                return null;
+            }
+            return new Delta(this, currentCalls, currentPromptTokens, currentCompletionTokens, currentCostMicros);
+        }
+    }
+
+    /**
+     * 一次刷新的全部写入操作，时间桶在创建时确定，重试时不变
+     */
+    private static final class FlushBatch {
+        final String id;
+        final List<Delta> deltas;
+        final List<String> keys = new ArrayList<>();
+        final List<String> args = new ArrayList<>();
+
+        FlushBatch(String id, List<Delta> deltas, LocalDateTime now) {
+            this.id = id;
+            this.deltas = deltas;
+            String minute = "m" + MINUTE_FORMAT.format(now);
+            String day = "d" + DAY_FORMAT.format(now);
+            String month = "M" + MONTH_FORMAT.format(now);
+            keys.add(FLUSH_KEY_PREFIX + id);
+            args.add(String.valueOf(FLUSH_MARKER_TTL_SECONDS));
+            long calls = 0;
+            long promptTokens = 0;
+            long completionTokens = 0;
+            long costMicros = 0;
+            for (Delta delta : deltas) {
+                String userKey = USAGE_KEY_PREFIX + delta.userId + ":";
+                hash(userKey + minute, delta.calls, delta.promptTokens, delta.completionTokens, delta.costMicros,
+                        MINUTE_TTL_SECONDS);
+                hash(userKey + day, delta.calls, delta.promptTokens, delta.completionTokens, delta.costMicros,
+                        DAY_TTL_SECONDS);
+                hash(userKey + month, delta.calls, delta.promptTokens, delta.completionTokens, delta.costMicros,
+                        MONTH_TTL_SECONDS);
+                long tokens = delta.promptTokens + delta.completionTokens;
+                String member = String.valueOf(delta.userId);
+                zset(TOP_KEY_PREFIX + day, tokens, member, DAY_TTL_SECONDS);
+                zset(TOP_KEY_PREFIX + month, tokens, member, MONTH_TTL_SECONDS);
+                keys.add(USAGE_KEY_PREFIX + delta.userId);
+                args.add(OP_INCR);
+                args.add(String.valueOf(delta.calls));
+                calls += delta.calls;
+                promptTokens += delta.promptTokens;
+                completionTokens += delta.completionTokens;
+                costMicros += delta.costMicros;
+            }
+            hash(ALL_KEY_PREFIX + minute, calls, promptTokens, completionTokens, costMicros, MINUTE_TTL_SECONDS);
+            hash(ALL_KEY_PREFIX + day, calls, promptTokens, completionTokens, costMicros, DAY_TTL_SECONDS);
+            hash(ALL_KEY_PREFIX + month, calls, promptTokens, completionTokens, costMicros, MONTH_TTL_SECONDS);
+        }
+
+        private void hash(String key, long calls, long promptTokens, long completionTokens, long costMicros,
+                          long ttlSeconds) {
+            keys.add(key);
+            args.add(OP_HASH);
+            args.add(String.valueOf(calls));
+            args.add(String.valueOf(promptTokens));
+            args.add(String.valueOf(completionTokens));
+            args.add(String.valueOf(costMicros));
+            args.add(String.valueOf(ttlSeconds));
+        }
+
+        private void zset(String key, long increment, String member, long ttlSeconds) {
+            keys.add(key);
+            args.add(OP_ZSET);
+            args.add(String.valueOf(increment));
+            args.add(member);
+            args.add(String.valueOf(ttlSeconds));
+        }
+
+        void commit() {
+            for (Delta delta : deltas) {
+                delta.commit();
+            }
+        }
+    }
+
+    private static final class Delta {
+        final UserCounters source;
+        final Long userId;
+        final long totalCalls;
+        final long totalPromptTokens;
+        final long totalCompletionTokens;
+        final long totalCostMicros;
+        final long calls;
+        final long promptTokens;
+        final long completionTokens;
+        final long costMicros;
+
+        Delta(UserCounters source, long totalCalls, long totalPromptTokens, long totalCompletionTokens,
+              long totalCostMicros) {
+            this.source = source;
+            this.userId = source.userId;
+            this.totalCalls = totalCalls;
+            this.totalPromptTokens = totalPromptTokens;
+            this.totalCompletionTokens = totalCompletionTokens;
+            this.totalCostMicros = totalCostMicros;
+            this.calls = totalCalls - source.flushedCalls;
+            this.promptTokens = totalPromptTokens - source.flushedPromptTokens;
+            this.completionTokens = totalCompletionTokens - source.flushedCompletionTokens;
+            this.costMicros = totalCostMicros - source.flushedCostMicros;
+        }
+
+        void commit() {
+            source.flushedCalls = totalCalls;
+            source.flushedPromptTokens = totalPromptTokens;
+            source.flushedCompletionTokens = totalCompletionTokens;
+            source.flushedCostMicros = totalCostMicros;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.chatglm.webapp.storage;
+
+import com.chatglm.webapp.codec.ChatHistoryRedisSerializer;
+import com.chatglm.webapp.model.ChatHistory;
+import com.chatglm.webapp.service.impl.ChatHistoryServiceImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.zset.Tuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 冷存储迁移任务
+ * 定时把超过hot-days未活跃的会话从Redis迁移到冷存储，并在迁移后压缩段文件。
+ * 迁移在taskExecutor中执行，同一时间只运行一个迁移任务。
+ *
+ * 迁移顺序为：读取Redis列表 -> 追加到冷存储并刷盘 -> 从列表头部移除已迁移的记录 -> 从活跃索引移除会话。
+ * 移除时逐条比较列表头部的元素，不按条数截断：迁移期间写入方按会话上限截掉的记录不会被重复计算，
+ * 新追加的记录也不会被误删。
+ * 中途失败时下一轮会重新迁移同一批记录，冷存储中可能出现重复记录，但不会丢失。
+ */
+@Component
+@ConditionalOnProperty(name = "chatglm.history.cold.enabled", havingValue = "true")
+public class ColdHistoryMigrator {
+
+    private static final Logger log = LoggerFactory.getLogger(ColdHistoryMigrator.class);
+
+    // 只移除分数仍然不晚于截止时间的会话，迁移期间又有新消息的会话保留在活跃索引中
+    private static final DefaultRedisScript<Long> REMOVE_IF_IDLE_SCRIPT = new DefaultRedisScript<>(
+            "local removed = 0\n"
+                    + "for i = 2, #ARGV do\n"
+                    + "  local score = redis.call('ZSCORE', KEYS[1], ARGV[i])\n"
+                    + "  if score and tonumber(score) <= tonumber(ARGV[1]) then\n"
+                    + "    removed = removed + redis.call('ZREM', KEYS[1], ARGV[i])\n"
+                    + "  end\n"
+                    + "end\n"
+                    + "return removed",
+            Long.class);
+
+    // 依次比较列表头部与已迁移的记录，相同则弹出；已被会话上限截掉的记录跳过，返回移除的条数
+    private static final byte[] TRIM_MIGRATED_SCRIPT = utf8(
+            "local removed = 0\n"
+                    + "for i = 1, #ARGV do\n"
+                    + "  local head = redis.call('LINDEX', KEYS[1], 0)\n"
+                    + "  if not head then\n"
+                    + "    break\n"
+                    + "  end\n"
+                    + "  if head == ARGV[i] then\n"
+                    + "    redis.call('LPOP', KEYS[1])\n"
+                    + "    removed = removed + 1\n"
+                    + "  end\n"
+                    + "end\n"
+                    + "return removed");
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ColdHistoryStore coldHistoryStore;
+    private final Executor taskExecutor;
+    private final ChatHistoryRedisSerializer historySerializer;
+    private final long hotMillis;
+    private final int batchSize;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Counter migratedSessions;
+    private final Counter migratedRecords;
+
+    public ColdHistoryMigrator(RedisTemplate<String, Object> redisTemplate,
+                               StringRedisTemplate stringRedisTemplate,
+                               ColdHistoryStore coldHistoryStore,
+                               @Qualifier("taskExecutor") Executor taskExecutor,
+                               ObjectMapper objectMapper,
+                               MeterRegistry meterRegistry,
+                               @Value("${chatglm.history.cold.hot-days:3}") long hotDays,
+                               @Value("${chatglm.history.cold.migrate-batch-size:200}") int batchSize,
+                               @Value("${chatglm.history.compression-threshold-bytes:512}") int compressionThreshold) {
+        this.redisTemplate = redisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.coldHistoryStore = coldHistoryStore;
+        this.taskExecutor = taskExecutor;
+        this.historySerializer = new ChatHistoryRedisSerializer(objectMapper, compressionThreshold);
+        this.hotMillis = TimeUnit.DAYS.toMillis(hotDays);
+        this.batchSize = batchSize;
+        this.migratedSessions = Counter.builder("chatglm.history.cold.migrated.sessions")
+                .description("Number of sessions moved from Redis to the cold tier")
+                .register(meterRegistry);
+        this.migratedRecords = Counter.builder("chatglm.history.cold.migrated.records")
+                .description("Number of chat history records moved from Redis to the cold tier")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${chatglm.history.cold.migrate-interval-ms:600000}",
+            initialDelayString = "${chatglm.history.cold.migrate-interval-ms:600000}")
+    public void scheduleMigration() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    int sessions = migrate();
+                    coldHistoryStore.compact();
+                    if (sessions > 0) {
+                        log.info("冷存储迁移完成，会话数: {}", sessions);
+                    }
+                } catch (Exception e) {
+                    log.error("冷存储迁移失败: {}", e.getMessage(), e);
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 迁移所有超过hot-days未活跃的会话
+     * @return 迁移的会话数
+     */
+    int migrate() throws IOException {
+        long cutoff = System.currentTimeMillis() - hotMillis;
+        byte[] activityKey = utf8(ChatHistoryServiceImpl.ACTIVITY_KEY);
+        Range<Double> idle = Range.of(Range.Bound.unbounded(), Range.Bound.inclusive((double) cutoff));
+        Limit limit = Limit.limit().count(batchSize);
+        int total = 0;
+        while (true) {
+            Set<Tuple> batch = redisTemplate.execute((RedisCallback<Set<Tuple>>) connection ->
+                    connection.zSetCommands().zRangeByScoreWithScores(activityKey, idle, limit));
+            if (batch == null || batch.isEmpty()) {
+                return total;
+            }
+            List<String> members = new ArrayList<>(batch.size());
+            for (Tuple tuple : batch) {
+                members.add(new String(tuple.getValue(), StandardCharsets.UTF_8));
+            }
+
+            List<Object> lists = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String member : members) {
+                    connection.listCommands().lRange(utf8(ChatHistoryServiceImpl.HISTORY_KEY_PREFIX + member), 0, -1);
+                }
+                return null;
+            }, RedisSerializer.byteArray());
+
+            List<List<byte[]>> migrated = new ArrayList<>(members.size());
+            for (int i = 0; i < members.size(); i++) {
+                List<ChatHistory> records = decode(lists.get(i));
+                if (!records.isEmpty()) {
+                    coldHistoryStore.append(members.get(i), records);
+                    migratedRecords.increment(records.size());
+                }
+                migrated.add(rawItems(lists.get(i)));
+            }
+            coldHistoryStore.flush();
+
+            // 只移除已迁移的记录，迁移期间追加到列表尾部的新消息保留在Redis
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < members.size(); i++) {
+                    List<byte[]> items = migrated.get(i);
+                    if (items.isEmpty()) {
+                        continue;
+                    }
+                    byte[][] keysAndArgs = new byte[1 + items.size()][];
+                    keysAndArgs[0] = utf8(ChatHistoryServiceImpl.HISTORY_KEY_PREFIX + members.get(i));
+                    for (int j = 0; j < items.size(); j++) {
+                        keysAndArgs[1 + j] = items.get(j);
+                    }
+                    connection.scriptingCommands().eval(TRIM_MIGRATED_SCRIPT, ReturnType.INTEGER, 1, keysAndArgs);
+                }
+                return null;
+            });
+            List<String> args = new ArrayList<>(members.size() + 1);
+            args.add(String.valueOf(cutoff));
+            args.addAll(members);
+            stringRedisTemplate.execute(REMOVE_IF_IDLE_SCRIPT, List.of(ChatHistoryServiceImpl.ACTIVITY_KEY),
+                    args.toArray());
+
+            migratedSessions.increment(members.size());
+            total += members.size();
+            if (members.size() < batchSize) {
+                return total;
+            }
+        }
+    }
+
+    private static List<byte[]> rawItems(Object value) {
+        List<byte[]> items = new ArrayList<>();
+        if (value instanceof List<?> raw) {
+            for (Object item : raw) {
+                if (item instanceof byte[] bytes) {
+                    items.add(bytes);
+                }
+            }
+        }
+        return items;
+    }
+
+    private List<ChatHistory> decode(Object value) {
+        List<ChatHistory> records = new ArrayList<>();
+        if (value instanceof List<?> items) {
+            for (Object item : items) {
+                if (item instanceof byte[] bytes) {
+                    try {
+                        records.add(historySerializer.deserialize(bytes));
+                    } catch (Exception e) {
+                        log.warn("跳过无法解析的聊天记录: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+        return records;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
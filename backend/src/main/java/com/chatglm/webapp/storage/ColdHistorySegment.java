@@ -0,0 +1,186 @@
+package com.chatglm.webapp.storage;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 冷存储段文件
+ * 固定大小的内存映射文件，只追加写入；读取直接访问映射区域，不经过read系统调用。
+ *
+ * 记录格式：[int 记录长度][byte 类型][short 键长度][键][负载]，长度为0表示段结尾。
+ * 追加由ColdHistoryStore串行执行；已写入的区域不再修改，可以被多个线程并发读取。
+ * close会立即释放映射，调用方需保证之后不再访问该段（ColdHistoryStore在写锁内关闭被替换的段）。
+ */
+class ColdHistorySegment implements AutoCloseable {
+
+    static final byte TYPE_RECORD = 1;
+    static final byte TYPE_DELETE = 2;
+
+    private static final int RECORD_HEADER = 4 + 1 + 2;
+
+    // sun.misc.Unsafe.invokeCleaner，用于立即释放映射；不可用时映射由GC回收
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // 保持为null
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final int id;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private int writePosition;
+    private boolean closed;
+
+    /**
+     * 记录访问回调
+     */
+    interface RecordVisitor {
+        void visit(byte type, String key, int offset, int recordLength);
+    }
+
+    ColdHistorySegment(int id, Path path, int sizeBytes) throws IOException {
+        this.id = id;
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes);
+        }
+        this.writePosition = findEnd();
+    }
+
+    int id() {
+        return id;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int writePosition() {
+        return writePosition;
+    }
+
+    /**
+     * 追加一条记录
+     * @return 记录的起始偏移；空间不足时返回-1
+     */
+    int append(byte type, String key, byte[] payload) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 2 + rawKey.length + payload.length;
+        // 预留4字节结尾标记
+        if (writePosition + 4 + length + 4 > buffer.capacity()) {
+            return -1;
+        }
+        int offset = writePosition;
+        buffer.put(offset + 4, type);
+        buffer.putShort(offset + 5, (short) rawKey.length);
+        buffer.put(offset + RECORD_HEADER, rawKey);
+        buffer.put(offset + RECORD_HEADER + rawKey.length, payload);
+        buffer.putInt(offset + 4 + length, 0);
+        // 最后写长度字段，进程中途退出时未写完的记录不会被当作有效记录
+        buffer.putInt(offset, length);
+        writePosition = offset + 4 + length;
+        return offset;
+    }
+
+    /**
+     * 记录总长度（含长度字段）
+     */
+    int recordLength(int offset) {
+        return 4 + buffer.getInt(offset);
+    }
+
+    /**
+     * 负载在映射区域中的起始偏移
+     */
+    int payloadOffset(int offset) {
+        return offset + RECORD_HEADER + buffer.getShort(offset + 5);
+    }
+
+    int payloadLength(int offset) {
+        return offset + recordLength(offset) - payloadOffset(offset);
+    }
+
+    /**
+     * 映射区域，只能使用绝对位置读取
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * 按写入顺序遍历所有记录
+     */
+    void scan(RecordVisitor visitor) {
+        int offset = 0;
+        while (offset < writePosition) {
+            int length = buffer.getInt(offset);
+            byte type = buffer.get(offset + 4);
+            byte[] rawKey = new byte[buffer.getShort(offset + 5)];
+            buffer.get(offset + RECORD_HEADER, rawKey);
+            visitor.visit(type, new String(rawKey, StandardCharsets.UTF_8), offset, 4 + length);
+            offset += 4 + length;
+        }
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    private int findEnd() {
+        int offset = 0;
+        while (offset + 4 <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + 4 + length > buffer.capacity()) {
+                break;
+            }
+            offset += 4 + length;
+        }
+        return offset;
+    }
+
+    /**
+     * 刷盘并释放映射，重复调用无效
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                // 释放失败时由GC回收
+            }
+        }
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,414 @@
+package com.chatglm.webapp.storage;
+
+import com.chatglm.webapp.codec.ChatHistoryCodec;
+import com.chatglm.webapp.model.ChatHistory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 聊天历史冷存储
+ * 由多个只追加的段文件组成，内存中维护会话到记录位置的索引，启动时扫描段文件重建。
+ * 删除会话时追加删除标记；已封存的段中失效数据比例超过阈值时原地压缩，被替换的段在写锁内释放映射。
+ *
+ * 同一目录只能由一个进程写入；多节点部署时只在一个节点开启冷存储，或使用共享目录并只开启一个迁移节点。
+ */
+@Component
+@ConditionalOnProperty(name = "chatglm.history.cold.enabled", havingValue = "true")
+public class ColdHistoryStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ColdHistoryStore.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.seg");
+
+    private final Path directory;
+    private final int segmentSizeBytes;
+    private final double compactionGarbageRatio;
+    private final int compressionThreshold;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, ColdHistorySegment> segments = new TreeMap<>();
+    // 会话键 -> 记录位置（段ID << 32 | 段内偏移），按写入顺序
+    private final Map<String, List<Long>> index = new HashMap<>();
+    // 段ID -> 有效记录的字节数
+    private final Map<Integer, Long> liveBytes = new HashMap<>();
+    private ColdHistorySegment active;
+    private boolean closed;
+
+    @Autowired
+    public ColdHistoryStore(MeterRegistry meterRegistry,
+                            @Value("${chatglm.history.cold.path:data/history-cold}") String path,
+                            @Value("${chatglm.history.cold.segment-size-mb:64}") int segmentSizeMb,
+                            @Value("${chatglm.history.cold.compaction-garbage-ratio:0.5}") double compactionGarbageRatio,
+                            @Value("${chatglm.history.compression-threshold-bytes:512}") int compressionThreshold)
+            throws IOException {
+        this(Paths.get(path), segmentSizeMb * 1024 * 1024, compactionGarbageRatio, compressionThreshold);
+        Gauge.builder("chatglm.history.cold.sessions", this, store -> store.withReadLock(store.index::size))
+                .description("Number of sessions with records in the cold tier")
+                .register(meterRegistry);
+        Gauge.builder("chatglm.history.cold.segments", this, store -> store.withReadLock(store.segments::size))
+                .description("Number of cold tier segment files")
+                .register(meterRegistry);
+        Gauge.builder("chatglm.history.cold.bytes", this, ColdHistoryStore::usedBytes)
+                .description("Bytes used by records in cold tier segment files")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    ColdHistoryStore(Path directory, int segmentSizeBytes, double compactionGarbageRatio, int compressionThreshold)
+            throws IOException {
+        this.directory = directory;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.compactionGarbageRatio = compactionGarbageRatio;
+        this.compressionThreshold = compressionThreshold;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * 追加会话的记录，调用flush后才保证落盘
+     */
+    public void append(String sessionKey, List<ChatHistory> records) throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            for (ChatHistory record : records) {
+                byte[] payload = ChatHistoryCodec.encode(record, compressionThreshold);
+                long location = appendRecord(ColdHistorySegment.TYPE_RECORD, sessionKey, payload);
+                index.computeIfAbsent(sessionKey, k -> new ArrayList<>()).add(location);
+                liveBytes.merge(segmentId(location), (long) segment(location).recordLength(offset(location)), Long::sum);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 读取会话最近的若干条记录，按写入顺序返回
+     */
+    public List<ChatHistory> read(String sessionKey, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Long> locations = index.get(sessionKey);
+            if (locations == null || limit <= 0) {
+                return new ArrayList<>();
+            }
+            int from = Math.max(0, locations.size() - limit);
+            List<ChatHistory> result = new ArrayList<>(locations.size() - from);
+            for (int i = from; i < locations.size(); i++) {
+                long location = locations.get(i);
+                ColdHistorySegment segment = segment(location);
+                int offset = offset(location);
+                // 直接从映射区域解码
+                result.add(ChatHistoryCodec.decode(segment.buffer(),
+                        segment.payloadOffset(offset), segment.payloadLength(offset)));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String sessionKey) {
+        return withReadLock(() -> index.containsKey(sessionKey));
+    }
+
+    /**
+     * 删除会话的全部记录
+     */
+    public void delete(String sessionKey) throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (!index.containsKey(sessionKey)) {
+                return;
+            }
+            appendRecord(ColdHistorySegment.TYPE_DELETE, sessionKey, new byte[0]);
+            removeKey(sessionKey);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除键以指定前缀开头的全部会话，用于删除用户（前缀为"userId:"）
+     * 已经不在Redis会话索引中的会话也会被删除
+     * @return 删除的会话数
+     */
+    public int deleteByPrefix(String keyPrefix) throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            List<String> keys = new ArrayList<>();
+            for (String key : index.keySet()) {
+                if (key.startsWith(keyPrefix)) {
+                    keys.add(key);
+                }
+            }
+            for (String key : keys) {
+                appendRecord(ColdHistorySegment.TYPE_DELETE, key, new byte[0]);
+                removeKey(key);
+            }
+            return keys.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 把已追加的记录刷到磁盘
+     */
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            active.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 压缩失效数据比例超过阈值的已封存段
+     */
+    public void compact() throws IOException {
+        List<Integer> candidates = withReadLock(() -> {
+            List<Integer> ids = new ArrayList<>();
+            for (ColdHistorySegment segment : segments.values()) {
+                if (segment != active && garbageRatio(segment) >= compactionGarbageRatio) {
+                    ids.add(segment.id());
+                }
+            }
+            return ids;
+        });
+        for (Integer id : candidates) {
+            lock.writeLock().lock();
+            try {
+                ColdHistorySegment segment = segments.get(id);
+                if (!closed && segment != null && segment != active) {
+                    compactSegment(segment);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    long usedBytes() {
+        return withReadLock(() -> {
+            long total = 0;
+            for (ColdHistorySegment segment : segments.values()) {
+                total += segment.writePosition();
+            }
+            return total;
+        });
+    }
+
+    private void load() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    ids.add(Integer.parseInt(matcher.group(1)));
+                }
+            });
+        }
+        ids.sort(null);
+        for (int id : ids) {
+            ColdHistorySegment segment = new ColdHistorySegment(id, segmentPath(id), segmentSizeBytes);
+            segments.put(id, segment);
+            replay(segment);
+        }
+        active = segments.isEmpty() ? openSegment(1) : segments.lastEntry().getValue();
+        if (!index.isEmpty()) {
+            log.info("冷存储加载完成，段数: {}, 会话数: {}", segments.size(), index.size());
+        }
+    }
+
+    private void replay(ColdHistorySegment segment) {
+        segment.scan((type, key, offset, recordLength) -> {
+            if (type == ColdHistorySegment.TYPE_RECORD) {
+                index.computeIfAbsent(key, k -> new ArrayList<>()).add(location(segment.id(), offset));
+                liveBytes.merge(segment.id(), (long) recordLength, Long::sum);
+            } else if (type == ColdHistorySegment.TYPE_DELETE) {
+                removeKey(key);
+            }
+        });
+    }
+
+    private long appendRecord(byte type, String key, byte[] payload) throws IOException {
+        int offset = active.append(type, key, payload);
+        if (offset < 0) {
+            // 当前段已满，封存并切换到新段
+            active.force();
+            active = openSegment(active.id() + 1);
+            offset = active.append(type, key, payload);
+            if (offset < 0) {
+                throw new IOException("Record larger than cold segment size: " + key);
+            }
+        }
+        return location(active.id(), offset);
+    }
+
+    private void removeKey(String key) {
+        List<Long> locations = index.remove(key);
+        if (locations == null) {
+            return;
+        }
+        for (long location : locations) {
+            liveBytes.merge(segmentId(location), (long) -segment(location).recordLength(offset(location)), Long::sum);
+        }
+    }
+
+    /**
+     * 把段中仍然有效的记录复制到临时文件，再原子替换原文件，段ID和顺序不变
+     * 删除标记需要保留，以屏蔽更早的段中同一会话的记录；最早的段中的删除标记可以丢弃。
+     */
+    private void compactSegment(ColdHistorySegment segment) throws IOException {
+        Path tmp = segment.path().resolveSibling(segment.path().getFileName() + ".compact");
+        Files.deleteIfExists(tmp);
+        boolean oldest = segments.firstKey() == segment.id();
+        Map<String, Map<Long, Long>> relocated = new HashMap<>();
+        long before = segment.writePosition();
+
+        ColdHistorySegment compacted = new ColdHistorySegment(segment.id(), tmp, segmentSizeBytes);
+        segment.scan((type, key, offset, recordLength) -> {
+            long oldLocation = location(segment.id(), offset);
+            boolean keep;
+            if (type == ColdHistorySegment.TYPE_RECORD) {
+                List<Long> locations = index.get(key);
+                keep = locations != null && locations.contains(oldLocation);
+            } else {
+                keep = !oldest;
+            }
+            if (!keep) {
+                return;
+            }
+            byte[] payload = new byte[segment.payloadLength(offset)];
+            segment.buffer().get(segment.payloadOffset(offset), payload);
+            int newOffset = compacted.append(type, key, payload);
+            if (type == ColdHistorySegment.TYPE_RECORD) {
+                relocated.computeIfAbsent(key, k -> new HashMap<>())
+                        .put(oldLocation, location(segment.id(), newOffset));
+            }
+        });
+        compacted.close();
+        Files.move(tmp, segment.path(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        ColdHistorySegment reopened = new ColdHistorySegment(segment.id(), segment.path(), segmentSizeBytes);
+        relocated.forEach((key, moves) -> {
+            List<Long> locations = index.get(key);
+            for (int i = 0; i < locations.size(); i++) {
+                Long newLocation = moves.get(locations.get(i));
+                if (newLocation != null) {
+                    locations.set(i, newLocation);
+                }
+            }
+        });
+        if (reopened.writePosition() == 0) {
+            segments.remove(segment.id());
+            liveBytes.remove(segment.id());
+            reopened.delete();
+        } else {
+            segments.put(segment.id(), reopened);
+            liveBytes.put(segment.id(), (long) reopened.writePosition());
+        }
+        // 持有写锁，没有读取仍在访问旧映射
+        segment.close();
+        log.info("冷存储段压缩完成: {}, {} -> {} 字节", segment.path().getFileName(), before, reopened.writePosition());
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Cold history store is closed: " + directory);
+        }
+    }
+
+    private double garbageRatio(ColdHistorySegment segment) {
+        if (segment.writePosition() == 0) {
+            return 1.0;
+        }
+        long live = liveBytes.getOrDefault(segment.id(), 0L);
+        return 1.0 - (double) live / segment.writePosition();
+    }
+
+    private ColdHistorySegment openSegment(int id) throws IOException {
+        ColdHistorySegment segment = new ColdHistorySegment(id, segmentPath(id), segmentSizeBytes);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Path segmentPath(int id) {
+        return directory.resolve(String.format("segment-%06d.seg", id));
+    }
+
+    private ColdHistorySegment segment(long location) {
+        return segments.get(segmentId(location));
+    }
+
+    private static long location(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentId(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    private <T> T withReadLock(Supplier<T> supplier) {
+        lock.readLock().lock();
+        try {
+            return supplier.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (ColdHistorySegment segment : segments.values()) {
+                segment.close();
+            }
+            // 映射已释放，之后的读取返回空结果
+            segments.clear();
+            index.clear();
+            liveBytes.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.chatglm.webapp.tracing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * 把span写入本地文件，每批一行OTLP/JSON
+ * 文件可由OpenTelemetry Collector的otlpjsonfile接收器读取后转发，适合不方便直连Collector的部署。
+ * 文件超过大小上限时重命名为"文件名.1"（覆盖上一个），再写入新文件。
+ */
+public class FileSpanExporter implements SpanExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(FileSpanExporter.class);
+
+    private final Path path;
+    private final Path rotatedPath;
+    private final String serviceName;
+    private final long maxFileBytes;
+
+    private Writer writer;
+    private long fileBytes;
+
+    public FileSpanExporter(Path path, String serviceName, long maxFileBytes) {
+        this.path = path;
+        this.rotatedPath = path.resolveSibling(path.getFileName() + ".1");
+        this.serviceName = serviceName;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    @Override
+    public synchronized void export(List<SpanData> spans) {
+        String line = OtlpJson.encode(spans, serviceName) + "\n";
+        int lineBytes = line.getBytes(StandardCharsets.UTF_8).length;
+        try {
+            if (writer == null) {
+                open();
+            }
+            if (fileBytes > 0 && fileBytes + lineBytes > maxFileBytes) {
+                rotate();
+            }
+            writer.write(line);
+            writer.flush();
+            fileBytes += lineBytes;
+        } catch (IOException e) {
+            log.warn("写入span文件失败: {}, 原因: {}, span数: {}", path, e.getMessage(), spans.size());
+            closeQuietly();
+        }
+    }
+
+    private void open() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        fileBytes = Files.size(path);
+    }
+
+    private void rotate() throws IOException {
+        closeQuietly();
+        Files.move(path, rotatedPath, StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    private void closeQuietly() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.debug("关闭span文件失败: {}", e.getMessage());
+        }
+        writer = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        closeQuietly();
+    }
+}
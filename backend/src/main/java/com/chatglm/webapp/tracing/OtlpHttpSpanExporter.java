@@ -0,0 +1,53 @@
+package com.chatglm.webapp.tracing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 通过OTLP/HTTP（JSON编码）导出span，如发送到OpenTelemetry Collector或Jaeger的4318端口
+ * 导出失败只记录日志，不重试，追踪数据丢失不影响业务。
+ */
+public class OtlpHttpSpanExporter implements SpanExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(OtlpHttpSpanExporter.class);
+
+    private final URI endpoint;
+    private final String serviceName;
+    private final Duration timeout;
+    private final HttpClient httpClient;
+
+    public OtlpHttpSpanExporter(String endpoint, String serviceName, long timeoutMs) {
+        this.endpoint = URI.create(endpoint);
+        this.serviceName = serviceName;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    @Override
+    public void export(List<SpanData> spans) {
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(OtlpJson.encode(spans, serviceName)))
+                .build();
+        try {
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() / 100 != 2) {
+                log.warn("导出span失败: {}, 状态码: {}, span数: {}", endpoint, response.statusCode(), spans.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("导出span失败: {}, 原因: {}, span数: {}", endpoint, e.getMessage(), spans.size());
+        }
+    }
+}
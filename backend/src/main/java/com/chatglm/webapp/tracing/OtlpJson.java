@@ -0,0 +1,63 @@
+package com.chatglm.webapp.tracing;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按OTLP/JSON格式编码span
+ * 一次编码为一个ExportTraceServiceRequest，OTLP/HTTP接收端和Collector的otlpjsonfile接收器都可以直接读取。
+ */
+final class OtlpJson {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String SCOPE_NAME = "com.chatglm.webapp.tracing";
+    private static final int STATUS_ERROR = 2;
+
+    private OtlpJson() {
+    }
+
+    static String encode(List<SpanData> spans, String serviceName) {
+        List<Map<String, Object>> encoded = new ArrayList<>(spans.size());
+        for (SpanData span : spans) {
+            encoded.add(encode(span));
+        }
+        Map<String, Object> resource = Map.of("attributes", List.of(attribute("service.name", serviceName)));
+        Map<String, Object> scopeSpans = Map.of("scope", Map.of("name", SCOPE_NAME), "spans", encoded);
+        Map<String, Object> resourceSpans = Map.of("resource", resource, "scopeSpans", List.of(scopeSpans));
+        try {
+            return MAPPER.writeValueAsString(Map.of("resourceSpans", List.of(resourceSpans)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("span编码失败", e);
+        }
+    }
+
+    private static Map<String, Object> encode(SpanData span) {
+        Map<String, Object> encoded = new LinkedHashMap<>();
+        encoded.put("traceId", span.getTraceId());
+        encoded.put("spanId", span.getSpanId());
+        if (span.getParentSpanId() != null) {
+            encoded.put("parentSpanId", span.getParentSpanId());
+        }
+        encoded.put("name", span.getName());
+        encoded.put("kind", span.getKind().getOtlpValue());
+        // 64位整数按字符串编码
+        encoded.put("startTimeUnixNano", Long.toString(span.getStartEpochNanos()));
+        encoded.put("endTimeUnixNano", Long.toString(span.getStartEpochNanos() + span.getDurationNanos()));
+        List<Map<String, Object>> attributes = new ArrayList<>(span.getAttributes().size());
+        span.getAttributes().forEach((key, value) -> attributes.add(attribute(key, value)));
+        encoded.put("attributes", attributes);
+        if (span.getError() != null) {
+            encoded.put("status", Map.of("code", STATUS_ERROR, "message", span.getError()));
+        }
+        return encoded;
+    }
+
+    private static Map<String, Object> attribute(String key, String value) {
+        return Map.of("key", key, "value", Map.of("stringValue", value));
+    }
+}
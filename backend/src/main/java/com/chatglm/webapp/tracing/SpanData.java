@@ -0,0 +1,91 @@
+package com.chatglm.webapp.tracing;
+
+import java.util.Map;
+
+/**
+ * 已结束的span，不可修改
+ */
+public final class SpanData {
+
+    /**
+     * span类型，取值与OTLP一致
+     */
+    public enum Kind {
+        INTERNAL(1), SERVER(2), CLIENT(3), PRODUCER(4), CONSUMER(5);
+
+        private final int otlpValue;
+
+        Kind(int otlpValue) {
+            this.otlpValue = otlpValue;
+        }
+
+        public int getOtlpValue() {
+            return otlpValue;
+        }
+    }
+
+    private final String name;
+    private final Kind kind;
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final long startEpochNanos;
+    private final long durationNanos;
+    private final Map<String, String> attributes;
+    private final String error;
+
+    public SpanData(String name, Kind kind, String traceId, String spanId, String parentSpanId,
+                    long startEpochNanos, long durationNanos, Map<String, String> attributes, String error) {
+        this.name = name;
+        this.kind = kind;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.startEpochNanos = startEpochNanos;
+        this.durationNanos = durationNanos;
+        this.attributes = Map.copyOf(attributes);
+        this.error = error;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * 父span ID，链路的根span为null
+     */
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public long getStartEpochNanos() {
+        return startEpochNanos;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * 错误信息，成功时为null
+     */
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,15 @@
+package com.chatglm.webapp.tracing;
+
+import java.util.List;
+
+/**
+ * span导出器，在导出线程中按批调用
+ */
+public interface SpanExporter extends AutoCloseable {
+
+    void export(List<SpanData> spans);
+
+    @Override
+    default void close() {
+    }
+}
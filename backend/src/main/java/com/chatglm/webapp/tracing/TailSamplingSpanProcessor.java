@@ -0,0 +1,284 @@
+package com.chatglm.webapp.tracing;
+
+import com.chatglm.webapp.util.BatchFlusher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 尾部采样处理器
+ * 本节点内同一个本地根span（HTTP请求、消息消费）下的span组成一个链路段，先缓存在内存中，
+ * 根span结束时再决定整段是否导出：
+ * <ul>
+ *   <li>根span耗时达到slow-threshold-ms：保留（slow）</li>
+ *   <li>段内任一span出错：保留（error）</li>
+ *   <li>按traceId哈希落在sample-ratio内：保留（sampled），同一链路在各节点的结果一致</li>
+ *   <li>其他：丢弃</li>
+ * </ul>
+ * 根span结束后才结束的span（如流式响应的后台读取）按该段的决定处理。
+ * 超过max-trace-age-ms仍未结束的段视为异常，整段保留（expired）。
+ * 待决定的段数和每段span数都有上限，超出部分直接丢弃，导出队列已满时也丢弃，不阻塞业务线程。
+ */
+public class TailSamplingSpanProcessor implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TailSamplingSpanProcessor.class);
+
+    static final String DECISION_SLOW = "slow";
+    static final String DECISION_ERROR = "error";
+    static final String DECISION_SAMPLED = "sampled";
+    static final String DECISION_DROPPED = "dropped";
+    static final String DECISION_EXPIRED = "expired";
+
+    private static final int MAX_EXPORT_BATCH_SIZE = 512;
+
+    private final long slowThresholdNanos;
+    private final double sampleRatio;
+    private final int maxPendingSegments;
+    private final int maxSpansPerSegment;
+    private final long maxAgeNanos;
+    private final LongSupplier nanoClock;
+    private final BatchFlusher<SpanData> flusher;
+
+    private final Map<String, Segment> pending = new ConcurrentHashMap<>();
+
+    // 最近结束的段是否保留，供根span结束后才结束的span使用
+    private final Map<String, Boolean> decisions;
+
+    private final Map<String, Counter> segmentCounters = new ConcurrentHashMap<>();
+    private final Counter overflowSpans;
+    private final Counter queueFullSpans;
+    private final MeterRegistry meterRegistry;
+
+    public TailSamplingSpanProcessor(SpanExporter exporter,
+                                     MeterRegistry meterRegistry,
+                                     long slowThresholdMs,
+                                     double sampleRatio,
+                                     int maxPendingSegments,
+                                     int maxSpansPerSegment,
+                                     long maxAgeMs,
+                                     int exportQueueCapacity) {
+        this(exporter, meterRegistry, slowThresholdMs, sampleRatio, maxPendingSegments, maxSpansPerSegment,
+                maxAgeMs, exportQueueCapacity, System::nanoTime);
+    }
+
+    TailSamplingSpanProcessor(SpanExporter exporter, MeterRegistry meterRegistry, long slowThresholdMs,
+                              double sampleRatio, int maxPendingSegments, int maxSpansPerSegment, long maxAgeMs,
+                              int exportQueueCapacity, LongSupplier nanoClock) {
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMs);
+        this.sampleRatio = sampleRatio;
+        this.maxPendingSegments = maxPendingSegments;
+        this.maxSpansPerSegment = maxSpansPerSegment;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+        this.nanoClock = nanoClock;
+        this.decisions = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxPendingSegments;
+            }
+        });
+        this.flusher = new BatchFlusher<>("TraceExporter", exportQueueCapacity, MAX_EXPORT_BATCH_SIZE,
+                exporter::export);
+
+        this.meterRegistry = meterRegistry;
+        this.overflowSpans = droppedSpans(meterRegistry, "overflow");
+        this.queueFullSpans = droppedSpans(meterRegistry, "queue_full");
+        Gauge.builder("chatglm.tracing.pending", pending, Map::size)
+                .description("Trace segments waiting for their local root span to end")
+                .register(meterRegistry);
+        Gauge.builder("chatglm.tracing.export.queued", flusher, BatchFlusher::size)
+                .description("Spans waiting to be exported")
+                .register(meterRegistry);
+    }
+
+    private static Counter droppedSpans(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("chatglm.tracing.spans.dropped")
+                .description("Spans dropped before export because a buffer was full")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * span结束
+     * @param segmentId 所在链路段的ID，即本地根span的spanId
+     * @param segmentRoot 是否为本地根span
+     */
+    public void onEnd(SpanData span, String segmentId, boolean segmentRoot) {
+        if (segmentRoot) {
+            endSegment(span, segmentId);
+            return;
+        }
+        Segment segment = pending.get(segmentId);
+        if (segment == null) {
+            Boolean decision = decisions.get(segmentId);
+            if (decision != null) {
+                if (decision) {
+                    export(span);
+                }
+                return;
+            }
+            if (pending.size() >= maxPendingSegments) {
+                overflowSpans.increment();
+                return;
+            }
+            segment = pending.computeIfAbsent(segmentId, id -> new Segment(nanoClock.getAsLong()));
+        }
+        synchronized (segment) {
+            if (!segment.closed) {
+                if (!segment.add(span, maxSpansPerSegment)) {
+                    overflowSpans.increment();
+                }
+                return;
+            }
+        }
+        // 段刚刚结束，按已做出的决定处理
+        if (Boolean.TRUE.equals(decisions.get(segmentId))) {
+            export(span);
+        }
+    }
+
+    private void endSegment(SpanData root, String segmentId) {
+        Segment segment = pending.get(segmentId);
+        List<SpanData> spans = List.of();
+        boolean error = root.getError() != null;
+        String decision;
+        if (segment == null) {
+            decision = decide(root, error);
+            decisions.put(segmentId, !DECISION_DROPPED.equals(decision));
+        } else {
+            // 在锁内记录决定并关闭，之后到达的span都能查到决定
+            synchronized (segment) {
+                decision = decide(root, error || segment.error);
+                decisions.put(segmentId, !DECISION_DROPPED.equals(decision));
+                segment.closed = true;
+                spans = segment.spans;
+            }
+            pending.remove(segmentId, segment);
+        }
+        segments(decision).increment();
+        if (!DECISION_DROPPED.equals(decision)) {
+            spans.forEach(this::export);
+            export(root);
+        }
+    }
+
+    private String decide(SpanData root, boolean error) {
+        if (error) {
+            return DECISION_ERROR;
+        }
+        if (root.getDurationNanos() >= slowThresholdNanos) {
+            return DECISION_SLOW;
+        }
+        if (TraceContext.isSampled(root.getTraceId(), sampleRatio)) {
+            return DECISION_SAMPLED;
+        }
+        return DECISION_DROPPED;
+    }
+
+    /**
+     * 导出超时未结束的段，根span可能因异常没有结束
+     */
+    @Scheduled(fixedDelayString = "${chatglm.monitoring.tracing.sweep-interval-ms:5000}")
+    public void evictExpired() {
+        long now = nanoClock.getAsLong();
+        Iterator<Map.Entry<String, Segment>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Segment> entry = iterator.next();
+            Segment segment = entry.getValue();
+            if (now - segment.createdNanos < maxAgeNanos) {
+                continue;
+            }
+            List<SpanData> spans;
+            Boolean decision;
+            synchronized (segment) {
+                if (segment.closed) {
+                    continue;
+                }
+                // 段被关闭后才有span到达时，已有决定，按决定处理
+                decision = decisions.get(entry.getKey());
+                if (decision == null) {
+                    decisions.put(entry.getKey(), true);
+                }
+                segment.closed = true;
+                spans = segment.spans;
+            }
+            iterator.remove();
+            if (decision == null) {
+                segments(DECISION_EXPIRED).increment();
+                log.debug("链路段超时未结束，直接导出: {}, span数: {}", entry.getKey(), spans.size());
+            }
+            if (decision == null || decision) {
+                spans.forEach(this::export);
+            }
+        }
+    }
+
+    /**
+     * 当前待决定的链路段数
+     */
+    int pendingSegments() {
+        return pending.size();
+    }
+
+    private void export(SpanData span) {
+        try {
+            if (!flusher.offer(span, 0, TimeUnit.MILLISECONDS)) {
+                queueFullSpans.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Counter segments(String decision) {
+        return segmentCounters.computeIfAbsent(decision, d -> Counter.builder("chatglm.tracing.segments")
+                .description("Trace segments by tail sampling decision")
+                .tag("decision", d)
+                .register(meterRegistry));
+    }
+
+    /**
+     * 停止接收span，等待已保留的span导出完成
+     */
+    @Override
+    public void close() {
+        flusher.close();
+    }
+
+    private static final class Segment {
+
+        final long createdNanos;
+        final List<SpanData> spans = new ArrayList<>();
+        boolean error;
+        boolean closed;
+
+        Segment(long createdNanos) {
+            this.createdNanos = createdNanos;
+        }
+
+        /**
+         * 超出上限的span不保存，但仍参与错误判断
+         * @return 是否保存
+         */
+        boolean add(SpanData span, int maxSpans) {
+            error |= span.getError() != null;
+            if (spans.size() >= maxSpans) {
+                return false;
+            }
+            spans.add(span);
+            return true;
+        }
+    }
+}
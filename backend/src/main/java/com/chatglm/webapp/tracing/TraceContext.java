@@ -0,0 +1,113 @@
+package com.chatglm.webapp.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 追踪上下文，跨进程时按W3C Trace Context的traceparent格式传播
+ * traceparent: 00-{32位十六进制traceId}-{16位十六进制spanId}-{2位十六进制flags}
+ * 采样在链路结束后决定（尾部采样），传播时flags固定为01，收到的flags不影响是否记录。
+ */
+public final class TraceContext {
+
+    public static final String TRACEPARENT = "traceparent";
+
+    private static final String VERSION = "00";
+    private static final String SAMPLED_FLAGS = "01";
+    private static final int TRACEPARENT_LENGTH = 55;
+
+    private final String traceId;
+    private final String spanId;
+
+    TraceContext(String traceId, String spanId) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+    }
+
+    /**
+     * 新链路的根上下文
+     */
+    public static TraceContext newRoot() {
+        return new TraceContext(randomHex(2), randomHex(1));
+    }
+
+    /**
+     * 同一链路中的子span上下文
+     */
+    public TraceContext child() {
+        return new TraceContext(traceId, randomHex(1));
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String toTraceparent() {
+        return VERSION + "-" + traceId + "-" + spanId + "-" + SAMPLED_FLAGS;
+    }
+
+    /**
+     * 解析traceparent，格式不正确或ID全为0时返回null
+     */
+    public static TraceContext parse(String traceparent) {
+        if (traceparent == null) {
+            return null;
+        }
+        String value = traceparent.trim();
+        if (value.length() < TRACEPARENT_LENGTH || value.charAt(2) != '-' || value.charAt(35) != '-'
+                || value.charAt(52) != '-' || value.startsWith("ff")) {
+            return null;
+        }
+        String traceId = value.substring(3, 35);
+        String spanId = value.substring(36, 52);
+        if (!isValidId(traceId) || !isValidId(spanId)) {
+            return null;
+        }
+        return new TraceContext(traceId, spanId);
+    }
+
+    private static boolean isValidId(String id) {
+        boolean nonZero = false;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+            nonZero |= c != '0';
+        }
+        return nonZero;
+    }
+
+    /**
+     * 采样比例判断，同一链路在各节点得到相同的结果
+     * @param ratio 0到1之间的比例
+     */
+    static boolean isSampled(String traceId, double ratio) {
+        if (ratio <= 0) {
+            return false;
+        }
+        // traceId后16位是随机数，取其中56位与比例比较
+        long bits = Long.parseUnsignedLong(traceId.substring(16), 16) >>> 8;
+        return bits < ratio * (1L << 56);
+    }
+
+    private static String randomHex(int longs) {
+        StringBuilder hex = new StringBuilder(longs * 16);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < longs; i++) {
+            long value;
+            do {
+                value = random.nextLong();
+            } while (value == 0);
+            String part = Long.toHexString(value);
+            for (int pad = part.length(); pad < 16; pad++) {
+                hex.append('0');
+            }
+            hex.append(part);
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,159 @@
+package com.chatglm.webapp.tracing;
+
+import io.micrometer.common.KeyValue;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationView;
+import io.micrometer.observation.transport.Kind;
+import io.micrometer.observation.transport.ReceiverContext;
+import io.micrometer.observation.transport.SenderContext;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 把Observation转换为span
+ * <ul>
+ *   <li>有父Observation时作为其子span</li>
+ *   <li>接收端（HTTP请求、消息消费）从traceparent继续上游的链路，没有时开始新链路</li>
+ *   <li>发送端（消息发布）把traceparent写入消息头</li>
+ *   <li>不在任何链路中的其他Observation（如后台任务的Redis命令）不记录</li>
+ * </ul>
+ * 名称以ignored-prefixes开头的Observation不记录，其子Observation挂到更上一级的span下。
+ */
+public class TracingObservationHandler implements ObservationHandler<Observation.Context> {
+
+    private final TailSamplingSpanProcessor processor;
+    private final List<String> ignoredPrefixes;
+    private final LongSupplier nanoClock;
+    private final LongSupplier epochMillisClock;
+
+    public TracingObservationHandler(TailSamplingSpanProcessor processor, List<String> ignoredPrefixes) {
+        this(processor, ignoredPrefixes, System::nanoTime, System::currentTimeMillis);
+    }
+
+    TracingObservationHandler(TailSamplingSpanProcessor processor, List<String> ignoredPrefixes,
+                              LongSupplier nanoClock, LongSupplier epochMillisClock) {
+        this.processor = processor;
+        this.ignoredPrefixes = List.copyOf(ignoredPrefixes);
+        this.nanoClock = nanoClock;
+        this.epochMillisClock = epochMillisClock;
+    }
+
+    @Override
+    public void onStart(Observation.Context context) {
+        if (isIgnored(context.getName())) {
+            return;
+        }
+        ActiveSpan parent = parentSpan(context);
+        ActiveSpan span;
+        if (parent != null) {
+            span = new ActiveSpan(parent.traceContext.child(), parent.traceContext.getSpanId(), parent.segmentId);
+        } else if (context instanceof ReceiverContext) {
+            TraceContext remote = TraceContext.parse(extract((ReceiverContext<?>) context));
+            TraceContext local = remote != null ? remote.child() : TraceContext.newRoot();
+            span = new ActiveSpan(local, remote != null ? remote.getSpanId() : null, local.getSpanId());
+        } else {
+            return;
+        }
+        if (context instanceof SenderContext) {
+            inject((SenderContext<?>) context, span.traceContext.toTraceparent());
+        }
+        span.startNanos = nanoClock.getAsLong();
+        span.startEpochNanos = TimeUnit.MILLISECONDS.toNanos(epochMillisClock.getAsLong());
+        context.put(ActiveSpan.class, span);
+    }
+
+    @Override
+    public void onStop(Observation.Context context) {
+        ActiveSpan span = context.get(ActiveSpan.class);
+        if (span == null) {
+            return;
+        }
+        Map<String, String> attributes = new HashMap<>();
+        for (KeyValue keyValue : context.getAllKeyValues()) {
+            attributes.put(keyValue.getKey(), keyValue.getValue());
+        }
+        Throwable error = context.getError();
+        String name = context.getContextualName() != null ? context.getContextualName() : context.getName();
+        SpanData data = new SpanData(name, kindOf(context), span.traceContext.getTraceId(),
+                span.traceContext.getSpanId(), span.parentSpanId, span.startEpochNanos,
+                nanoClock.getAsLong() - span.startNanos, attributes, error != null ? errorMessage(error) : null);
+        processor.onEnd(data, span.segmentId, span.isSegmentRoot());
+    }
+
+    @Override
+    public boolean supportsContext(Observation.Context context) {
+        return true;
+    }
+
+    private boolean isIgnored(String name) {
+        for (String prefix : ignoredPrefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ActiveSpan parentSpan(Observation.ContextView context) {
+        ObservationView parent = context.getParentObservation();
+        while (parent != null) {
+            ActiveSpan span = parent.getContextView().get(ActiveSpan.class);
+            if (span != null) {
+                return span;
+            }
+            parent = parent.getContextView().getParentObservation();
+        }
+        return null;
+    }
+
+    private static <C> String extract(ReceiverContext<C> context) {
+        C carrier = context.getCarrier();
+        return carrier != null ? context.getGetter().get(carrier, TraceContext.TRACEPARENT) : null;
+    }
+
+    private static <C> void inject(SenderContext<C> context, String traceparent) {
+        C carrier = context.getCarrier();
+        if (carrier != null && context.getSetter() != null) {
+            context.getSetter().set(carrier, TraceContext.TRACEPARENT, traceparent);
+        }
+    }
+
+    private static SpanData.Kind kindOf(Observation.Context context) {
+        Kind kind = null;
+        if (context instanceof ReceiverContext) {
+            kind = ((ReceiverContext<?>) context).getKind();
+        } else if (context instanceof SenderContext) {
+            kind = ((SenderContext<?>) context).getKind();
+        }
+        return kind != null ? SpanData.Kind.valueOf(kind.name()) : SpanData.Kind.INTERNAL;
+    }
+
+    private static String errorMessage(Throwable error) {
+        return error.getMessage() != null ? error.getClass().getSimpleName() + ": " + error.getMessage()
+                : error.getClass().getSimpleName();
+    }
+
+    private static final class ActiveSpan {
+
+        final TraceContext traceContext;
+        final String parentSpanId;
+        final String segmentId;
+        long startNanos;
+        long startEpochNanos;
+
+        ActiveSpan(TraceContext traceContext, String parentSpanId, String segmentId) {
+            this.traceContext = traceContext;
+            this.parentSpanId = parentSpanId;
+            this.segmentId = segmentId;
+        }
+
+        boolean isSegmentRoot() {
+            return segmentId.equals(traceContext.getSpanId());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.chatglm.webapp.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 批量刷写器
+ * 多个生产者线程把待写入的条目放入有界队列，由一个后台线程按批取出并交给sink处理，
+ * 从而把并发的小写入合并成一次批量（例如一次Redis管道）操作。
+ * 后台线程取出并处理一批条目的过程持有drainLock，调用线程直接刷写时也持有该锁，条目按提交顺序写入。
+ */
+public class BatchFlusher<T> implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchFlusher.class);
+
+    private final String name;
+    private final BlockingQueue<T> queue;
+    private final int maxBatchSize;
+    private final Consumer<List<T>> sink;
+    private final Thread worker;
+    private final Object drainLock = new Object();
+    private volatile boolean running = true;
+
+    /**
+     * @param name 线程名称
+     * @param capacity 队列容量
+     * @param maxBatchSize 单批最大条目数
+     * @param sink 批处理回调，在后台线程中执行
+     */
+    public BatchFlusher(String name, int capacity, int maxBatchSize, Consumer<List<T>> sink) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.sink = sink;
+        this.worker = new Thread(this::runLoop, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 提交条目，队列已满时最多等待指定时间
+     * @return 是否提交成功
+     */
+    public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!running) {
+            return false;
+        }
+        return queue.offer(item, timeout, unit);
+    }
+
+    /**
+     * 提交条目，队列已满时最多等待指定时间，仍然已满则由调用线程把队列中已有的条目连同本条目一起刷写
+     * 与后台线程共用drainLock，不会越过先提交的条目
+     * @return 是否提交成功，关闭后为false
+     */
+    public boolean offerOrFlush(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!running) {
+            return false;
+        }
+        if (queue.offer(item, timeout, unit)) {
+            return true;
+        }
+        synchronized (drainLock) {
+            List<T> batch = new ArrayList<>(queue.size() + 1);
+            queue.drainTo(batch);
+            batch.add(item);
+            sink.accept(batch);
+        }
+        return true;
+    }
+
+    /**
+     * 当前排队的条目数
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * 队列剩余容量
+     */
+    public int remainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    private void runLoop() {
+        List<T> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                synchronized (drainLock) {
+                    T first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatchSize - 1);
+                    sink.accept(batch);
+                }
+            } catch (InterruptedException e) {
+                // 关闭时被中断，继续把剩余条目刷完
+                running = false;
+            } catch (Exception e) {
+                log.error("[{}] 批量刷写失败: {}", name, e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 停止接收新条目，并等待剩余条目刷写完成
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.chatglm.webapp.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * 当前请求的客户端标识，用于限流键
+ */
+public final class ClientIdentity {
+
+    public static final String ANONYMOUS = "anonymous";
+
+    private static final AuthenticationTrustResolver TRUST_RESOLVER = new AuthenticationTrustResolverImpl();
+
+    private ClientIdentity() {
+    }
+
+    /**
+     * 客户端IP
+     * 只有直接连接的一方是本机或内网地址（即经过nginx代理）时才读取代理写入的请求头：
+     * 优先取nginx设置的X-Real-IP，其次取X-Forwarded-For的最后一个地址（由最近一层代理追加）。
+     * X-Forwarded-For中前面的地址由客户端自行填写，不能用于限流。
+     */
+    public static String clientIp() {
+        return clientIp(((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getRequest());
+    }
+
+    static String clientIp(HttpServletRequest request) {
+        String remoteAddr = request.getRemoteAddr();
+        if (!isTrustedProxy(remoteAddr)) {
+            return remoteAddr;
+        }
+        String realIp = request.getHeader("X-Real-IP");
+        if (realIp != null && !realIp.isBlank()) {
+            return realIp.trim();
+        }
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        if (forwardedFor != null && !forwardedFor.isBlank()) {
+            String lastHop = forwardedFor.substring(forwardedFor.lastIndexOf(',') + 1).trim();
+            if (!lastHop.isEmpty()) {
+                return lastHop;
+            }
+        }
+        return remoteAddr;
+    }
+
+    private static boolean isTrustedProxy(String address) {
+        if (address == null || address.isEmpty()) {
+            return false;
+        }
+        try {
+            // getRemoteAddr返回的是IP字面量，不会触发DNS查询
+            InetAddress inetAddress = InetAddress.getByName(address);
+            if (inetAddress.isLoopbackAddress() || inetAddress.isSiteLocalAddress()
+                    || inetAddress.isLinkLocalAddress()) {
+                return true;
+            }
+            // IPv6唯一本地地址 fc00::/7
+            byte[] bytes = inetAddress.getAddress();
+            return bytes.length == 16 && (bytes[0] & 0xfe) == 0xfc;
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 当前登录的用户名，未登录或匿名访问时为anonymous
+     */
+    public static String currentUsername() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && !TRUST_RESOLVER.isAnonymous(authentication)) {
+            return authentication.getName();
+        }
+        return ANONYMOUS;
+    }
+
+    /**
+     * 登录用户按用户名区分，匿名请求按IP区分
+     */
+    public static String userOrIp() {
+        String username = currentUsername();
+        return ANONYMOUS.equals(username) ? "ip:" + clientIp() : "user:" + username;
+    }
+}
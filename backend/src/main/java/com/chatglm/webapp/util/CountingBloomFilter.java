@@ -0,0 +1,127 @@
+package com.chatglm.webapp.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 计数布隆过滤器，每个位置是4位计数器，支持删除
+ * 判断不存在时一定不存在；判断可能存在时有fpp的误判率。计数器达到15后不再增减，
+ * 饱和的位置只能通过重建清除。所有操作无锁，可并发调用。
+ *
+ * 元素以哈希值传入（至少16字节，如SHA-256摘要），前后8字节作为两个独立哈希做双重哈希。
+ */
+public class CountingBloomFilter {
+
+    private static final int COUNTER_BITS = 4;
+    private static final int COUNTERS_PER_WORD = Long.SIZE / COUNTER_BITS;
+    private static final long MAX_COUNT = (1L << COUNTER_BITS) - 1;
+
+    private final AtomicLongArray words;
+    private final long counters;
+    private final int hashes;
+
+    /**
+     * @param expectedInsertions 预计同时保存的元素数
+     * @param fpp 期望的误判率
+     */
+    public CountingBloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("expectedInsertions must be positive and fpp in (0, 1)");
+        }
+        long size = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (size + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD);
+        this.words = new AtomicLongArray(words);
+        this.counters = (long) words * COUNTERS_PER_WORD;
+        this.hashes = Math.max(1, (int) Math.round((double) counters / expectedInsertions * Math.log(2)));
+    }
+
+    public void add(byte[] hash) {
+        long h1 = hash1(hash);
+        long h2 = hash2(hash);
+        for (int i = 0; i < hashes; i++) {
+            update(index(h1, h2, i), 1);
+        }
+    }
+
+    /**
+     * 删除元素，只能删除确实添加过的元素，否则会产生漏判
+     */
+    public void remove(byte[] hash) {
+        long h1 = hash1(hash);
+        long h2 = hash2(hash);
+        for (int i = 0; i < hashes; i++) {
+            update(index(h1, h2, i), -1);
+        }
+    }
+
+    public boolean mightContain(byte[] hash) {
+        long h1 = hash1(hash);
+        long h2 = hash2(hash);
+        for (int i = 0; i < hashes; i++) {
+            long index = index(h1, h2, i);
+            long word = words.get((int) (index / COUNTERS_PER_WORD));
+            if (count(word, shift(index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void update(long index, int delta) {
+        int wordIndex = (int) (index / COUNTERS_PER_WORD);
+        int shift = shift(index);
+        long current;
+        long updated;
+        do {
+            current = words.get(wordIndex);
+            long count = count(current, shift);
+            // 饱和的计数器已不知道真实个数，不再变化，避免删除后漏判其他元素
+            if (count == MAX_COUNT || (delta < 0 && count == 0)) {
+                return;
+            }
+            updated = current + ((long) delta << shift);
+        } while (!words.compareAndSet(wordIndex, current, updated));
+    }
+
+    private long index(long h1, long h2, int i) {
+        return Math.floorMod(h1 + i * h2, counters);
+    }
+
+    private static int shift(long index) {
+        return (int) (index % COUNTERS_PER_WORD) * COUNTER_BITS;
+    }
+
+    private static long count(long word, int shift) {
+        return (word >>> shift) & MAX_COUNT;
+    }
+
+    private static long hash1(byte[] hash) {
+        return readLong(hash, 0);
+    }
+
+    private static long hash2(byte[] hash) {
+        // 第二个哈希为奇数，保证步长与计数器数互质的概率更高
+        return readLong(hash, 8) | 1;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * 计数器个数
+     */
+    public long size() {
+        return counters;
+    }
+
+    /**
+     * 每个元素使用的哈希函数个数
+     */
+    public int hashCount() {
+        return hashes;
+    }
+}
@@ -2,80 +2,267 @@ package com.chatglm.webapp.util;
 
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.LongSupplier;
 
+/**
+ * JWT生成与校验
+ * 签名密钥和解析器在启动时创建一次；校验通过的token按其SHA-256摘要缓存到过期为止，
+ * 同一个token的后续请求不再重复解析和验签。缓存按最近使用淘汰，cache-size为0时不缓存。
+ *
+ * 每个token带有随机的token ID（jti）和签发时用户的会话版本（epoch），
+ * 吊销单个token只需记录jti，提高用户的会话版本即可让其之前签发的所有token失效。
+ */
 @Component
 public class JwtUtil {
-    
-    @Value("${jwt.secret:chatglm-secret-key-2024}")
-    private String secret;
-    
-    @Value("${jwt.expiration:86400}")
-    private Long expiration;
-    
-    private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes());
-    }
-    
+
+    public static final String EPOCH_CLAIM = "epoch";
+
+    private static final int TOKEN_ID_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKey signingKey;
+    private final JwtParser parser;
+    private final long expiration;
+    private final LongSupplier currentTimeMillis;
+    private final VerifiedTokenCache cache;
+
+    @Autowired
+    public JwtUtil(@Value("${jwt.secret:chatglm-secret-key-2024}") String secret,
+                   @Value("${jwt.expiration:900}") long expiration,
+                   @Value("${jwt.cache-size:10000}") int cacheSize) {
+        this(secret, expiration, cacheSize, System::currentTimeMillis);
+    }
+
+    JwtUtil(String secret, long expiration, int cacheSize, LongSupplier currentTimeMillis) {
+        this.signingKey = Keys.hmacShaKeyFor(secret.getBytes());
+        this.expiration = expiration;
+        this.currentTimeMillis = currentTimeMillis;
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .setClock(() -> new Date(currentTimeMillis.getAsLong()))
+                .build();
+        this.cache = cacheSize > 0 ? new VerifiedTokenCache(cacheSize) : null;
+    }
+
     public String generateToken(String username, String role) {
+        return generateToken(username, role, 0);
+    }
+
+    /**
+     * 签发token
+     * @param epoch 用户当前的会话版本，用户的会话版本提高后该token失效
+     */
+    public String generateToken(String username, String role, long epoch) {
         Map<String, Object> claims = new HashMap<>();
         claims.put("role", role);
-        
+        claims.put(EPOCH_CLAIM, epoch);
+
+        long now = currentTimeMillis.getAsLong();
         return Jwts.builder()
                 .setClaims(claims)
+                .setId(newTokenId())
                 .setSubject(username)
-                .setIssuedAt(new Date())
-                .setExpiration(new Date(System.currentTimeMillis() + expiration * 1000))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS256)
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + expiration * 1000))
+                .signWith(signingKey, SignatureAlgorithm.HS256)
                 .compact();
     }
-    
+
+    /**
+     * 校验token并返回其中的声明，每个token只验签一次
+     * @param token JWT
+     * @return 校验通过的声明
+     * @throws JwtException token无效、签名错误或已过期
+     * @throws IllegalArgumentException token为空
+     */
+    public TokenClaims parseToken(String token) {
+        if (cache == null) {
+            return verify(token);
+        }
+        String digest = digest(token);
+        long now = currentTimeMillis.getAsLong();
+        TokenClaims cached = cache.get(digest);
+        if (cached != null) {
+            if (now < cached.getExpiresAt()) {
+                return cached;
+            }
+            cache.remove(digest);
+        }
+        TokenClaims claims = verify(token);
+        if (claims.getExpiresAt() != Long.MAX_VALUE) {
+            cache.put(digest, claims);
+        }
+        return claims;
+    }
+
+    private TokenClaims verify(String token) {
+        Claims body = parser.parseClaimsJws(token).getBody();
+        Date expiresAt = body.getExpiration();
+        Number epoch = body.get(EPOCH_CLAIM, Number.class);
+        // 没有jti的旧token以摘要作为ID
+        String tokenId = body.getId() != null ? body.getId()
+                : Base64.getUrlEncoder().withoutPadding().encodeToString(tokenHash(token));
+        return new TokenClaims(tokenId, body.getSubject(), body.get("role", String.class),
+                epoch != null ? epoch.longValue() : 0, expiresAt != null ? expiresAt.getTime() : Long.MAX_VALUE);
+    }
+
+    /**
+     * 随机的token ID，16字节，URL安全的Base64编码
+     */
+    private static String newTokenId() {
+        byte[] id = new byte[TOKEN_ID_BYTES];
+        RANDOM.nextBytes(id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id);
+    }
+
+    private static String digest(String token) {
+        return Base64.getEncoder().encodeToString(tokenHash(token));
+    }
+
+    /**
+     * token的SHA-256摘要，用于在缓存中代替token本身
+     */
+    public static byte[] tokenHash(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * 访问token有效期（秒）
+     */
+    public long getExpirationSeconds() {
+        return expiration;
+    }
+
     public String getUsernameFromToken(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody()
-                .getSubject();
-    }
-    
+        return parseToken(token).getUsername();
+    }
+
     public String getRoleFromToken(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-        return claims.get("role", String.class);
-    }
-    
+        return parseToken(token).getRole();
+    }
+
     public boolean validateToken(String token) {
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(token);
+            parseToken(token);
             return true;
         } catch (JwtException | IllegalArgumentException e) {
             return false;
         }
     }
-    
+
     public Long getExpirationFromToken(String token) {
         try {
-            Claims claims = Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(token)
-                    .getBody();
-            return claims.getExpiration().getTime();
+            long expiresAt = parseToken(token).getExpiresAt();
+            return expiresAt != Long.MAX_VALUE ? expiresAt : null;
         } catch (JwtException | IllegalArgumentException e) {
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 缓存中的token数
+     */
+    int cachedTokens() {
+        return cache != null ? cache.size() : 0;
+    }
+
+    /**
+     * 校验通过的token声明，不可修改
+     */
+    public static final class TokenClaims {
+
+        private final String tokenId;
+        private final String username;
+        private final String role;
+        private final long epoch;
+        private final long expiresAt;
+
+        TokenClaims(String tokenId, String username, String role, long epoch, long expiresAt) {
+            this.tokenId = tokenId;
+            this.username = username;
+            this.role = role;
+            this.epoch = epoch;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * token ID，URL安全的Base64编码
+         */
+        public String getTokenId() {
+            return tokenId;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        /**
+         * 签发时用户的会话版本，没有该声明的旧token为0
+         */
+        public long getEpoch() {
+            return epoch;
+        }
+
+        /**
+         * 过期时间（毫秒时间戳），token没有过期时间时为Long.MAX_VALUE
+         */
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+    /**
+     * 按最近使用淘汰的有界缓存，操作很短，直接加锁
+     */
+    private static final class VerifiedTokenCache {
+
+        private final LinkedHashMap<String, TokenClaims> entries;
+
+        VerifiedTokenCache(int maxSize) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TokenClaims> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        synchronized TokenClaims get(String digest) {
+            return entries.get(digest);
+        }
+
+        synchronized void put(String digest, TokenClaims claims) {
+            entries.put(digest, claims);
+        }
+
+        synchronized void remove(String digest) {
+            entries.remove(digest);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.chatglm.webapp.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 本地加Redis两级令牌桶限流
+ * 每个节点按限流键从Redis批量租借令牌，租约有效期内在本地原子计数器上扣减，用完或过期后再向Redis租借。
+ * Redis拒绝后在返回的等待时间内直接在本地拒绝，超限用户的请求也不会访问Redis。
+ *
+ * 租约越大Redis访问越少，但其他节点持有的令牌在租约到期前不可用，接近限额时可能提前拒绝；
+ * 全局通过的请求数不会超过Redis中令牌桶的限额。lease-fraction为0时每次请求都访问Redis。
+ */
+@Component
+public class LeasedRateLimiter {
+
+    private final RateLimiter rateLimiter;
+    private final double leaseFraction;
+    private final int maxLease;
+    private final long leaseTtlNanos;
+    private final int maxKeys;
+    private final LongSupplier nanoClock;
+
+    private final ConcurrentHashMap<String, LocalBucket> buckets = new ConcurrentHashMap<>();
+
+    private final Counter localAllowed;
+    private final Counter localRejected;
+    private final Counter redisAllowed;
+    private final Counter redisRejected;
+    private final Counter redisCalls;
+
+    @Autowired
+    public LeasedRateLimiter(RateLimiter rateLimiter,
+                             MeterRegistry meterRegistry,
+                             @Value("${chatglm.rate-limit.lease-fraction:0.1}") double leaseFraction,
+                             @Value("${chatglm.rate-limit.max-lease:50}") int maxLease,
+                             @Value("${chatglm.rate-limit.lease-ttl-ms:1000}") long leaseTtlMs,
+                             @Value("${chatglm.rate-limit.max-local-keys:100000}") int maxKeys) {
+        this(rateLimiter, meterRegistry, leaseFraction, maxLease, leaseTtlMs, maxKeys, System::nanoTime);
+    }
+
+    LeasedRateLimiter(RateLimiter rateLimiter, MeterRegistry meterRegistry, double leaseFraction, int maxLease,
+                      long leaseTtlMs, int maxKeys, LongSupplier nanoClock) {
+        this.rateLimiter = rateLimiter;
+        this.leaseFraction = leaseFraction;
+        this.maxLease = Math.max(1, maxLease);
+        this.leaseTtlNanos = TimeUnit.MILLISECONDS.toNanos(leaseTtlMs);
+        this.maxKeys = maxKeys;
+        this.nanoClock = nanoClock;
+
+        this.localAllowed = decisions(meterRegistry, "local", "allowed");
+        this.localRejected = decisions(meterRegistry, "local", "rejected");
+        this.redisAllowed = decisions(meterRegistry, "redis", "allowed");
+        this.redisRejected = decisions(meterRegistry, "redis", "rejected");
+        this.redisCalls = Counter.builder("chatglm.ratelimit.redis.calls")
+                .description("Number of Redis round trips made by the rate limiter")
+                .register(meterRegistry);
+        Gauge.builder("chatglm.ratelimit.local.keys", buckets, ConcurrentHashMap::size)
+                .description("Number of rate limit keys holding a local lease")
+                .register(meterRegistry);
+    }
+
+    private static Counter decisions(MeterRegistry meterRegistry, String source, String result) {
+        return Counter.builder("chatglm.ratelimit.decisions")
+                .description("Rate limit decisions by where they were made")
+                .tag("source", source)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 申请一个令牌
+     * @param key 限流键
+     * @param capacity 桶容量
+     * @param refillPerSecond 每秒补充的令牌数
+     * @return 是否允许、本节点可用的令牌数和需要等待的时间
+     */
+    public RateLimiter.Result tryAcquire(String key, int capacity, double refillPerSecond) {
+        LocalBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            purgeExpiredIfFull();
+            bucket = buckets.computeIfAbsent(key, k -> new LocalBucket(nanoClock.getAsLong()));
+        }
+        long now = nanoClock.getAsLong();
+        if (bucket.tryTakeLeased(now)) {
+            localAllowed.increment();
+            return allowed(bucket, capacity, refillPerSecond);
+        }
+        synchronized (bucket) {
+            // 等待锁期间其他线程可能已经续租
+            now = nanoClock.getAsLong();
+            if (bucket.tryTakeLeased(now)) {
+                localAllowed.increment();
+                return allowed(bucket, capacity, refillPerSecond);
+            }
+            if (now - bucket.blockedUntilNanos < 0) {
+                localRejected.increment();
+                return new RateLimiter.Result(0, 0,
+                        Math.max(1, TimeUnit.NANOSECONDS.toMillis(bucket.blockedUntilNanos - now)),
+                        resetMillis(0, capacity, refillPerSecond));
+            }
+
+            redisCalls.increment();
+            RateLimiter.Result result = rateLimiter.lease(key, capacity, refillPerSecond, leaseSize(capacity));
+            if (!result.isAllowed()) {
+                if (result.getRetryAfterMillis() > 0) {
+                    bucket.blockedUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(result.getRetryAfterMillis());
+                }
+                redisRejected.increment();
+                return result;
+            }
+            bucket.remoteRemaining = result.getRemaining();
+            bucket.tokens.set(result.getGranted() - 1);
+            bucket.expiresAtNanos = now + leaseTtlNanos;
+            redisAllowed.increment();
+            return allowed(bucket, capacity, refillPerSecond);
+        }
+    }
+
+    /**
+     * 剩余额度按本地租约剩余加上次租借时Redis中的剩余估算
+     */
+    private static RateLimiter.Result allowed(LocalBucket bucket, int capacity, double refillPerSecond) {
+        long remaining = Math.min(capacity, Math.max(0, bucket.tokens.get()) + bucket.remoteRemaining);
+        return new RateLimiter.Result(1, remaining, 0, resetMillis(remaining, capacity, refillPerSecond));
+    }
+
+    private static long resetMillis(long remaining, int capacity, double refillPerSecond) {
+        return (long) Math.ceil((capacity - remaining) * 1000 / refillPerSecond);
+    }
+
+    /**
+     * 单次租借的令牌数，按容量比例计算，至少一个
+     */
+    int leaseSize(int capacity) {
+        return (int) Math.max(1, Math.min(maxLease, Math.floor(capacity * leaseFraction)));
+    }
+
+    /**
+     * 本地键过多时清理租约已失效的键，未用完的令牌随之作废
+     */
+    private void purgeExpiredIfFull() {
+        if (buckets.size() < maxKeys) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        buckets.values().removeIf(bucket -> bucket.isIdle(now));
+    }
+
+    private static final class LocalBucket {
+
+        final AtomicLong tokens = new AtomicLong();
+        volatile long expiresAtNanos;
+        volatile long blockedUntilNanos;
+        volatile long remoteRemaining;
+
+        LocalBucket(long now) {
+            this.expiresAtNanos = now;
+            this.blockedUntilNanos = now;
+        }
+
+        boolean tryTakeLeased(long now) {
+            if (now - expiresAtNanos >= 0) {
+                return false;
+            }
+            long current;
+            do {
+                current = tokens.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!tokens.compareAndSet(current, current - 1));
+            return true;
+        }
+
+        boolean isIdle(long now) {
+            return now - expiresAtNanos >= 0 && now - blockedUntilNanos >= 0;
+        }
+    }
+}
@@ -1,76 +1,206 @@
 package com.chatglm.webapp.util;
 
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * 基于Redis的限流器，支持令牌桶、固定窗口、滑动窗口和GCRA，每个键占用的内存固定
+ * 判断和扣减都在Lua脚本中完成，每次请求只需一次往返，并发请求之间不会互相覆盖。
+ * 脚本在启动时预加载，调用时通过EVALSHA执行，Redis重启后脚本丢失时自动回退为EVAL。
+ */
 @Component
 public class RateLimiter {
-    
-    @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
-    
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimiter.class);
+
+    private static final String BUCKET_KEY_PREFIX = "rate_limit:bucket:";
+    private static final String COUNTER_KEY_PREFIX = "rate_limit:counter:";
+    private static final String SLIDING_KEY_PREFIX = "rate_limit:sliding:";
+    private static final String GCRA_KEY_PREFIX = "rate_limit:gcra:";
+
+    @SuppressWarnings("rawtypes")
+    static final DefaultRedisScript<List> TOKEN_BUCKET_SCRIPT = script("scripts/token_bucket.lua");
+    @SuppressWarnings("rawtypes")
+    static final DefaultRedisScript<List> FIXED_WINDOW_SCRIPT = script("scripts/fixed_window.lua");
+    @SuppressWarnings("rawtypes")
+    static final DefaultRedisScript<List> SLIDING_WINDOW_SCRIPT = script("scripts/sliding_window.lua");
+    @SuppressWarnings("rawtypes")
+    static final DefaultRedisScript<List> GCRA_SCRIPT = script("scripts/gcra.lua");
+
+    @SuppressWarnings("rawtypes")
+    static final DefaultRedisScript<List> TOKEN_RESERVE_SCRIPT = script("scripts/token_reserve.lua");
+    @SuppressWarnings("rawtypes")
+    static final DefaultRedisScript<List> TOKEN_REFUND_SCRIPT = script("scripts/token_refund.lua");
+
+    @SuppressWarnings("rawtypes")
+    static final DefaultRedisScript<List> STREAM_SLOT_ACQUIRE_SCRIPT = script("scripts/stream_slot_acquire.lua");
+    @SuppressWarnings("rawtypes")
+    static final DefaultRedisScript<List> STREAM_SLOT_RENEW_SCRIPT = script("scripts/stream_slot_renew.lua");
+
+    private static final List<RedisScript<?>> SCRIPTS = List.of(TOKEN_BUCKET_SCRIPT, FIXED_WINDOW_SCRIPT,
+            SLIDING_WINDOW_SCRIPT, GCRA_SCRIPT, TOKEN_RESERVE_SCRIPT, TOKEN_REFUND_SCRIPT,
+            STREAM_SLOT_ACQUIRE_SCRIPT, STREAM_SLOT_RENEW_SCRIPT);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public RateLimiter(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static DefaultRedisScript<List> script(String path) {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(List.class);
+        return script;
+    }
+
+    /**
+     * 预加载限流脚本，之后的调用直接使用EVALSHA
+     * Redis暂不可用时不影响启动，首次调用时由EVAL加载
+     */
+    @PostConstruct
+    public void loadScripts() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Void>) connection -> {
+                for (RedisScript<?> script : SCRIPTS) {
+                    connection.scriptingCommands().scriptLoad(
+                            script.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("预加载限流脚本失败，将在首次调用时加载: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 令牌桶限流，补充和扣减在一次脚本调用中原子完成
+     * @param key 限流键（如用户ID或IP）
+     * @param capacity 桶容量
+     * @param refillPerSecond 每秒补充的令牌数
+     * @param permits 本次申请的令牌数
+     * @return 是否允许、剩余令牌数和需要等待的时间
+     */
+    public Result tryAcquire(String key, int capacity, double refillPerSecond, int permits) {
+        return acquire(key, capacity, refillPerSecond, permits, permits);
+    }
+
+    /**
+     * 批量租借令牌，桶中令牌不足maxPermits时按现有数量发放，至少一个
+     * @return 发放的令牌数在Result.getGranted()中，没有可用令牌时为0
+     */
+    public Result lease(String key, int capacity, double refillPerSecond, int maxPermits) {
+        return acquire(key, capacity, refillPerSecond, maxPermits, 1);
+    }
+
+    private Result acquire(String key, int capacity, double refillPerSecond, int maxPermits, int minPermits) {
+        if (capacity <= 0 || refillPerSecond <= 0 || minPermits <= 0) {
+            throw new IllegalArgumentException("capacity, refillPerSecond and permits must be positive");
+        }
+        return execute(TOKEN_BUCKET_SCRIPT, BUCKET_KEY_PREFIX + key, String.valueOf(capacity),
+                String.valueOf(refillPerSecond), String.valueOf(maxPermits), String.valueOf(minPermits));
+    }
+
+    /**
+     * 固定窗口计数限流
+     * @param key 限流键
+     * @param limit 窗口内允许的请求数
+     * @param windowSeconds 窗口长度（秒）
+     */
+    public Result fixedWindow(String key, int limit, int windowSeconds) {
+        return execute(FIXED_WINDOW_SCRIPT, COUNTER_KEY_PREFIX + key,
+                String.valueOf(TimeUnit.SECONDS.toMillis(windowSeconds)), String.valueOf(limit));
+    }
+
+    /**
+     * 滑动窗口计数限流，每个键只保存两个窗口的计数
+     * @param key 限流键
+     * @param limit 任意窗口长度的时间段内允许的请求数（近似）
+     * @param windowSeconds 窗口长度（秒）
+     */
+    public Result slidingWindow(String key, int limit, int windowSeconds) {
+        return execute(SLIDING_WINDOW_SCRIPT, SLIDING_KEY_PREFIX + key,
+                String.valueOf(TimeUnit.SECONDS.toMillis(windowSeconds)), String.valueOf(limit));
+    }
+
+    /**
+     * GCRA限流，每个键只保存理论到达时间
+     * @param key 限流键
+     * @param limit 周期内允许的请求数
+     * @param periodSeconds 周期长度（秒）
+     * @param burst 允许连续通过的请求数
+     */
+    public Result gcra(String key, int limit, int periodSeconds, int burst) {
+        if (limit <= 0 || periodSeconds <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("limit, periodSeconds and burst must be positive");
+        }
+        return execute(GCRA_SCRIPT, GCRA_KEY_PREFIX + key,
+                String.valueOf(TimeUnit.SECONDS.toMillis(periodSeconds)), String.valueOf(limit), String.valueOf(burst));
+    }
+
+    private Result execute(RedisScript<List> script, String redisKey, String... args) {
+        List<Long> reply = evaluate(script, Collections.singletonList(redisKey), args);
+        if (reply.size() < 4) {
+            throw new IllegalStateException("Unexpected rate limit script reply: " + reply);
+        }
+        return new Result(reply.get(0), reply.get(1), reply.get(2), reply.get(3));
+    }
+
+    /**
+     * 执行限流脚本，结果转换为整数列表
+     */
+    @SuppressWarnings("rawtypes")
+    List<Long> evaluate(RedisScript<List> script, List<String> keys, String... args) {
+        List<?> reply = stringRedisTemplate.execute(script, keys, (Object[]) args);
+        if (reply == null) {
+            throw new IllegalStateException("Rate limit script returned no reply");
+        }
+        List<Long> values = new ArrayList<>(reply.size());
+        for (Object value : reply) {
+            values.add(toLong(value));
+        }
+        return values;
+    }
+
     /**
      * 基于令牌桶算法的限流
      * @param key 限流键（如用户ID或IP）
      * @param capacity 桶容量
-     * @param refillRate 每秒补充的令牌数
+     * @param refillRate 每个时间单位补充的令牌数
      * @param timeUnit 时间单位
      * @return 是否允许通过
      */
     public boolean allowRequest(String key, int capacity, int refillRate, TimeUnit timeUnit) {
-        String tokenKey = "rate_limit:token:" + key;
-        String timestampKey = "rate_limit:timestamp:" + key;
-        
-        long now = System.currentTimeMillis();
-        
-        // 获取当前令牌数
-        Object tokenObj = redisTemplate.opsForValue().get(tokenKey);
-        int currentTokens = tokenObj != null ? (int) tokenObj : capacity;
-        
-        // 获取上次更新时间
-        Object timestampObj = redisTemplate.opsForValue().get(timestampKey);
-        long lastRefill = timestampObj != null ? (long) timestampObj : now;
-        
-        // 计算应该补充的令牌数
-        long timePassed = now - lastRefill;
-        int tokensToAdd = (int) (timePassed * refillRate / timeUnit.toMillis(1));
-        
-        if (tokensToAdd > 0) {
-            currentTokens = Math.min(capacity, currentTokens + tokensToAdd);
-            redisTemplate.opsForValue().set(timestampKey, now, 1, TimeUnit.HOURS);
-        }
-        
-        if (currentTokens > 0) {
-            // 消耗一个令牌
-            redisTemplate.opsForValue().set(tokenKey, currentTokens - 1, 1, TimeUnit.HOURS);
-            return true;
-        }
-        
-        return false;
+        double refillPerSecond = refillRate * (double) TimeUnit.SECONDS.toNanos(1) / timeUnit.toNanos(1);
+        return tryAcquire(key, capacity, refillPerSecond, 1).isAllowed();
     }
-    
+
     /**
      * 简单计数器限流
+     * 计数和设置过期时间在同一个脚本中完成，计数器不会因为进程中断而永不过期
      * @param key 限流键
      * @param maxRequests 最大请求数
      * @param timeWindow 时间窗口（秒）
      * @return 是否允许通过
      */
     public boolean allowRequestSimple(String key, int maxRequests, int timeWindow) {
-        String counterKey = "rate_limit:counter:" + key;
-        
-        Long count = redisTemplate.opsForValue().increment(counterKey);
-        if (count == 1) {
-            // 第一次设置过期时间
-            redisTemplate.expire(counterKey, timeWindow, TimeUnit.SECONDS);
-        }
-        
-        return count != null && count <= maxRequests;
+        return fixedWindow(key, maxRequests, timeWindow).isAllowed();
     }
-    
+
     /**
      * 获取剩余请求次数
      * @param key 限流键
@@ -78,9 +208,61 @@ public class RateLimiter {
      * @return 剩余次数
      */
     public int getRemainingRequests(String key, int maxRequests) {
-        String counterKey = "rate_limit:counter:" + key;
-        Object countObj = redisTemplate.opsForValue().get(counterKey);
-        int count = countObj != null ? (int) countObj : 0;
-        return Math.max(0, maxRequests - count);
+        String count = stringRedisTemplate.opsForValue().get(COUNTER_KEY_PREFIX + key);
+        return Math.max(0, maxRequests - (count != null ? Integer.parseInt(count) : 0));
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(String.valueOf(value));
+    }
+
+    /**
+     * 限流判断结果
+     */
+    public static final class Result {
+
+        private final long granted;
+        private final long remaining;
+        private final long retryAfterMillis;
+        private final long resetMillis;
+
+        public Result(long granted, long remaining, long retryAfterMillis, long resetMillis) {
+            this.granted = granted;
+            this.remaining = remaining;
+            this.retryAfterMillis = retryAfterMillis;
+            this.resetMillis = resetMillis;
+        }
+
+        public boolean isAllowed() {
+            return granted > 0;
+        }
+
+        /**
+         * 发放的令牌数，拒绝时为0
+         */
+        public long getGranted() {
+            return granted;
+        }
+
+        /**
+         * 扣减后剩余的令牌数或请求次数
+         */
+        public long getRemaining() {
+            return remaining;
+        }
+
+        /**
+         * 需要等待多少毫秒才有足够的令牌，允许时为0，申请数超过桶容量时为-1
+         */
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+
+        /**
+         * 额度完全恢复（令牌桶补满、窗口重置）还需要的毫秒数
+         */
+        public long getResetMillis() {
+            return resetMillis;
+        }
     }
-}
\ No newline at end of file
+}
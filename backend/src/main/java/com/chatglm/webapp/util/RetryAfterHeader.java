@@ -0,0 +1,36 @@
+package com.chatglm.webapp.util;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在当前请求的响应上设置Retry-After头，不在请求线程中调用时忽略
+ */
+public final class RetryAfterHeader {
+
+    private RetryAfterHeader() {
+    }
+
+    /**
+     * @param retryAfterMillis 需要等待的毫秒数，向上取整为秒，至少1秒
+     * @return 写入的秒数
+     */
+    public static long set(long retryAfterMillis) {
+        long seconds = toSeconds(retryAfterMillis);
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            HttpServletResponse response = attributes.getResponse();
+            if (response != null) {
+                response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+            }
+        }
+        return seconds;
+    }
+
+    public static long toSeconds(long retryAfterMillis) {
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(Math.max(0, retryAfterMillis) + 999));
+    }
+}
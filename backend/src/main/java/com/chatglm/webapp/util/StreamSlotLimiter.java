@@ -0,0 +1,152 @@
+package com.chatglm.webapp.util;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 限制每个用户同时打开的流式连接数
+ * 名额保存在Redis有序集合中，分值为租约到期时间；本节点定时续租仍在进行的流，
+ * 节点崩溃后名额在租约到期时自动释放。占用名额只需一次脚本调用。
+ * Redis不可用时放行连接，避免限流故障影响聊天。
+ */
+@Component
+public class StreamSlotLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamSlotLimiter.class);
+
+    private static final String KEY_PREFIX = "rate_limit:streams:";
+    private static final int RENEW_BATCH_SIZE = 500;
+
+    private final RateLimiter rateLimiter;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final int maxConcurrentPerUser;
+    private final long leaseMs;
+
+    /**
+     * 本节点持有的名额：名额ID -> Redis键
+     */
+    private final Map<String, String> openSlots = new ConcurrentHashMap<>();
+
+    private final Counter rejected;
+
+    public StreamSlotLimiter(RateLimiter rateLimiter,
+                             StringRedisTemplate stringRedisTemplate,
+                             MeterRegistry meterRegistry,
+                             @Value("${chatglm.rate-limit.stream.max-concurrent-per-user:3}") int maxConcurrentPerUser,
+                             @Value("${chatglm.rate-limit.stream.lease-ms:30000}") long leaseMs) {
+        this.rateLimiter = rateLimiter;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.maxConcurrentPerUser = maxConcurrentPerUser;
+        this.leaseMs = leaseMs;
+
+        this.rejected = Counter.builder("chatglm.stream.slots.rejected")
+                .description("Streams rejected because the user had too many open")
+                .register(meterRegistry);
+        Gauge.builder("chatglm.stream.slots.open", openSlots, Map::size)
+                .description("Open streams holding a slot on this node")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 占用一个流名额，流结束时必须释放
+     * @param owner 名额归属，登录用户为用户名，匿名请求为IP
+     * @throws ChatGLMException 429 同时打开的流已达上限
+     */
+    public Slot acquire(String owner) {
+        if (maxConcurrentPerUser <= 0) {
+            return Slot.NONE;
+        }
+        String key = KEY_PREFIX + owner;
+        String slotId = UUID.randomUUID().toString();
+        List<Long> reply;
+        try {
+            reply = rateLimiter.evaluate(RateLimiter.STREAM_SLOT_ACQUIRE_SCRIPT, List.of(key),
+                    slotId, String.valueOf(maxConcurrentPerUser), String.valueOf(leaseMs));
+        } catch (RuntimeException e) {
+            log.warn("占用流名额失败，本次不限制: {}", e.getMessage());
+            return Slot.NONE;
+        }
+        if (reply.get(0) != 1) {
+            rejected.increment();
+            RetryAfterHeader.set(reply.get(2));
+            throw new ChatGLMException(429, "同时进行的对话过多，最多" + maxConcurrentPerUser + "个，请结束其他对话后再试");
+        }
+        openSlots.put(slotId, key);
+        return new Slot(this, slotId);
+    }
+
+    private void release(String slotId) {
+        String key = openSlots.remove(slotId);
+        if (key == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForZSet().remove(key, slotId);
+        } catch (RuntimeException e) {
+            // 名额会在租约到期后释放
+            log.warn("释放流名额失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 续租本节点仍在进行的流，间隔应明显短于租约时长
+     */
+    @Scheduled(fixedDelayString = "${chatglm.rate-limit.stream.renew-interval-ms:10000}")
+    public void renew() {
+        List<Map.Entry<String, String>> slots = new ArrayList<>(openSlots.entrySet());
+        for (int from = 0; from < slots.size(); from += RENEW_BATCH_SIZE) {
+            List<Map.Entry<String, String>> batch = slots.subList(from, Math.min(slots.size(), from + RENEW_BATCH_SIZE));
+            List<String> keys = new ArrayList<>(batch.size());
+            String[] args = new String[batch.size() + 1];
+            args[0] = String.valueOf(leaseMs);
+            for (int i = 0; i < batch.size(); i++) {
+                keys.add(batch.get(i).getValue());
+                args[i + 1] = batch.get(i).getKey();
+            }
+            try {
+                rateLimiter.evaluate(RateLimiter.STREAM_SLOT_RENEW_SCRIPT, keys, args);
+            } catch (RuntimeException e) {
+                log.warn("续租流名额失败: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * 一个流名额，只释放一次
+     */
+    public static final class Slot {
+
+        static final Slot NONE = new Slot(null, null);
+
+        private final StreamSlotLimiter limiter;
+        private final String slotId;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Slot(StreamSlotLimiter limiter, String slotId) {
+            this.limiter = limiter;
+            this.slotId = slotId;
+        }
+
+        public void release() {
+            if (limiter != null && released.compareAndSet(false, true)) {
+                limiter.release(slotId);
+            }
+        }
+    }
+}
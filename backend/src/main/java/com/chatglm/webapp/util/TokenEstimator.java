@@ -0,0 +1,76 @@
+package com.chatglm.webapp.util;
+
+import com.chatglm.webapp.model.ChatGLMModel;
+
+import java.util.List;
+
+/**
+ * 本地token数估算，用于API没有返回usage的场景（流式响应、模拟模式）
+ * 规则参考通义千问的分词特点：每个中日韩字符约1个token，连续的字母数字约每4个字符1个token，
+ * 其余标点符号各1个token，每条消息另加角色标记的开销。结果是近似值，整体略偏高。
+ */
+public final class TokenEstimator {
+
+    // 每条消息的角色和分隔标记
+    private static final int TOKENS_PER_MESSAGE = 4;
+    // 回复开头的固定标记
+    private static final int REPLY_PRIMING_TOKENS = 3;
+    private static final int CHARS_PER_WORD_TOKEN = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 估算请求消息列表的token数
+     */
+    public static int estimate(List<ChatGLMModel.Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return 0;
+        }
+        int tokens = REPLY_PRIMING_TOKENS;
+        for (ChatGLMModel.Message message : messages) {
+            tokens += TOKENS_PER_MESSAGE + estimate(message.getContent());
+        }
+        return tokens;
+    }
+
+    /**
+     * 估算一段文本的token数
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int tokens = 0;
+        int wordLength = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isCjk(codePoint)) {
+                tokens += wordTokens(wordLength) + 1;
+                wordLength = 0;
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                wordLength++;
+            } else {
+                tokens += wordTokens(wordLength);
+                wordLength = 0;
+                if (!Character.isWhitespace(codePoint)) {
+                    tokens++;
+                }
+            }
+        }
+        return tokens + wordTokens(wordLength);
+    }
+
+    private static int wordTokens(int wordLength) {
+        return (wordLength + CHARS_PER_WORD_TOKEN - 1) / CHARS_PER_WORD_TOKEN;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,174 @@
+package com.chatglm.webapp.util;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按token数限流（TPM），按用户和全局两级
+ * 调用模型前按提示词估算加最大生成长度预留令牌，调用结束后按实际用量退还多预留的部分，
+ * 使整个集群的用量保持在服务商的每分钟token额度以内。
+ * Redis不可用时放行请求，避免限流故障影响聊天。
+ */
+@Component
+public class TokenRateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenRateLimiter.class);
+
+    private static final String KEY_PREFIX = "rate_limit:tpm:";
+    private static final String GLOBAL_KEY = "rate_limit:tpm:global";
+
+    private final RateLimiter rateLimiter;
+    private final boolean enabled;
+    private final long userTokensPerMinute;
+    private final long globalTokensPerMinute;
+    private final int maxCompletionTokens;
+
+    private final Counter reservedTokens;
+    private final Counter refundedTokens;
+    private final Counter userRejected;
+    private final Counter globalRejected;
+
+    public TokenRateLimiter(RateLimiter rateLimiter,
+                            MeterRegistry meterRegistry,
+                            @Value("${chatglm.rate-limit.tpm.enabled:true}") boolean enabled,
+                            @Value("${chatglm.rate-limit.tpm.user-tokens-per-minute:20000}") long userTokensPerMinute,
+                            @Value("${chatglm.rate-limit.tpm.global-tokens-per-minute:300000}") long globalTokensPerMinute,
+                            @Value("${qwen.api.max-tokens:2000}") int maxCompletionTokens) {
+        this.rateLimiter = rateLimiter;
+        this.enabled = enabled && (userTokensPerMinute > 0 || globalTokensPerMinute > 0);
+        this.userTokensPerMinute = userTokensPerMinute;
+        this.globalTokensPerMinute = globalTokensPerMinute;
+        this.maxCompletionTokens = maxCompletionTokens;
+
+        this.reservedTokens = Counter.builder("chatglm.ratelimit.tpm.reserved")
+                .description("Tokens reserved before model calls")
+                .register(meterRegistry);
+        this.refundedTokens = Counter.builder("chatglm.ratelimit.tpm.refunded")
+                .description("Reserved tokens returned after model calls")
+                .register(meterRegistry);
+        this.userRejected = rejected(meterRegistry, "user");
+        this.globalRejected = rejected(meterRegistry, "global");
+    }
+
+    private static Counter rejected(MeterRegistry meterRegistry, String scope) {
+        return Counter.builder("chatglm.ratelimit.tpm.rejected")
+                .description("Model calls rejected by the token quota")
+                .tag("scope", scope)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 预留一次模型调用的token额度
+     * @param subject 额度归属，登录用户为"user:用户ID"，匿名请求为"ip:地址"，每个subject一个桶
+     * @param promptTokens 提示词的估算token数，另外预留最大生成长度
+     * @return 预留凭证，调用结束后必须结算
+     * @throws ChatGLMException 429 用户或全局额度不足
+     */
+    public Reservation reserve(String subject, int promptTokens) {
+        if (!enabled) {
+            return Reservation.NONE;
+        }
+        long amount = Math.max(1, promptTokens + (long) maxCompletionTokens);
+        List<String> keys = new ArrayList<>(2);
+        List<String> args = new ArrayList<>(5);
+        args.add(String.valueOf(amount));
+        if (userTokensPerMinute > 0) {
+            keys.add(KEY_PREFIX + subject);
+            addBucket(args, userTokensPerMinute);
+        }
+        if (globalTokensPerMinute > 0) {
+            keys.add(GLOBAL_KEY);
+            addBucket(args, globalTokensPerMinute);
+        }
+
+        List<Long> reply;
+        try {
+            reply = rateLimiter.evaluate(RateLimiter.TOKEN_RESERVE_SCRIPT, keys, args.toArray(new String[0]));
+        } catch (RuntimeException e) {
+            log.warn("token额度预留失败，本次不限流: {}", e.getMessage());
+            return Reservation.NONE;
+        }
+        if (reply.get(0) != 1) {
+            boolean global = GLOBAL_KEY.equals(keys.get(reply.get(2).intValue() - 1));
+            (global ? globalRejected : userRejected).increment();
+            long retryAfterSeconds = RetryAfterHeader.set(reply.get(1));
+            throw new ChatGLMException(429, (global ? "服务繁忙" : "token用量超出每分钟限额")
+                    + "，请" + retryAfterSeconds + "秒后再试");
+        }
+        reservedTokens.increment(amount);
+        return new Reservation(this, keys, args, amount);
+    }
+
+    /**
+     * 登录用户的额度归属
+     */
+    public static String userSubject(Object userId) {
+        return "user:" + userId;
+    }
+
+    private static void addBucket(List<String> args, long tokensPerMinute) {
+        args.add(String.valueOf(tokensPerMinute));
+        args.add(String.valueOf(tokensPerMinute / 60.0));
+    }
+
+    private void refund(Reservation reservation, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        List<String> args = new ArrayList<>(reservation.args);
+        args.set(0, String.valueOf(delta));
+        try {
+            rateLimiter.evaluate(RateLimiter.TOKEN_REFUND_SCRIPT, reservation.keys, args.toArray(new String[0]));
+            if (delta > 0) {
+                refundedTokens.increment(delta);
+            }
+        } catch (RuntimeException e) {
+            log.warn("token额度结算失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 一次模型调用的预留凭证，只结算一次
+     */
+    public static final class Reservation {
+
+        static final Reservation NONE = new Reservation(null, List.of(), List.of(), 0);
+
+        private final TokenRateLimiter limiter;
+        private final List<String> keys;
+        private final List<String> args;
+        private final long reservedTokens;
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        private Reservation(TokenRateLimiter limiter, List<String> keys, List<String> args, long reservedTokens) {
+            this.limiter = limiter;
+            this.keys = keys;
+            this.args = args;
+            this.reservedTokens = reservedTokens;
+        }
+
+        public long getReservedTokens() {
+            return reservedTokens;
+        }
+
+        /**
+         * 按实际用量结算：多预留的退还，超出预留的补扣
+         * @param actualTokens 实际消耗的token数（提示词加生成）
+         */
+        public void settle(long actualTokens) {
+            if (limiter == null || !settled.compareAndSet(false, true)) {
+                return;
+            }
+            limiter.refund(this, reservedTokens - Math.max(0, actualTokens));
+        }
+    }
+}
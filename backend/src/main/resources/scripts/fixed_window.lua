@@ -0,0 +1,14 @@
+-- 固定窗口计数：INCR和设置过期时间在一次调用中完成，不会留下没有过期时间的计数器
+-- KEYS[1] 计数器，ARGV[1] 窗口长度（毫秒），ARGV[2] 窗口内允许的请求数
+-- 返回 {是否允许(1/0), 剩余次数, 需要等待的毫秒数, 窗口重置的毫秒数}
+local limit = tonumber(ARGV[2])
+local count = redis.call('INCR', KEYS[1])
+local ttl = redis.call('PTTL', KEYS[1])
+if count == 1 or ttl < 0 then
+  redis.call('PEXPIRE', KEYS[1], ARGV[1])
+  ttl = tonumber(ARGV[1])
+end
+if count > limit then
+  return {0, 0, ttl, ttl}
+end
+return {1, limit - count, 0, ttl}
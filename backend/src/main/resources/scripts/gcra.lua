@@ -0,0 +1,26 @@
+-- GCRA（通用信元速率算法）：只保存理论到达时间TAT，请求按固定间隔均匀放行，允许burst个请求的突发
+-- KEYS[1] TAT（毫秒）
+-- ARGV[1] 周期长度（毫秒），ARGV[2] 周期内允许的请求数，ARGV[3] 突发上限
+-- 返回 {是否允许(1/0), 剩余可突发的请求数, 需要等待的毫秒数, 恢复到可完全突发的毫秒数}
+local period = tonumber(ARGV[1])
+local limit = tonumber(ARGV[2])
+local burst = tonumber(ARGV[3])
+local interval = period / limit
+local tolerance = interval * burst
+
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local tat = tonumber(redis.call('GET', KEYS[1])) or now
+if tat < now then
+  tat = now
+end
+local new_tat = tat + interval
+local allow_at = new_tat - tolerance
+
+if now < allow_at then
+  return {0, 0, math.ceil(allow_at - now), math.ceil(tat - now)}
+end
+
+redis.call('SET', KEYS[1], tostring(new_tat), 'PX', math.ceil(new_tat - now))
+return {1, math.floor((now - allow_at) / interval), 0, math.ceil(new_tat - now)}
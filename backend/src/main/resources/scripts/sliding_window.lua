@@ -0,0 +1,47 @@
+-- 滑动窗口计数：只保存当前和上一个固定窗口的计数，按上一窗口与滑动窗口重叠的比例加权估算
+-- KEYS[1] 计数（哈希：win 当前窗口序号，cur 当前窗口计数，prev 上一窗口计数）
+-- ARGV[1] 窗口长度（毫秒），ARGV[2] 窗口内允许的请求数
+-- 返回 {是否允许(1/0), 剩余次数, 需要等待的毫秒数, 当前窗口结束的毫秒数}
+local window = tonumber(ARGV[1])
+local limit = tonumber(ARGV[2])
+
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local index = math.floor(now / window)
+local start = index * window
+
+local state = redis.call('HMGET', KEYS[1], 'win', 'cur', 'prev')
+local win = tonumber(state[1])
+local cur = tonumber(state[2]) or 0
+local prev = tonumber(state[3]) or 0
+if win == nil or win < index - 1 then
+  prev = 0
+  cur = 0
+elseif win == index - 1 then
+  prev = cur
+  cur = 0
+end
+
+local elapsed = now - start
+local weight = (window - elapsed) / window
+local estimated = prev * weight + cur
+local reset = window - elapsed
+
+if estimated + 1 > limit then
+  local retry_after
+  if cur + 1 <= limit then
+    -- 等待上一窗口的权重降到足够低
+    retry_after = math.ceil((1 - (limit - 1 - cur) / prev) * window - elapsed)
+  else
+    -- 当前窗口已满，进入下一窗口后当前窗口的计数成为上一窗口的计数
+    retry_after = reset + math.ceil((1 - (limit - 1) / cur) * window)
+  end
+  redis.call('HSET', KEYS[1], 'win', index, 'cur', cur, 'prev', prev)
+  redis.call('PEXPIRE', KEYS[1], window * 2)
+  return {0, 0, math.max(1, retry_after), reset}
+end
+
+cur = cur + 1
+redis.call('HSET', KEYS[1], 'win', index, 'cur', cur, 'prev', prev)
+redis.call('PEXPIRE', KEYS[1], window * 2)
+return {1, math.floor(limit - estimated - 1), 0, reset}
@@ -0,0 +1,19 @@
+-- 占用一个并发流名额，名额是有序集合中的成员，分值为租约到期时间，节点崩溃后名额随租约到期释放
+-- KEYS[1] 名额集合，ARGV[1] 名额ID，ARGV[2] 最大并发数，ARGV[3] 租约时长（毫秒）
+-- 返回 {是否成功(1/0), 占用的名额数, 最早释放的名额还需的毫秒数}
+local max = tonumber(ARGV[2])
+local lease = tonumber(ARGV[3])
+
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now)
+local count = redis.call('ZCARD', KEYS[1])
+if count >= max then
+  local earliest = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES')
+  return {0, count, math.max(1, tonumber(earliest[2]) - now)}
+end
+
+redis.call('ZADD', KEYS[1], now + lease, ARGV[1])
+redis.call('PEXPIRE', KEYS[1], lease)
+return {1, count + 1, 0}
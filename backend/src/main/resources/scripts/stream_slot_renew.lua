@@ -0,0 +1,16 @@
+-- 续租本节点仍在进行的流，名额已过期被清理的不再加回
+-- KEYS[i] 名额集合，ARGV[1] 租约时长（毫秒），ARGV[i+1] 第i个名额ID
+-- 返回续租成功的名额数
+local lease = tonumber(ARGV[1])
+
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local renewed = 0
+for i = 1, #KEYS do
+  if redis.call('ZADD', KEYS[i], 'XX', 'CH', now + lease, ARGV[i + 1]) == 1 then
+    renewed = renewed + 1
+  end
+  redis.call('PEXPIRE', KEYS[i], lease)
+end
+return {renewed}
@@ -0,0 +1,41 @@
+-- 令牌桶：补充和扣减在一次调用中完成
+-- KEYS[1] 桶（哈希：tokens 当前令牌数，ts 上次补充的毫秒时间）
+-- ARGV[1] 桶容量，ARGV[2] 每秒补充的令牌数，ARGV[3] 最多申请的令牌数
+-- ARGV[4] 最少申请的令牌数，缺省与ARGV[3]相同；小于ARGV[3]时按现有令牌部分发放（用于节点批量租借）
+-- 返回 {发放的令牌数(0表示拒绝), 剩余令牌数(向下取整), 需要等待的毫秒数(-1表示申请数超过容量), 补满的毫秒数}
+local capacity = tonumber(ARGV[1])
+local rate = tonumber(ARGV[2])
+local requested = tonumber(ARGV[3])
+local minimum = tonumber(ARGV[4]) or requested
+
+-- 使用Redis服务器时间，避免各节点时钟不一致
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local state = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+local tokens = tonumber(state[1])
+local ts = tonumber(state[2])
+if tokens == nil or ts == nil then
+  tokens = capacity
+  ts = now
+end
+if now > ts then
+  tokens = math.min(capacity, tokens + (now - ts) * rate / 1000)
+  ts = now
+end
+
+local granted = 0
+local retry_after = 0
+if minimum > capacity then
+  retry_after = -1
+elseif tokens >= minimum then
+  granted = math.min(requested, math.floor(tokens))
+  tokens = tokens - granted
+else
+  retry_after = math.ceil((minimum - tokens) * 1000 / rate)
+end
+
+redis.call('HSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(ts))
+-- 桶补满之后状态与不存在相同，可以过期
+redis.call('PEXPIRE', KEYS[1], math.ceil(capacity * 1000 / rate) + 1000)
+return {granted, math.floor(tokens), retry_after, math.ceil((capacity - tokens) * 1000 / rate)}
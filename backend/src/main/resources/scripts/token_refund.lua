@@ -0,0 +1,28 @@
+-- 预留结算：退还多预留的令牌（正数），或补扣实际超出预留的令牌（负数，不做检查）
+-- KEYS[i] 桶，ARGV[1] 调整的令牌数，ARGV[2i] 第i个桶的容量，ARGV[2i+1] 第i个桶每秒补充的令牌数
+-- 返回各桶调整后的令牌数（向下取整）
+local delta = tonumber(ARGV[1])
+
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local result = {}
+for i = 1, #KEYS do
+  local capacity = tonumber(ARGV[2 * i])
+  local rate = tonumber(ARGV[2 * i + 1])
+  local state = redis.call('HMGET', KEYS[i], 'tokens', 'ts')
+  local tokens = tonumber(state[1])
+  local ts = tonumber(state[2])
+  if tokens == nil or ts == nil then
+    tokens = capacity
+    ts = now
+  end
+  if now > ts then
+    tokens = math.min(capacity, tokens + (now - ts) * rate / 1000)
+  end
+  tokens = math.min(capacity, tokens + delta)
+  redis.call('HSET', KEYS[i], 'tokens', tostring(tokens), 'ts', tostring(now))
+  redis.call('PEXPIRE', KEYS[i], math.ceil((capacity - math.min(tokens, 0)) * 1000 / rate) + 1000)
+  result[i] = math.floor(tokens)
+end
+return result
@@ -0,0 +1,52 @@
+-- 多个令牌桶同时预留：所有桶都有足够令牌时一起扣减，否则都不扣减
+-- KEYS[i] 桶（哈希：tokens 当前令牌数，ts 上次补充的毫秒时间）
+-- ARGV[1] 预留的令牌数，ARGV[2i] 第i个桶的容量，ARGV[2i+1] 第i个桶每秒补充的令牌数
+-- 预留数超过桶容量时要求桶已补满，扣减后余额为负，相当于向后续时间借用
+-- 返回 {是否预留成功(1/0), 需要等待的毫秒数, 不足的桶序号(从1开始，成功时为0)}
+local amount = tonumber(ARGV[1])
+
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local balances = {}
+local retry_after = 0
+local short = 0
+for i = 1, #KEYS do
+  local capacity = tonumber(ARGV[2 * i])
+  local rate = tonumber(ARGV[2 * i + 1])
+  local state = redis.call('HMGET', KEYS[i], 'tokens', 'ts')
+  local tokens = tonumber(state[1])
+  local ts = tonumber(state[2])
+  if tokens == nil or ts == nil then
+    tokens = capacity
+    ts = now
+  end
+  if now > ts then
+    tokens = math.min(capacity, tokens + (now - ts) * rate / 1000)
+  end
+  balances[i] = tokens
+  local need = math.min(amount, capacity)
+  if tokens < need then
+    local wait = math.ceil((need - tokens) * 1000 / rate)
+    if wait > retry_after then
+      retry_after = wait
+      short = i
+    end
+  end
+end
+
+for i = 1, #KEYS do
+  local capacity = tonumber(ARGV[2 * i])
+  local rate = tonumber(ARGV[2 * i + 1])
+  local tokens = balances[i]
+  if short == 0 then
+    tokens = tokens - amount
+  end
+  redis.call('HSET', KEYS[i], 'tokens', tostring(tokens), 'ts', tostring(now))
+  redis.call('PEXPIRE', KEYS[i], math.ceil((capacity - math.min(tokens, 0)) * 1000 / rate) + 1000)
+end
+
+if short == 0 then
+  return {1, 0, 0}
+end
+return {0, retry_after, short}
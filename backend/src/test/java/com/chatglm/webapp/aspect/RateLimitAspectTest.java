@@ -0,0 +1,106 @@
+package com.chatglm.webapp.aspect;
+
+import com.chatglm.webapp.annotation.RateLimit;
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.util.LeasedRateLimiter;
+import com.chatglm.webapp.util.RateLimiter;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * RateLimitAspect单元测试
+ */
+class RateLimitAspectTest {
+
+    private RateLimiter rateLimiter;
+    private LeasedRateLimiter leasedRateLimiter;
+    private RateLimitAspect aspect;
+    private MockHttpServletResponse response;
+
+    @BeforeEach
+    void setUp() {
+        rateLimiter = mock(RateLimiter.class);
+        leasedRateLimiter = mock(LeasedRateLimiter.class);
+        aspect = new RateLimitAspect();
+        ReflectionTestUtils.setField(aspect, "rateLimiter", rateLimiter);
+        ReflectionTestUtils.setField(aspect, "leasedRateLimiter", leasedRateLimiter);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.1");
+        response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @RateLimit(maxRequests = 5, timeWindow = 60, algorithm = RateLimit.Algorithm.SLIDING_WINDOW)
+    void slidingWindowEndpoint() {
+    }
+
+    @RateLimit(maxRequests = 5, timeWindow = 60, algorithm = RateLimit.Algorithm.GCRA, burst = 2)
+    void gcraEndpoint() {
+    }
+
+    @RateLimit(maxRequests = 10, timeWindow = 60)
+    void tokenBucketEndpoint() {
+    }
+
+    private ProceedingJoinPoint joinPoint(String methodName) throws Throwable {
+        MethodSignature signature = mock(MethodSignature.class);
+        when(signature.getMethod()).thenReturn(RateLimitAspectTest.class.getDeclaredMethod(methodName));
+        when(signature.getDeclaringType()).thenReturn(RateLimitAspectTest.class);
+        ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(joinPoint.proceed()).thenReturn("ok");
+        return joinPoint;
+    }
+
+    @Test
+    void testAround_AllowedRequestCarriesRateLimitHeaders() throws Throwable {
+        when(rateLimiter.slidingWindow("RateLimitAspectTest.slidingWindowEndpoint:10.0.0.1", 5, 60))
+                .thenReturn(new RateLimiter.Result(1, 3, 0, 42_300));
+
+        assertEquals("ok", aspect.around(joinPoint("slidingWindowEndpoint")));
+        assertEquals("5", response.getHeader("RateLimit-Limit"));
+        assertEquals("3", response.getHeader("RateLimit-Remaining"));
+        assertEquals("43", response.getHeader("RateLimit-Reset"));
+        assertEquals("5;w=60", response.getHeader("RateLimit-Policy"));
+        assertNull(response.getHeader("Retry-After"));
+    }
+
+    @Test
+    void testAround_RejectedRequestSetsRetryAfter() throws Throwable {
+        when(rateLimiter.gcra(anyString(), eq(5), eq(60), eq(2))).thenReturn(new RateLimiter.Result(0, 0, 11_001, 23_000));
+        ProceedingJoinPoint joinPoint = joinPoint("gcraEndpoint");
+
+        ChatGLMException exception = assertThrows(ChatGLMException.class, () -> aspect.around(joinPoint));
+        assertEquals(429, exception.getCode());
+        assertEquals("12", response.getHeader("Retry-After"));
+        assertEquals("0", response.getHeader("RateLimit-Remaining"));
+        verify(joinPoint, never()).proceed();
+    }
+
+    @Test
+    void testAround_TokenBucketUsesLeasedLimiter() throws Throwable {
+        when(leasedRateLimiter.tryAcquire(anyString(), eq(10), eq(10.0 / 60)))
+                .thenReturn(new RateLimiter.Result(1, 9, 0, 6000));
+
+        aspect.around(joinPoint("tokenBucketEndpoint"));
+        assertEquals("9", response.getHeader("RateLimit-Remaining"));
+        verifyNoInteractions(rateLimiter);
+    }
+}
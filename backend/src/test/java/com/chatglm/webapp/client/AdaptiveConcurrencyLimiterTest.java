@@ -0,0 +1,84 @@
+package com.chatglm.webapp.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AdaptiveConcurrencyLimiter测试，响应时间使用模拟时钟
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long BASE_RTT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    void testLimit_ConvergesNearUpstreamCapacity() {
+        AtomicLong clock = new AtomicLong();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(5, 1, 500, 0, 0, 1_000_000, clock::get);
+        int capacity = 40;
+
+        for (int round = 0; round < 300; round++) {
+            // 需求远大于上游容量：每轮尽量占满许可，超过容量后响应时间按排队线性增长
+            List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+            AdaptiveConcurrencyLimiter.Permit permit;
+            while (permits.size() < 1000 && (permit = limiter.tryAcquire()) != null) {
+                permits.add(permit);
+            }
+            clock.addAndGet(BASE_RTT * Math.max(capacity, permits.size()) / capacity);
+            permits.forEach(AdaptiveConcurrencyLimiter.Permit::onSuccess);
+        }
+
+        int limit = limiter.getLimit();
+        assertTrue(limit >= capacity && limit <= capacity * 3 / 2, "limit=" + limit);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testLimit_BacksOffOnDropsAndIgnoresUnrelatedFailures() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 2, 100, 0, 0, 100, () -> 0);
+
+        limiter.tryAcquire().onDropped();
+        assertEquals(18, limiter.getLimit());
+        limiter.tryAcquire().onIgnore();
+        assertEquals(18, limiter.getLimit());
+
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        permit.onDropped();
+        permit.onDropped();
+        assertEquals(16, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testTryAcquire_QueuesBrieflyThenSheds() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 1, 2000, 100);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.tryAcquire();
+        assertNotNull(first);
+
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> waiting = CompletableFuture.supplyAsync(limiter::tryAcquire);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.getQueued() == 0 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertEquals(1, limiter.getQueued());
+        // 排队已满，直接拒绝
+        assertNull(limiter.tryAcquire());
+
+        first.onSuccess();
+        AdaptiveConcurrencyLimiter.Permit second = waiting.get(5, TimeUnit.SECONDS);
+        assertNotNull(second);
+        assertEquals(1, limiter.getInFlight());
+
+        AdaptiveConcurrencyLimiter shortQueue = new AdaptiveConcurrencyLimiter(1, 1, 1, 1, 50, 100);
+        shortQueue.tryAcquire();
+        long start = System.nanoTime();
+        assertNull(shortQueue.tryAcquire());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+    }
+}
@@ -0,0 +1,125 @@
+package com.chatglm.webapp.client;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ChatMetrics单元测试
+ */
+class ChatMetricsTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ChatMetrics metrics = new ChatMetrics(meterRegistry, clock::get);
+
+    @Test
+    void testStream_RecordsEveryStageWithTags() {
+        ChatMetrics.Recorder recorder = metrics.start("qwen", "qwen-turbo", ChatMetrics.ENDPOINT_STREAM);
+        advance(20);
+        recorder.upstreamStarted();
+        advance(30);
+        recorder.connected();
+        advance(400);
+        recorder.token();
+        advance(50);
+        recorder.token();
+        advance(50);
+        recorder.token();
+        recorder.finish(ChatMetrics.OUTCOME_SUCCESS, 10);
+
+        assertEquals(20, totalMillis(timer("chatglm.chat.queue.wait", "stream", "success")));
+        assertEquals(30, totalMillis(timer("chatglm.chat.upstream.connect", "stream", "success")));
+        assertEquals(450, totalMillis(timer("chatglm.chat.ttft", "stream", "success")));
+        Timer interToken = timer("chatglm.chat.inter.token", "stream", "success");
+        assertEquals(2, interToken.count());
+        assertEquals(100, totalMillis(interToken));
+        assertEquals(530, totalMillis(timer("chatglm.chat.generation", "stream", "success")));
+        // 10个token在第一段内容之后的100毫秒内输出
+        DistributionSummary tokensPerSecond = meterRegistry.get("chatglm.chat.output.tokens.per.second")
+                .tag("endpoint", "stream").summary();
+        assertEquals(100, tokensPerSecond.totalAmount(), 0.001);
+    }
+
+    @Test
+    void testTtft_ExportsSloBuckets() {
+        ChatMetrics.Recorder recorder = metrics.start("qwen", "qwen-turbo", ChatMetrics.ENDPOINT_CHAT);
+        recorder.upstreamStarted();
+        advance(1200);
+        recorder.token();
+        recorder.finish(ChatMetrics.OUTCOME_SUCCESS, 0);
+
+        CountAtBucket[] buckets = timer("chatglm.chat.ttft", "chat", "success").takeSnapshot().histogramCounts();
+        assertEquals(11, buckets.length);
+        for (CountAtBucket bucket : buckets) {
+            double upperMillis = bucket.bucket(TimeUnit.MILLISECONDS);
+            assertEquals(upperMillis >= 1200 ? 1 : 0, bucket.count(), "bucket " + upperMillis);
+        }
+    }
+
+    @Test
+    void testQueuedAsyncJob_CountsTimeSpentInJobQueue() {
+        ChatMetrics.Recorder recorder = metrics.start("qwen", "qwen-turbo", ChatMetrics.ENDPOINT_ASYNC,
+                TimeUnit.MILLISECONDS.toNanos(300));
+        advance(10);
+        recorder.upstreamStarted();
+        advance(500);
+        recorder.token();
+        recorder.finish(ChatMetrics.OUTCOME_SUCCESS, 0);
+
+        assertEquals(310, totalMillis(timer("chatglm.chat.queue.wait", "async", "success")));
+        assertEquals(810, totalMillis(timer("chatglm.chat.ttft", "async", "success")));
+    }
+
+    @Test
+    void testRejectedAndFallbackOutcomesKeptSeparate() {
+        ChatMetrics.Recorder rejected = metrics.start("qwen", "qwen-turbo", ChatMetrics.ENDPOINT_CHAT);
+        advance(100);
+        rejected.finish(ChatMetrics.outcomeOf(new ChatGLMException(503, "busy")), 0);
+        rejected.finish(ChatMetrics.OUTCOME_ERROR, 0);
+
+        ChatMetrics.Recorder fallback = metrics.start("qwen", "qwen-turbo", ChatMetrics.ENDPOINT_CHAT);
+        fallback.upstreamStarted();
+        fallback.fallback();
+        fallback.token();
+        fallback.finish(ChatMetrics.OUTCOME_SUCCESS, 5);
+
+        assertEquals(100, totalMillis(timer("chatglm.chat.queue.wait", "chat", "rejected")));
+        assertEquals(0, timer("chatglm.chat.ttft", "chat", "rejected").count());
+        assertNull(meterRegistry.find("chatglm.chat.queue.wait").tag("outcome", "error").timer());
+        assertEquals(1, timer("chatglm.chat.ttft", "chat", "fallback").count());
+        assertNull(meterRegistry.find("chatglm.chat.ttft").tag("outcome", "success").timer());
+        assertEquals(ChatMetrics.OUTCOME_ERROR, ChatMetrics.outcomeOf(new ChatGLMException(500, "error")));
+    }
+
+    @Test
+    void testNoopRecorderIgnoresCalls() {
+        ChatMetrics.Recorder.NOOP.upstreamStarted();
+        ChatMetrics.Recorder.NOOP.token();
+        ChatMetrics.Recorder.NOOP.finish(ChatMetrics.OUTCOME_SUCCESS, 1);
+
+        assertTrue(meterRegistry.getMeters().isEmpty());
+    }
+
+    private void advance(long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private Timer timer(String name, String endpoint, String outcome) {
+        return meterRegistry.get(name)
+                .tags("provider", "qwen", "model", "qwen-turbo", "endpoint", endpoint, "outcome", outcome)
+                .timer();
+    }
+
+    private static long totalMillis(Timer timer) {
+        return Math.round(timer.totalTime(TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,51 @@
+package com.chatglm.webapp.client;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * UpstreamConcurrencyLimits单元测试
+ */
+class UpstreamConcurrencyLimitsTest {
+
+    @Test
+    void testAcquire_UsesPerProviderLimitsAndShedsWith503() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("chatglm.upstream.concurrency.initial-limit", "2")
+                .withProperty("chatglm.upstream.concurrency.min-limit", "1")
+                .withProperty("chatglm.upstream.concurrency.max-queue", "0")
+                .withProperty("chatglm.upstream.concurrency.qwen.initial-limit", "1");
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UpstreamConcurrencyLimits limits = new UpstreamConcurrencyLimits(environment, meterRegistry, true);
+
+        AdaptiveConcurrencyLimiter.Permit permit = limits.acquire("qwen");
+        ChatGLMException exception = assertThrows(ChatGLMException.class, () -> limits.acquire("qwen"));
+        assertEquals(503, exception.getCode());
+        // 其他服务商使用各自的限制
+        limits.acquire("chatglm");
+        limits.acquire("chatglm");
+
+        assertEquals(1, meterRegistry.get("chatglm.upstream.concurrency.rejected").tag("provider", "qwen").counter().count());
+        assertEquals(1, meterRegistry.get("chatglm.upstream.concurrency.limit").tag("provider", "qwen").gauge().value());
+        assertEquals(2, meterRegistry.get("chatglm.upstream.concurrency.inflight").tag("provider", "chatglm").gauge().value());
+        permit.onSuccess();
+        assertNotNull(limits.acquire("qwen"));
+    }
+
+    @Test
+    void testIsOverload_OnlyForTimeoutsThrottlingAndServerErrors() {
+        assertTrue(UpstreamConcurrencyLimits.isOverload(new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS)));
+        assertTrue(UpstreamConcurrencyLimits.isOverload(new HttpServerErrorException(HttpStatus.BAD_GATEWAY)));
+        assertTrue(UpstreamConcurrencyLimits.isOverload(new ResourceAccessException("Read timed out")));
+        assertFalse(UpstreamConcurrencyLimits.isOverload(new HttpClientErrorException(HttpStatus.BAD_REQUEST)));
+        assertFalse(UpstreamConcurrencyLimits.isOverload(new IllegalStateException("parse error")));
+    }
+}
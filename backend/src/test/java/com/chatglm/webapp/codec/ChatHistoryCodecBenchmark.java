@@ -0,0 +1,142 @@
+package com.chatglm.webapp.codec;
+
+import com.chatglm.webapp.model.ChatHistory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChatHistory存储格式对比：原GenericJackson2JsonRedisSerializer、二进制编码、二进制编码+LZ4
+ * main方法先输出1000轮对话的存储字节数，再运行编解码延迟基准。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatHistoryCodecBenchmark {
+
+    private static final String[] SENTENCES = {
+            "可以从以下几个方面入手：", "选择合适的垃圾收集器，例如G1或ZGC；", "调整堆大小和分代比例；",
+            "减少短生命周期对象的分配；", "使用对象池复用大对象；", "通过GC日志定位长停顿的原因。",
+            "另外，建议在压测环境中先验证参数变更的效果。", "如果问题仍然存在，可以结合火焰图分析热点代码。",
+            "Redis的内存占用主要取决于键的数量和值的大小。", "对于较长的文本，压缩通常能节省一半以上的空间。"
+    };
+
+    /**
+     * AI回复的字符数：短回复、普通回复、长回复
+     */
+    @Param({"80", "600", "3000"})
+    public int responseChars;
+
+    private GenericJackson2JsonRedisSerializer jsonSerializer;
+    private ChatHistory history;
+    private byte[] json;
+    private byte[] binary;
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() {
+        jsonSerializer = legacySerializer();
+        history = sampleHistory(new Random(42), responseChars);
+        json = jsonSerializer.serialize(history);
+        binary = ChatHistoryCodec.encode(history, Integer.MAX_VALUE);
+        compressed = ChatHistoryCodec.encode(history, 512);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        return jsonSerializer.serialize(history);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return ChatHistoryCodec.encode(history, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public byte[] encodeCompressed() {
+        return ChatHistoryCodec.encode(history, 512);
+    }
+
+    @Benchmark
+    public Object decodeJson() {
+        return jsonSerializer.deserialize(json);
+    }
+
+    @Benchmark
+    public ChatHistory decodeBinary() {
+        return ChatHistoryCodec.decode(binary);
+    }
+
+    @Benchmark
+    public ChatHistory decodeCompressed() {
+        return ChatHistoryCodec.decode(compressed);
+    }
+
+    private static GenericJackson2JsonRedisSerializer legacySerializer() {
+        // 与RateLimitConfig中的配置一致
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        mapper.registerModule(new JavaTimeModule());
+        return new GenericJackson2JsonRedisSerializer(mapper);
+    }
+
+    private static ChatHistory sampleHistory(Random random, int responseChars) {
+        StringBuilder response = new StringBuilder();
+        while (response.length() < responseChars) {
+            response.append(SENTENCES[random.nextInt(SENTENCES.length)]);
+        }
+        ChatHistory history = new ChatHistory(10086L, "session_1700000000000",
+                "请帮我分析一下这个问题，并给出具体的优化建议。", response.toString(), "qwen_turbo");
+        history.setCreatedAt(LocalDateTime.now());
+        return history;
+    }
+
+    /**
+     * 1000轮对话的存储字节数，回复长度按短/中/长各三分之一混合
+     */
+    private static void printStorageReport() {
+        GenericJackson2JsonRedisSerializer jsonSerializer = legacySerializer();
+        Random random = new Random(42);
+        int[] lengths = {80, 600, 3000};
+        long jsonBytes = 0;
+        long binaryBytes = 0;
+        long compressedBytes = 0;
+        for (int i = 0; i < 1000; i++) {
+            ChatHistory history = sampleHistory(random, lengths[i % lengths.length]);
+            jsonBytes += jsonSerializer.serialize(history).length;
+            binaryBytes += ChatHistoryCodec.encode(history, Integer.MAX_VALUE).length;
+            compressedBytes += ChatHistoryCodec.encode(history, 512).length;
+        }
+        System.out.printf("Bytes per 1k turns: json=%d, binary=%d, binary+lz4=%d%n",
+                jsonBytes, binaryBytes, compressedBytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        printStorageReport();
+        new Runner(new OptionsBuilder()
+                .include(ChatHistoryCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
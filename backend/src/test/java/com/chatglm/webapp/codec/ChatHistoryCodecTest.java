@@ -0,0 +1,94 @@
+package com.chatglm.webapp.codec;
+
+import com.chatglm.webapp.model.ChatHistory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ChatHistoryCodec单元测试
+ */
+class ChatHistoryCodecTest {
+
+    private static final int THRESHOLD = 512;
+
+    @Test
+    void testEncodeAndDecode_SmallRecordIsNotCompressed() {
+        ChatHistory original = sampleHistory("你好！有什么可以帮你？");
+        original.setTokensUsed(42);
+        original.setCost(0.0021);
+
+        byte[] bytes = ChatHistoryCodec.encode(original, THRESHOLD);
+        ChatHistory decoded = ChatHistoryCodec.decode(bytes);
+
+        assertEquals(0, bytes[2] & 1);
+        assertHistoryEquals(original, decoded);
+        assertEquals(42, decoded.getTokensUsed());
+        assertEquals(0.0021, decoded.getCost());
+    }
+
+    @Test
+    void testEncodeAndDecode_LargeRecordIsCompressed() {
+        StringBuilder response = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            response.append("可以从以下几个方面入手：选择合适的垃圾收集器，调整堆大小，减少短生命周期对象的分配。");
+        }
+        ChatHistory original = sampleHistory(response.toString());
+
+        byte[] bytes = ChatHistoryCodec.encode(original, THRESHOLD);
+        ChatHistory decoded = ChatHistoryCodec.decode(bytes);
+
+        assertEquals(1, bytes[2] & 1);
+        assertTrue(bytes.length < response.length());
+        assertHistoryEquals(original, decoded);
+    }
+
+    @Test
+    void testDecode_RejectsCorruptedCompressedData() {
+        StringBuilder response = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            response.append("重复的内容");
+        }
+        byte[] bytes = ChatHistoryCodec.encode(sampleHistory(response.toString()), THRESHOLD);
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 5);
+
+        assertThrows(RuntimeException.class, () -> ChatHistoryCodec.decode(truncated));
+    }
+
+    @Test
+    void testRedisSerializer_ReadsLegacyJson() throws Exception {
+        ObjectMapper legacyMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        ChatHistoryRedisSerializer serializer = new ChatHistoryRedisSerializer(legacyMapper, THRESHOLD);
+        ChatHistory original = sampleHistory("旧格式的回复");
+
+        ChatHistory fromJson = serializer.deserialize(legacyMapper.writeValueAsBytes(original));
+        ChatHistory fromBinary = serializer.deserialize(serializer.serialize(original));
+
+        assertEquals(original.getAiResponse(), fromJson.getAiResponse());
+        assertHistoryEquals(original, fromBinary);
+    }
+
+    private static ChatHistory sampleHistory(String aiResponse) {
+        ChatHistory history = new ChatHistory(1L, "session_1700000000000", "如何优化Java应用的GC停顿？",
+                aiResponse, "qwen_turbo");
+        history.setCreatedAt(LocalDateTime.of(2024, 1, 1, 12, 30, 15));
+        return history;
+    }
+
+    private static void assertHistoryEquals(ChatHistory expected, ChatHistory actual) {
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getSessionId(), actual.getSessionId());
+        assertEquals(expected.getUserMessage(), actual.getUserMessage());
+        assertEquals(expected.getAiResponse(), actual.getAiResponse());
+        assertEquals(expected.getModel(), actual.getModel());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+    }
+}
@@ -0,0 +1,96 @@
+package com.chatglm.webapp.codec;
+
+import com.chatglm.webapp.model.ChatGLMModel;
+import com.chatglm.webapp.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChatMessage二进制编码与JSON的吞吐量和分配对比
+ * 运行：mvn test-compile 后直接运行main方法，分配数据见GC profiler输出的gc.alloc.rate.norm
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatMessageCodecBenchmark {
+
+    /**
+     * 历史对话轮数：0为单条提问，4为普通多轮对话，20为长上下文
+     */
+    @Param({"0", "4", "20"})
+    public int historyTurns;
+
+    private ObjectMapper objectMapper;
+    private ChatMessage message;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        message = new ChatMessage();
+        message.setMessageId("msg_1700000000000_a1b2c3d4");
+        message.setUserId("10086");
+        message.setSessionId("session_1700000000000");
+        message.setContent("请帮我总结一下这篇文章的主要观点，并给出三条改进建议。");
+        List<ChatGLMModel.Message> history = new ArrayList<>();
+        for (int i = 0; i < historyTurns; i++) {
+            history.add(new ChatGLMModel.Message("user", "第" + i + "个问题：如何优化Java应用的GC停顿时间？"));
+            history.add(new ChatGLMModel.Message("assistant",
+                    "可以从以下几个方面入手：选择合适的垃圾收集器，例如G1或ZGC；调整堆大小和分代比例；"
+                            + "减少短生命周期对象的分配；使用对象池复用大对象；并通过GC日志定位长停顿的原因。"));
+        }
+        message.setHistory(history);
+        json = objectMapper.writeValueAsBytes(message);
+        binary = ChatMessageCodec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws Exception {
+        return objectMapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return ChatMessageCodec.encode(message);
+    }
+
+    @Benchmark
+    public ChatMessage decodeJson() throws Exception {
+        return objectMapper.readValue(json, ChatMessage.class);
+    }
+
+    @Benchmark
+    public ChatMessage decodeBinary() {
+        return ChatMessageCodec.decode(binary);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ChatMessageCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,155 @@
+package com.chatglm.webapp.codec;
+
+import com.chatglm.webapp.model.ChatGLMModel;
+import com.chatglm.webapp.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ChatMessageCodec单元测试
+ */
+class ChatMessageCodecTest {
+
+    @Test
+    void testEncodeAndDecode_RoundTrip() {
+        ChatMessage original = sampleMessage();
+        original.setStatus(ChatMessage.MessageStatus.COMPLETED);
+        original.setAiResponse("你好！有什么可以帮你？😀");
+
+        ChatMessage decoded = ChatMessageCodec.decode(ChatMessageCodec.encode(original));
+
+        assertEquals(original.getMessageId(), decoded.getMessageId());
+        assertEquals(original.getUserId(), decoded.getUserId());
+        assertEquals(original.getContent(), decoded.getContent());
+        assertEquals(original.getSessionId(), decoded.getSessionId());
+        assertEquals(original.getCreateTime(), decoded.getCreateTime());
+        assertEquals(original.getStatus(), decoded.getStatus());
+        assertEquals(original.getAiResponse(), decoded.getAiResponse());
+        assertNull(decoded.getErrorMessage());
+        assertTrue(decoded.isStream());
+        assertEquals(2, decoded.getHistory().size());
+        assertEquals("assistant", decoded.getHistory().get(1).getRole());
+        assertEquals(original.getHistory().get(1).getContent(), decoded.getHistory().get(1).getContent());
+    }
+
+    @Test
+    void testDecode_RejectsUnknownVersion() {
+        byte[] bytes = ChatMessageCodec.encode(sampleMessage());
+        bytes[1] = (byte) (ChatMessageCodec.VERSION + 1);
+
+        assertThrows(IllegalArgumentException.class, () -> ChatMessageCodec.decode(bytes));
+    }
+
+    @Test
+    void testDecode_RejectsTruncatedData() {
+        byte[] bytes = ChatMessageCodec.encode(sampleMessage());
+
+        assertThrows(IllegalArgumentException.class, () -> ChatMessageCodec.decode(bytes, 0, bytes.length - 3));
+    }
+
+    @Test
+    void testDecode_RejectsUnknownStatus() {
+        ChatMessage message = sampleMessage();
+        message.setStatus(ChatMessage.MessageStatus.PENDING);
+        byte[] pending = ChatMessageCodec.encode(message);
+        message.setStatus(ChatMessage.MessageStatus.COMPLETED);
+        byte[] bytes = ChatMessageCodec.encode(message);
+        // 两次编码只有状态字节不同
+        int statusIndex = 0;
+        while (pending[statusIndex] == bytes[statusIndex]) {
+            statusIndex++;
+        }
+        bytes[statusIndex] = (byte) 0x7F;
+
+        assertThrows(IllegalArgumentException.class, () -> ChatMessageCodec.decode(bytes));
+    }
+
+    @Test
+    void testRedisSerializer_ReadsLegacyJson() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        ChatMessageRedisSerializer serializer = new ChatMessageRedisSerializer(objectMapper);
+        ChatMessage original = sampleMessage();
+
+        ChatMessage fromJson = serializer.deserialize(objectMapper.writeValueAsBytes(original));
+        ChatMessage fromBinary = serializer.deserialize(serializer.serialize(original));
+
+        assertEquals(original.getContent(), fromJson.getContent());
+        assertEquals(original.getContent(), fromBinary.getContent());
+    }
+
+    @Test
+    void testAmqpConverter_UsesBinaryForChatMessageAndJsonOtherwise() {
+        ChatMessageAmqpConverter converter = new ChatMessageAmqpConverter(new Jackson2JsonMessageConverter());
+
+        Message binary = converter.toMessage(sampleMessage(), new MessageProperties());
+        assertEquals(ChatMessageAmqpConverter.CONTENT_TYPE, binary.getMessageProperties().getContentType());
+        assertEquals("你好", ((ChatMessage) converter.fromMessage(binary)).getContent());
+
+        Message json = converter.toMessage(List.of("a", "b"), new MessageProperties());
+        assertEquals(MessageProperties.CONTENT_TYPE_JSON, json.getMessageProperties().getContentType());
+    }
+
+    @Test
+    void testLegacyJson_StringHistoryIsAccepted() throws Exception {
+        // 升级前Jackson2JsonMessageConverter发布的消息，history是List.toString()的结果
+        String body = "{\"messageId\":\"msg-legacy\",\"userId\":\"user-1a2b3c4d\",\"content\":\"你好\","
+                + "\"sessionId\":\"session-9f8e7d6c\","
+                + "\"history\":\"[com.chatglm.webapp.model.ChatGLMModel$Message@5e9f23b4]\","
+                + "\"stream\":false,\"createTime\":[2024,3,15,10,30,0,123000000],"
+                + "\"status\":\"PENDING\",\"aiResponse\":null,\"errorMessage\":null}";
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding("UTF-8");
+        properties.setHeader("__TypeId__", ChatMessage.class.getName());
+        // 监听方法参数为ChatMessage时容器设置的推断类型
+        properties.setInferredArgumentType(ChatMessage.class);
+        ChatMessageAmqpConverter converter = new ChatMessageAmqpConverter(new Jackson2JsonMessageConverter());
+
+        ChatMessage fromAmqp = (ChatMessage) converter.fromMessage(
+                new Message(body.getBytes(StandardCharsets.UTF_8), properties));
+        ChatMessage fromRedis = new ChatMessageRedisSerializer(new ObjectMapper().registerModule(new JavaTimeModule()))
+                .deserialize(body.replace("\"history\":\"[com.chatglm.webapp.model.ChatGLMModel$Message@5e9f23b4]\"",
+                        "\"history\":\"\"").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("msg-legacy", fromAmqp.getMessageId());
+        assertEquals("你好", fromAmqp.getContent());
+        assertEquals(LocalDateTime.of(2024, 3, 15, 10, 30, 0, 123000000), fromAmqp.getCreateTime());
+        assertNull(fromAmqp.getHistory());
+        assertEquals("msg-legacy", fromRedis.getMessageId());
+        assertNull(fromRedis.getHistory());
+    }
+
+    @Test
+    void testJson_ListHistoryStillDeserialized() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+        ChatMessage decoded = objectMapper.readValue(objectMapper.writeValueAsBytes(sampleMessage()), ChatMessage.class);
+
+        assertEquals(2, decoded.getHistory().size());
+        assertEquals("我是一个AI助手。", decoded.getHistory().get(1).getContent());
+    }
+
+    private static ChatMessage sampleMessage() {
+        ChatMessage message = new ChatMessage();
+        message.setMessageId("msg-1");
+        message.setUserId("user-1");
+        message.setContent("你好");
+        message.setSessionId("session-1");
+        message.setStream(true);
+        message.setCreateTime(LocalDateTime.of(2024, 1, 1, 12, 30, 15, 123456789));
+        message.setHistory(List.of(
+                new ChatGLMModel.Message("user", "介绍一下你自己"),
+                new ChatGLMModel.Message("assistant", "我是一个AI助手。")));
+        return message;
+    }
+}
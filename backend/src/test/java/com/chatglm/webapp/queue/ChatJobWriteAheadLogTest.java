@@ -0,0 +1,112 @@
+package com.chatglm.webapp.queue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ChatJobWriteAheadLog单元测试
+ */
+class ChatJobWriteAheadLogTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testReplay_ReturnsOnlyUnfinishedJobsInOrder() throws Exception {
+        Path walPath = tempDir.resolve("chat-queue.wal");
+
+        try (ChatJobWriteAheadLog wal = new ChatJobWriteAheadLog(walPath, 64 * 1024, false)) {
+            wal.append("m1", bytes("first"));
+            wal.append("m2", bytes("second"));
+            wal.append("m3", bytes("third"));
+            wal.markDone("m2");
+        }
+
+        try (ChatJobWriteAheadLog reopened = new ChatJobWriteAheadLog(walPath, 64 * 1024, false)) {
+            List<byte[]> pending = reopened.pendingPayloads();
+            assertEquals(2, pending.size());
+            assertEquals("first", text(pending.get(0)));
+            assertEquals("third", text(pending.get(1)));
+        }
+    }
+
+    @Test
+    void testCompaction_KeepsPendingJobsWhenFileFills() throws Exception {
+        Path walPath = tempDir.resolve("chat-queue.wal");
+        byte[] payload = new byte[200];
+
+        try (ChatJobWriteAheadLog wal = new ChatJobWriteAheadLog(walPath, 4 * 1024, false)) {
+            wal.append("keep", bytes("still pending"));
+            // 反复写入并完成任务，远超文件大小，触发压缩
+            for (int i = 0; i < 200; i++) {
+                wal.append("job-" + i, payload);
+                wal.markDone("job-" + i);
+            }
+        }
+
+        try (ChatJobWriteAheadLog reopened = new ChatJobWriteAheadLog(walPath, 4 * 1024, false)) {
+            List<byte[]> pending = reopened.pendingPayloads();
+            assertEquals(1, pending.size());
+            assertEquals("still pending", text(pending.get(0)));
+        }
+    }
+
+    @Test
+    void testReplay_StopsAtTornRecord() throws Exception {
+        Path walPath = tempDir.resolve("chat-queue.wal");
+
+        try (ChatJobWriteAheadLog wal = new ChatJobWriteAheadLog(walPath, 64 * 1024, false)) {
+            wal.append("m1", bytes("first"));
+            wal.append("m2", bytes("second"));
+            wal.append("m3", bytes("third"));
+        }
+        // 模拟崩溃时第二条记录只写了一部分：负载被破坏
+        byte[] content = Files.readAllBytes(walPath);
+        int offset = indexOf(content, bytes("second"));
+        content[offset] = 'X';
+        Files.write(walPath, content);
+
+        try (ChatJobWriteAheadLog reopened = new ChatJobWriteAheadLog(walPath, 64 * 1024, false)) {
+            List<byte[]> pending = reopened.pendingPayloads();
+            assertEquals(1, pending.size());
+            assertEquals("first", text(pending.get(0)));
+            // 之后的写入覆盖无效记录
+            reopened.append("m4", bytes("fourth"));
+        }
+
+        try (ChatJobWriteAheadLog reopened = new ChatJobWriteAheadLog(walPath, 64 * 1024, false)) {
+            List<byte[]> pending = reopened.pendingPayloads();
+            assertEquals(2, pending.size());
+            assertEquals("first", text(pending.get(0)));
+            assertEquals("fourth", text(pending.get(1)));
+        }
+    }
+
+    private static int indexOf(byte[] content, byte[] target) {
+        outer:
+        for (int i = 0; i <= content.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (content[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("not found");
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
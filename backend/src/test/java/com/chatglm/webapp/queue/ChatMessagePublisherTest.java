@@ -0,0 +1,61 @@
+package com.chatglm.webapp.queue;
+
+import com.chatglm.webapp.model.ChatMessage;
+import com.chatglm.webapp.service.ChatJobStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.net.ConnectException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * ChatMessagePublisher单元测试
+ */
+class ChatMessagePublisherTest {
+
+    private RabbitTemplate rabbitTemplate;
+    private ChatJobStore chatJobStore;
+    private SimpleMeterRegistry meterRegistry;
+    private ChatMessagePublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        rabbitTemplate = mock(RabbitTemplate.class);
+        chatJobStore = mock(ChatJobStore.class);
+        meterRegistry = new SimpleMeterRegistry();
+        publisher = new ChatMessagePublisher(rabbitTemplate, chatJobStore, meterRegistry, ObservationRegistry.NOOP,
+                false, 100, 10, 1000, 3, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        publisher.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPublish_BrokerDownMarksJobFailedAfterMaxAttempts() {
+        // 获取连接失败，发布回调不会执行
+        when(rabbitTemplate.invoke(any(RabbitOperations.OperationsCallback.class)))
+                .thenThrow(new AmqpConnectException(new ConnectException("Connection refused")));
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.setMessageId("m1");
+
+        publisher.publish(chatMessage);
+
+        verify(chatJobStore, timeout(5000)).updateStatus(eq("m1"), eq(ChatMessage.MessageStatus.FAILED),
+                isNull(), contains("消息发布失败"));
+        verify(rabbitTemplate, times(3)).invoke(any(RabbitOperations.OperationsCallback.class));
+        assertEquals(2.0, meterRegistry.counter("chatglm.rabbitmq.publish.republished").count());
+        assertEquals(1.0, meterRegistry.counter("chatglm.rabbitmq.publish.failed").count());
+    }
+}
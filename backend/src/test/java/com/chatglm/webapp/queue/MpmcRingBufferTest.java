@@ -0,0 +1,94 @@
+package com.chatglm.webapp.queue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * MpmcRingBuffer单元测试
+ */
+class MpmcRingBufferTest {
+
+    @Test
+    void testOfferAndPoll_FifoAndBounded() {
+        MpmcRingBuffer<Integer> ringBuffer = new MpmcRingBuffer<>(4);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ringBuffer.offer(i));
+        }
+        assertFalse(ringBuffer.offer(4));
+        assertEquals(4, ringBuffer.size());
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, ringBuffer.poll());
+        }
+        assertNull(ringBuffer.poll());
+        assertEquals(0, ringBuffer.size());
+    }
+
+    @Test
+    void testCapacity_MustBePowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new MpmcRingBuffer<>(6));
+    }
+
+    @Test
+    void testConcurrentProducersAndConsumers_EveryElementDeliveredOnce() throws Exception {
+        int producers = 4;
+        int consumers = 4;
+        int perProducer = 50_000;
+        MpmcRingBuffer<Integer> ringBuffer = new MpmcRingBuffer<>(1024);
+        ConcurrentHashMap<Integer, Boolean> seen = new ConcurrentHashMap<>();
+        AtomicInteger consumed = new AtomicInteger();
+        AtomicInteger duplicates = new AtomicInteger();
+        CountDownLatch producersDone = new CountDownLatch(producers);
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            executor.submit(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!ringBuffer.offer(base + i)) {
+                        Thread.onSpinWait();
+                    }
+                }
+                producersDone.countDown();
+            });
+        }
+        List<Future<?>> consumerFutures = new ArrayList<>();
+        for (int c = 0; c < consumers; c++) {
+            consumerFutures.add(executor.submit(() -> {
+                while (consumed.get() < producers * perProducer) {
+                    Integer value = ringBuffer.poll();
+                    if (value == null) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    if (seen.put(value, Boolean.TRUE) != null) {
+                        duplicates.incrementAndGet();
+                    }
+                    consumed.incrementAndGet();
+                }
+            }));
+        }
+
+        assertTrue(producersDone.await(30, TimeUnit.SECONDS));
+        for (Future<?> future : consumerFutures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdownNow();
+
+        assertEquals(0, duplicates.get());
+        assertEquals(producers * perProducer, seen.size());
+        assertNull(ringBuffer.poll());
+    }
+}
@@ -0,0 +1,112 @@
+package com.chatglm.webapp.repository;
+
+import com.chatglm.webapp.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * CachingUserRepository单元测试
+ */
+class CachingUserRepositoryTest {
+
+    private UserRepository delegate;
+    private StringRedisTemplate stringRedisTemplate;
+    private AtomicLong nanos;
+    private CachingUserRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(UserRepository.class);
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        nanos = new AtomicLong();
+        repository = new CachingUserRepository(delegate, stringRedisTemplate, new SimpleMeterRegistry(),
+                60000, 5000, 100, nanos::get);
+    }
+
+    @Test
+    void testFindByUsername_ServesRepeatedLookupsFromCache() {
+        when(delegate.findByUsername("alice")).thenReturn(Optional.of(user("alice")));
+
+        User first = repository.findByUsername("alice").orElseThrow();
+        first.setRole("ADMIN");
+        User second = repository.findByUsername("alice").orElseThrow();
+
+        assertEquals("USER", second.getRole());
+        verify(delegate, times(1)).findByUsername("alice");
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        repository.findByUsername("alice");
+        verify(delegate, times(2)).findByUsername("alice");
+    }
+
+    @Test
+    void testFindByUsername_UnknownUserCachedForShorterTime() {
+        when(delegate.findByUsername("ghost")).thenReturn(Optional.empty());
+
+        assertTrue(repository.findByUsername("ghost").isEmpty());
+        assertTrue(repository.findByUsername("ghost").isEmpty());
+        verify(delegate, times(1)).findByUsername("ghost");
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(6));
+        repository.findByUsername("ghost");
+        verify(delegate, times(2)).findByUsername("ghost");
+    }
+
+    @Test
+    void testCreate_InvalidatesNegativeEntryAndNotifiesOtherNodes() {
+        User alice = user("alice");
+        when(delegate.findByUsername("alice")).thenReturn(Optional.empty(), Optional.of(alice));
+        when(delegate.create(alice)).thenReturn(true);
+
+        assertTrue(repository.findByUsername("alice").isEmpty());
+        assertTrue(repository.create(alice));
+
+        assertTrue(repository.findByUsername("alice").isPresent());
+        verify(stringRedisTemplate).convertAndSend(CachingUserRepository.INVALIDATE_CHANNEL, "alice");
+    }
+
+    @Test
+    void testOnMessage_UpdateOnAnotherNodeEvictsEntry() {
+        User disabled = user("alice");
+        disabled.setEnabled(false);
+        when(delegate.findByUsername("alice")).thenReturn(Optional.of(user("alice")), Optional.of(disabled));
+        repository.findByUsername("alice");
+
+        repository.onMessage(new DefaultMessage(CachingUserRepository.INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                "alice".getBytes(StandardCharsets.UTF_8)), null);
+
+        assertFalse(repository.findByUsername("alice").orElseThrow().getEnabled());
+    }
+
+    @Test
+    void testFindByUsername_InvalidationDuringLoadDoesNotCacheStaleUser() {
+        User stale = user("alice");
+        when(delegate.findByUsername("alice")).thenAnswer(invocation -> {
+            // 读取期间其他请求更新了该用户
+            repository.update(user("alice"));
+            return Optional.of(stale);
+        }).thenReturn(Optional.of(user("alice")));
+
+        repository.findByUsername("alice");
+        repository.findByUsername("alice");
+
+        verify(delegate, times(2)).findByUsername("alice");
+    }
+
+    private static User user(String username) {
+        User user = new User(username, username + "@chatglm.com", "encoded", "USER");
+        user.setId(1L);
+        return user;
+    }
+}
@@ -0,0 +1,63 @@
+package com.chatglm.webapp.repository;
+
+import com.chatglm.webapp.model.User;
+import com.chatglm.webapp.support.LocalRedis;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RedisUserRepository测试，需要本机Redis，不可用时跳过
+ */
+class RedisUserRepositoryTest {
+
+    @Test
+    void testCreate_ConcurrentRegistrationsOfSameUsernameOnlyOneSucceeds() throws Exception {
+        LettuceConnectionFactory factory = LocalRedis.connectOrSkip();
+        StringRedisTemplate template = LocalRedis.template(factory);
+        RedisUserRepository repository = new RedisUserRepository(template);
+        String username = "test-" + UUID.randomUUID();
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                String email = "user" + i + "@chatglm.com";
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return repository.create(new User(username, email, "encoded", "USER"));
+                }));
+            }
+            start.countDown();
+            int created = 0;
+            for (Future<Boolean> future : futures) {
+                created += future.get() ? 1 : 0;
+            }
+
+            assertEquals(1, created);
+            User stored = repository.findByUsername(username).orElseThrow();
+            assertNotNull(stored.getId());
+            assertTrue(stored.getEnabled());
+
+            stored.setRole("ADMIN");
+            assertTrue(repository.update(stored));
+            assertEquals("ADMIN", repository.findByUsername(username).orElseThrow().getRole());
+            assertFalse(repository.update(new User("missing-" + UUID.randomUUID(), null, "encoded", "USER")));
+        } finally {
+            executor.shutdownNow();
+            template.delete(RedisUserRepository.USER_KEY_PREFIX + username);
+            factory.destroy();
+        }
+    }
+}
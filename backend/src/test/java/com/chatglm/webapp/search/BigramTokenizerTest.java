@@ -0,0 +1,34 @@
+package com.chatglm.webapp.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BigramTokenizer单元测试
+ */
+class BigramTokenizerTest {
+
+    @Test
+    void testTokenize_CjkRunsBecomeBigramsAndUnigramsForIndex() {
+        List<String> terms = BigramTokenizer.tokenize("机器学习", false);
+
+        assertTrue(terms.containsAll(List.of("机器", "器学", "学习", "机", "器", "学", "习")));
+        assertEquals(7, terms.size());
+    }
+
+    @Test
+    void testTokenize_QueryUsesOnlyBigramsForLongerRuns() {
+        assertEquals(List.of("机器", "器学", "学习"), BigramTokenizer.tokenize("机器学习", true));
+        assertEquals(List.of("猫"), BigramTokenizer.tokenize("猫", true));
+    }
+
+    @Test
+    void testTokenize_MixedTextIsLowercasedAndFullWidthFolded() {
+        List<String> terms = BigramTokenizer.tokenize("用Ｓｐｒｉｎｇ Boot开发API", true);
+
+        assertEquals(List.of("用", "spring", "boot", "开发", "api"), terms);
+    }
+}
@@ -0,0 +1,128 @@
+package com.chatglm.webapp.search;
+
+import com.chatglm.webapp.model.ChatHistory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 全文搜索查询延迟基准
+ * 构建entries条记录的索引（段文件加合并），随机用户执行常见词、罕见词和多关键词查询。
+ * users为1时全部记录在同一个分区，是最坏情况。10M条记录需要约数分钟构建索引和数GB磁盘空间。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+public class ChatSearchIndexBenchmark {
+
+    private static final String[] QUESTIONS = {
+            "如何优化垃圾收集器的停顿时间", "Redis内存占用太高怎么办", "推荐几本机器学习的入门书",
+            "Spring Boot如何配置连接池", "数据库索引为什么没有生效", "怎样写好单元测试",
+            "线上服务响应变慢如何排查", "消息队列积压了怎么处理"
+    };
+    private static final String[] ANSWERS = {
+            "建议先查看监控指标再定位热点。", "可以调整参数后在压测环境验证。", "先确认是否存在慢查询。",
+            "考虑增加缓存并设置合理的过期时间。", "结合火焰图分析耗时最多的方法。", "检查日志中的异常堆栈。"
+    };
+
+    @Param({"1000000", "10000000"})
+    public int entries;
+
+    @Param({"1", "1000"})
+    public int users;
+
+    private Path directory;
+    private ChatSearchIndex index;
+    private Random random;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("search-bench");
+        index = new ChatSearchIndex(directory, 1_000_000, 4, 8, 1536L * 1024 * 1024, 512,
+                TimeUnit.DAYS.toMillis(7), null, new SimpleMeterRegistry());
+        Random data = new Random(42);
+        List<ChatHistory> batch = new ArrayList<>(1024);
+        for (int i = 0; i < entries; i++) {
+            batch.add(record((long) (i % users), data, i));
+            if (batch.size() == 1024) {
+                index.addAll(batch);
+                batch.clear();
+            }
+        }
+        index.addAll(batch);
+        index.flush();
+        index.merge();
+        random = new Random(7);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        index.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int searchCommonPhrase() {
+        return index.search(nextUser(), "垃圾收集器", 20).size();
+    }
+
+    @Benchmark
+    public int searchRareToken() {
+        return index.search(nextUser(), "编号" + random.nextInt(entries), 20).size();
+    }
+
+    @Benchmark
+    public int searchTwoKeywords() {
+        return index.search(nextUser(), "redis 缓存", 20).size();
+    }
+
+    private long nextUser() {
+        return random.nextInt(users);
+    }
+
+    private static ChatHistory record(Long userId, Random random, int seq) {
+        ChatHistory history = new ChatHistory();
+        history.setUserId(userId);
+        history.setSessionId("s" + (seq / 20));
+        history.setUserMessage(QUESTIONS[random.nextInt(QUESTIONS.length)] + " 编号" + seq);
+        history.setAiResponse(ANSWERS[random.nextInt(ANSWERS.length)] + ANSWERS[random.nextInt(ANSWERS.length)]);
+        history.setModel("qwen-turbo");
+        history.setCreatedAt(LocalDateTime.of(2024, 1, 1, 0, 0).plusSeconds(seq));
+        return history;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ChatSearchIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
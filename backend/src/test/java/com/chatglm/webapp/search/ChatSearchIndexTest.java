@@ -0,0 +1,162 @@
+package com.chatglm.webapp.search;
+
+import com.chatglm.webapp.model.ChatHistory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ChatSearchIndex单元测试
+ */
+class ChatSearchIndexTest {
+
+    private static final int FLUSH_DOCS = 10;
+    private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSearch_MatchesOnlyOwnRecordsNewestFirst() throws Exception {
+        ChatSearchIndex index = open();
+        index.addAll(List.of(
+                record(1L, "如何学习机器学习", "先学线性代数"),
+                record(2L, "机器学习入门", "推荐一本书"),
+                record(1L, "今天天气怎么样", "晴天"),
+                record(1L, "机器学习的数学基础", "概率论和微积分")));
+
+        List<ChatHistory> hits = index.search(1L, "机器学习", 10);
+
+        assertEquals(2, hits.size());
+        assertEquals("机器学习的数学基础", hits.get(0).getUserMessage());
+        assertEquals("如何学习机器学习", hits.get(1).getUserMessage());
+        assertTrue(index.search(1L, "天气 晴天", 10).size() == 1);
+        assertTrue(index.search(1L, "器学机", 10).isEmpty());
+    }
+
+    @Test
+    void testFlushAndMerge_KeepResultsAcrossReopen() throws Exception {
+        ChatSearchIndex index = open();
+        for (int batch = 0; batch < 6; batch++) {
+            List<ChatHistory> records = new ArrayList<>();
+            for (int i = 0; i < FLUSH_DOCS; i++) {
+                records.add(record(1L, "第" + batch + "批 Redis 问题" + i, "回答" + i));
+            }
+            index.addAll(records);
+        }
+        index.addAll(List.of(record(1L, "Redis 最新问题", "尚未写入段文件")));
+        assertEquals(61, index.search(1L, "redis", 100).size());
+        index.close();
+
+        ChatSearchIndex reopened = open();
+        List<ChatHistory> hits = reopened.search(1L, "redis", 100);
+        assertEquals(61, hits.size());
+        assertEquals("Redis 最新问题", hits.get(0).getUserMessage());
+        assertEquals("第0批 Redis 问题0", hits.get(60).getUserMessage());
+        reopened.close();
+    }
+
+    @Test
+    void testDeleteUser_HidesOldRecordsButKeepsNewOnes() throws Exception {
+        ChatSearchIndex index = open();
+        List<ChatHistory> records = new ArrayList<>();
+        for (int i = 0; i < FLUSH_DOCS + 5; i++) {
+            records.add(record(1L, "旧的问题" + i, "回答"));
+        }
+        index.addAll(records);
+        index.deleteUser(1L);
+        index.addAll(List.of(record(1L, "新的问题", "回答")));
+        index.close();
+
+        ChatSearchIndex reopened = open();
+        assertTrue(reopened.search(1L, "旧的", 10).isEmpty());
+        assertEquals(1, reopened.search(1L, "问题", 10).size());
+        reopened.close();
+    }
+
+    @Test
+    void testDeleteUser_DoesNotWaitForRunningMaintenance() throws Exception {
+        ChatSearchIndex index = open();
+        index.addAll(List.of(record(1L, "要删除的问题", "回答"), record(2L, "保留的问题", "回答")));
+
+        // flush和merge运行期间持有索引的监视器
+        synchronized (index) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    index.deleteUser(1L);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).get(5, TimeUnit.SECONDS);
+        }
+
+        assertTrue(index.search(1L, "问题", 10).isEmpty());
+        assertEquals(1, index.search(2L, "问题", 10).size());
+        index.close();
+    }
+
+    @Test
+    void testPruneExpired_DropsOldestSegmentsPastRetention() throws Exception {
+        ChatSearchIndex index = open();
+        List<ChatHistory> old = new ArrayList<>();
+        for (int i = 0; i < FLUSH_DOCS; i++) {
+            old.add(record(1L, "过期的问题" + i, "回答"));
+        }
+        index.addAll(old);
+        index.flush();
+        List<Path> oldSegments;
+        try (Stream<Path> files = Files.list(tempDir)) {
+            oldSegments = files.filter(file -> file.getFileName().toString().endsWith(".idx")).toList();
+        }
+        FileTime expired = FileTime.fromMillis(System.currentTimeMillis() - RETENTION_MILLIS - 60_000);
+        for (Path segment : oldSegments) {
+            Files.setLastModifiedTime(segment, expired);
+        }
+        index.addAll(List.of(record(1L, "新的问题", "回答")));
+        index.flush();
+
+        index.pruneExpired();
+
+        assertTrue(index.search(1L, "过期", 10).isEmpty());
+        assertEquals(1, index.search(1L, "问题", 10).size());
+        for (Path segment : oldSegments) {
+            assertFalse(Files.exists(segment));
+        }
+        index.close();
+
+        ChatSearchIndex reopened = open();
+        assertEquals(1, reopened.search(1L, "问题", 10).size());
+        reopened.close();
+    }
+
+    private ChatSearchIndex open() throws Exception {
+        // 同步执行维护任务，最多保留2个段
+        return new ChatSearchIndex(tempDir, FLUSH_DOCS, 2, 2, 64L * 1024 * 1024, 512, RETENTION_MILLIS, null,
+                new SimpleMeterRegistry());
+    }
+
+    private static ChatHistory record(Long userId, String userMessage, String aiResponse) {
+        ChatHistory history = new ChatHistory();
+        history.setUserId(userId);
+        history.setSessionId("s1");
+        history.setUserMessage(userMessage);
+        history.setAiResponse(aiResponse);
+        history.setModel("qwen-turbo");
+        history.setCreatedAt(LocalDateTime.of(2024, 1, 1, 12, 0));
+        return history;
+    }
+}
@@ -0,0 +1,127 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.model.ChatMessage;
+import com.chatglm.webapp.support.LocalRedis;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ChatJobStore测试，需要本机Redis，不可用时跳过
+ */
+class ChatJobStoreTest {
+
+    private LettuceConnectionFactory factory;
+    private RedisTemplate<String, Object> redisTemplate;
+    private ChatJobStore store;
+    private String messageId;
+
+    @BeforeEach
+    void setUp() {
+        factory = LocalRedis.connectOrSkip();
+        redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(factory);
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setValueSerializer(new GenericJackson2JsonRedisSerializer());
+        redisTemplate.afterPropertiesSet();
+        store = new ChatJobStore(redisTemplate, new ObjectMapper(), new SimpleMeterRegistry(), 1, 100, 16, 2000, 60000);
+        messageId = "test-" + UUID.randomUUID();
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.setMessageId(messageId);
+        chatMessage.setUserId("1");
+        chatMessage.setContent("你好");
+        assertEquals(Boolean.TRUE, store.await(store.create(chatMessage)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) {
+            redisTemplate.delete(ChatJobStore.MESSAGE_PREFIX + messageId);
+            store.shutdown();
+        }
+        if (factory != null) {
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void testUpdateStatus_DoesNotOverwriteCancelled() {
+        store.await(store.updateStatus(messageId, ChatMessage.MessageStatus.PROCESSING, null, null));
+        assertEquals(Boolean.TRUE, store.await(store.markCancelled(messageId)));
+
+        Boolean written = store.await(store.updateStatus(messageId, ChatMessage.MessageStatus.COMPLETED, "回复", null));
+
+        assertEquals(Boolean.FALSE, written);
+        ChatMessage stored = store.get(messageId);
+        assertEquals(ChatMessage.MessageStatus.CANCELLED, stored.getStatus());
+        assertNull(stored.getAiResponse());
+    }
+
+    @Test
+    void testUpdateStatus_ReloadsScriptAfterScriptFlush() {
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+
+        Boolean written = store.await(store.updateStatus(messageId, ChatMessage.MessageStatus.COMPLETED, "回复", null));
+
+        assertEquals(Boolean.TRUE, written);
+        assertEquals(ChatMessage.MessageStatus.COMPLETED, store.getStatus(messageId));
+    }
+
+    @Test
+    void testMarkCancelled_DoesNotOverwriteCompleted() {
+        store.await(store.updateStatus(messageId, ChatMessage.MessageStatus.COMPLETED, "回复", null));
+
+        assertEquals(Boolean.FALSE, store.await(store.markCancelled(messageId)));
+        assertEquals(ChatMessage.MessageStatus.COMPLETED, store.getStatus(messageId));
+    }
+
+    @Test
+    void testClaim_DuplicateDeliveryIsRejected() {
+        assertEquals(ChatJobStore.ClaimResult.CLAIMED, store.claim(messageId));
+        assertEquals(ChatMessage.MessageStatus.PROCESSING, store.getStatus(messageId));
+
+        assertEquals(ChatJobStore.ClaimResult.CLAIMED_BY_OTHER, store.claim(messageId));
+
+        store.await(store.updateStatus(messageId, ChatMessage.MessageStatus.COMPLETED, "回复", null));
+        assertEquals(ChatJobStore.ClaimResult.FINISHED, store.claim(messageId));
+    }
+
+    @Test
+    void testLegacyStringKey_IsReadAndMigrated() throws Exception {
+        // 升级前的格式：ObjectMapper写成JSON后以字符串值保存
+        String legacyId = "test-legacy-" + UUID.randomUUID();
+        String legacyKey = ChatJobStore.MESSAGE_PREFIX + legacyId;
+        String json = "{\"messageId\":\"" + legacyId + "\",\"userId\":\"1\",\"content\":\"你好\","
+                + "\"history\":\"[]\",\"status\":\"PROCESSING\",\"stream\":false}";
+        redisTemplate.opsForValue().set(legacyKey, json);
+        redisTemplate.expire(legacyKey, Duration.ofHours(1));
+        try {
+            assertEquals(ChatMessage.MessageStatus.PROCESSING, store.getStatus(legacyId));
+            assertEquals("你好", store.get(legacyId).getContent());
+
+            assertEquals(Boolean.TRUE,
+                    store.await(store.updateStatus(legacyId, ChatMessage.MessageStatus.COMPLETED, "回复", null)));
+            ChatMessage stored = store.get(legacyId);
+            assertEquals(ChatMessage.MessageStatus.COMPLETED, stored.getStatus());
+            assertEquals("回复", stored.getAiResponse());
+            assertTrue(redisTemplate.getExpire(legacyKey) > 0);
+        } finally {
+            redisTemplate.delete(legacyKey);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.support.LocalRedis;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * LoginAttemptService单元测试
+ */
+class LoginAttemptServiceTest {
+
+    private static final List<String> KEYS =
+            List.of("auth:login_failures:source:alice:10.0.0.1", "auth:login_failures:ip:10.0.0.1");
+
+    private StringRedisTemplate stringRedisTemplate;
+    private LoginAttemptService service;
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        service = new LoginAttemptService(stringRedisTemplate, new SimpleMeterRegistry(), 5, 1000, 900, 20, 900);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBeginAttempt_BackoffRejectedWithRetryAfter() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest(), response));
+        when(stringRedisTemplate.execute(any(RedisScript.class), eq(KEYS), any(Object[].class))).thenReturn(120000L);
+
+        ChatGLMException exception = assertThrows(ChatGLMException.class,
+                () -> service.beginAttempt("alice", "10.0.0.1"));
+
+        assertEquals(429, exception.getCode());
+        assertEquals("120", response.getHeader("Retry-After"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBeginAttempt_AllowedPassesLimitsToScript() {
+        when(stringRedisTemplate.execute(any(RedisScript.class), eq(KEYS), any(Object[].class))).thenReturn(0L);
+
+        assertDoesNotThrow(() -> service.beginAttempt("alice", "10.0.0.1"));
+        verify(stringRedisTemplate).execute(any(RedisScript.class), eq(KEYS),
+                eq("5"), eq("1000"), eq("900000"), eq("20"), eq("900000"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBeginAttempt_RedisUnavailableAllowsLogin() {
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenThrow(new RedisConnectionFailureException("down"));
+
+        assertDoesNotThrow(() -> service.beginAttempt("alice", "10.0.0.1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRecordSuccess_ClearsSourceAndRefundsIp() {
+        service.recordSuccess("alice", "10.0.0.1");
+
+        verify(stringRedisTemplate).execute(any(RedisScript.class), eq(KEYS), any(Object[].class));
+    }
+
+    @Test
+    void testBeginAttempt_ConcurrentAttemptsCannotExceedLimitAndOtherIpUnaffected() throws Exception {
+        LettuceConnectionFactory factory = LocalRedis.connectOrSkip();
+        StringRedisTemplate redis = LocalRedis.template(factory);
+        String username = "test-" + UUID.randomUUID();
+        LoginAttemptService realService = new LoginAttemptService(redis, new SimpleMeterRegistry(),
+                5, 60000, 900, 1000, 900);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Callable<Boolean>> attempts = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                attempts.add(() -> {
+                    try {
+                        realService.beginAttempt(username, "10.0.0.1");
+                        return true;
+                    } catch (ChatGLMException e) {
+                        return false;
+                    }
+                });
+            }
+            int allowed = 0;
+            for (Future<Boolean> result : executor.invokeAll(attempts)) {
+                if (result.get()) {
+                    allowed++;
+                }
+            }
+
+            // 第5次失败后进入退避，并发的尝试也只能通过5次
+            assertEquals(5, allowed);
+            // 其他来源登录同一用户名不受影响
+            assertDoesNotThrow(() -> realService.beginAttempt(username, "10.0.0.2"));
+        } finally {
+            executor.shutdownNow();
+            redis.delete(List.of("auth:login_failures:source:" + username + ":10.0.0.1",
+                    "auth:login_failures:source:" + username + ":10.0.0.2",
+                    "auth:login_failures:ip:10.0.0.1", "auth:login_failures:ip:10.0.0.2"));
+            factory.destroy();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 登录高峰期间聊天接口的延迟
+ * 用固定大小的线程池模拟Tomcat请求线程，后台持续提交登录请求，测量一个很短的聊天请求从提交到完成的时间。
+ * inline为原来的做法，在请求线程中计算BCrypt；offloaded为请求线程只提交到PasswordHashingService后立即返回。
+ * 运行：mvn test-compile 后直接运行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginBurstBenchmark {
+
+    private static final int REQUEST_THREADS = 8;
+    // 同时在途的登录请求数，超过请求线程数才能占满线程池
+    private static final int LOGINS_IN_FLIGHT = 64;
+
+    @Param({"inline", "offloaded"})
+    public String mode;
+
+    private ExecutorService requestPool;
+    private PasswordHashingService hashingService;
+    private Thread loginLoad;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(10);
+        String hash = encoder.encode("secret");
+        requestPool = Executors.newFixedThreadPool(REQUEST_THREADS);
+        hashingService = new PasswordHashingService(encoder, Mockito.mock(UserRepository.class),
+                new SimpleMeterRegistry(), Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 100);
+        Semaphore inFlight = new Semaphore(LOGINS_IN_FLIGHT);
+        boolean inline = "inline".equals(mode);
+        running.set(true);
+        loginLoad = new Thread(() -> {
+            while (running.get()) {
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                requestPool.execute(() -> {
+                    if (inline) {
+                        encoder.matches("secret", hash);
+                        inFlight.release();
+                        return;
+                    }
+                    try {
+                        hashingService.matches("secret", hash).whenComplete((matched, e) -> inFlight.release());
+                    } catch (ChatGLMException e) {
+                        // 503，客户端稍后重试
+                        inFlight.release();
+                    }
+                });
+            }
+        }, "login-load");
+        loginLoad.setDaemon(true);
+        loginLoad.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running.set(false);
+        loginLoad.interrupt();
+        requestPool.shutdownNow();
+        hashingService.shutdown();
+        requestPool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public Object chatRequest() throws Exception {
+        return requestPool.submit(() -> System.nanoTime()).get();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(LoginBurstBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
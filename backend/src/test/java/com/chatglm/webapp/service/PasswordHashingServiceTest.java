@@ -0,0 +1,95 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.model.User;
+import com.chatglm.webapp.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * PasswordHashingService单元测试
+ */
+class PasswordHashingServiceTest {
+
+    private PasswordHashingService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void testMatches_VerifiesOffTheCallingThread() throws Exception {
+        PasswordEncoder encoder = new BCryptPasswordEncoder(4);
+        service = new PasswordHashingService(encoder, mock(UserRepository.class), new SimpleMeterRegistry(), 2, 10);
+        String hash = encoder.encode("secret");
+
+        assertTrue(service.matches("secret", hash).get(5, TimeUnit.SECONDS));
+        assertFalse(service.matches("wrong", hash).get(5, TimeUnit.SECONDS));
+        assertFalse(service.matches("secret", null).get(5, TimeUnit.SECONDS));
+        assertTrue(encoder.matches("secret", service.encode("secret").get(5, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    void testMatches_FullQueueRejectedWith503() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordEncoder blocking = mock(PasswordEncoder.class);
+        when(blocking.encode(any())).thenReturn("dummy");
+        when(blocking.matches(any(), any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return true;
+        });
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        service = new PasswordHashingService(blocking, mock(UserRepository.class), meterRegistry, 1, 2);
+
+        List<CompletableFuture<Boolean>> accepted = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            accepted.add(service.matches("secret", "hash"));
+        }
+        ChatGLMException exception = assertThrows(ChatGLMException.class, () -> service.matches("secret", "hash"));
+        release.countDown();
+
+        assertEquals(503, exception.getCode());
+        assertEquals(1, meterRegistry.counter("chatglm.auth.bcrypt.rejected").count());
+        for (CompletableFuture<Boolean> future : accepted) {
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testUpgradeIfNeeded_RehashesWeakerHashWithCurrentStrength() throws Exception {
+        UserRepository userRepository = mock(UserRepository.class);
+        CountDownLatch updated = new CountDownLatch(1);
+        when(userRepository.update(any())).thenAnswer(invocation -> {
+            updated.countDown();
+            return true;
+        });
+        service = new PasswordHashingService(new BCryptPasswordEncoder(5), userRepository,
+                new SimpleMeterRegistry(), 1, 10);
+        User user = new User("alice", "alice@chatglm.com", new BCryptPasswordEncoder(4).encode("secret"), "USER");
+
+        service.upgradeIfNeeded(user, "secret");
+
+        assertTrue(updated.await(5, TimeUnit.SECONDS));
+        assertTrue(user.getPassword().startsWith("$2a$05$"));
+        assertTrue(new BCryptPasswordEncoder(5).matches("secret", user.getPassword()));
+
+        service.upgradeIfNeeded(user, "secret");
+        verify(userRepository, times(1)).update(any());
+    }
+}
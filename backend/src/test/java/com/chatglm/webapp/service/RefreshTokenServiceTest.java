@@ -0,0 +1,95 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.support.LocalRedis;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * RefreshTokenService测试，轮换流程需要本机Redis，不可用时跳过
+ */
+class RefreshTokenServiceTest {
+
+    private static final String TOKEN = "AAAAAAAAAAAAAAAAAAAAAA.secret";
+
+    @Test
+    void testRotate_MalformedTokenRejectedWithoutRedis() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        RefreshTokenService service = new RefreshTokenService(template, mock(TokenBlacklistService.class),
+                new SimpleMeterRegistry(), 3600);
+
+        for (String token : new String[] {null, "", "no-dot", "short.secret", "AAAAAAAAAAAAAAAAAAAAA}.x", TOKEN.split("\\.")[0] + "."}) {
+            ChatGLMException exception = assertThrows(ChatGLMException.class, () -> service.rotate(token));
+            assertEquals(401, exception.getCode());
+        }
+        verifyNoInteractions(template);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRotate_ReuseRejected() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.execute(any(RedisScript.class), anyList(), any())).thenReturn(List.of("-1", "alice"));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RefreshTokenService service = new RefreshTokenService(template, mock(TokenBlacklistService.class),
+                meterRegistry, 3600);
+
+        ChatGLMException exception = assertThrows(ChatGLMException.class, () -> service.rotate(TOKEN));
+
+        assertEquals(401, exception.getCode());
+        assertEquals(1, meterRegistry.counter("chatglm.auth.refresh", "result", "reused").count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRotate_FamilyIssuedBeforeLogoutAllRevoked() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.execute(any(RedisScript.class), anyList(), any())).thenReturn(List.of("1", "alice", "2"));
+        TokenBlacklistService tokenBlacklistService = mock(TokenBlacklistService.class);
+        when(tokenBlacklistService.epochForNewToken("alice")).thenReturn(3L);
+        RefreshTokenService service = new RefreshTokenService(template, tokenBlacklistService,
+                new SimpleMeterRegistry(), 3600);
+
+        ChatGLMException exception = assertThrows(ChatGLMException.class, () -> service.rotate(TOKEN));
+
+        assertEquals(401, exception.getCode());
+        verify(template).delete("auth:refresh:{AAAAAAAAAAAAAAAAAAAAAA}");
+    }
+
+    @Test
+    void testRotate_ReplayOfRotatedTokenRevokesWholeFamily() {
+        LettuceConnectionFactory factory = LocalRedis.connectOrSkip();
+        try {
+            StringRedisTemplate template = LocalRedis.template(factory);
+            TokenBlacklistService tokenBlacklistService = mock(TokenBlacklistService.class);
+            when(tokenBlacklistService.epochForNewToken("alice")).thenReturn(1L);
+            RefreshTokenService service = new RefreshTokenService(template, tokenBlacklistService,
+                    new SimpleMeterRegistry(), 3600);
+
+            String first = service.issue("alice", 1);
+            RefreshTokenService.Rotation rotation = service.rotate(first);
+            assertEquals("alice", rotation.getUsername());
+            assertEquals(1L, rotation.getEpoch());
+            assertNotEquals(first, rotation.getRefreshToken());
+
+            // 旧token被重放，整个系列作废，合法持有者的新token也不能再用
+            assertThrows(ChatGLMException.class, () -> service.rotate(first));
+            assertThrows(ChatGLMException.class, () -> service.rotate(rotation.getRefreshToken()));
+
+            String other = service.issue("alice", 1);
+            service.revoke(other);
+            assertThrows(ChatGLMException.class, () -> service.rotate(other));
+        } finally {
+            factory.destroy();
+        }
+    }
+}
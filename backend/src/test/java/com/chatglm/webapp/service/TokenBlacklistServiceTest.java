@@ -0,0 +1,166 @@
+package com.chatglm.webapp.service;
+
+import com.chatglm.webapp.util.JwtUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * TokenBlacklistService单元测试
+ */
+class TokenBlacklistServiceTest {
+
+    private JwtUtil jwtUtil;
+    private StringRedisTemplate stringRedisTemplate;
+    private ZSetOperations<String, String> zSetOperations;
+    private ValueOperations<String, String> valueOperations;
+    private SimpleMeterRegistry meterRegistry;
+    private TokenBlacklistService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        jwtUtil = new JwtUtil("chatglm-secret-key-2024-enterprise-edition", 3600, 100);
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        zSetOperations = mock(ZSetOperations.class);
+        valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        meterRegistry = new SimpleMeterRegistry();
+        service = new TokenBlacklistService(jwtUtil, stringRedisTemplate, mock(RedisMessageListenerContainer.class),
+                Runnable::run, meterRegistry, 1000, 0.01, 30000);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBlacklistToken_WritesTokenIdAndPublishesInOneCall() {
+        JwtUtil.TokenClaims claims = claims("alice");
+        when(zSetOperations.score(TokenBlacklistService.REVOKED_KEY, claims.getTokenId()))
+                .thenReturn((double) claims.getExpiresAt());
+
+        service.revoke(claims);
+
+        verify(stringRedisTemplate).execute(any(RedisScript.class), eq(List.of(TokenBlacklistService.REVOKED_KEY)),
+                eq(claims.getTokenId()), eq(String.valueOf(claims.getExpiresAt())), anyString(),
+                eq(TokenBlacklistService.REVOKED_CHANNEL));
+        assertTrue(service.isRevoked(claims));
+    }
+
+    @Test
+    void testIsRevoked_UnknownTokenAnsweredLocally() {
+        for (int i = 0; i < 100; i++) {
+            assertFalse(service.isRevoked(claims("alice")));
+        }
+
+        verifyNoInteractions(zSetOperations);
+        assertEquals(0, meterRegistry.counter("chatglm.auth.revocation.redis.lookups").count());
+        // 会话版本在缓存期内只读取一次
+        verify(valueOperations, times(1)).get(TokenBlacklistService.EPOCH_KEY_PREFIX + "alice");
+    }
+
+    @Test
+    void testOnMessage_RevocationFromAnotherNodeChecksRedis() {
+        JwtUtil.TokenClaims claims = claims("alice");
+        when(zSetOperations.score(TokenBlacklistService.REVOKED_KEY, claims.getTokenId()))
+                .thenReturn((double) claims.getExpiresAt());
+
+        service.onMessage(message("t:" + claims.getTokenId() + ":" + claims.getExpiresAt()), null);
+
+        assertTrue(service.isRevoked(claims));
+        verify(zSetOperations).score(TokenBlacklistService.REVOKED_KEY, claims.getTokenId());
+    }
+
+    @Test
+    void testIsRevoked_RedisUnavailableRejectsFilterHits() {
+        JwtUtil.TokenClaims claims = claims("alice");
+        service.onMessage(message("t:" + claims.getTokenId() + ":" + claims.getExpiresAt()), null);
+        when(zSetOperations.score(TokenBlacklistService.REVOKED_KEY, claims.getTokenId()))
+                .thenThrow(new RedisConnectionFailureException("down"));
+
+        assertTrue(service.isRevoked(claims));
+        assertEquals(1, meterRegistry.counter("chatglm.auth.revocation.redis.failures").count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRevokeAllSessions_OlderEpochsRejectedNewTokensAccepted() {
+        JwtUtil.TokenClaims before = claims("alice");
+        when(stringRedisTemplate.execute(any(RedisScript.class), eq(List.of("auth:epoch:alice")),
+                eq(TokenBlacklistService.REVOKED_CHANNEL), eq("alice"))).thenReturn(1L);
+        when(valueOperations.get("auth:epoch:alice")).thenReturn("1");
+
+        service.revokeAllSessions("alice");
+        JwtUtil.TokenClaims after = jwtUtil.parseToken(
+                jwtUtil.generateToken("alice", "USER", service.epochForNewToken("alice")));
+
+        assertTrue(service.isRevoked(before));
+        assertFalse(service.isRevoked(after));
+        assertFalse(service.isRevoked(claims("bob")));
+    }
+
+    @Test
+    void testOnMessage_EpochFromAnotherNodeUpdatesCache() {
+        assertFalse(service.isRevoked(claims("user:1")));
+
+        service.onMessage(message("e:3:user:1"), null);
+
+        assertTrue(service.isRevoked(claims("user:1")));
+        assertEquals(3, service.currentEpoch("user:1"));
+        verify(valueOperations, times(1)).get(TokenBlacklistService.EPOCH_KEY_PREFIX + "user:1");
+    }
+
+    @Test
+    void testCleanupExpiredTokens_RemovesExpiredFromFilterAndRedis() {
+        JwtUtil.TokenClaims claims = claims("alice");
+        service.onMessage(message("t:" + claims.getTokenId() + ":" + (System.currentTimeMillis() - 1)), null);
+
+        service.cleanupExpiredTokens();
+
+        assertFalse(service.isRevoked(claims));
+        verify(zSetOperations).removeRangeByScore(eq(TokenBlacklistService.REVOKED_KEY),
+                eq(Double.NEGATIVE_INFINITY), anyDouble());
+        verify(zSetOperations, never()).score(TokenBlacklistService.REVOKED_KEY, claims.getTokenId());
+    }
+
+    @Test
+    void testRebuild_LoadsRevocationsFromRedis() {
+        JwtUtil.TokenClaims revoked = claims("alice");
+        JwtUtil.TokenClaims active = claims("bob");
+        when(zSetOperations.rangeByScoreWithScores(eq(TokenBlacklistService.REVOKED_KEY), anyDouble(),
+                eq(Double.POSITIVE_INFINITY), eq(0L), anyLong()))
+                .thenReturn(Set.of(new DefaultTypedTuple<>(revoked.getTokenId(), (double) revoked.getExpiresAt())));
+        when(zSetOperations.score(TokenBlacklistService.REVOKED_KEY, revoked.getTokenId()))
+                .thenReturn((double) revoked.getExpiresAt());
+
+        service.scheduleRebuild();
+
+        assertTrue(service.isRevoked(revoked));
+        assertFalse(service.isRevoked(active));
+        assertEquals(1, meterRegistry.get("chatglm.auth.revocation.local.entries").gauge().value());
+    }
+
+    private JwtUtil.TokenClaims claims(String username) {
+        return jwtUtil.parseToken(jwtUtil.generateToken(username, "USER"));
+    }
+
+    private static DefaultMessage message(String body) {
+        return new DefaultMessage(TokenBlacklistService.REVOKED_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                body.getBytes(StandardCharsets.UTF_8));
+    }
+}
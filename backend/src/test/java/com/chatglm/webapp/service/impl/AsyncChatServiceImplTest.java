@@ -0,0 +1,94 @@
+package com.chatglm.webapp.service.impl;
+
+import com.chatglm.webapp.model.ChatMessage;
+import com.chatglm.webapp.service.ChatJobCancellationService;
+import com.chatglm.webapp.service.ChatJobStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * AsyncChatServiceImpl取消任务的单元测试
+ */
+class AsyncChatServiceImplTest {
+
+    private ChatJobStore chatJobStore;
+    private ChatJobCancellationService cancellationService;
+    private AsyncChatServiceImpl asyncChatService;
+
+    @BeforeEach
+    void setUp() {
+        chatJobStore = mock(ChatJobStore.class);
+        cancellationService = mock(ChatJobCancellationService.class);
+        when(chatJobStore.await(any())).thenAnswer(invocation ->
+                ((CompletableFuture<?>) invocation.getArgument(0)).join());
+        when(chatJobStore.markCancelled(anyString())).thenReturn(CompletableFuture.completedFuture(true));
+        asyncChatService = new AsyncChatServiceImpl();
+        ReflectionTestUtils.setField(asyncChatService, "chatJobStore", chatJobStore);
+        ReflectionTestUtils.setField(asyncChatService, "cancellationService", cancellationService);
+    }
+
+    @Test
+    void testCancelMessage_QueuedJob() {
+        givenJob("m1", "7", ChatMessage.MessageStatus.PENDING);
+
+        assertEquals(ChatMessage.MessageStatus.CANCELLED, asyncChatService.cancelMessage("m1", 7L));
+
+        verify(chatJobStore).markCancelled("m1");
+        verify(cancellationService).broadcastCancel("m1");
+    }
+
+    @Test
+    void testCancelMessage_InFlightJob() {
+        givenJob("m1", "7", ChatMessage.MessageStatus.PROCESSING);
+
+        assertEquals(ChatMessage.MessageStatus.CANCELLED, asyncChatService.cancelMessage("m1", 7L));
+
+        // 正在执行的任务通过广播中断上游调用
+        verify(chatJobStore).markCancelled("m1");
+        verify(cancellationService).broadcastCancel("m1");
+    }
+
+    @Test
+    void testCancelMessage_FinishedJobReturnsFinalStatus() {
+        givenJob("m1", "7", ChatMessage.MessageStatus.COMPLETED);
+
+        assertEquals(ChatMessage.MessageStatus.COMPLETED, asyncChatService.cancelMessage("m1", 7L));
+
+        verify(chatJobStore, never()).markCancelled(anyString());
+        verify(cancellationService, never()).broadcastCancel(anyString());
+    }
+
+    @Test
+    void testCancelMessage_NotOwnerTreatedAsNotFound() {
+        givenJob("m1", "7", ChatMessage.MessageStatus.PROCESSING);
+
+        assertNull(asyncChatService.cancelMessage("m1", 8L));
+
+        verify(chatJobStore, never()).markCancelled(anyString());
+        verify(cancellationService, never()).broadcastCancel(anyString());
+    }
+
+    @Test
+    void testCancelMessage_UnknownJob() {
+        assertNull(asyncChatService.cancelMessage("missing", 7L));
+
+        verify(chatJobStore, never()).markCancelled(anyString());
+    }
+
+    private void givenJob(String messageId, String userId, ChatMessage.MessageStatus status) {
+        ChatMessage job = new ChatMessage();
+        job.setMessageId(messageId);
+        job.setUserId(userId);
+        job.setStatus(status);
+        when(chatJobStore.get(messageId)).thenReturn(job);
+        when(chatJobStore.getStatus(messageId)).thenReturn(status);
+    }
+}
@@ -0,0 +1,245 @@
+package com.chatglm.webapp.service.impl;
+
+import com.chatglm.webapp.codec.ChatHistoryRedisSerializer;
+import com.chatglm.webapp.exception.ChatGLMException;
+import com.chatglm.webapp.model.ChatHistory;
+import com.chatglm.webapp.model.ChatHistoryPage;
+import com.chatglm.webapp.model.ChatSession;
+import com.chatglm.webapp.search.ChatSearchIndex;
+import com.chatglm.webapp.storage.ColdHistoryStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisListCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.zset.DefaultTuple;
+import org.springframework.data.redis.connection.zset.Tuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * ChatHistoryServiceImpl会话分页和搜索过滤的单元测试，用内存中的有序集合模拟会话索引
+ */
+class ChatHistoryServiceImplTest {
+
+    private static final long USER_ID = 1L;
+
+    // 会话索引，按Redis的ZREVRANGEBYSCORE顺序排列：分数倒序，分数相同时成员倒序
+    private final List<Tuple> sessions = new ArrayList<>();
+    // 各会话热数据列表的第一条，键为会话ID
+    private final Map<String, byte[]> heads = new HashMap<>();
+    // 当前流水线中各命令的结果
+    private final List<Object> pipelineResults = new ArrayList<>();
+    private final ChatHistoryRedisSerializer serializer = new ChatHistoryRedisSerializer(new ObjectMapper(), 512);
+    private ChatSearchIndex searchIndex;
+    private ChatHistoryServiceImpl historyService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+        RedisConnection connection = mock(RedisConnection.class);
+        RedisZSetCommands zSetCommands = mock(RedisZSetCommands.class);
+        RedisListCommands listCommands = mock(RedisListCommands.class);
+        when(connection.zSetCommands()).thenReturn(zSetCommands);
+        when(connection.listCommands()).thenReturn(listCommands);
+        when(zSetCommands.zRevRangeByScoreWithScores(any(byte[].class), any(Range.class), any(Limit.class)))
+                .thenAnswer(invocation -> revRangeByScore(invocation.getArgument(1), invocation.getArgument(2)));
+        when(redisTemplate.execute(any(RedisCallback.class))).thenAnswer(invocation ->
+                ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+
+        // 每个会话的消息列表都为空，列表的第一条取自heads
+        when(listCommands.lRange(any(byte[].class), anyLong(), anyLong())).thenAnswer(invocation -> {
+            pipelineResults.add(List.of());
+            return null;
+        });
+        when(listCommands.lIndex(any(byte[].class), anyLong())).thenAnswer(invocation -> {
+            String key = new String((byte[]) invocation.getArgument(0), StandardCharsets.UTF_8);
+            pipelineResults.add(heads.get(key.substring(key.lastIndexOf(':') + 1)));
+            return null;
+        });
+        when(redisTemplate.executePipelined(any(RedisCallback.class), any(RedisSerializer.class)))
+                .thenAnswer(invocation -> {
+                    pipelineResults.clear();
+                    ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+                    return new ArrayList<>(pipelineResults);
+                });
+
+        searchIndex = mock(ChatSearchIndex.class);
+        ObjectProvider<ColdHistoryStore> coldHistoryStoreProvider = mock(ObjectProvider.class);
+        ObjectProvider<ChatSearchIndex> searchIndexProvider = mock(ObjectProvider.class);
+        when(searchIndexProvider.getIfAvailable()).thenReturn(searchIndex);
+        historyService = new ChatHistoryServiceImpl(redisTemplate, new ObjectMapper(), new SimpleMeterRegistry(),
+                coldHistoryStoreProvider, searchIndexProvider, 200, 1000, 100, 7, 512, 180, false, 100, 16, 10);
+    }
+
+    @Test
+    void testGetSessions_TiedScoresAcrossPages() {
+        addSession("s-a", 100);
+        addSession("s-b", 200);
+        addSession("s-c", 200);
+        addSession("s-d", 200);
+        addSession("s-e", 300);
+
+        ChatHistoryPage first = historyService.getSessionsByUserId(USER_ID, null, 2, 10);
+        ChatHistoryPage second = historyService.getSessionsByUserId(USER_ID, first.getNextCursor(), 2, 10);
+        ChatHistoryPage third = historyService.getSessionsByUserId(USER_ID, second.getNextCursor(), 2, 10);
+
+        assertEquals(List.of("s-e", "s-d"), ids(first));
+        assertEquals(List.of("s-c", "s-b"), ids(second));
+        assertEquals(List.of("s-a"), ids(third));
+        assertNull(third.getNextCursor());
+    }
+
+    @Test
+    void testGetSessions_PageFullOfTiesLongerThanPageSize() {
+        for (int i = 0; i < 7; i++) {
+            addSession("s-" + i, 500);
+        }
+
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            ChatHistoryPage page = historyService.getSessionsByUserId(USER_ID, cursor, 3, 10);
+            seen.addAll(ids(page));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(7, seen.size());
+        assertEquals(7, new LinkedHashSet<>(seen).size());
+    }
+
+    @Test
+    void testGetSessions_EndOfListOnExactPageBoundary() {
+        addSession("s-a", 100);
+        addSession("s-b", 200);
+
+        ChatHistoryPage first = historyService.getSessionsByUserId(USER_ID, null, 2, 10);
+        ChatHistoryPage second = historyService.getSessionsByUserId(USER_ID, first.getNextCursor(), 2, 10);
+
+        assertNotNull(first.getNextCursor());
+        assertTrue(second.getSessions().isEmpty());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    void testGetSessions_StaleCursorDoesNotSkipRemainingSessions() {
+        addSession("s-a", 100);
+        addSession("s-b", 200);
+        addSession("s-c", 200);
+        addSession("s-d", 200);
+        ChatHistoryPage first = historyService.getSessionsByUserId(USER_ID, null, 2, 10);
+        assertEquals(List.of("s-d", "s-c"), ids(first));
+
+        // 翻页之间上一页的会话有了新消息、被移到最前面
+        removeSession("s-d");
+        removeSession("s-c");
+        addSession("s-d", 900);
+        addSession("s-c", 900);
+
+        ChatHistoryPage second = historyService.getSessionsByUserId(USER_ID, first.getNextCursor(), 2, 10);
+
+        assertEquals(List.of("s-b", "s-a"), ids(second));
+    }
+
+    @Test
+    void testGetSessions_CursorForDeletedSessionResumesBelowIt() {
+        addSession("s-a", 100);
+        addSession("s-b", 200);
+        addSession("s-c", 300);
+        ChatHistoryPage first = historyService.getSessionsByUserId(USER_ID, null, 1, 10);
+
+        removeSession("s-c");
+        ChatHistoryPage second = historyService.getSessionsByUserId(USER_ID, first.getNextCursor(), 1, 10);
+
+        assertEquals(List.of("s-b"), ids(second));
+    }
+
+    @Test
+    void testGetSessions_RejectsMalformedCursor() {
+        ChatGLMException e = assertThrows(ChatGLMException.class,
+                () -> historyService.getSessionsByUserId(USER_ID, "not-a-cursor", 2, 10));
+        assertEquals(400, e.getCode());
+    }
+
+    @Test
+    void testSearch_SkipsRecordsTrimmedOrExpiredFromHistory() {
+        ChatHistory current = record("s-a", LocalDateTime.of(2024, 3, 15, 10, 0));
+        ChatHistory trimmed = record("s-a", LocalDateTime.of(2024, 3, 1, 10, 0));
+        ChatHistory expired = record("s-b", LocalDateTime.of(2024, 2, 1, 10, 0));
+        when(searchIndex.search(eq(USER_ID), eq("问题"), anyInt())).thenReturn(List.of(current, trimmed, expired));
+        // s-a最早的热记录晚于trimmed，s-b的列表已过期
+        heads.put("s-a", serializer.serialize(record("s-a", LocalDateTime.of(2024, 3, 10, 10, 0))));
+
+        List<ChatHistory> result = historyService.searchChatHistory(USER_ID, "问题", 10);
+
+        assertEquals(List.of(current), result);
+    }
+
+    private static ChatHistory record(String sessionId, LocalDateTime createdAt) {
+        ChatHistory history = new ChatHistory();
+        history.setUserId(USER_ID);
+        history.setSessionId(sessionId);
+        history.setUserMessage("问题");
+        history.setAiResponse("回答");
+        history.setCreatedAt(createdAt);
+        return history;
+    }
+
+    private void addSession(String sessionId, long score) {
+        sessions.add(new DefaultTuple(sessionId.getBytes(StandardCharsets.UTF_8), (double) score));
+        sessions.sort(Comparator.comparing(Tuple::getScore).reversed()
+                .thenComparing(Tuple::getValue, (a, b) -> Arrays.compareUnsigned(b, a)));
+    }
+
+    private void removeSession(String sessionId) {
+        sessions.removeIf(tuple -> new String(tuple.getValue(), StandardCharsets.UTF_8).equals(sessionId));
+    }
+
+    private Set<Tuple> revRangeByScore(Range<Double> range, Limit limit) {
+        double max = range.getUpperBound().getValue().orElse(Double.MAX_VALUE);
+        Set<Tuple> result = new LinkedHashSet<>();
+        int index = 0;
+        for (Tuple tuple : sessions) {
+            if (tuple.getScore() > max) {
+                continue;
+            }
+            if (index++ >= limit.getOffset() && result.size() < limit.getCount()) {
+                result.add(tuple);
+            }
+        }
+        return result;
+    }
+
+    private static List<String> ids(ChatHistoryPage page) {
+        List<String> ids = new ArrayList<>();
+        for (ChatSession session : page.getSessions()) {
+            ids.add(session.getSessionId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,138 @@
+package com.chatglm.webapp.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * UsageServiceImpl单元测试
+ */
+class UsageServiceImplTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Asia/Shanghai");
+
+    private StringRedisTemplate stringRedisTemplate;
+    private UsageServiceImpl usageService;
+
+    // 模拟FLUSH_SCRIPT写入的结果，键为"key field"或"key member"
+    private final Map<String, Long> values = new HashMap<>();
+    private final Set<String> markers = new HashSet<>();
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        when(stringRedisTemplate.execute(eq(UsageServiceImpl.FLUSH_SCRIPT), anyList(), any(Object[].class)))
+                .thenAnswer(invocation -> applyFlushScript(invocation.getArgument(1),
+                        (Object[]) invocation.getRawArguments()[2]));
+        Clock clock = Clock.fixed(LocalDateTime.of(2024, 3, 15, 10, 30).atZone(ZONE).toInstant(), ZONE);
+        usageService = new UsageServiceImpl(stringRedisTemplate, new SimpleMeterRegistry(), 0.002, 0.006, clock);
+    }
+
+    @Test
+    void testRecordUsage_ReturnsCostAndFlushesAggregatedDeltas() {
+        double cost = usageService.recordUsage(1L, 1000, 500);
+        usageService.recordUsage(1L, 200, 100);
+        usageService.recordUsage(2L, 10, 10);
+
+        assertEquals(0.002 + 0.003, cost, 1e-9);
+        usageService.flush();
+
+        assertEquals(2L, values.get("chat:usage:1:d20240315 calls"));
+        assertEquals(1200L, values.get("chat:usage:1:d20240315 prompt_tokens"));
+        assertEquals(600L, values.get("chat:usage:1:m202403151030 completion_tokens"));
+        assertEquals(5_000L + 1_000L, values.get("chat:usage:1:M202403 cost_micros"));
+        assertEquals(1800L, values.get("chat:usage:top:d20240315 1"));
+        assertEquals(20L, values.get("chat:usage:top:M202403 2"));
+        assertEquals(3L, values.get("chat:usage:all:d20240315 calls"));
+        assertEquals(2L, values.get("chat:usage:1"));
+    }
+
+    @Test
+    void testFlush_OnlyWritesNewDeltasAndRetriesAfterFailure() {
+        usageService.recordUsage(1L, 100, 100);
+        usageService.flush();
+
+        // 没有新增量时不访问Redis
+        clearInvocations(stringRedisTemplate);
+        usageService.flush();
+        verify(stringRedisTemplate, never()).execute(eq(UsageServiceImpl.FLUSH_SCRIPT), anyList(), any(Object[].class));
+
+        usageService.recordUsage(1L, 50, 0);
+        doThrow(new RedisConnectionFailureException("down"))
+                .when(stringRedisTemplate).execute(eq(UsageServiceImpl.FLUSH_SCRIPT), anyList(), any(Object[].class));
+        assertThrows(RedisConnectionFailureException.class, usageService::flush);
+
+        doAnswer(invocation -> applyFlushScript(invocation.getArgument(1), (Object[]) invocation.getRawArguments()[2]))
+                .when(stringRedisTemplate).execute(eq(UsageServiceImpl.FLUSH_SCRIPT), anyList(), any(Object[].class));
+        usageService.recordUsage(1L, 25, 0);
+        usageService.flush();
+        assertEquals(175L, values.get("chat:usage:1:d20240315 prompt_tokens"));
+        assertEquals(3L, values.get("chat:usage:1:d20240315 calls"));
+    }
+
+    @Test
+    void testFlush_RetryAfterLostReplyDoesNotDoubleCount() {
+        usageService.recordUsage(1L, 100, 0);
+        // 脚本已经执行，但回复丢失
+        doAnswer(invocation -> {
+            applyFlushScript(invocation.getArgument(1), (Object[]) invocation.getRawArguments()[2]);
+            throw new QueryTimeoutException("timeout");
+        }).when(stringRedisTemplate).execute(eq(UsageServiceImpl.FLUSH_SCRIPT), anyList(), any(Object[].class));
+        assertThrows(QueryTimeoutException.class, usageService::flush);
+
+        doAnswer(invocation -> applyFlushScript(invocation.getArgument(1), (Object[]) invocation.getRawArguments()[2]))
+                .when(stringRedisTemplate).execute(eq(UsageServiceImpl.FLUSH_SCRIPT), anyList(), any(Object[].class));
+        usageService.flush();
+        usageService.flush();
+
+        assertEquals(100L, values.get("chat:usage:1:d20240315 prompt_tokens"));
+        assertEquals(1L, values.get("chat:usage:all:M202403 calls"));
+        assertEquals(1L, values.get("chat:usage:1"));
+    }
+
+    /**
+     * 按FLUSH_SCRIPT的语义应用一次写入
+     */
+    private Long applyFlushScript(List<String> keys, Object[] args) {
+        if (!markers.add(keys.get(0))) {
+            return 0L;
+        }
+        int a = 1;
+        for (int k = 1; k < keys.size(); k++) {
+            String key = keys.get(k);
+            String op = (String) args[a];
+            if ("h".equals(op)) {
+                values.merge(key + " calls", Long.parseLong((String) args[a + 1]), Long::sum);
+                values.merge(key + " prompt_tokens", Long.parseLong((String) args[a + 2]), Long::sum);
+                values.merge(key + " completion_tokens", Long.parseLong((String) args[a + 3]), Long::sum);
+                values.merge(key + " cost_micros", Long.parseLong((String) args[a + 4]), Long::sum);
+                a += 6;
+            } else if ("z".equals(op)) {
+                values.merge(key + " " + args[a + 2], Long.parseLong((String) args[a + 1]), Long::sum);
+                a += 4;
+            } else {
+                values.merge(key, Long.parseLong((String) args[a + 1]), Long::sum);
+                a += 2;
+            }
+        }
+        return 1L;
+    }
+}
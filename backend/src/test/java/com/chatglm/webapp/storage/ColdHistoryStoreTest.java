@@ -0,0 +1,152 @@
+package com.chatglm.webapp.storage;
+
+import com.chatglm.webapp.model.ChatHistory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ColdHistoryStore单元测试
+ */
+class ColdHistoryStoreTest {
+
+    private static final int SEGMENT_SIZE = 4 * 1024;
+    private static final int THRESHOLD = 512;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testAppendAndRead_ReturnsMostRecentRecordsInOrder() throws Exception {
+        ColdHistoryStore store = open();
+        store.append("1:s1", records(1L, "s1", 5));
+
+        List<ChatHistory> recent = store.read("1:s1", 3);
+        assertEquals(3, recent.size());
+        assertEquals("问题2", recent.get(0).getUserMessage());
+        assertEquals("问题4", recent.get(2).getUserMessage());
+        assertTrue(store.contains("1:s1"));
+        assertFalse(store.contains("1:s2"));
+        store.close();
+    }
+
+    @Test
+    void testDelete_SurvivesReopen() throws Exception {
+        ColdHistoryStore store = open();
+        store.append("1:s1", records(1L, "s1", 2));
+        store.append("1:s2", records(1L, "s2", 2));
+        store.delete("1:s1");
+        store.flush();
+        store.close();
+
+        ColdHistoryStore reopened = open();
+        assertFalse(reopened.contains("1:s1"));
+        assertEquals(2, reopened.read("1:s2", 10).size());
+        reopened.close();
+    }
+
+    @Test
+    void testAppend_RollsToNewSegmentWhenFull() throws Exception {
+        ColdHistoryStore store = open();
+        for (int i = 0; i < 20; i++) {
+            store.append("1:s" + i, records(1L, "s" + i, 5));
+        }
+        assertTrue(store.usedBytes() > SEGMENT_SIZE);
+        store.close();
+
+        ColdHistoryStore reopened = open();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(5, reopened.read("1:s" + i, 10).size());
+        }
+        reopened.close();
+    }
+
+    @Test
+    void testCompact_KeepsLiveRecordsAndReclaimsSpace() throws Exception {
+        ColdHistoryStore store = open();
+        for (int i = 0; i < 20; i++) {
+            store.append("1:s" + i, records(1L, "s" + i, 5));
+        }
+        for (int i = 0; i < 20; i += 2) {
+            store.delete("1:s" + i);
+        }
+        long before = store.usedBytes();
+        store.compact();
+        assertTrue(store.usedBytes() < before);
+        store.close();
+
+        ColdHistoryStore reopened = open();
+        for (int i = 0; i < 20; i++) {
+            if (i % 2 == 0) {
+                assertFalse(reopened.contains("1:s" + i));
+            } else {
+                List<ChatHistory> records = reopened.read("1:s" + i, 10);
+                assertEquals(5, records.size());
+                assertEquals("回答4", records.get(4).getAiResponse());
+            }
+        }
+        reopened.close();
+    }
+
+    @Test
+    void testDeleteByPrefix_RemovesOnlyThatUsersSessions() throws Exception {
+        ColdHistoryStore store = open();
+        store.append("1:s1", records(1L, "s1", 2));
+        store.append("1:s2", records(1L, "s2", 2));
+        store.append("10:s1", records(10L, "s1", 2));
+
+        assertEquals(2, store.deleteByPrefix("1:"));
+        store.flush();
+        store.close();
+
+        ColdHistoryStore reopened = open();
+        assertFalse(reopened.contains("1:s1"));
+        assertFalse(reopened.contains("1:s2"));
+        assertEquals(2, reopened.read("10:s1", 10).size());
+        reopened.close();
+    }
+
+    @Test
+    void testCompact_ReadsUseReplacedSegment() throws Exception {
+        ColdHistoryStore store = open();
+        for (int i = 0; i < 20; i++) {
+            store.append("1:s" + i, records(1L, "s" + i, 5));
+        }
+        for (int i = 0; i < 20; i += 2) {
+            store.delete("1:s" + i);
+        }
+        store.compact();
+        // 旧段的映射已释放，读取必须走压缩后的段
+        for (int i = 1; i < 20; i += 2) {
+            assertEquals("问题0", store.read("1:s" + i, 10).get(0).getUserMessage());
+        }
+        store.close();
+        assertTrue(store.read("1:s1", 10).isEmpty());
+    }
+
+    private ColdHistoryStore open() throws Exception {
+        return new ColdHistoryStore(tempDir, SEGMENT_SIZE, 0.3, THRESHOLD);
+    }
+
+    private static List<ChatHistory> records(Long userId, String sessionId, int count) {
+        List<ChatHistory> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ChatHistory history = new ChatHistory();
+            history.setId((long) i);
+            history.setUserId(userId);
+            history.setSessionId(sessionId);
+            history.setUserMessage("问题" + i);
+            history.setAiResponse("回答" + i);
+            history.setModel("qwen-turbo");
+            history.setCreatedAt(LocalDateTime.of(2024, 1, 1, 12, 0, i));
+            records.add(history);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,37 @@
+package com.chatglm.webapp.support;
+
+import org.junit.jupiter.api.Assumptions;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * 连接本机Redis的测试工具，Redis不可用时跳过依赖它的测试
+ * 地址可以通过系统属性 test.redis.host / test.redis.port 指定
+ */
+public final class LocalRedis {
+
+    private LocalRedis() {
+    }
+
+    public static LettuceConnectionFactory connectOrSkip() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("test.redis.host", "localhost"),
+                Integer.getInteger("test.redis.port", 6379));
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(configuration);
+        factory.afterPropertiesSet();
+        try {
+            factory.getConnection().close();
+        } catch (Exception e) {
+            factory.destroy();
+            Assumptions.abort("Redis is not available: " + e.getMessage());
+        }
+        return factory;
+    }
+
+    public static StringRedisTemplate template(LettuceConnectionFactory factory) {
+        StringRedisTemplate template = new StringRedisTemplate(factory);
+        template.afterPropertiesSet();
+        return template;
+    }
+}
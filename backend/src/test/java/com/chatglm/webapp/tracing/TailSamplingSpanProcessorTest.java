@@ -0,0 +1,136 @@
+package com.chatglm.webapp.tracing;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TailSamplingSpanProcessor单元测试
+ */
+class TailSamplingSpanProcessorTest {
+
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+
+    private final AtomicLong clock = new AtomicLong();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<SpanData> exported = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void testFastSegment_IsDropped() {
+        TailSamplingSpanProcessor processor = processor(0);
+        processor.onEnd(span("b7ad6b7169203331", "root", 5, null), "root", false);
+        processor.onEnd(span("root", null, 100, null), "root", true);
+        processor.close();
+
+        assertTrue(exported.isEmpty());
+        assertEquals(0, processor.pendingSegments());
+        assertEquals(1, segments(TailSamplingSpanProcessor.DECISION_DROPPED));
+    }
+
+    @Test
+    void testSlowSegment_ExportsAllSpans() {
+        TailSamplingSpanProcessor processor = processor(0);
+        processor.onEnd(span("child", "root", 5, null), "root", false);
+        processor.onEnd(span("root", null, 2500, null), "root", true);
+        processor.close();
+
+        assertEquals(List.of("child", "root"), exportedIds());
+        assertEquals(1, segments(TailSamplingSpanProcessor.DECISION_SLOW));
+    }
+
+    @Test
+    void testChildError_KeepsFastSegment() {
+        TailSamplingSpanProcessor processor = processor(0);
+        processor.onEnd(span("child", "root", 5, "IOException: connection reset"), "root", false);
+        processor.onEnd(span("root", null, 100, null), "root", true);
+        processor.close();
+
+        assertEquals(List.of("child", "root"), exportedIds());
+        assertEquals(1, segments(TailSamplingSpanProcessor.DECISION_ERROR));
+    }
+
+    @Test
+    void testSampleRatio_KeepsFastSegment() {
+        TailSamplingSpanProcessor processor = processor(1.0);
+        processor.onEnd(span("root", null, 100, null), "root", true);
+        processor.close();
+
+        assertEquals(List.of("root"), exportedIds());
+        assertEquals(1, segments(TailSamplingSpanProcessor.DECISION_SAMPLED));
+    }
+
+    @Test
+    void testLateChild_FollowsSegmentDecision() {
+        TailSamplingSpanProcessor processor = processor(0);
+        processor.onEnd(span("kept", null, 3000, null), "kept", true);
+        processor.onEnd(span("dropped", null, 100, null), "dropped", true);
+        // 根span结束后才结束的span，如流式响应的后台读取
+        processor.onEnd(span("late-kept", "kept", 5000, null), "kept", false);
+        processor.onEnd(span("late-dropped", "dropped", 5000, null), "dropped", false);
+        processor.close();
+
+        assertEquals(List.of("kept", "late-kept"), exportedIds());
+        assertEquals(0, processor.pendingSegments());
+    }
+
+    @Test
+    void testExpiredSegment_IsExported() {
+        TailSamplingSpanProcessor processor = processor(0);
+        processor.onEnd(span("child", "root", 5, null), "root", false);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        processor.evictExpired();
+        assertEquals(1, processor.pendingSegments());
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        processor.evictExpired();
+        processor.close();
+
+        assertEquals(List.of("child"), exportedIds());
+        assertEquals(0, processor.pendingSegments());
+        assertEquals(1, segments(TailSamplingSpanProcessor.DECISION_EXPIRED));
+    }
+
+    @Test
+    void testLimits_DropSpansBeyondCapacity() {
+        TailSamplingSpanProcessor processor = processor(0);
+        for (int i = 0; i < 5; i++) {
+            processor.onEnd(span("child" + i, "root", 5, null), "root", false);
+        }
+        processor.onEnd(span("other", "root2", 5, null), "root2", false);
+        processor.onEnd(span("third", "root3", 5, null), "root3", false);
+        processor.onEnd(span("root", null, 3000, null), "root", true);
+        processor.close();
+
+        // 每段最多3个span，最多2个待决定的段
+        assertEquals(List.of("child0", "child1", "child2", "root"), exportedIds());
+        assertEquals(3, meterRegistry.get("chatglm.tracing.spans.dropped").tag("reason", "overflow")
+                .counter().count());
+    }
+
+    private TailSamplingSpanProcessor processor(double sampleRatio) {
+        return new TailSamplingSpanProcessor(exported::addAll, meterRegistry, 2000, sampleRatio,
+                2, 3, 60000, 100, clock::get);
+    }
+
+    private static SpanData span(String spanId, String parentSpanId, long durationMillis, String error) {
+        return new SpanData("test", SpanData.Kind.INTERNAL, TRACE_ID, spanId, parentSpanId, 0,
+                TimeUnit.MILLISECONDS.toNanos(durationMillis), Map.of(), error);
+    }
+
+    private List<String> exportedIds() {
+        return exported.stream().map(SpanData::getSpanId).collect(Collectors.toList());
+    }
+
+    private double segments(String decision) {
+        return meterRegistry.get("chatglm.tracing.segments").tag("decision", decision).counter().count();
+    }
+}
@@ -0,0 +1,148 @@
+package com.chatglm.webapp.tracing;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.transport.Kind;
+import io.micrometer.observation.transport.ReceiverContext;
+import io.micrometer.observation.transport.SenderContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TracingObservationHandler单元测试
+ */
+class TracingObservationHandlerTest {
+
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+    private static final String REMOTE_SPAN_ID = "b7ad6b7169203331";
+
+    private final List<SpanData> exported = Collections.synchronizedList(new ArrayList<>());
+    // 耗时阈值为0，所有链路段都保留
+    private final TailSamplingSpanProcessor processor = new TailSamplingSpanProcessor(exported::addAll,
+            new SimpleMeterRegistry(), 0, 0, 100, 100, 60000, 100);
+    private final ObservationRegistry registry = ObservationRegistry.create();
+
+    TracingObservationHandlerTest() {
+        registry.observationConfig().observationHandler(
+                new TracingObservationHandler(processor, List.of("spring.security")));
+    }
+
+    @Test
+    void testReceiver_ContinuesRemoteTraceAndChildrenJoinIt() {
+        Map<String, String> headers = Map.of("traceparent", "00-" + TRACE_ID + "-" + REMOTE_SPAN_ID + "-01");
+        Observation server = Observation.start("http.server.requests", () -> receiver(headers), registry);
+        try (Observation.Scope scope = server.openScope()) {
+            Observation.createNotStarted("chatglm.upstream.call", registry)
+                    .lowCardinalityKeyValue("provider", "qwen")
+                    .observe(() -> { });
+        }
+        server.stop();
+        processor.close();
+
+        assertEquals(2, exported.size());
+        SpanData child = exported.get(0);
+        SpanData root = exported.get(1);
+        assertEquals(TRACE_ID, root.getTraceId());
+        assertEquals(REMOTE_SPAN_ID, root.getParentSpanId());
+        assertEquals(SpanData.Kind.SERVER, root.getKind());
+        assertEquals(TRACE_ID, child.getTraceId());
+        assertEquals(root.getSpanId(), child.getParentSpanId());
+        assertEquals("qwen", child.getAttributes().get("provider"));
+    }
+
+    @Test
+    void testSender_InjectsTraceparent() {
+        Map<String, String> headers = new HashMap<>();
+        Observation consumer = Observation.start("rabbitmq.listener", () -> receiver(Map.of()), registry);
+        try (Observation.Scope scope = consumer.openScope()) {
+            Observation.createNotStarted("rabbitmq.publish", () -> sender(headers), registry).observe(() -> { });
+        }
+        consumer.stop();
+        processor.close();
+
+        SpanData producer = exported.get(0);
+        SpanData root = exported.get(1);
+        // 没有traceparent时开始新链路
+        assertNull(root.getParentSpanId());
+        assertEquals(SpanData.Kind.CONSUMER, root.getKind());
+        assertEquals(SpanData.Kind.PRODUCER, producer.getKind());
+        assertEquals("00-" + root.getTraceId() + "-" + producer.getSpanId() + "-01", headers.get("traceparent"));
+    }
+
+    @Test
+    void testObservationOutsideTrace_IsNotRecorded() {
+        Observation.createNotStarted("lettuce.command", registry).observe(() -> { });
+        Observation server = Observation.start("http.server.requests",
+                () -> receiver(Map.of("traceparent", "invalid")), registry);
+        server.stop();
+        processor.close();
+
+        assertEquals(1, exported.size());
+        assertEquals("http.server.requests", exported.get(0).getName());
+        assertNull(exported.get(0).getParentSpanId());
+    }
+
+    @Test
+    void testIgnoredObservation_ChildrenAttachToGrandparent() {
+        Observation server = Observation.start("http.server.requests", () -> receiver(Map.of()), registry);
+        try (Observation.Scope scope = server.openScope()) {
+            Observation security = Observation.start("spring.security.filterchains", registry);
+            try (Observation.Scope securityScope = security.openScope()) {
+                Observation.createNotStarted("redis", registry).observe(() -> { });
+            }
+            security.stop();
+        }
+        server.stop();
+        processor.close();
+
+        assertEquals(2, exported.size());
+        assertEquals(exported.get(1).getSpanId(), exported.get(0).getParentSpanId());
+    }
+
+    @Test
+    void testError_WrittenToFileAsOtlpStatus(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("traces.jsonl");
+        FileSpanExporter exporter = new FileSpanExporter(file, "ai-assistant-backend", 1024 * 1024);
+        TailSamplingSpanProcessor fileProcessor = new TailSamplingSpanProcessor(exporter,
+                new SimpleMeterRegistry(), 60000, 0, 100, 100, 60000, 100);
+        ObservationRegistry fileRegistry = ObservationRegistry.create();
+        fileRegistry.observationConfig().observationHandler(new TracingObservationHandler(fileProcessor, List.of()));
+
+        Observation server = Observation.start("http.server.requests", () -> receiver(Map.of()), fileRegistry);
+        server.error(new IllegalStateException("upstream timeout"));
+        server.stop();
+        fileProcessor.close();
+        exporter.close();
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("\"service.name\""));
+        assertTrue(lines.get(0).contains("\"code\":2"));
+        assertTrue(lines.get(0).contains("\"message\":\"IllegalStateException: upstream timeout\""));
+    }
+
+    private static ReceiverContext<Map<String, String>> receiver(Map<String, String> headers) {
+        Kind kind = headers.isEmpty() ? Kind.CONSUMER : Kind.SERVER;
+        ReceiverContext<Map<String, String>> context = new ReceiverContext<>(Map::get, kind);
+        context.setCarrier(headers);
+        return context;
+    }
+
+    private static SenderContext<Map<String, String>> sender(Map<String, String> headers) {
+        SenderContext<Map<String, String>> context = new SenderContext<>(Map::put, Kind.PRODUCER);
+        context.setCarrier(headers);
+        return context;
+    }
+}
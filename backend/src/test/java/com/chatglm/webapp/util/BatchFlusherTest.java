@@ -0,0 +1,72 @@
+package com.chatglm.webapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BatchFlusher单元测试
+ */
+class BatchFlusherTest {
+
+    @Test
+    void testOfferOrFlush_QueueFullKeepsSubmissionOrder() throws Exception {
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch workerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BatchFlusher<Integer> flusher = new BatchFlusher<>("test-flusher", 2, 10, batch -> {
+            if (batch.contains(0)) {
+                workerBusy.countDown();
+                await(release);
+            }
+            written.addAll(batch);
+        });
+        try {
+            assertTrue(flusher.offerOrFlush(0, 1, TimeUnit.SECONDS));
+            assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+            assertTrue(flusher.offerOrFlush(1, 1, TimeUnit.SECONDS));
+            assertTrue(flusher.offerOrFlush(2, 1, TimeUnit.SECONDS));
+
+            // 队列已满，调用线程刷写时需等后台线程写完当前批次，并先写入已排队的条目
+            Thread caller = new Thread(() -> {
+                try {
+                    flusher.offerOrFlush(3, 10, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            caller.start();
+            Thread.sleep(100);
+            assertTrue(written.isEmpty());
+            release.countDown();
+            caller.join(5000);
+
+            assertEquals(List.of(0, 1, 2, 3), written);
+        } finally {
+            release.countDown();
+            flusher.close();
+        }
+    }
+
+    @Test
+    void testOfferOrFlush_RejectedAfterClose() throws Exception {
+        BatchFlusher<Integer> flusher = new BatchFlusher<>("test-flusher", 2, 10, batch -> { });
+        flusher.close();
+
+        assertFalse(flusher.offerOrFlush(1, 1, TimeUnit.MILLISECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.chatglm.webapp.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ClientIdentity单元测试
+ */
+class ClientIdentityTest {
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void testAnonymousToken_FallsBackToIp() {
+        // /chat/**允许匿名访问，此时SecurityContext中是已认证的AnonymousAuthenticationToken
+        SecurityContextHolder.getContext().setAuthentication(new AnonymousAuthenticationToken("key",
+                "anonymousUser", AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS")));
+        bindRequest(request("203.0.113.7"));
+
+        assertEquals(ClientIdentity.ANONYMOUS, ClientIdentity.currentUsername());
+        assertEquals("ip:203.0.113.7", ClientIdentity.userOrIp());
+    }
+
+    @Test
+    void testAuthenticatedUser_UsesUsername() {
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("alice",
+                null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+
+        assertEquals("alice", ClientIdentity.currentUsername());
+        assertEquals("user:alice", ClientIdentity.userOrIp());
+    }
+
+    @Test
+    void testBehindProxy_UsesRealIpSetByProxy() {
+        MockHttpServletRequest request = request("172.18.0.5");
+        request.addHeader("X-Forwarded-For", "1.2.3.4, 198.51.100.20");
+        request.addHeader("X-Real-IP", "198.51.100.20");
+
+        assertEquals("198.51.100.20", ClientIdentity.clientIp(request));
+    }
+
+    @Test
+    void testBehindProxy_UsesLastForwardedHop() {
+        // 客户端自己填写的X-Forwarded-For在前，代理追加的真实地址在最后
+        MockHttpServletRequest request = request("10.0.0.2");
+        request.addHeader("X-Forwarded-For", "1.2.3.4, 198.51.100.20");
+
+        assertEquals("198.51.100.20", ClientIdentity.clientIp(request));
+    }
+
+    @Test
+    void testDirectClient_IgnoresForwardedHeaders() {
+        MockHttpServletRequest request = request("203.0.113.7");
+        request.addHeader("X-Forwarded-For", "1.2.3.4");
+        request.addHeader("X-Real-IP", "1.2.3.4");
+
+        assertEquals("203.0.113.7", ClientIdentity.clientIp(request));
+    }
+
+    private static MockHttpServletRequest request(String remoteAddr) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remoteAddr);
+        return request;
+    }
+
+    private static void bindRequest(MockHttpServletRequest request) {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+}
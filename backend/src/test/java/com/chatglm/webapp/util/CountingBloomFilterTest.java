@@ -0,0 +1,62 @@
+package com.chatglm.webapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CountingBloomFilter单元测试
+ */
+class CountingBloomFilterTest {
+
+    @Test
+    void testAddRemove_NoFalseNegativesAndRemovedElementsForgotten() {
+        CountingBloomFilter filter = new CountingBloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(JwtUtil.tokenHash("token" + i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(JwtUtil.tokenHash("token" + i)));
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            filter.remove(JwtUtil.tokenHash("token" + i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(filter.mightContain(JwtUtil.tokenHash("token" + i)));
+        }
+    }
+
+    @Test
+    void testMightContain_FalsePositiveRateNearTarget() {
+        CountingBloomFilter filter = new CountingBloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(JwtUtil.tokenHash("revoked" + i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain(JwtUtil.tokenHash("active" + i))) {
+                falsePositives++;
+            }
+        }
+
+        assertEquals(7, filter.hashCount());
+        assertTrue(falsePositives < 2000, "false positives: " + falsePositives);
+    }
+
+    @Test
+    void testRemove_SaturatedCounterKeepsOtherElements() {
+        CountingBloomFilter filter = new CountingBloomFilter(100, 0.01);
+        byte[] shared = JwtUtil.tokenHash("shared");
+        for (int i = 0; i < 20; i++) {
+            filter.add(shared);
+        }
+        for (int i = 0; i < 19; i++) {
+            filter.remove(shared);
+        }
+
+        // 计数器饱和后不再减少，多删除的次数不会导致漏判
+        assertTrue(filter.mightContain(shared));
+    }
+}
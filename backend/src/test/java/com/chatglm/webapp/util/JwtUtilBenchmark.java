@@ -0,0 +1,98 @@
+package com.chatglm.webapp.util;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JwtAuthenticationFilter中token校验部分的吞吐量对比
+ * legacy为原来的做法：取用户名、验签、取角色各解析一次，每次重新创建密钥和解析器；
+ * parsed为预先创建解析器、一次解析；cached在此基础上缓存已校验的token。
+ * 运行：mvn test-compile 后直接运行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class JwtUtilBenchmark {
+
+    private static final String SECRET = "chatglm-secret-key-2024-enterprise-edition";
+    private static final int USERS = 1000;
+
+    private JwtUtil parsed;
+    private JwtUtil cached;
+    private String[] tokens;
+
+    @Setup
+    public void setUp() {
+        parsed = new JwtUtil(SECRET, 86400, 0);
+        cached = new JwtUtil(SECRET, 86400, 10000);
+        tokens = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            tokens[i] = parsed.generateToken("user" + i, "USER");
+        }
+    }
+
+    @Benchmark
+    public String legacy() {
+        String token = nextToken();
+        String username = legacyClaims(token).getSubject();
+        try {
+            legacyClaims(token);
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
+        return username + legacyClaims(token).get("role", String.class);
+    }
+
+    @Benchmark
+    public String parsed() {
+        JwtUtil.TokenClaims claims = parsed.parseToken(nextToken());
+        return claims.getUsername() + claims.getRole();
+    }
+
+    @Benchmark
+    public String cached() {
+        JwtUtil.TokenClaims claims = cached.parseToken(nextToken());
+        return claims.getUsername() + claims.getRole();
+    }
+
+    private static Claims legacyClaims(String token) {
+        return Jwts.parserBuilder()
+                .setSigningKey(Keys.hmacShaKeyFor(SECRET.getBytes()))
+                .build()
+                .parseClaimsJws(token)
+                .getBody();
+    }
+
+    private String nextToken() {
+        return tokens[ThreadLocalRandom.current().nextInt(USERS)];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JwtUtilBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,102 @@
+package com.chatglm.webapp.util;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JwtUtil单元测试
+ */
+class JwtUtilTest {
+
+    private static final String SECRET = "chatglm-secret-key-2024-enterprise-edition";
+
+    private AtomicLong now;
+    private JwtUtil jwtUtil;
+
+    @BeforeEach
+    void setUp() {
+        now = new AtomicLong(1_700_000_000_000L);
+        jwtUtil = new JwtUtil(SECRET, 60, 2, now::get);
+    }
+
+    @Test
+    void testParseToken_VerifiesOnceAndServesFromCache() {
+        String token = jwtUtil.generateToken("alice", "USER");
+
+        JwtUtil.TokenClaims first = jwtUtil.parseToken(token);
+        JwtUtil.TokenClaims second = jwtUtil.parseToken(token);
+
+        assertEquals("alice", first.getUsername());
+        assertEquals("USER", first.getRole());
+        assertEquals(now.get() + 60_000, first.getExpiresAt());
+        assertSame(first, second);
+        assertEquals(1, jwtUtil.cachedTokens());
+    }
+
+    @Test
+    void testParseToken_CachedTokenRejectedAfterExpiry() {
+        String token = jwtUtil.generateToken("alice", "USER");
+        jwtUtil.parseToken(token);
+
+        now.addAndGet(60_001);
+
+        assertThrows(ExpiredJwtException.class, () -> jwtUtil.parseToken(token));
+        assertFalse(jwtUtil.validateToken(token));
+        assertEquals(0, jwtUtil.cachedTokens());
+    }
+
+    @Test
+    void testParseToken_TamperedTokenRejected() {
+        String token = jwtUtil.generateToken("alice", "USER");
+        jwtUtil.parseToken(token);
+        String forged = new JwtUtil("another-secret-key-2024-enterprise-edition", 60, 2, now::get)
+                .generateToken("alice", "ADMIN");
+
+        assertThrows(JwtException.class, () -> jwtUtil.parseToken(forged));
+        assertThrows(JwtException.class, () -> jwtUtil.parseToken(token.substring(0, token.length() - 2)));
+        assertNull(jwtUtil.getExpirationFromToken(forged));
+    }
+
+    @Test
+    void testParseToken_CacheEvictsLeastRecentlyUsed() {
+        String alice = jwtUtil.generateToken("alice", "USER");
+        String bob = jwtUtil.generateToken("bob", "USER");
+        String carol = jwtUtil.generateToken("carol", "ADMIN");
+        JwtUtil.TokenClaims aliceClaims = jwtUtil.parseToken(alice);
+        JwtUtil.TokenClaims bobClaims = jwtUtil.parseToken(bob);
+        jwtUtil.parseToken(alice);
+
+        jwtUtil.parseToken(carol);
+
+        assertEquals(2, jwtUtil.cachedTokens());
+        assertSame(aliceClaims, jwtUtil.parseToken(alice));
+        assertNotSame(bobClaims, jwtUtil.parseToken(bob));
+    }
+
+    @Test
+    void testGenerateToken_IssuesUniqueTokenIdAndEpoch() {
+        JwtUtil.TokenClaims first = jwtUtil.parseToken(jwtUtil.generateToken("alice", "USER", 3));
+        JwtUtil.TokenClaims second = jwtUtil.parseToken(jwtUtil.generateToken("alice", "USER"));
+
+        assertEquals(22, first.getTokenId().length());
+        assertNotEquals(first.getTokenId(), second.getTokenId());
+        assertEquals(3, first.getEpoch());
+        assertEquals(0, second.getEpoch());
+    }
+
+    @Test
+    void testParseToken_CacheDisabled() {
+        JwtUtil uncached = new JwtUtil(SECRET, 60, 0, now::get);
+        String token = uncached.generateToken("alice", "USER");
+
+        assertEquals("alice", uncached.getUsernameFromToken(token));
+        assertEquals("USER", uncached.getRoleFromToken(token));
+        assertEquals(0, uncached.cachedTokens());
+    }
+}
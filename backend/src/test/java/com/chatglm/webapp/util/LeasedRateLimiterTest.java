@@ -0,0 +1,134 @@
+package com.chatglm.webapp.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * LeasedRateLimiter测试，Redis中的令牌桶用不补充令牌的计数器模拟
+ */
+class LeasedRateLimiterTest {
+
+    private RateLimiter rateLimiter;
+    private SimpleMeterRegistry meterRegistry;
+    private AtomicLong redisTokens;
+    private AtomicLong clock;
+
+    @BeforeEach
+    void setUp() {
+        rateLimiter = mock(RateLimiter.class);
+        meterRegistry = new SimpleMeterRegistry();
+        redisTokens = new AtomicLong();
+        clock = new AtomicLong();
+        when(rateLimiter.lease(anyString(), anyInt(), anyDouble(), anyInt())).thenAnswer(invocation -> {
+            int maxPermits = invocation.getArgument(3);
+            synchronized (redisTokens) {
+                long granted = Math.min(maxPermits, redisTokens.get());
+                redisTokens.addAndGet(-granted);
+                return new RateLimiter.Result(granted, redisTokens.get(), granted > 0 ? 0 : 1000, 0);
+            }
+        });
+    }
+
+    private LeasedRateLimiter limiter(double leaseFraction) {
+        return new LeasedRateLimiter(rateLimiter, meterRegistry, leaseFraction, 50, 1000, 1000, clock::get);
+    }
+
+    @Test
+    void testTryAcquire_ConcurrentCallersShareLeasesWithoutExceedingLimit() throws Exception {
+        redisTokens.set(1000);
+        LeasedRateLimiter leased = limiter(0.1);
+        int threads = 16;
+        int attemptsPerThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    int allowed = 0;
+                    for (int i = 0; i < attemptsPerThread; i++) {
+                        if (leased.tryAcquire("user:1", 1000, 1).isAllowed()) {
+                            allowed++;
+                        }
+                    }
+                    return allowed;
+                }));
+            }
+            start.countDown();
+            int allowed = 0;
+            for (Future<Integer> future : futures) {
+                allowed += future.get(30, TimeUnit.SECONDS);
+            }
+
+            assertEquals(1000, allowed);
+            // 1000个令牌按每次50个租借用20次，耗尽后的一次被拒绝并在本地缓存拒绝结果
+            double redisCalls = meterRegistry.counter("chatglm.ratelimit.redis.calls").count();
+            assertEquals(21, redisCalls);
+            assertTrue(redisCalls / (threads * attemptsPerThread) < 0.01);
+            assertEquals(threads * attemptsPerThread - 1000 - 1,
+                    meterRegistry.counter("chatglm.ratelimit.decisions", "source", "local", "result", "rejected").count());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testTryAcquire_RenewsLeaseAfterExpiryAndRetriesAfterRejection() {
+        redisTokens.set(20);
+        LeasedRateLimiter leased = limiter(0.5);
+
+        assertTrue(leased.tryAcquire("ip", 20, 1).isAllowed());
+        assertEquals(10, redisTokens.get());
+        // 租约过期后剩余的本地令牌作废，重新租借
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertTrue(leased.tryAcquire("ip", 20, 1).isAllowed());
+        assertEquals(0, redisTokens.get());
+        for (int i = 0; i < 9; i++) {
+            assertTrue(leased.tryAcquire("ip", 20, 1).isAllowed());
+        }
+
+        RateLimiter.Result rejected = leased.tryAcquire("ip", 20, 1);
+        assertFalse(rejected.isAllowed());
+        assertEquals(1000, rejected.getRetryAfterMillis());
+        assertEquals(3, meterRegistry.counter("chatglm.ratelimit.redis.calls").count());
+
+        // 等待期间在本地拒绝，不访问Redis
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(400));
+        RateLimiter.Result cached = leased.tryAcquire("ip", 20, 1);
+        assertFalse(cached.isAllowed());
+        assertEquals(600, cached.getRetryAfterMillis());
+        assertEquals(3, meterRegistry.counter("chatglm.ratelimit.redis.calls").count());
+
+        redisTokens.set(1);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        assertTrue(leased.tryAcquire("ip", 20, 1).isAllowed());
+        verify(rateLimiter, times(4)).lease("ip", 20, 1.0, 10);
+    }
+
+    @Test
+    void testLeaseSize_ScalesWithCapacity() {
+        LeasedRateLimiter leased = limiter(0.1);
+
+        assertEquals(1, leased.leaseSize(5));
+        assertEquals(10, leased.leaseSize(100));
+        assertEquals(50, leased.leaseSize(100000));
+        assertEquals(1, limiter(0).leaseSize(100000));
+    }
+}
@@ -0,0 +1,116 @@
+package com.chatglm.webapp.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶限流延迟基准，需要本机Redis（-Dtest.redis.host / -Dtest.redis.port）
+ * legacy为原来读两次、写两次的实现，lua为单次EVALSHA的实现，leased为本地租借令牌的两级实现；
+ * 使用采样模式输出延迟分位数，结束时输出leased每个请求平均访问Redis的次数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    private static final int KEYS = 1000;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate template;
+    private RateLimiter rateLimiter;
+    private SimpleMeterRegistry meterRegistry;
+    private LeasedRateLimiter leasedRateLimiter;
+
+    @Setup
+    public void setUp() {
+        factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                System.getProperty("test.redis.host", "localhost"), Integer.getInteger("test.redis.port", 6379)));
+        factory.afterPropertiesSet();
+        template = new StringRedisTemplate(factory);
+        template.afterPropertiesSet();
+        rateLimiter = new RateLimiter(template);
+        rateLimiter.loadScripts();
+        meterRegistry = new SimpleMeterRegistry();
+        leasedRateLimiter = new LeasedRateLimiter(rateLimiter, meterRegistry, 0.1, 50, 1000, 100000);
+    }
+
+    @TearDown
+    public void tearDown() {
+        double requests = meterRegistry.find("chatglm.ratelimit.decisions").counters().stream()
+                .mapToDouble(Counter::count).sum();
+        if (requests > 0) {
+            System.out.printf("%nleased: %.0f requests, %.4f Redis calls per request%n", requests,
+                    meterRegistry.counter("chatglm.ratelimit.redis.calls").count() / requests);
+        }
+        factory.destroy();
+    }
+
+    @Benchmark
+    public boolean lua() {
+        return rateLimiter.tryAcquire("bench:" + nextKey(), 100, 10, 1).isAllowed();
+    }
+
+    @Benchmark
+    public boolean leased() {
+        return leasedRateLimiter.tryAcquire("bench:" + nextKey(), 100, 10).isAllowed();
+    }
+
+    @Benchmark
+    public boolean legacy() {
+        String key = "bench:" + nextKey();
+        String tokenKey = "rate_limit:token:" + key;
+        String timestampKey = "rate_limit:timestamp:" + key;
+        long now = System.currentTimeMillis();
+
+        String tokenValue = template.opsForValue().get(tokenKey);
+        int currentTokens = tokenValue != null ? Integer.parseInt(tokenValue) : 100;
+        String timestampValue = template.opsForValue().get(timestampKey);
+        long lastRefill = timestampValue != null ? Long.parseLong(timestampValue) : now;
+
+        int tokensToAdd = (int) ((now - lastRefill) * 10 / 1000);
+        if (tokensToAdd > 0) {
+            currentTokens = Math.min(100, currentTokens + tokensToAdd);
+            template.opsForValue().set(timestampKey, String.valueOf(now), 1, TimeUnit.HOURS);
+        }
+        if (currentTokens > 0) {
+            template.opsForValue().set(tokenKey, String.valueOf(currentTokens - 1), 1, TimeUnit.HOURS);
+            return true;
+        }
+        return false;
+    }
+
+    private static int nextKey() {
+        return ThreadLocalRandom.current().nextInt(KEYS);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RateLimiterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,166 @@
+package com.chatglm.webapp.util;
+
+import com.chatglm.webapp.support.LocalRedis;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * RateLimiter测试
+ * 脚本调用参数和结果解析使用Mock验证；并发正确性需要真实Redis，本机没有Redis时跳过
+ */
+class RateLimiterTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testTryAcquire_PassesBucketArgumentsAndParsesReply() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.execute(eq(RateLimiter.TOKEN_BUCKET_SCRIPT), anyList(), any(Object[].class)))
+                .thenReturn(List.of(0L, 0L, 1500L, 10000L));
+
+        RateLimiter.Result result = new RateLimiter(template).tryAcquire("user:1", 5, 0.5, 2);
+
+        assertFalse(result.isAllowed());
+        assertEquals(0, result.getRemaining());
+        assertEquals(1500, result.getRetryAfterMillis());
+        assertEquals(10000, result.getResetMillis());
+        verify(template).execute(RateLimiter.TOKEN_BUCKET_SCRIPT, List.of("rate_limit:bucket:user:1"), "5", "0.5", "2", "2");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testAllowRequestSimple_SendsWindowInMillis() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.execute(eq(RateLimiter.FIXED_WINDOW_SCRIPT), anyList(), any(Object[].class)))
+                .thenReturn(List.of(1L, 0L, 0L, 59000L), List.of(0L, 0L, 58000L, 58000L));
+        RateLimiter rateLimiter = new RateLimiter(template);
+
+        assertTrue(rateLimiter.allowRequestSimple("ip", 3, 60));
+        assertFalse(rateLimiter.allowRequestSimple("ip", 3, 60));
+        verify(template, times(2)).execute(RateLimiter.FIXED_WINDOW_SCRIPT, List.of("rate_limit:counter:ip"), "60000", "3");
+    }
+
+    @Test
+    void testTryAcquire_ConcurrentCallersNeverOverdrawBucket() throws Exception {
+        LettuceConnectionFactory factory = LocalRedis.connectOrSkip();
+        StringRedisTemplate template = LocalRedis.template(factory);
+        RateLimiter rateLimiter = new RateLimiter(template);
+        rateLimiter.loadScripts();
+        String key = "test:" + UUID.randomUUID();
+        int threads = 16;
+        int attemptsPerThread = 50;
+        // 补充速率很低，测试期间补充的令牌可以忽略
+        int capacity = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    int allowed = 0;
+                    for (int i = 0; i < attemptsPerThread; i++) {
+                        if (rateLimiter.tryAcquire(key, capacity, 0.001, 1).isAllowed()) {
+                            allowed++;
+                        }
+                    }
+                    return allowed;
+                }));
+            }
+            start.countDown();
+            int allowed = 0;
+            for (Future<Integer> future : futures) {
+                allowed += future.get(30, TimeUnit.SECONDS);
+            }
+
+            assertEquals(capacity, allowed);
+            RateLimiter.Result rejected = rateLimiter.tryAcquire(key, capacity, 0.001, 1);
+            assertFalse(rejected.isAllowed());
+            assertEquals(0, rejected.getRemaining());
+            assertTrue(rejected.getRetryAfterMillis() > 0);
+            assertEquals(-1, rateLimiter.tryAcquire(key, capacity, 0.001, capacity + 1).getRetryAfterMillis());
+        } finally {
+            executor.shutdownNow();
+            template.delete("rate_limit:bucket:" + key);
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void testAllowRequestSimple_CounterAlwaysExpires() {
+        LettuceConnectionFactory factory = LocalRedis.connectOrSkip();
+        StringRedisTemplate template = LocalRedis.template(factory);
+        String key = "test:" + UUID.randomUUID();
+        String counterKey = "rate_limit:counter:" + key;
+        try {
+            RateLimiter rateLimiter = new RateLimiter(template);
+            // 模拟旧实现INCR之后未能设置过期时间留下的计数器
+            template.opsForValue().set(counterKey, "1");
+
+            assertTrue(rateLimiter.allowRequestSimple(key, 5, 60));
+            Long ttl = template.getExpire(counterKey, TimeUnit.MILLISECONDS);
+            assertNotNull(ttl);
+            assertTrue(ttl > 0 && ttl <= 60000);
+            assertEquals(3, rateLimiter.getRemainingRequests(key, 5));
+        } finally {
+            template.delete(counterKey);
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void testSlidingWindow_RejectsBurstAcrossWindowEdge() {
+        LettuceConnectionFactory factory = LocalRedis.connectOrSkip();
+        StringRedisTemplate template = LocalRedis.template(factory);
+        String key = "test:" + UUID.randomUUID();
+        try {
+            RateLimiter rateLimiter = new RateLimiter(template);
+            for (int i = 0; i < 5; i++) {
+                RateLimiter.Result result = rateLimiter.slidingWindow(key, 5, 60);
+                assertTrue(result.isAllowed());
+                assertEquals(4 - i, result.getRemaining());
+            }
+            RateLimiter.Result rejected = rateLimiter.slidingWindow(key, 5, 60);
+            assertFalse(rejected.isAllowed());
+            assertTrue(rejected.getRetryAfterMillis() > 0);
+            assertTrue(rejected.getResetMillis() <= 60000);
+        } finally {
+            template.delete("rate_limit:sliding:" + key);
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void testGcra_SpacesRequestsAfterBurst() {
+        LettuceConnectionFactory factory = LocalRedis.connectOrSkip();
+        StringRedisTemplate template = LocalRedis.template(factory);
+        String key = "test:" + UUID.randomUUID();
+        try {
+            RateLimiter rateLimiter = new RateLimiter(template);
+            assertEquals(1, rateLimiter.gcra(key, 5, 60, 2).getRemaining());
+            assertEquals(0, rateLimiter.gcra(key, 5, 60, 2).getRemaining());
+            RateLimiter.Result rejected = rateLimiter.gcra(key, 5, 60, 2);
+            assertFalse(rejected.isAllowed());
+            // 每12秒放行一个请求
+            assertTrue(rejected.getRetryAfterMillis() > 11000 && rejected.getRetryAfterMillis() <= 12000);
+        } finally {
+            template.delete("rate_limit:gcra:" + key);
+            factory.destroy();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.chatglm.webapp.util;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * StreamSlotLimiter单元测试
+ */
+class StreamSlotLimiterTest {
+
+    private static final String KEY = "rate_limit:streams:user:alice";
+
+    private RateLimiter rateLimiter;
+    private StringRedisTemplate stringRedisTemplate;
+    private ZSetOperations<String, String> zSetOperations;
+    private SimpleMeterRegistry meterRegistry;
+    private StreamSlotLimiter streamSlotLimiter;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        rateLimiter = mock(RateLimiter.class);
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        zSetOperations = mock(ZSetOperations.class);
+        when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        meterRegistry = new SimpleMeterRegistry();
+        streamSlotLimiter = new StreamSlotLimiter(rateLimiter, stringRedisTemplate, meterRegistry, 3, 30000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void testAcquire_TakesSlotAndReleasesItOnce() {
+        when(rateLimiter.evaluate(eq(RateLimiter.STREAM_SLOT_ACQUIRE_SCRIPT), anyList(), any(String[].class)))
+                .thenReturn(List.of(1L, 1L, 0L));
+
+        StreamSlotLimiter.Slot slot = streamSlotLimiter.acquire("user:alice");
+        assertEquals(1, meterRegistry.get("chatglm.stream.slots.open").gauge().value());
+
+        slot.release();
+        slot.release();
+
+        verify(rateLimiter).evaluate(eq(RateLimiter.STREAM_SLOT_ACQUIRE_SCRIPT), eq(List.of(KEY)),
+                anyString(), eq("3"), eq("30000"));
+        verify(zSetOperations, times(1)).remove(eq(KEY), any());
+        assertEquals(0, meterRegistry.get("chatglm.stream.slots.open").gauge().value());
+    }
+
+    @Test
+    void testAcquire_TooManyOpenStreamsRejectsWithRetryAfter() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest(), response));
+        when(rateLimiter.evaluate(eq(RateLimiter.STREAM_SLOT_ACQUIRE_SCRIPT), anyList(), any(String[].class)))
+                .thenReturn(List.of(0L, 3L, 12500L));
+
+        ChatGLMException exception = assertThrows(ChatGLMException.class,
+                () -> streamSlotLimiter.acquire("user:alice"));
+
+        assertEquals(429, exception.getCode());
+        assertEquals("13", response.getHeader("Retry-After"));
+        assertEquals(1, meterRegistry.counter("chatglm.stream.slots.rejected").count());
+        assertEquals(0, meterRegistry.get("chatglm.stream.slots.open").gauge().value());
+    }
+
+    @Test
+    void testRenew_ExtendsLeaseOfOpenSlotsInOneCall() {
+        when(rateLimiter.evaluate(eq(RateLimiter.STREAM_SLOT_ACQUIRE_SCRIPT), anyList(), any(String[].class)))
+                .thenReturn(List.of(1L, 1L, 0L));
+        streamSlotLimiter.acquire("user:alice");
+        streamSlotLimiter.acquire("user:bob");
+
+        streamSlotLimiter.renew();
+
+        verify(rateLimiter).evaluate(eq(RateLimiter.STREAM_SLOT_RENEW_SCRIPT), argThat(keys -> keys.size() == 2
+                        && keys.containsAll(List.of(KEY, "rate_limit:streams:user:bob"))),
+                eq("30000"), anyString(), anyString());
+    }
+
+    @Test
+    void testRenew_NoOpenSlotsSkipsRedis() {
+        streamSlotLimiter.renew();
+
+        verifyNoInteractions(rateLimiter);
+    }
+
+    @Test
+    void testAcquire_RedisUnavailableAllowsStream() {
+        when(rateLimiter.evaluate(eq(RateLimiter.STREAM_SLOT_ACQUIRE_SCRIPT), anyList(), any(String[].class)))
+                .thenThrow(new RedisConnectionFailureException("down"));
+
+        StreamSlotLimiter.Slot slot = streamSlotLimiter.acquire("user:alice");
+        slot.release();
+
+        verifyNoInteractions(zSetOperations);
+    }
+}
@@ -0,0 +1,32 @@
+package com.chatglm.webapp.util;
+
+import com.chatglm.webapp.model.ChatGLMModel;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TokenEstimator单元测试
+ */
+class TokenEstimatorTest {
+
+    @Test
+    void testEstimate_CountsCjkCharactersWordsAndSymbols() {
+        assertEquals(0, TokenEstimator.estimate((String) null));
+        assertEquals(4, TokenEstimator.estimate("机器学习"));
+        // "hello"占2个token，"world"占2个token，逗号1个
+        assertEquals(5, TokenEstimator.estimate("hello, world"));
+        assertEquals(4 + 2 + 1, TokenEstimator.estimate("你好世界 Redis？"));
+    }
+
+    @Test
+    void testEstimate_AddsPerMessageOverhead() {
+        List<ChatGLMModel.Message> messages = List.of(
+                new ChatGLMModel.Message("system", "你是助手"),
+                new ChatGLMModel.Message("user", "你好"));
+
+        assertEquals(3 + (4 + 4) + (4 + 2), TokenEstimator.estimate(messages));
+    }
+}
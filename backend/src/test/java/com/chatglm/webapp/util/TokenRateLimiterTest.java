@@ -0,0 +1,130 @@
+package com.chatglm.webapp.util;
+
+import com.chatglm.webapp.exception.ChatGLMException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * TokenRateLimiter单元测试
+ */
+class TokenRateLimiterTest {
+
+    private static final List<String> KEYS = List.of("rate_limit:tpm:user:1", "rate_limit:tpm:global");
+
+    private RateLimiter rateLimiter;
+    private SimpleMeterRegistry meterRegistry;
+    private TokenRateLimiter tokenRateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        rateLimiter = mock(RateLimiter.class);
+        meterRegistry = new SimpleMeterRegistry();
+        tokenRateLimiter = new TokenRateLimiter(rateLimiter, meterRegistry, true, 6000, 60000, 2000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void testReserve_ReservesPromptPlusMaxTokensAndRefundsDifferenceOnce() {
+        when(rateLimiter.evaluate(eq(RateLimiter.TOKEN_RESERVE_SCRIPT), anyList(), any(String[].class)))
+                .thenReturn(List.of(1L, 0L, 0L));
+
+        TokenRateLimiter.Reservation reservation = tokenRateLimiter.reserve(TokenRateLimiter.userSubject(1L), 300);
+        reservation.settle(800);
+        reservation.settle(800);
+
+        assertEquals(2300, reservation.getReservedTokens());
+        verify(rateLimiter).evaluate(RateLimiter.TOKEN_RESERVE_SCRIPT, KEYS, "2300", "6000", "100.0", "60000", "1000.0");
+        verify(rateLimiter, times(1)).evaluate(RateLimiter.TOKEN_REFUND_SCRIPT, KEYS, "1500", "6000", "100.0", "60000", "1000.0");
+        assertEquals(1500, meterRegistry.counter("chatglm.ratelimit.tpm.refunded").count());
+    }
+
+    @Test
+    void testSettle_ChargesUsageBeyondReservation() {
+        when(rateLimiter.evaluate(eq(RateLimiter.TOKEN_RESERVE_SCRIPT), anyList(), any(String[].class)))
+                .thenReturn(List.of(1L, 0L, 0L));
+
+        tokenRateLimiter.reserve(TokenRateLimiter.userSubject(1L), 100).settle(2500);
+
+        verify(rateLimiter).evaluate(RateLimiter.TOKEN_REFUND_SCRIPT, KEYS, "-400", "6000", "100.0", "60000", "1000.0");
+        assertEquals(0, meterRegistry.counter("chatglm.ratelimit.tpm.refunded").count());
+    }
+
+    @Test
+    void testReserve_GlobalQuotaExhaustedRejectsWithRetryAfter() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest(), response));
+        when(rateLimiter.evaluate(eq(RateLimiter.TOKEN_RESERVE_SCRIPT), anyList(), any(String[].class)))
+                .thenReturn(List.of(0L, 4200L, 2L));
+
+        ChatGLMException exception = assertThrows(ChatGLMException.class,
+                () -> tokenRateLimiter.reserve(TokenRateLimiter.userSubject(1L), 100));
+
+        assertEquals(429, exception.getCode());
+        assertEquals("5", response.getHeader("Retry-After"));
+        assertEquals(1, meterRegistry.counter("chatglm.ratelimit.tpm.rejected", "scope", "global").count());
+        verify(rateLimiter, never()).evaluate(eq(RateLimiter.TOKEN_REFUND_SCRIPT), anyList(), any(String[].class));
+    }
+
+    @Test
+    void testReserve_RedisFailureLetsRequestThrough() {
+        when(rateLimiter.evaluate(eq(RateLimiter.TOKEN_RESERVE_SCRIPT), anyList(), any(String[].class)))
+                .thenThrow(new RedisConnectionFailureException("down"));
+
+        TokenRateLimiter.Reservation reservation = tokenRateLimiter.reserve(TokenRateLimiter.userSubject(1L), 100);
+        reservation.settle(50);
+
+        assertEquals(0, reservation.getReservedTokens());
+        verify(rateLimiter, never()).evaluate(eq(RateLimiter.TOKEN_REFUND_SCRIPT), anyList(), any(String[].class));
+    }
+
+    @Test
+    void testReserve_UsersHaveSeparateBuckets() {
+        // 按key记录已用额度的简化桶，不考虑回填
+        tokenRateLimiter = new TokenRateLimiter(rateLimiter, meterRegistry, true, 6000, 0, 2000);
+        Map<String, Long> used = new HashMap<>();
+        when(rateLimiter.evaluate(eq(RateLimiter.TOKEN_RESERVE_SCRIPT), anyList(), any(String[].class)))
+                .thenAnswer(invocation -> {
+                    List<String> keys = invocation.getArgument(1);
+                    long amount = Long.parseLong(invocation.getArgument(2));
+                    long capacity = Long.parseLong(invocation.getArgument(3));
+                    String key = keys.get(0);
+                    if (used.getOrDefault(key, 0L) + amount > capacity) {
+                        return List.of(0L, 1000L, 1L);
+                    }
+                    used.merge(key, amount, Long::sum);
+                    return List.of(1L, 0L, 0L);
+                });
+
+        tokenRateLimiter.reserve(TokenRateLimiter.userSubject(1L), 100);
+        tokenRateLimiter.reserve(TokenRateLimiter.userSubject(1L), 100);
+        assertThrows(ChatGLMException.class, () -> tokenRateLimiter.reserve(TokenRateLimiter.userSubject(1L), 100));
+
+        TokenRateLimiter.Reservation other = tokenRateLimiter.reserve(TokenRateLimiter.userSubject(2L), 100);
+
+        assertEquals(2100, other.getReservedTokens());
+        assertEquals(1, meterRegistry.counter("chatglm.ratelimit.tpm.rejected", "scope", "user").count());
+        verify(rateLimiter).evaluate(RateLimiter.TOKEN_RESERVE_SCRIPT,
+                List.of("rate_limit:tpm:user:2"), "2100", "6000", "100.0");
+    }
+}
@@ -1,4 +1,5 @@
 import { createRouter, createWebHistory } from 'vue-router'
+import { clearTokens } from '../utils/api'
 
 const router = createRouter({
   history: createWebHistory(import.meta.env.BASE_URL),
@@ -52,13 +53,13 @@ router.beforeEach(async (to, from, next) => {
         return
       } else {
         // token无效，清除并跳转到登录页
-        localStorage.removeItem('chatglm_token')
+        clearTokens()
         next('/login')
         return
       }
     } catch (error) {
       // 请求失败，清除token并跳转到登录页
-      localStorage.removeItem('chatglm_token')
+      clearTokens()
       next('/login')
       return
     }
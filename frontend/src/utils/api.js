@@ -9,16 +9,75 @@ const api = axios.create({
   }
 })
 
+// 访问token有效期很短，过期前用刷新token换发；同时发起的多个请求共用同一次换发
+let refreshPromise = null
+
+// 保存登录或换发返回的token
+export const saveTokens = (data) => {
+  localStorage.setItem('chatglm_token', data.token)
+  localStorage.setItem('chatglm_token_expires_at', String(Date.now() + data.expiresIn * 1000))
+  if (data.refreshToken) {
+    localStorage.setItem('chatglm_refresh_token', data.refreshToken)
+  }
+}
+
+// 清除本地保存的全部token
+export const clearTokens = () => {
+  localStorage.removeItem('chatglm_token')
+  localStorage.removeItem('chatglm_token_expires_at')
+  localStorage.removeItem('chatglm_refresh_token')
+}
+
+// 用刷新token换发访问token，刷新token同时更换，旧的立即失效
+export const refreshAccessToken = () => {
+  if (!refreshPromise) {
+    const refreshToken = localStorage.getItem('chatglm_refresh_token')
+    const request = refreshToken
+      ? fetch('/api/auth/refresh', {
+          method: 'POST',
+          headers: { 'Content-Type': 'application/json' },
+          body: JSON.stringify({ refreshToken })
+        })
+          .then(response => response.json())
+          .then(body => {
+            if (body.code !== 200) {
+              throw new Error(body.message || '登录已过期，请重新登录')
+            }
+            saveTokens(body.data)
+            return body.data.token
+          })
+      : Promise.reject(new Error('登录已过期，请重新登录'))
+    refreshPromise = request.finally(() => {
+      refreshPromise = null
+    })
+  }
+  return refreshPromise
+}
+
+// 返回可用的访问token，30秒内过期时先换发
+const getValidToken = async () => {
+  const token = localStorage.getItem('chatglm_token')
+  const expiresAt = Number(localStorage.getItem('chatglm_token_expires_at') || 0)
+  if (token && localStorage.getItem('chatglm_refresh_token') && expiresAt - Date.now() < 30000) {
+    try {
+      return await refreshAccessToken()
+    } catch (error) {
+      // 换发失败时仍使用原token，由服务端返回401后跳转登录页
+      return token
+    }
+  }
+  return token
+}
+
 // 请求拦截器
 api.interceptors.request.use(
-  config => {
-    // 登录请求不需要添加token
-    if (config.url === '/auth/login') {
+  async config => {
+    // 登录和换发请求不需要添加token
+    if (config.url === '/auth/login' || config.url === '/auth/refresh') {
       return config
     }
 
-    // 从localStorage获取token
-    const token = localStorage.getItem('chatglm_token')
+    const token = await getValidToken()
     if (token) {
       config.headers.Authorization = `Bearer ${token}`
     }
@@ -43,6 +102,21 @@ api.interceptors.response.use(
     return response.data
   },
   error => {
+    // 访问token失效时换发一次后重试
+    const config = error.config
+    if (error.response && (error.response.status === 401 || error.response.status === 403)
+        && config && !config._retried && config.url !== '/auth/login'
+        && localStorage.getItem('chatglm_refresh_token')) {
+      config._retried = true
+      return refreshAccessToken()
+        .then(() => api(config))
+        .catch(() => {
+          clearTokens()
+          window.location.href = '/login'
+          return Promise.reject(new Error('登录已过期，请重新登录'))
+        })
+    }
+
     // 统一处理错误
     let message = '网络错误，请稍后重试'
     if (error.response) {
@@ -51,14 +125,14 @@ api.interceptors.response.use(
         case 401:
           message = '未授权，请重新登录'
           // 清除本地token
-          localStorage.removeItem('chatglm_token')
+          clearTokens()
           // 重定向到登录页
           window.location.href = '/login'
           break
         case 403:
           message = '登录已过期，请重新登录'
           // 清除本地token
-          localStorage.removeItem('chatglm_token')
+          clearTokens()
           // 重定向到登录页
           window.location.href = '/login'
           break
@@ -101,7 +175,8 @@ export const chatAPI = {
 
     // 退出登录
     logout: () => {
-      return api.post('/auth/logout')
+      // 同时作废刷新token
+      return api.post('/auth/logout', { refreshToken: localStorage.getItem('chatglm_refresh_token') })
     }
   },
   
@@ -120,11 +195,9 @@ export const chatAPI = {
       controller = new AbortController();
       const { signal } = controller;
       
-      // 从localStorage获取token
-      const token = localStorage.getItem('chatglm_token');
-      
-      // 使用fetch API进行流式请求
-      fetch('/api/chat/stream', {
+      // 获取可用的访问token后使用fetch API进行流式请求
+      getValidToken()
+      .then(token => fetch('/api/chat/stream', {
         method: 'POST',
         headers: {
           'Content-Type': 'application/json',
@@ -133,13 +206,13 @@ export const chatAPI = {
         },
         body: JSON.stringify(data),
         signal // 用于中止请求
-      })
+      }))
       .then(response => {
         if (!response.ok) {
           // 处理401和403错误（未授权和令牌过期）
           if (response.status === 401 || response.status === 403) {
             // 清除本地token
-            localStorage.removeItem('chatglm_token')
+            clearTokens()
             // 重定向到登录页
             window.location.href = '/login'
             throw new Error('登录已过期，请重新登录')